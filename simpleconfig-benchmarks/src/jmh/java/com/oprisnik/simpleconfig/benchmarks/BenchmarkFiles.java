@@ -0,0 +1,154 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the configuration files and string lists used by the benchmarks.
+ * Everything is generated from a fixed seed, so runs are comparable.
+ */
+final class BenchmarkFiles {
+
+    static final String NODE = "node";
+    static final String VALUE = "value";
+    static final String NUMBER = "number";
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Write a configuration with a chain of nested {@link #NODE} elements. Every level has a
+     * {@link #VALUE}, a {@link #NUMBER} and the given number of sibling elements.
+     *
+     * @param depth    the number of nested nodes
+     * @param siblings the number of additional elements per level
+     * @return the temporary file, deleted on exit
+     * @throws IOException if the file could not be written
+     */
+    static File writeNestedConfig(int depth, int siblings) throws IOException {
+        StringBuilder xml = new StringBuilder("<config>\n");
+        for (int level = 0; level <= depth; level++) {
+            for (int i = 0; i < siblings; i++) {
+                xml.append("<sibling").append(i).append(">").append(level).append("</sibling").append(i).append(">\n");
+            }
+            xml.append("<").append(VALUE).append(">value").append(level).append("</").append(VALUE).append(">\n");
+            xml.append("<").append(NUMBER).append(">").append(level).append("</").append(NUMBER).append(">\n");
+            if (level < depth) {
+                xml.append("<").append(NODE).append(">\n");
+            }
+        }
+        for (int level = 0; level < depth; level++) {
+            xml.append("</").append(NODE).append(">\n");
+        }
+        xml.append("</config>\n");
+        return write(xml);
+    }
+
+    /**
+     * @param depth the number of nested nodes
+     * @return the key of the innermost node, for example "node.node" for depth 2
+     */
+    static String nestedKey(int depth) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                key.append('.');
+            }
+            key.append(NODE);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Write a flat configuration with the given number of entries that have a name and a value each.
+     *
+     * @param entries the number of entries
+     * @return the temporary file, deleted on exit
+     * @throws IOException if the file could not be written
+     */
+    static File writeFlatConfig(int entries) throws IOException {
+        Random random = new Random(entries);
+        StringBuilder xml = new StringBuilder("<config>\n");
+        for (int i = 0; i < entries; i++) {
+            xml.append("<entry").append(i).append(" enabled=\"").append(random.nextBoolean()).append("\">\n");
+            xml.append("<name>").append(randomString(random, 8, 24)).append("</name>\n");
+            xml.append("<value>").append(random.nextInt()).append("</value>\n");
+            xml.append("</entry").append(i).append(">\n");
+        }
+        xml.append("</config>\n");
+        return write(xml);
+    }
+
+    /**
+     * Write a configuration with a {@link com.oprisnik.simpleconfig.utils.StringList} component.
+     *
+     * @param key     the key of the component
+     * @param strings the strings of the list
+     * @return the temporary file, deleted on exit
+     * @throws IOException if the file could not be written
+     */
+    static File writeComponentConfig(String key, List<String> strings) throws IOException {
+        StringBuilder xml = new StringBuilder("<config>\n");
+        xml.append("<").append(key).append(" class=\"com.oprisnik.simpleconfig.utils.StringList\">\n<list>\n");
+        for (String s : strings) {
+            xml.append("<string>").append(s).append("</string>\n");
+        }
+        xml.append("</list>\n</").append(key).append(">\n</config>\n");
+        return write(xml);
+    }
+
+    /**
+     * @return random lower case strings
+     */
+    static List<String> randomStrings(Random random, int count, int minLength, int maxLength) {
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(randomString(random, minLength, maxLength));
+        }
+        return strings;
+    }
+
+    static String randomString(Random random, int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static File write(CharSequence content) throws IOException {
+        File file = File.createTempFile("simpleconfig-benchmark", ".xml");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.append(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
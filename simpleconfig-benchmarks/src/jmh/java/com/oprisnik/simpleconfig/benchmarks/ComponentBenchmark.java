@@ -0,0 +1,66 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.ConfigFactory;
+import com.oprisnik.simpleconfig.utils.StringList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Component creation with and without initialization. The component is a {@link StringList},
+ * so the cost of {@link Config#getComponentAndInit(String, Class)} grows with the number of strings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ComponentBenchmark {
+
+    private static final String KEY = "component";
+
+    @Param({"0", "16", "256"})
+    public int strings;
+
+    private Config mConfig;
+
+    @Setup
+    public void setUp() throws Exception {
+        mConfig = ConfigFactory.fromFile(BenchmarkFiles.writeComponentConfig(KEY,
+                BenchmarkFiles.randomStrings(new Random(strings), strings, 4, 16)));
+    }
+
+    @Benchmark
+    public StringList getComponent() throws Exception {
+        return mConfig.getComponent(KEY, StringList.class);
+    }
+
+    @Benchmark
+    public StringList getComponentAndInit() throws Exception {
+        return mConfig.getComponentAndInit(KEY, StringList.class);
+    }
+}
@@ -0,0 +1,57 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse time of {@link ConfigFactory#fromFile(File)} against the file size.
+ * Every entry adds about 80 bytes to the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigParseBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int entries;
+
+    private File mFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFile = BenchmarkFiles.writeFlatConfig(entries);
+    }
+
+    @Benchmark
+    public Config fromFile() throws Exception {
+        return ConfigFactory.fromFile(mFile);
+    }
+}
@@ -0,0 +1,99 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.ConfigFactory;
+import com.oprisnik.simpleconfig.utils.StringList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads under contention: seven reader threads share a {@link Config} (or a {@link StringList})
+ * with one thread that writes (or re-initializes the list) at the same time.
+ * ConfigStressTest checks the consistency of the same workloads.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContendedConfigBenchmark {
+
+    private static final String LIST = "list";
+
+    private Config mConfig;
+    private String mValueKey;
+    private StringList mList;
+    private String mQuery;
+    private Config mListA;
+    private Config mListB;
+    private final AtomicLong mWrites = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        mConfig = ConfigFactory.fromFile(BenchmarkFiles.writeNestedConfig(4, 8));
+        mValueKey = BenchmarkFiles.nestedKey(4) + "." + BenchmarkFiles.VALUE;
+        Random random = new Random(1);
+        List<String> strings = BenchmarkFiles.randomStrings(random, 1000, 8, 16);
+        mQuery = strings.get(0);
+        mListA = ConfigFactory.fromFile(BenchmarkFiles.writeComponentConfig(LIST, strings)).getSubconfig(LIST);
+        mListB = ConfigFactory.fromFile(BenchmarkFiles.writeComponentConfig(LIST,
+                BenchmarkFiles.randomStrings(random, 1000, 8, 16))).getSubconfig(LIST);
+        mList = new StringList();
+        mList.init(mListA);
+    }
+
+    @Benchmark
+    @Group("config")
+    @GroupThreads(7)
+    public String read() {
+        return mConfig.getProperty(mValueKey);
+    }
+
+    @Benchmark
+    @Group("config")
+    @GroupThreads(1)
+    public void write() {
+        mConfig.setProperty("counter", Long.toString(mWrites.incrementAndGet()));
+    }
+
+    @Benchmark
+    @Group("stringList")
+    @GroupThreads(7)
+    public boolean contains() {
+        return mList.contains(mQuery);
+    }
+
+    @Benchmark
+    @Group("stringList")
+    @GroupThreads(1)
+    public void reload() throws Exception {
+        mList.init((mWrites.incrementAndGet() & 1) == 0 ? mListA : mListB);
+    }
+}
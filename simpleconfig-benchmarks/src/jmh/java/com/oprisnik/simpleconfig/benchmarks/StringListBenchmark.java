@@ -0,0 +1,96 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import com.oprisnik.simpleconfig.utils.StringList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StringList} lookups against the size of the list. Half of the queries hit the list.
+ * The checkContains queries are 64 random characters, so they are scanned completely most of the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StringListBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private StringList mList;
+    private String[] mContainsQueries;
+    private String[] mPrefixQueries;
+    private String[] mTextQueries;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        List<String> strings = BenchmarkFiles.randomStrings(random, size, 8, 16);
+        mList = new StringList();
+        mList.addAll(strings);
+        mContainsQueries = new String[QUERIES];
+        mPrefixQueries = new String[QUERIES];
+        mTextQueries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String hit = strings.get(random.nextInt(size));
+            boolean miss = (i & 1) == 1;
+            mContainsQueries[i] = miss ? BenchmarkFiles.randomString(random, 8, 16) : hit;
+            mPrefixQueries[i] = (miss ? BenchmarkFiles.randomString(random, 8, 16) : hit) + "/suffix";
+            String text = BenchmarkFiles.randomString(random, 64, 64);
+            mTextQueries[i] = miss ? text : text.substring(0, 32) + hit + text.substring(32);
+        }
+        // build the lazy lookup structures outside of the measurement
+        mList.contains(mContainsQueries[0]);
+        mList.checkPrefix(mPrefixQueries[0]);
+        mList.checkContains(mTextQueries[0]);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return mList.contains(mContainsQueries[next()]);
+    }
+
+    @Benchmark
+    public boolean checkPrefix() {
+        return mList.checkPrefix(mPrefixQueries[next()]);
+    }
+
+    @Benchmark
+    public boolean checkContains() {
+        return mList.checkContains(mTextQueries[next()]);
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) & (QUERIES - 1);
+        return mIndex;
+    }
+}
@@ -0,0 +1,112 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.benchmarks;
+
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Property, int and subconfig lookups and key iteration of {@link com.oprisnik.simpleconfig.XmlConfig}
+ * at several tree depths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class XmlConfigBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private Config mConfig;
+    private Config mSubconfig;
+    private String mNodeKey;
+    private String mValueKey;
+    private String mNumberKey;
+    private final Counter mCounter = new Counter();
+
+    @Setup
+    public void setUp() throws Exception {
+        mConfig = ConfigFactory.fromFile(BenchmarkFiles.writeNestedConfig(depth, 8));
+        mNodeKey = BenchmarkFiles.nestedKey(depth);
+        mValueKey = mNodeKey + "." + BenchmarkFiles.VALUE;
+        mNumberKey = mNodeKey + "." + BenchmarkFiles.NUMBER;
+        mSubconfig = mConfig.getSubconfig(mNodeKey);
+        if (mConfig.getInt(mNumberKey, -1) != depth) {
+            throw new IllegalStateException("Unexpected config for depth " + depth);
+        }
+    }
+
+    @Benchmark
+    public String getProperty() {
+        return mConfig.getProperty(mValueKey);
+    }
+
+    @Benchmark
+    public int getInt() {
+        return mConfig.getInt(mNumberKey, 0);
+    }
+
+    @Benchmark
+    public Config getSubconfig() {
+        return mConfig.getSubconfig(mNodeKey);
+    }
+
+    @Benchmark
+    public String getPropertyOfSubconfig() {
+        return mSubconfig.getProperty(BenchmarkFiles.VALUE);
+    }
+
+    @Benchmark
+    public int keysOfSubtree() {
+        int length = 0;
+        Iterator<String> keys = mConfig.keys(mNodeKey);
+        while (keys.hasNext()) {
+            length += keys.next().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int forEachOfSubtree() {
+        mCounter.mLength = 0;
+        mConfig.forEach(mNodeKey, mCounter);
+        return mCounter.mLength;
+    }
+
+    private static final class Counter implements BiConsumer<String, String> {
+
+        int mLength;
+
+        @Override
+        public void accept(String key, String value) {
+            mLength += key.length() + value.length();
+        }
+    }
+}
@@ -0,0 +1,880 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.apache.commons.configuration.PropertyConverter;
+import org.apache.commons.configuration.tree.ConfigurationNode;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compact, read-mostly XML configuration for processes that hold many configurations at once.
+ * <p/>
+ * The configuration is parsed like {@link XmlConfig} and then stored in a few flat arrays instead of
+ * node objects: per node, a name, a value and the range of its children, which are sorted by name for
+ * a binary search. Names and values are interned in a {@link StringPool} that is shared by all
+ * configurations, so key names, class names and common values are stored only once per process.
+ * Use {@link #getRetainedBytes()} to estimate the memory used by a configuration.
+ * <p/>
+ * Keys use the same syntax as {@link XmlConfig}, e.g. "a.b(1).c[@attr]". Unlike {@link XmlConfig},
+ * {@link #getProperty(String)} returns the first value if a key matches more than one node,
+ * and variables are not interpolated, use a {@link LayeredConfig} for that.
+ * {@link #setProperty(String, String)} copies the arrays, so writes are expensive while lookups never block.
+ */
+public class CompactConfig extends Config {
+
+    private static final String ATTRIBUTE_PREFIX = "@";
+    private static final String DEFAULT_ROOT = "configuration";
+    private static final char LIST_DELIMITER = ',';
+    private static final int[] NONE = new int[0];
+
+    private final CompactConfig mRoot;
+    private final String mPrefix;
+
+    // only used by the root
+    private final StringPool mPool;
+    private final File mFile;
+    private volatile Tree mTree;
+
+    /**
+     * Node of a subconfig in the current tree of the root.
+     */
+    private volatile SubconfigNode mNode;
+
+    /**
+     * Copy the given configuration, using the default string pool.
+     *
+     * @param config the configuration to copy
+     */
+    public CompactConfig(XmlConfig config) {
+        this(config, StringPool.getDefault());
+    }
+
+    /**
+     * Copy the given configuration.
+     *
+     * @param config the configuration to copy
+     * @param pool   the pool for names and values
+     */
+    public CompactConfig(XmlConfig config, StringPool pool) {
+        mRoot = this;
+        mPrefix = "";
+        mPool = pool;
+        mFile = config.getFile();
+        mTree = Tree.build(Node.copyOf(config.mConfiguration.getRootNode()), pool);
+    }
+
+    /**
+     * Create an empty configuration.
+     *
+     * @param pool the pool for names and values
+     */
+    public CompactConfig(StringPool pool) {
+        mRoot = this;
+        mPrefix = "";
+        mPool = pool;
+        mFile = null;
+        mTree = Tree.build(new Node(null, null), pool);
+    }
+
+    private CompactConfig(CompactConfig root, String prefix) {
+        mRoot = root;
+        mPrefix = prefix;
+        mPool = root.mPool;
+        mFile = root.mFile;
+    }
+
+    /**
+     * Load a configuration file, using the default string pool.
+     *
+     * @param file the configuration file
+     * @return the configuration
+     * @throws BadConfigException    if the file is not a valid configuration
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static CompactConfig fromFile(File file) throws BadConfigException, FileNotFoundException {
+        return fromFile(file, StringPool.getDefault());
+    }
+
+    public static CompactConfig fromFile(File file, StringPool pool) throws BadConfigException, FileNotFoundException {
+        return new CompactConfig(new XmlConfig(file), pool);
+    }
+
+    /**
+     * @return the number of nodes of the whole configuration, including attributes
+     */
+    public int getNodeCount() {
+        return mRoot.mTree.mNames.length;
+    }
+
+    /**
+     * Estimate the memory retained by the whole configuration on a 64-bit JVM with compressed references.
+     * Pooled names and values are not included, see {@link StringPool#getRetainedBytes()}.
+     *
+     * @return the estimated number of bytes
+     */
+    public long getRetainedBytes() {
+        Tree tree = mRoot.mTree;
+        long nodes = tree.mNames.length;
+        // 2 reference arrays, 3 int arrays, the tree and the config
+        return 5 * StringPool.align(16 + 4 * nodes) + tree.mUnpooledBytes + 40 + 40;
+    }
+
+    public StringPool getStringPool() {
+        return mPool;
+    }
+
+    /**
+     * @return the configuration file or null
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public String getProperty(String key) {
+        Tree tree = mRoot.mTree;
+        int[] nodes = tree.select(node(tree), key);
+        for (int node : nodes) {
+            if (tree.mValues[node] != null) {
+                return tree.mValues[node];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        return getProperty(key) != null;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toBoolean(value);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toInteger(value);
+    }
+
+    @Override
+    public Collection<String> getCollection(String key) {
+        Tree tree = mRoot.mTree;
+        List<String> values = null;
+        for (int node : tree.select(node(tree), key)) {
+            String value = tree.mValues[node];
+            if (value != null) {
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                }
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public CompactConfig getSubconfig(String key) {
+        Tree tree = mRoot.mTree;
+        int[] nodes = tree.select(node(tree), key);
+        if (nodes.length != 1) {
+            return null;
+        }
+        CompactConfig subconfig = new CompactConfig(mRoot, fullKey(key));
+        subconfig.mNode = new SubconfigNode(tree, nodes[0]);
+        return subconfig;
+    }
+
+    /**
+     * Walks a snapshot of the configuration, so modifications while iterating are not visible.
+     * The keys of every node are returned sorted by name.
+     */
+    @Override
+    public Iterator<String> keys(String prefix) {
+        return keyIterator(prefix);
+    }
+
+    KeyIterator keyIterator(String prefix) {
+        Tree tree = mRoot.mTree;
+        return new TreeKeyIterator(tree, node(tree), new KeyIterator.Prefix(prefix));
+    }
+
+    /**
+     * @return the number of nodes that match the given key
+     */
+    int count(String key) {
+        Tree tree = mRoot.mTree;
+        return tree.select(node(tree), key).length;
+    }
+
+    @Override
+    public void setProperty(String key, String value) {
+        mRoot.update(fullKey(key), value);
+    }
+
+    @Override
+    public <U> U getComponent(String key, Class<U> baseInterface) throws BadConfigException {
+        String clazz = getProperty(key == null ? "[@class]" : (key + "[@class]"));
+        if (clazz == null) {
+            throw new BadConfigException("Could not find component " + key);
+        }
+        try {
+            Class<? extends U> c = Class.forName(clazz).asSubclass(baseInterface);
+            return c.newInstance();
+        } catch (Exception e) {
+            throw new BadConfigException(e.getMessage());
+        }
+    }
+
+    @Override
+    protected boolean hasCustomClass(String key) {
+        return getProperty(key == null ? "[@class]" : (key + "[@class]")) != null;
+    }
+
+    @Override
+    public InputStream getNestedInputStream(String key) throws BadConfigException {
+        return NestedFiles.openInput(key, getNestedFile(key));
+    }
+
+    @Override
+    public ByteBuffer getNestedBytes(String key) throws BadConfigException {
+        return NestedFiles.readBytes(key, getNestedFile(key));
+    }
+
+    @Override
+    public OutputStream getNestedOutputStream(String key) throws BadConfigException {
+        return NestedFiles.openOutput(key, getNestedFile(key));
+    }
+
+    @Override
+    public String getNestedPath(String key) throws BadConfigException {
+        return NestedFiles.path(getNestedFile(key));
+    }
+
+    @Override
+    public File getNestedLocalFile(String key) throws BadConfigException {
+        return getNestedFile(key);
+    }
+
+    /**
+     * Write this configuration as XML. The stream is not closed.
+     */
+    @Override
+    public void saveTo(OutputStream output) throws Exception {
+        Tree tree = mRoot.mTree;
+        int node = node(tree);
+        if (node < 0) {
+            throw new BadConfigException("Subconfiguration " + mPrefix + " has been removed");
+        }
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        tree.write(writer, node, 0);
+        writer.flush();
+    }
+
+    /**
+     * Replace the configuration file atomically with the whole configuration.
+     */
+    @Override
+    public void save() throws Exception {
+        if (mFile == null) {
+            throw new BadConfigException("Configuration has no file");
+        }
+        OutputStream output = new NestedFileOutputStream(mFile, EnumSet.of(NestedOutputOption.ATOMIC));
+        try {
+            mRoot.saveTo(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    protected File getNestedFile(String key) {
+        return NestedFiles.resolve(mFile, getProperty(key));
+    }
+
+    private String fullKey(String key) {
+        if (mPrefix.isEmpty()) {
+            return key;
+        }
+        return key.startsWith("[") ? mPrefix + key : mPrefix + "." + key;
+    }
+
+    /**
+     * @return the node of this configuration in the given tree or -1 if it has been removed
+     */
+    private int node(Tree tree) {
+        if (mRoot == this) {
+            return 0;
+        }
+        SubconfigNode node = mNode;
+        if (node.mTree != tree) {
+            // the root has been modified since, look the node up again
+            int[] nodes = tree.select(0, mPrefix);
+            node = new SubconfigNode(tree, nodes.length == 1 ? nodes[0] : -1);
+            mNode = node;
+        }
+        return node.mIndex;
+    }
+
+    private synchronized void update(String key, String value) {
+        Node root = mTree.toNode(0);
+        root.set(new KeyParser(key), value == null
+                ? Collections.<String>emptyList()
+                : PropertyConverter.split(value, LIST_DELIMITER));
+        mTree = Tree.build(root, mPool);
+    }
+
+    private static final class SubconfigNode {
+
+        final Tree mTree;
+        final int mIndex;
+
+        SubconfigNode(Tree tree, int index) {
+            mTree = tree;
+            mIndex = index;
+        }
+    }
+
+    /**
+     * Immutable flat tree. The nodes are stored in breadth-first order, so the children of a node are
+     * the nodes mFirst[n] to mFirst[n] + mCount[n] - 1. mSorted contains the same nodes sorted by name,
+     * nodes with the same name in document order. Attribute names start with {@link #ATTRIBUTE_PREFIX}.
+     */
+    private static final class Tree {
+
+        final String[] mNames;
+        final String[] mValues;
+        final int[] mFirst;
+        final int[] mCount;
+        final int[] mSorted;
+        final long mUnpooledBytes;
+
+        private Tree(String[] names, String[] values, int[] first, int[] count, int[] sorted, long unpooledBytes) {
+            mNames = names;
+            mValues = values;
+            mFirst = first;
+            mCount = count;
+            mSorted = sorted;
+            mUnpooledBytes = unpooledBytes;
+        }
+
+        static Tree build(Node root, StringPool pool) {
+            List<Node> nodes = new ArrayList<Node>();
+            nodes.add(root);
+            for (int i = 0; i < nodes.size(); i++) {
+                nodes.addAll(nodes.get(i).mChildren);
+            }
+            int size = nodes.size();
+            String[] names = new String[size];
+            String[] values = new String[size];
+            int[] first = new int[size];
+            int[] count = new int[size];
+            final int[] sorted = new int[size];
+            long unpooledBytes = 0;
+            int next = 1;
+            for (int i = 0; i < size; i++) {
+                Node node = nodes.get(i);
+                names[i] = pool.intern(node.mName);
+                values[i] = pool.intern(node.mValue);
+                for (String s : new String[]{node.mName, node.mValue}) {
+                    if (s != null && !pool.isPooled(s)) {
+                        unpooledBytes += StringPool.getRetainedBytes(s);
+                    }
+                }
+                first[i] = next;
+                count[i] = node.mChildren.size();
+                next += count[i];
+            }
+            sortChildren(names, first, count, sorted);
+            return new Tree(names, values, first, count, sorted, unpooledBytes);
+        }
+
+        private static void sortChildren(final String[] names, int[] first, int[] count, int[] sorted) {
+            Comparator<Integer> byName = new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int result = names[a].compareTo(names[b]);
+                    return result != 0 ? result : a - b;
+                }
+            };
+            for (int i = 0; i < names.length; i++) {
+                if (count[i] > 0) {
+                    Integer[] children = new Integer[count[i]];
+                    for (int j = 0; j < children.length; j++) {
+                        children[j] = first[i] + j;
+                    }
+                    Arrays.sort(children, byName);
+                    for (int j = 0; j < children.length; j++) {
+                        sorted[first[i] + j] = children[j];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Select the nodes for the given key.
+         *
+         * @param start the node the key is relative to, or -1
+         * @param key   the key
+         * @return the selected nodes in document order
+         */
+        int[] select(int start, String key) {
+            if (start < 0) {
+                return NONE;
+            }
+            int[] nodes = new int[]{start};
+            int size = 1;
+            KeyParser parser = new KeyParser(key);
+            while (size > 0 && parser.next()) {
+                int[] selected = NONE;
+                int selectedSize = 0;
+                for (int i = 0; i < size; i++) {
+                    int node = nodes[i];
+                    int from = lowerBound(node, parser);
+                    int to = mFirst[node] + mCount[node];
+                    for (int p = from, index = 0; p < to && parser.compare(mNames[mSorted[p]]) == 0; p++, index++) {
+                        if (parser.mIndex < 0 || parser.mIndex == index) {
+                            if (selectedSize == selected.length) {
+                                selected = Arrays.copyOf(selected, Math.max(4, selectedSize * 2));
+                            }
+                            selected[selectedSize++] = mSorted[p];
+                        }
+                    }
+                }
+                nodes = selected;
+                size = selectedSize;
+            }
+            if (size != nodes.length) {
+                nodes = Arrays.copyOf(nodes, size);
+            }
+            // the children of different parents are already in document order
+            return nodes;
+        }
+
+        private int lowerBound(int node, KeyParser parser) {
+            int lo = mFirst[node];
+            int hi = lo + mCount[node];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (parser.compare(mNames[mSorted[mid]]) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        Node toNode(int index) {
+            Node node = new Node(mNames[index], mValues[index]);
+            for (int i = 0; i < mCount[index]; i++) {
+                node.mChildren.add(toNode(mFirst[index] + i));
+            }
+            return node;
+        }
+
+        void write(Writer writer, int node, int depth) throws IOException {
+            String name = mNames[node] != null ? mNames[node] : DEFAULT_ROOT;
+            indent(writer, depth);
+            writer.write('<');
+            writer.write(name);
+            boolean hasElements = false;
+            int end = mFirst[node] + mCount[node];
+            // the values of an attribute that occurs more than once have been split, join them again
+            for (int p = mFirst[node]; p < end; p++) {
+                int child = mSorted[p];
+                if (!mNames[child].startsWith(ATTRIBUTE_PREFIX)) {
+                    hasElements = true;
+                } else if (p == mFirst[node] || !mNames[child].equals(mNames[mSorted[p - 1]])) {
+                    writer.write(' ');
+                    writer.write(mNames[child], 1, mNames[child].length() - 1);
+                    writer.write("=\"");
+                    for (int q = p; q < end && mNames[mSorted[q]].equals(mNames[child]); q++) {
+                        if (q > p) {
+                            writer.write(LIST_DELIMITER);
+                        }
+                        writeText(writer, mValues[mSorted[q]], true);
+                    }
+                    writer.write('"');
+                }
+            }
+            if (!hasElements && mValues[node] == null) {
+                writer.write("/>\n");
+                return;
+            }
+            writer.write('>');
+            writeText(writer, mValues[node], false);
+            if (hasElements) {
+                writer.write('\n');
+                for (int child = mFirst[node]; child < end; child++) {
+                    if (!mNames[child].startsWith(ATTRIBUTE_PREFIX)) {
+                        write(writer, child, depth + 1);
+                    }
+                }
+                indent(writer, depth);
+            }
+            writer.write("</");
+            writer.write(name);
+            writer.write(">\n");
+        }
+
+        private static void indent(Writer writer, int depth) throws IOException {
+            for (int i = 0; i < depth; i++) {
+                writer.write("    ");
+            }
+        }
+
+        private static void writeText(Writer writer, String value, boolean attribute) throws IOException {
+            if (value == null) {
+                return;
+            }
+            value = PropertyConverter.escapeListDelimiter(value, LIST_DELIMITER);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '<':
+                        writer.write("&lt;");
+                        break;
+                    case '>':
+                        writer.write("&gt;");
+                        break;
+                    case '&':
+                        writer.write("&amp;");
+                        break;
+                    case '"':
+                        writer.write(attribute ? "&quot;" : "\"");
+                        break;
+                    default:
+                        writer.write(c);
+                }
+            }
+        }
+    }
+
+    private static final class TreeKeyIterator extends KeyIterator {
+
+        private final Tree mTree;
+        private final KeyIterator.Prefix mPrefix;
+        private final List<Frame> mStack = new ArrayList<Frame>();
+
+        TreeKeyIterator(Tree tree, int root, KeyIterator.Prefix prefix) {
+            mTree = tree;
+            mPrefix = prefix;
+            if (root >= 0) {
+                push(root, "", 0);
+            }
+        }
+
+        @Override
+        protected boolean advance() {
+            String[] names = mTree.mNames;
+            int[] sorted = mTree.mSorted;
+            while (!mStack.isEmpty()) {
+                Frame frame = mStack.get(mStack.size() - 1);
+                if (frame.mPosition >= frame.mEnd) {
+                    mStack.remove(mStack.size() - 1);
+                    continue;
+                }
+                int p = frame.mPosition++;
+                int node = sorted[p];
+                String name = names[node];
+                boolean attribute = name.startsWith(ATTRIBUTE_PREFIX);
+                boolean first = p == frame.mStart || !name.equals(names[sorted[p - 1]]);
+                if (first) {
+                    frame.mRunStart = p;
+                } else if (attribute) {
+                    // attributes with a list of values are returned once
+                    continue;
+                }
+                boolean repeated = !first || (p + 1 < frame.mEnd && name.equals(names[sorted[p + 1]]));
+                int index = repeated && !attribute ? p - frame.mRunStart : -1;
+                int depth = frame.mDepth;
+                if (depth < mPrefix.length() && !mPrefix.matchesIndex(depth, index)) {
+                    continue;
+                }
+                String key = childKey(frame.mKey, attribute ? name.substring(1) : name, attribute, index);
+                if (!attribute) {
+                    push(node, key, depth + 1);
+                }
+                if (depth >= mPrefix.length() - 1 && mTree.mValues[node] != null) {
+                    found(key, mTree.mValues[node]);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void push(int node, String key, int depth) {
+            int start = mTree.mFirst[node];
+            int end = start + mTree.mCount[node];
+            if (depth < mPrefix.length()) {
+                // only follow the path of the prefix
+                String name = mPrefix.getName(depth);
+                if (mPrefix.isAttribute(depth)) {
+                    name = ATTRIBUTE_PREFIX + name;
+                }
+                start = lowerBound(start, end, name);
+                int to = start;
+                while (to < end && mTree.mNames[mTree.mSorted[to]].equals(name)) {
+                    to++;
+                }
+                end = to;
+            }
+            if (start < end) {
+                mStack.add(new Frame(key, depth, start, end));
+            }
+        }
+
+        private int lowerBound(int lo, int hi, String name) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mTree.mNames[mTree.mSorted[mid]].compareTo(name) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static final class Frame {
+
+            final String mKey;
+            final int mDepth;
+            final int mStart;
+            final int mEnd;
+            int mPosition;
+            int mRunStart;
+
+            Frame(String key, int depth, int start, int end) {
+                mKey = key;
+                mDepth = depth;
+                mStart = start;
+                mEnd = end;
+                mPosition = start;
+            }
+        }
+    }
+
+    /**
+     * Mutable node, used to build and to modify trees.
+     */
+    private static final class Node {
+
+        final String mName;
+        String mValue;
+        final List<Node> mChildren = new ArrayList<Node>(0);
+
+        Node(String name, String value) {
+            mName = name;
+            mValue = value;
+        }
+
+        static Node copyOf(ConfigurationNode source) {
+            Node node = new Node(source.getName(), toString(source.getValue()));
+            for (ConfigurationNode attribute : source.getAttributes()) {
+                node.mChildren.add(new Node(ATTRIBUTE_PREFIX + attribute.getName(), toString(attribute.getValue())));
+            }
+            for (ConfigurationNode child : source.getChildren()) {
+                node.mChildren.add(copyOf(child));
+            }
+            return node;
+        }
+
+        private static String toString(Object value) {
+            return value == null ? null : value.toString();
+        }
+
+        /**
+         * Set the values of the nodes of the key like commons-configuration does: existing nodes get
+         * the values in order, missing nodes are created and left over nodes are cleared.
+         */
+        void set(KeyParser parser, List<String> values) {
+            if (!parser.next()) {
+                mValue = values.isEmpty() ? null : values.get(0);
+                return;
+            }
+            String name = parser.getName();
+            List<Node> matches = new ArrayList<Node>();
+            int index = 0;
+            for (Node child : mChildren) {
+                if (child.mName.equals(name) && (parser.mIndex < 0 || parser.mIndex == index++)) {
+                    matches.add(child);
+                }
+            }
+            if (parser.hasNext()) {
+                if (matches.isEmpty()) {
+                    Node child = new Node(name, null);
+                    mChildren.add(child);
+                    matches.add(child);
+                }
+                matches.get(0).set(parser, values);
+                return;
+            }
+            int insert = matches.isEmpty() ? mChildren.size() : mChildren.indexOf(matches.get(matches.size() - 1)) + 1;
+            for (int i = 0; i < Math.max(matches.size(), values.size()); i++) {
+                if (i < matches.size() && i < values.size()) {
+                    matches.get(i).mValue = values.get(i);
+                } else if (i < values.size()) {
+                    mChildren.add(insert++, new Node(name, values.get(i)));
+                } else {
+                    Node match = matches.get(i);
+                    match.mValue = null;
+                    if (match.mChildren.isEmpty()) {
+                        mChildren.remove(match);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits keys like "a.b(1).c[@attr]" into segments without copying them.
+     * Dots in names are escaped by doubling them.
+     */
+    static final class KeyParser {
+
+        private final String mKey;
+        private int mPosition;
+
+        private int mStart;
+        private int mEnd;
+        private boolean mAttribute;
+        private String mUnescaped;
+        int mIndex;
+
+        KeyParser(String key) {
+            mKey = key;
+        }
+
+        /**
+         * @return the position of the next segment in the key
+         */
+        int getPosition() {
+            return mPosition;
+        }
+
+        boolean hasNext() {
+            return mPosition < mKey.length();
+        }
+
+        /**
+         * Move to the next segment.
+         *
+         * @return false if there are no more segments
+         */
+        boolean next() {
+            String key = mKey;
+            int length = key.length();
+            if (mPosition >= length) {
+                return false;
+            }
+            mIndex = -1;
+            mUnescaped = null;
+            if (key.startsWith("[@", mPosition)) {
+                mAttribute = true;
+                mStart = mPosition + 2;
+                mEnd = key.indexOf(']', mStart);
+                if (mEnd < 0) {
+                    throw new IllegalArgumentException("Invalid key: " + key);
+                }
+                mPosition = mEnd + 1;
+            } else {
+                mAttribute = false;
+                mStart = mPosition;
+                int i = mPosition;
+                boolean escaped = false;
+                while (i < length) {
+                    char c = key.charAt(i);
+                    if (c == '.') {
+                        if (i + 1 < length && key.charAt(i + 1) == '.') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    } else if (c == '(' || (c == '[' && key.startsWith("[@", i))) {
+                        break;
+                    }
+                    i++;
+                }
+                mEnd = i;
+                if (escaped) {
+                    mUnescaped = key.substring(mStart, mEnd).replace("..", ".");
+                }
+                if (i < length && key.charAt(i) == '(') {
+                    int close = key.indexOf(')', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Invalid key: " + key);
+                    }
+                    mIndex = Integer.parseInt(key.substring(i + 1, close));
+                    i = close + 1;
+                }
+                mPosition = i;
+            }
+            if (mPosition < length && key.charAt(mPosition) == '.') {
+                mPosition++;
+            }
+            return true;
+        }
+
+        /**
+         * @return the name of the current segment, with {@link #ATTRIBUTE_PREFIX} for attributes
+         */
+        String getName() {
+            String name = mUnescaped != null ? mUnescaped : mKey.substring(mStart, mEnd);
+            return mAttribute ? ATTRIBUTE_PREFIX + name : name;
+        }
+
+        /**
+         * Compare the given node name with the name of the current segment, like {@link String#compareTo(String)}.
+         */
+        int compare(String name) {
+            String key = mUnescaped != null ? mUnescaped : mKey;
+            int start = mUnescaped != null ? 0 : mStart;
+            int length = (mUnescaped != null ? mUnescaped.length() : mEnd - mStart) + (mAttribute ? 1 : 0);
+            int n = Math.min(name.length(), length);
+            for (int i = 0; i < n; i++) {
+                char a = name.charAt(i);
+                char b = mAttribute ? (i == 0 ? '@' : key.charAt(start + i - 1)) : key.charAt(start + i);
+                if (a != b) {
+                    return a - b;
+                }
+            }
+            return name.length() - length;
+        }
+    }
+}
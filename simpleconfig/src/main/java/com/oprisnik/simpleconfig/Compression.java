@@ -0,0 +1,201 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression formats for nested files.
+ * Compressed nested files are detected by their magic bytes and decompressed transparently.
+ * LZ4 uses the pure Java implementation, no native library is required.
+ */
+public enum Compression {
+
+    NONE,
+
+    GZIP,
+
+    LZ4;
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAGIC_LENGTH = 4;
+
+    /**
+     * Largest initial capacity for decompressed data, the buffer grows beyond it if needed.
+     */
+    private static final int MAX_INITIAL_CAPACITY = 64 * 1024 * 1024;
+
+    /**
+     * Detect the compression of the given data.
+     * The position of the buffer is not changed.
+     *
+     * @param data the data to check
+     * @return the compression of the data
+     */
+    public static Compression detect(ByteBuffer data) {
+        byte[] magic = new byte[MAGIC_LENGTH];
+        ByteBuffer duplicate = data.duplicate();
+        int length = Math.min(MAGIC_LENGTH, duplicate.remaining());
+        duplicate.get(magic, 0, length);
+        return detect(magic, length);
+    }
+
+    /**
+     * Detect the compression of the given input stream.
+     * The input stream has to support mark and reset.
+     *
+     * @param input the input stream to check
+     * @return the compression of the input stream
+     * @throws IOException if the input stream could not be read
+     */
+    public static Compression detect(InputStream input) throws IOException {
+        byte[] magic = new byte[MAGIC_LENGTH];
+        input.mark(MAGIC_LENGTH);
+        int length = 0;
+        try {
+            int read;
+            while (length < MAGIC_LENGTH && (read = input.read(magic, length, MAGIC_LENGTH - length)) >= 0) {
+                length += read;
+            }
+        } finally {
+            input.reset();
+        }
+        return detect(magic, length);
+    }
+
+    private static Compression detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return GZIP;
+        }
+        if (length >= 4 && magic[0] == 0x04 && magic[1] == 0x22 && magic[2] == 0x4D && magic[3] == 0x18) {
+            return LZ4;
+        }
+        return NONE;
+    }
+
+    /**
+     * Get a buffered input stream that decompresses the given input stream if it is compressed.
+     *
+     * @param input the input stream, compressed or not
+     * @return the uncompressed input stream
+     * @throws IOException if the input stream could not be read
+     */
+    public static InputStream decompress(InputStream input) throws IOException {
+        if (!input.markSupported()) {
+            input = new BufferedInputStream(input, BUFFER_SIZE);
+        }
+        return detect(input).wrap(input);
+    }
+
+    /**
+     * Decompress the given data if it is compressed.
+     *
+     * @param data the data, compressed or not
+     * @return the given buffer if the data is not compressed or a new buffer with the uncompressed data
+     * @throws IOException if the data could not be decompressed
+     */
+    public static ByteBuffer decompress(ByteBuffer data) throws IOException {
+        return decompress(data, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Decompress the given data if it is compressed and the uncompressed data is not larger than
+     * the given limit. Decompression stops as soon as the limit is exceeded.
+     *
+     * @param data     the data, compressed or not
+     * @param maxBytes the maximum size of the uncompressed data
+     * @return the given buffer if the data is not compressed, a new buffer with the uncompressed data
+     * or null if the uncompressed data is larger than the limit
+     * @throws IOException if the data could not be decompressed
+     */
+    static ByteBuffer decompress(ByteBuffer data, long maxBytes) throws IOException {
+        Compression compression = detect(data);
+        if (compression == NONE) {
+            return data.remaining() <= maxBytes ? data : null;
+        }
+        InputStream input = compression.wrap(new ByteBufferInputStream(data));
+        try {
+            // computed on a long, four times the size of large inputs does not fit into an int
+            ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    (int) Math.min(Math.min(data.remaining() * 4L, maxBytes), MAX_INITIAL_CAPACITY));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                if (output.size() + (long) read > maxBytes) {
+                    return null;
+                }
+                output.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Get an input stream that decompresses the given input stream with this compression.
+     *
+     * @param input the compressed input stream
+     * @return the uncompressed input stream
+     * @throws IOException if the input stream could not be read
+     */
+    public InputStream wrap(InputStream input) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            case LZ4:
+                return new LZ4FrameInputStream(input, LZ4Factory.safeInstance().safeDecompressor(),
+                        XXHashFactory.safeInstance().hash32());
+            default:
+                return input;
+        }
+    }
+
+    /**
+     * Get an output stream that compresses the data written to the given output stream.
+     *
+     * @param output the output stream for the compressed data
+     * @return the output stream for the uncompressed data
+     * @throws IOException if the output stream could not be written
+     */
+    public OutputStream wrap(OutputStream output) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(output, BUFFER_SIZE);
+            case LZ4:
+                return new LZ4FrameOutputStream(output, LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB, -1L,
+                        LZ4Factory.safeInstance().fastCompressor(), XXHashFactory.safeInstance().hash32(),
+                        LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+            default:
+                return output;
+        }
+    }
+}
@@ -17,11 +17,20 @@
 
 package com.oprisnik.simpleconfig;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 /**
  * Abstract config interface.
@@ -29,6 +38,13 @@ import java.util.Collection;
  */
 public abstract class Config {
 
+    /**
+     * Attribute of a nested file key that defines the {@link NestedObjectCodec} to use.
+     */
+    public static final String ATTR_CODEC = "codec";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * Save the configuration.
      * * 
@@ -114,6 +130,43 @@ public abstract class Config {
      */
     public abstract OutputStream getNestedOutputStream(String key) throws BadConfigException;
 
+    /**
+     * Get a buffered nested output stream for the given key.
+     * If no options are given, this is the same as {@link #getNestedOutputStream(String)}.
+     * Compressed nested files are decompressed transparently by {@link #getNestedInputStream(String)}.
+     * If the compressor fails, the nested file is closed and, with {@link NestedOutputOption#ATOMIC},
+     * left unchanged.
+     *
+     * @see NestedOutputOption
+     *
+     * @param key the key for the nested stream property
+     * @param options the options for the nested stream
+     * @return the nested stream
+     * @throws BadConfigException
+     */
+    public OutputStream getNestedOutputStream(String key, NestedOutputOption... options)
+            throws BadConfigException {
+        if (options.length == 0) {
+            return getNestedOutputStream(key);
+        }
+        EnumSet<NestedOutputOption> set = EnumSet.copyOf(Arrays.asList(options));
+        Compression compression = Compression.NONE;
+        if (set.contains(NestedOutputOption.GZIP) && set.contains(NestedOutputOption.LZ4)) {
+            throw new BadConfigException("Nested file '" + key + "' can only have one compression");
+        } else if (set.contains(NestedOutputOption.GZIP)) {
+            compression = Compression.GZIP;
+        } else if (set.contains(NestedOutputOption.LZ4)) {
+            compression = Compression.LZ4;
+        }
+        File file = new File(getNestedPath(key));
+        try {
+            return new NestedFileOutputStream(file, set).compress(compression);
+        } catch (IOException e) {
+            throw new BadConfigException("Could not open nested file '" + key + "' at '" + file + "': "
+                    + e.getMessage());
+        }
+    }
+
     /**
      * Get a nested path for a given key.
      *  
@@ -141,6 +194,51 @@ public abstract class Config {
     public abstract Collection<String> getCollection(String key);
 
 
+    /**
+     * Get the keys of all properties at or below the given prefix.
+     * <p/>
+     * The keys are produced lazily while walking the configuration, subtrees outside of the prefix
+     * are skipped and the keys are never collected in memory. Repeated nodes get their index,
+     * for example "list.string(0)" and "list.string(1)", so that every key refers to exactly one value.
+     * Attributes with a list of values are returned once, use {@link #getCollection(String)} for all values.
+     * <p/>
+     * Example:
+     * <p/>
+     * <db>
+     * <host>localhost</host>
+     * <port>5432</port>
+     * </db>
+     * <p/>
+     * keys("db") returns "db.host" and "db.port".
+     *
+     * <p/>
+     * The bundled configurations override this. The abstract methods of this class cannot enumerate
+     * the properties, so the default throws and other subclasses have to override it to support it.
+     *
+     * @param prefix the key of the subtree or null for all keys
+     * @return the keys, the iterator does not support remove()
+     * @throws UnsupportedOperationException if the configuration cannot enumerate its keys
+     */
+    public Iterator<String> keys(String prefix) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support keys()");
+    }
+
+    /**
+     * Pass the key and the value of all properties at or below the given prefix to the consumer.
+     * Unlike calling {@link #getProperty(String)} for each of the {@link #keys(String)}, the values are
+     * read while walking the configuration.
+     *
+     * @param prefix   the key of the subtree or null for all properties
+     * @param consumer the consumer for the keys and values
+     */
+    public void forEach(String prefix, BiConsumer<String, String> consumer) {
+        Iterator<String> keys = keys(prefix);
+        while (keys.hasNext()) {
+            String key = keys.next();
+            consumer.accept(key, keys instanceof KeyIterator ? ((KeyIterator) keys).getValue() : getProperty(key));
+        }
+    }
+
     /**
      * Check if the component with the given key has a custom class.
      *  
@@ -312,10 +410,89 @@ public abstract class Config {
         return (val == null) ? defaultValue : val;
     }
 
+    /**
+     * Get the contents of the nested file for the given key.
+     *
+     * @see #getNestedInputStream(String)
+     *
+     * @param key the key for the nested file
+     * @return a read-only buffer with the contents of the nested file
+     * @throws BadConfigException
+     */
+    public ByteBuffer getNestedBytes(String key) throws BadConfigException {
+        InputStream input = getNestedInputStream(key);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new BadConfigException("Could not read nested file '" + key + "': " + e.getMessage());
+        } finally {
+            try {
+                input.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Get the local file that {@link #getNestedInputStream(String)} reads for the given key, so that
+     * callers can read it in parallel or memory-map it.
+     * <p/>
+     * Unlike {@link #getNestedPath(String)}, this does not create any directories.
+     * The default returns null, so callers have to fall back to {@link #getNestedInputStream(String)}.
+     * Subclasses that override {@link #getNestedInputStream(String)} should override this as well.
+     *
+     * @param key the key for the nested file
+     * @return the nested file or null if it can only be read as a stream
+     * @throws BadConfigException
+     */
+    public File getNestedLocalFile(String key) throws BadConfigException {
+        return null;
+    }
+
+    /**
+     * Asynchronously get the contents of the nested file for the given key.
+     * The file is read with the executor returned by {@link #getNestedExecutor()}.
+     *
+     * @see #getNestedBytes(String)
+     *
+     * @param key the key for the nested file
+     * @return the future for a read-only buffer with the contents of the nested file
+     */
+    public CompletableFuture<ByteBuffer> getNestedBytesAsync(String key) {
+        return getNestedBytesAsync(key, getNestedExecutor());
+    }
+
+    /**
+     * Asynchronously get the contents of the nested file for the given key.
+     *
+     * @see #getNestedBytes(String)
+     *
+     * @param key the key for the nested file
+     * @param executor the executor used to read the file
+     * @return the future for a read-only buffer with the contents of the nested file
+     */
+    public CompletableFuture<ByteBuffer> getNestedBytesAsync(final String key, Executor executor) {
+        return NestedExecutors.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws Exception {
+                return getNestedBytes(key);
+            }
+        }, executor);
+    }
+
     /**
      * Load an object from a nested input stream.
+     * The object is decoded with the codec defined by the codec attribute of the given key.
+     * If no codec is defined, Java serialization is used.
      * 
      * @see #getNestedInputStream(String)
+     * @see NestedObjectCodec
      *
      * @param key the key for the nested input stream
      * @return the object loaded from the given input stream
@@ -325,19 +502,150 @@ public abstract class Config {
      */
     public Object readObjectFromNestedStream(String key)
             throws BadConfigException, ClassNotFoundException, IOException {
-        Object o = null;
-        ObjectInputStream ois = null;
+        return readObjectFromNestedStream(key, getNestedObjectCodec(key));
+    }
+
+    /**
+     * Load an object from a nested input stream using the given codec.
+     *
+     * @param key the key for the nested input stream
+     * @param codec the codec used to decode the object
+     * @return the object loaded from the given input stream
+     * @throws BadConfigException
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    public Object readObjectFromNestedStream(String key, NestedObjectCodec codec)
+            throws BadConfigException, ClassNotFoundException, IOException {
+        return codec.decode(getNestedBytes(key));
+    }
+
+    /**
+     * Asynchronously load an object from a nested input stream.
+     * The object is loaded with the executor returned by {@link #getNestedExecutor()}.
+     *
+     * @see #readObjectFromNestedStream(String)
+     *
+     * @param key the key for the nested input stream
+     * @return the future for the object loaded from the given input stream
+     */
+    public CompletableFuture<Object> readObjectFromNestedStreamAsync(String key) {
+        return readObjectFromNestedStreamAsync(key, getNestedExecutor());
+    }
+
+    /**
+     * Asynchronously load an object from a nested input stream.
+     *
+     * @see #readObjectFromNestedStream(String)
+     *
+     * @param key the key for the nested input stream
+     * @param executor the executor used to load the object
+     * @return the future for the object loaded from the given input stream
+     */
+    public CompletableFuture<Object> readObjectFromNestedStreamAsync(final String key, Executor executor) {
+        return NestedExecutors.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return readObjectFromNestedStream(key);
+            }
+        }, executor);
+    }
+
+    /**
+     * Load a shared object from a nested input stream.
+     * Objects are cached by the path and modification time of the nested file,
+     * so all components loading the same nested file share one instance.
+     * The returned object must therefore not be modified. Objects of configs without a
+     * {@link #getNestedLocalFile(String) local nested file} are not cached.
+     *
+     * @see #readObjectFromNestedStream(String)
+     *
+     * @param key the key for the nested input stream
+     * @return the shared object loaded from the given input stream
+     * @throws BadConfigException
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    public Object readSharedObjectFromNestedStream(String key)
+            throws BadConfigException, ClassNotFoundException, IOException {
+        return NestedObjectCache.get(this, key, getNestedObjectCodec(key));
+    }
+
+    /**
+     * Write an object to a nested output stream.
+     * The object is encoded with the codec defined by the codec attribute of the given key.
+     * If no codec is defined, Java serialization is used.
+     *
+     * @see #getNestedOutputStream(String)
+     *
+     * @param key the key for the nested output stream
+     * @param object the object to write
+     * @throws BadConfigException
+     * @throws IOException
+     */
+    public void writeObjectToNestedStream(String key, Object object) throws BadConfigException, IOException {
+        writeObjectToNestedStream(key, object, new NestedOutputOption[0]);
+    }
+
+    /**
+     * Write an object to a nested output stream opened with the given options.
+     * <p/>
+     * Use {@link NestedOutputOption#ATOMIC} to replace the nested file atomically.
+     *
+     * @see #getNestedOutputStream(String, NestedOutputOption...)
+     *
+     * @param key the key for the nested output stream
+     * @param object the object to write
+     * @param options the options for the nested output stream
+     * @throws BadConfigException
+     * @throws IOException
+     */
+    public void writeObjectToNestedStream(String key, Object object, NestedOutputOption... options)
+            throws BadConfigException, IOException {
+        OutputStream output = getNestedOutputStream(key, options);
         try {
-            ois = new ObjectInputStream(getNestedInputStream(key));
-            o = ois.readObject();
+            getNestedObjectCodec(key).encode(object, output);
         } finally {
-            if (ois != null) {
-                try {
-                    ois.close();
-                } catch (Exception e) {
-                }
-            }
+            output.close();
+        }
+    }
+
+    /**
+     * Get the executor used for asynchronous nested file operations.
+     * By default, every operation runs in its own virtual thread if the runtime supports
+     * virtual threads. Otherwise, a cached thread pool is used.
+     *
+     * @return the executor
+     */
+    public static Executor getNestedExecutor() {
+        return NestedExecutors.getDefault();
+    }
+
+    /**
+     * Set the executor used for asynchronous nested file operations.
+     *
+     * @param executor the executor to use
+     */
+    public static void setNestedExecutor(Executor executor) {
+        NestedExecutors.setDefault(executor);
+    }
+
+    /**
+     * Get the codec for the nested file with the given key.
+     *
+     * @param key the key for the nested file
+     * @return the codec defined by the codec attribute or {@link JavaSerializationCodec}
+     * @throws BadConfigException if the defined codec could not be instantiated
+     */
+    protected NestedObjectCodec getNestedObjectCodec(String key) throws BadConfigException {
+        String clazz = getProperty(key + "[@" + ATTR_CODEC + "]");
+        if (clazz == null) {
+            return JavaSerializationCodec.INSTANCE;
+        }
+        try {
+            return Class.forName(clazz).asSubclass(NestedObjectCodec.class).newInstance();
+        } catch (Exception e) {
+            throw new BadConfigException("Could not instantiate codec " + clazz + ": " + e.getMessage());
         }
-        return o;
     }
 }
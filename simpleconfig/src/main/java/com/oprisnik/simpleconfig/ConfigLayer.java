@@ -0,0 +1,216 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Source of property overrides for a {@link LayeredConfig}.
+ * <p/>
+ * Every layer has a version that changes whenever the values of the layer change, so a
+ * {@link LayeredConfig} only has to resolve its properties again after a change.
+ */
+public abstract class ConfigLayer {
+
+    private volatile long mVersion;
+
+    /**
+     * Get the override for the given key.
+     *
+     * @param key the key of the property, relative to the root of the configuration
+     * @return the value or null if the layer does not override the key
+     */
+    public abstract String get(String key);
+
+    /**
+     * Check if the source of the layer has changed and update the version if it has.
+     * The default implementation does nothing.
+     */
+    public void refresh() {
+    }
+
+    /**
+     * @return the version of the layer, which changes whenever the values of the layer change
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Mark the layer as changed.
+     */
+    protected synchronized void changed() {
+        mVersion++;
+    }
+
+    /**
+     * Create a layer that overrides a key with the environment variable with the name
+     * prefix + key in upper case, where every character other than a letter or digit is replaced
+     * with an underscore. For example, "db.url" is overridden by APP_DB_URL for the prefix "APP_".
+     *
+     * @param prefix the prefix of the environment variables
+     * @return the layer
+     */
+    public static ConfigLayer environment(String prefix) {
+        return environment(prefix, System.getenv());
+    }
+
+    static ConfigLayer environment(String prefix, Map<String, String> environment) {
+        return new EnvironmentLayer(prefix, environment);
+    }
+
+    /**
+     * Create a layer that overrides a key with the system property prefix + key,
+     * for example "db.url" is overridden by -Dapp.db.url for the prefix "app.".
+     * Changes of the system properties are detected by {@link #refresh()}.
+     *
+     * @param prefix the prefix of the system properties
+     * @return the layer
+     */
+    public static ConfigLayer systemProperties(String prefix) {
+        return new SystemPropertiesLayer(prefix);
+    }
+
+    /**
+     * Create a layer with the given overrides.
+     *
+     * @param overrides the overrides, copied
+     * @return the layer
+     */
+    public static MapLayer map(Map<String, String> overrides) {
+        MapLayer layer = new MapLayer();
+        layer.putAll(overrides);
+        return layer;
+    }
+
+    /**
+     * Create a layer from command line arguments of the form --key=value.
+     * Other arguments are ignored.
+     *
+     * @param args the command line arguments
+     * @return the layer
+     */
+    public static MapLayer arguments(String... args) {
+        Map<String, String> overrides = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (arg.startsWith("--") && equals > 2) {
+                overrides.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return map(overrides);
+    }
+
+    /**
+     * Layer with overrides that can be changed at runtime.
+     */
+    public static class MapLayer extends ConfigLayer {
+
+        private final Map<String, String> mOverrides = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public String get(String key) {
+            return mOverrides.get(key);
+        }
+
+        public void put(String key, String value) {
+            putAll(Collections.singletonMap(key, value));
+        }
+
+        public synchronized void putAll(Map<String, String> overrides) {
+            mOverrides.putAll(overrides);
+            changed();
+        }
+
+        public synchronized void remove(String key) {
+            if (mOverrides.remove(key) != null) {
+                changed();
+            }
+        }
+
+        public Map<String, String> getOverrides() {
+            return Collections.unmodifiableMap(mOverrides);
+        }
+    }
+
+    private static final class EnvironmentLayer extends ConfigLayer {
+
+        private final String mPrefix;
+        private final Map<String, String> mEnvironment;
+
+        EnvironmentLayer(String prefix, Map<String, String> environment) {
+            mPrefix = prefix;
+            mEnvironment = environment;
+        }
+
+        @Override
+        public String get(String key) {
+            StringBuilder name = new StringBuilder(mPrefix.length() + key.length()).append(mPrefix);
+            String upper = key.toUpperCase(Locale.ROOT);
+            for (int i = 0; i < upper.length(); i++) {
+                char c = upper.charAt(i);
+                name.append((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+            }
+            return mEnvironment.get(name.toString());
+        }
+    }
+
+    private static final class SystemPropertiesLayer extends ConfigLayer {
+
+        private final String mPrefix;
+        private Properties mSnapshot;
+
+        SystemPropertiesLayer(String prefix) {
+            mPrefix = prefix;
+            mSnapshot = snapshot();
+        }
+
+        @Override
+        public String get(String key) {
+            return System.getProperty(mPrefix + key);
+        }
+
+        @Override
+        public synchronized void refresh() {
+            Properties current = snapshot();
+            if (!current.equals(mSnapshot)) {
+                mSnapshot = current;
+                changed();
+            }
+        }
+
+        /**
+         * @return a copy of the system properties with the prefix of the layer
+         */
+        private Properties snapshot() {
+            Properties properties = System.getProperties();
+            Properties snapshot = new Properties();
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(mPrefix)) {
+                    snapshot.setProperty(name, properties.getProperty(name));
+                }
+            }
+            return snapshot;
+        }
+    }
+}
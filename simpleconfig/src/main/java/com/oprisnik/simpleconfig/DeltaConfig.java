@@ -0,0 +1,331 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.apache.commons.configuration.PropertyConverter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Configuration that only stores the differences to a shared base configuration, for many similar
+ * configurations that are derived from the same template.
+ * <p/>
+ * The overrides are a small {@link CompactConfig} with the same structure as the base, for example
+ * <p/>
+ * <customer>
+ * <name>Customer 42</name>
+ * <server>
+ * <port>9090</port>
+ * </server>
+ * </customer>
+ * <p/>
+ * overrides the name and the server port of the base and reads everything else, including the
+ * server host, from the base. A key that has a value in the overrides replaces all values of the
+ * base, so overriding a list replaces the whole list. Setting a property to null removes the override.
+ * <p/>
+ * The base is shared and must not be modified. Indexed keys like "a(1)" refer to the nodes of the
+ * base. Repeated nodes cannot be overridden one by one, so {@link #setProperty(String, String)} rejects
+ * indexed keys and keys below a node that is repeated in the base.
+ */
+public class DeltaConfig extends Config {
+
+    private final CompactConfig mOverrides;
+    private final String mPrefix;
+
+    /**
+     * The node of the base for this configuration or null if only the overrides contain it.
+     */
+    private final CompactConfig mBase;
+
+    /**
+     * Create a configuration without overrides.
+     *
+     * @param base the shared base
+     */
+    public DeltaConfig(CompactConfig base) {
+        this(base, new CompactConfig(base.getStringPool()));
+    }
+
+    /**
+     * @param base      the shared base
+     * @param overrides the overrides, not shared
+     */
+    public DeltaConfig(CompactConfig base, CompactConfig overrides) {
+        this(base, overrides, "");
+    }
+
+    private DeltaConfig(CompactConfig base, CompactConfig overrides, String prefix) {
+        mBase = base;
+        mOverrides = overrides;
+        mPrefix = prefix;
+    }
+
+    /**
+     * Load the overrides from a file.
+     *
+     * @param base the shared base
+     * @param file the overrides
+     * @return the configuration
+     * @throws BadConfigException    if the file is not a valid configuration
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static DeltaConfig fromFile(CompactConfig base, File file) throws BadConfigException, FileNotFoundException {
+        return new DeltaConfig(base, CompactConfig.fromFile(file, base.getStringPool()));
+    }
+
+    /**
+     * @return the overrides of the whole configuration
+     */
+    public CompactConfig getOverrides() {
+        return mOverrides;
+    }
+
+    /**
+     * Estimate the memory retained by this configuration without the shared base and string pool.
+     *
+     * @return the estimated number of bytes
+     */
+    public long getRetainedBytes() {
+        return mOverrides.getRetainedBytes() + 24;
+    }
+
+    @Override
+    public String getProperty(String key) {
+        String value = mOverrides.getProperty(fullKey(key));
+        if (value == null && mBase != null) {
+            value = mBase.getProperty(key);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        return getProperty(key) != null;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toBoolean(value);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toInteger(value);
+    }
+
+    @Override
+    public Collection<String> getCollection(String key) {
+        Collection<String> values = mOverrides.getCollection(fullKey(key));
+        if (values == null && mBase != null) {
+            values = mBase.getCollection(key);
+        }
+        return values;
+    }
+
+    /**
+     * Get a subconfiguration that reads through to the same node of the base. The node must be
+     * unique in the base, or missing in the base and unique in the overrides.
+     */
+    @Override
+    public Config getSubconfig(String key) {
+        CompactConfig base = mBase != null ? mBase.getSubconfig(key) : null;
+        if (base == null && (mBase != null && mBase.count(key) > 0 || mOverrides.count(fullKey(key)) != 1)) {
+            return null;
+        }
+        return new DeltaConfig(base, mOverrides, fullKey(key));
+    }
+
+    /**
+     * Override a property of the base.
+     *
+     * @throws IllegalArgumentException if the key is indexed or below a node that is repeated in the base
+     */
+    @Override
+    public void setProperty(String key, String value) {
+        String fullKey = fullKey(key);
+        checkOverridable(key, fullKey);
+        mOverrides.setProperty(fullKey, value);
+    }
+
+    /**
+     * Overrides are stored by key, so they cannot refer to one of several nodes with the same key.
+     */
+    private void checkOverridable(String key, String fullKey) {
+        CompactConfig.KeyParser parser = new CompactConfig.KeyParser(fullKey);
+        while (parser.next()) {
+            if (parser.mIndex >= 0) {
+                throw new IllegalArgumentException("Cannot override indexed key " + fullKey);
+            }
+        }
+        // the last node may be repeated, overriding it replaces the list
+        parser = new CompactConfig.KeyParser(key);
+        int last = 0;
+        while (parser.hasNext()) {
+            last = parser.getPosition();
+            parser.next();
+        }
+        String parent = key.substring(0, last);
+        if (parent.endsWith(".")) {
+            parent = parent.substring(0, parent.length() - 1);
+        }
+        if (!parent.isEmpty() && mBase != null && mBase.count(parent) > 1) {
+            throw new IllegalArgumentException("Cannot override " + fullKey + ", " + parent
+                    + " is not unique in the base");
+        }
+    }
+
+    /**
+     * Returns the keys of the overrides first, then the keys of the base that are not overridden.
+     */
+    @Override
+    public Iterator<String> keys(String prefix) {
+        CompactConfig overrides = mPrefix.isEmpty() ? mOverrides : mOverrides.getSubconfig(mPrefix);
+        return new DeltaKeyIterator(overrides, prefix, mBase == null ? null : mBase.keyIterator(prefix));
+    }
+
+    @Override
+    public <U> U getComponent(String key, Class<U> baseInterface) throws BadConfigException {
+        String clazz = getProperty(key == null ? "[@class]" : (key + "[@class]"));
+        if (clazz == null) {
+            throw new BadConfigException("Could not find component " + key);
+        }
+        try {
+            Class<? extends U> c = Class.forName(clazz).asSubclass(baseInterface);
+            return c.newInstance();
+        } catch (Exception e) {
+            throw new BadConfigException(e.getMessage());
+        }
+    }
+
+    @Override
+    protected boolean hasCustomClass(String key) {
+        return getProperty(key == null ? "[@class]" : (key + "[@class]")) != null;
+    }
+
+    @Override
+    public InputStream getNestedInputStream(String key) throws BadConfigException {
+        return NestedFiles.openInput(key, getNestedFile(key));
+    }
+
+    @Override
+    public ByteBuffer getNestedBytes(String key) throws BadConfigException {
+        return NestedFiles.readBytes(key, getNestedFile(key));
+    }
+
+    @Override
+    public OutputStream getNestedOutputStream(String key) throws BadConfigException {
+        return NestedFiles.openOutput(key, getNestedFile(key));
+    }
+
+    @Override
+    public String getNestedPath(String key) throws BadConfigException {
+        return NestedFiles.path(getNestedFile(key));
+    }
+
+    @Override
+    public File getNestedLocalFile(String key) throws BadConfigException {
+        return getNestedFile(key);
+    }
+
+    /**
+     * Write the overrides of this configuration. The stream is not closed.
+     */
+    @Override
+    public void saveTo(OutputStream output) throws Exception {
+        CompactConfig overrides = mPrefix.isEmpty() ? mOverrides : mOverrides.getSubconfig(mPrefix);
+        if (overrides == null) {
+            overrides = new CompactConfig(mOverrides.getStringPool());
+        }
+        overrides.saveTo(output);
+    }
+
+    /**
+     * Save the overrides to their file.
+     */
+    @Override
+    public void save() throws Exception {
+        mOverrides.save();
+    }
+
+    /**
+     * Nested files are relative to the file that contains the value.
+     */
+    protected File getNestedFile(String key) {
+        String path = mOverrides.getProperty(fullKey(key));
+        if (path != null) {
+            return NestedFiles.resolve(mOverrides.getFile(), path);
+        }
+        return mBase == null ? null : NestedFiles.resolve(mBase.getFile(), mBase.getProperty(key));
+    }
+
+    private String fullKey(String key) {
+        if (mPrefix.isEmpty()) {
+            return key;
+        }
+        return key.startsWith("[") ? mPrefix + key : mPrefix + "." + key;
+    }
+
+    private static final class DeltaKeyIterator extends KeyIterator {
+
+        private final CompactConfig mOverrides;
+        private final KeyIterator mOverriddenKeys;
+        private final KeyIterator mBaseKeys;
+
+        DeltaKeyIterator(CompactConfig overrides, String prefix, KeyIterator baseKeys) {
+            mOverrides = overrides;
+            mOverriddenKeys = overrides == null ? null : overrides.keyIterator(prefix);
+            mBaseKeys = baseKeys;
+        }
+
+        @Override
+        protected boolean advance() {
+            if (mOverriddenKeys != null && mOverriddenKeys.hasNext()) {
+                found(mOverriddenKeys.next(), mOverriddenKeys.getValue());
+                return true;
+            }
+            while (mBaseKeys != null && mBaseKeys.hasNext()) {
+                String key = mBaseKeys.next();
+                if (!isOverridden(key)) {
+                    found(key, mBaseKeys.getValue());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isOverridden(String key) {
+            if (mOverrides == null) {
+                return false;
+            }
+            if (mOverrides.hasProperty(key)) {
+                return true;
+            }
+            // an overridden list replaces all values of the base
+            int index = key.endsWith(")") ? key.lastIndexOf('(') : -1;
+            return index > 0 && mOverrides.hasProperty(key.substring(0, index));
+        }
+    }
+}
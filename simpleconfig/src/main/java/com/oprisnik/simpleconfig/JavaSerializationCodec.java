@@ -0,0 +1,52 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link NestedObjectCodec} that uses Java serialization.
+ */
+public class JavaSerializationCodec implements NestedObjectCodec {
+
+    public static final JavaSerializationCodec INSTANCE = new JavaSerializationCodec();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public Object decode(ByteBuffer data) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(data));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    @Override
+    public void encode(Object object, OutputStream output) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        oos.writeObject(object);
+        oos.flush();
+    }
+}
@@ -0,0 +1,169 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the keys of the properties of a configuration, see {@link Config#keys(String)}.
+ * <p/>
+ * Subclasses walk their node tree and call {@link #found(String, String)} for every property.
+ * The keys are built like "a.b(1).c[@attr]": the index is added for nodes with siblings of the same name
+ * and dots in names are escaped by doubling them, so every key can be passed to {@link Config#getProperty(String)}.
+ */
+abstract class KeyIterator implements Iterator<String> {
+
+    private String mNextKey;
+    private String mNextValue;
+    private String mValue;
+    private boolean mDone;
+
+    /**
+     * Move to the next property and call {@link #found(String, String)} for it.
+     *
+     * @return false if there are no more properties
+     */
+    protected abstract boolean advance();
+
+    protected void found(String key, String value) {
+        mNextKey = key;
+        mNextValue = value;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mNextKey == null && !mDone) {
+            mDone = !advance();
+        }
+        return mNextKey != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String key = mNextKey;
+        mValue = mNextValue;
+        mNextKey = null;
+        mNextValue = null;
+        return key;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * @return the value of the key that has been returned by {@link #next()} last
+     */
+    String getValue() {
+        return mValue;
+    }
+
+    /**
+     * Build the key of a child node.
+     *
+     * @param parent    the key of the parent, empty for the root
+     * @param name      the name of the child
+     * @param attribute true if the child is an attribute
+     * @param index     the index among the siblings with the same name or -1 if the name is unique
+     * @return the key of the child
+     */
+    static String childKey(String parent, String name, boolean attribute, int index) {
+        StringBuilder sb = new StringBuilder(parent.length() + name.length() + 6);
+        sb.append(parent);
+        if (attribute) {
+            sb.append("[@").append(name).append(']');
+            return sb.toString();
+        }
+        if (parent.length() > 0) {
+            sb.append('.');
+        }
+        if (name.indexOf('.') >= 0) {
+            sb.append(name.replace(".", ".."));
+        } else {
+            sb.append(name);
+        }
+        if (index >= 0) {
+            sb.append('(').append(index).append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parsed key prefix. Only the nodes on the path of the prefix and the nodes below it are visited.
+     */
+    static final class Prefix {
+
+        private final String[] mNames;
+        private final boolean[] mAttributes;
+        private final int[] mIndexes;
+
+        /**
+         * @param prefix the prefix or null for all keys
+         */
+        Prefix(String prefix) {
+            int size = 0;
+            if (prefix != null && !prefix.isEmpty()) {
+                CompactConfig.KeyParser parser = new CompactConfig.KeyParser(prefix);
+                while (parser.next()) {
+                    size++;
+                }
+            }
+            mNames = new String[size];
+            mAttributes = new boolean[size];
+            mIndexes = new int[size];
+            if (size > 0) {
+                CompactConfig.KeyParser parser = new CompactConfig.KeyParser(prefix);
+                for (int i = 0; parser.next(); i++) {
+                    String name = parser.getName();
+                    mAttributes[i] = name.startsWith("@");
+                    mNames[i] = mAttributes[i] ? name.substring(1) : name;
+                    mIndexes[i] = parser.mIndex;
+                }
+            }
+        }
+
+        int length() {
+            return mNames.length;
+        }
+
+        String getName(int depth) {
+            return mNames[depth];
+        }
+
+        boolean isAttribute(int depth) {
+            return mAttributes[depth];
+        }
+
+        /**
+         * Check if a node on the path of the prefix has the index of the prefix.
+         *
+         * @param depth the depth of the node, 0 for the children of the root
+         * @param index the index among the siblings with the same name or -1 if the name is unique
+         * @return true if the node has to be visited
+         */
+        boolean matchesIndex(int depth, int index) {
+            int expected = mIndexes[depth];
+            return expected < 0 || expected == Math.max(index, 0);
+        }
+    }
+}
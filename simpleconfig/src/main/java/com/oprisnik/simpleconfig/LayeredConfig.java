@@ -0,0 +1,455 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.apache.commons.configuration.PropertyConverter;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Configuration with override layers on top of a base configuration.
+ * <p/>
+ * A property is taken from the first layer that overrides it, otherwise from the base configuration.
+ * Variables like ${db.host} are interpolated against the layered configuration, so an override
+ * also changes every property that refers to it. ${sys:name} and ${env:NAME} refer to system
+ * properties and environment variables. Undefined variables are kept, $${name} is not interpolated.
+ * <p/>
+ * Example:
+ * <p/>
+ * Config config = new LayeredConfig(ConfigFactory.fromFile("app.xml"),
+ * ConfigLayer.arguments(args),
+ * ConfigLayer.systemProperties("app."),
+ * ConfigLayer.environment("APP_"));
+ * <p/>
+ * Resolved properties are cached, so an overridden and interpolated property costs the same as a plain
+ * lookup. The cache is dropped when a layer changes (see {@link ConfigLayer#getVersion()}), when a
+ * property is set with {@link #setProperty(String, String)} and when {@link #refresh()} detects a change.
+ * Call {@link #invalidate()} after modifying the base configuration directly.
+ * <p/>
+ * Subconfigurations share the layers and the cache of their root. Keys passed to the layers are
+ * always relative to the root, so the override for "name" of the subconfig "db" is the override
+ * for "db.name".
+ */
+public class LayeredConfig extends Config {
+
+    private static final String SYS_PREFIX = "sys:";
+    private static final String ENV_PREFIX = "env:";
+
+    /**
+     * Cached value of undefined properties.
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * Cached collection of undefined properties, compared by identity.
+     */
+    private static final List<String> NULL_COLLECTION = Collections.unmodifiableList(new ArrayList<String>(0));
+
+    private final LayeredConfig mRoot;
+    private final String mPrefix;
+
+    // only used by the root
+    private final Config mBase;
+    private final ConfigLayer[] mLayers;
+    private final AtomicLong mVersion;
+    private volatile Cache mCache;
+
+    /**
+     * @param base   the base configuration
+     * @param layers the override layers, the first layer has the highest priority
+     */
+    public LayeredConfig(Config base, ConfigLayer... layers) {
+        mRoot = this;
+        mPrefix = "";
+        mBase = base;
+        mLayers = layers.clone();
+        mVersion = new AtomicLong();
+        mCache = new Cache(getVersion());
+    }
+
+    private LayeredConfig(LayeredConfig root, String prefix) {
+        mRoot = root;
+        mPrefix = prefix;
+        mBase = null;
+        mLayers = null;
+        mVersion = null;
+    }
+
+    /**
+     * @return the base configuration
+     */
+    public Config getBase() {
+        return mRoot.mBase;
+    }
+
+    /**
+     * Check all layers and the system properties used by ${sys:...} variables for changes.
+     * The cache is dropped if anything has changed.
+     */
+    public void refresh() {
+        LayeredConfig root = mRoot;
+        for (ConfigLayer layer : root.mLayers) {
+            layer.refresh();
+        }
+        Cache cache = root.mCache;
+        for (Map.Entry<String, String> entry : cache.mSystemProperties.entrySet()) {
+            if (!entry.getValue().equals(String.valueOf(System.getProperty(entry.getKey())))) {
+                invalidate();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop all cached properties.
+     */
+    public void invalidate() {
+        mRoot.mVersion.incrementAndGet();
+    }
+
+    @Override
+    public String getProperty(String key) {
+        return mRoot.resolve(fullKey(key), null);
+    }
+
+    @Override
+    public boolean hasProperty(String key) {
+        LayeredConfig root = mRoot;
+        String fullKey = fullKey(key);
+        Cache cache = root.getCache();
+        Boolean has = cache.mHasProperty.get(fullKey);
+        if (has == null) {
+            has = root.override(fullKey) != null || root.mBase.hasProperty(fullKey);
+            cache.mHasProperty.put(fullKey, has);
+        }
+        return has;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toBoolean(value);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        String value = getProperty(key);
+        return value == null ? defaultValue : PropertyConverter.toInteger(value);
+    }
+
+    @Override
+    public Collection<String> getCollection(String key) {
+        LayeredConfig root = mRoot;
+        String fullKey = fullKey(key);
+        Cache cache = root.getCache();
+        List<String> values = cache.mCollections.get(fullKey);
+        if (values == null) {
+            values = root.resolveCollection(fullKey, cache);
+            cache.mCollections.put(fullKey, values);
+        }
+        return values == NULL_COLLECTION ? null : values;
+    }
+
+    @Override
+    public Config getSubconfig(String key) {
+        LayeredConfig root = mRoot;
+        String fullKey = fullKey(key);
+        Cache cache = root.getCache();
+        Object subconfig = cache.mSubconfigs.get(fullKey);
+        if (subconfig == null) {
+            subconfig = root.mBase.getSubconfig(fullKey) == null ? NULL : new LayeredConfig(root, fullKey);
+            cache.mSubconfigs.put(fullKey, subconfig);
+        }
+        return subconfig == NULL ? null : (Config) subconfig;
+    }
+
+    /**
+     * Returns the keys of the base configuration. Overrides of keys that the base does not contain
+     * are not returned, because layers like environment variables cannot be listed.
+     */
+    @Override
+    public Iterator<String> keys(String prefix) {
+        Config base = mPrefix.isEmpty() ? mRoot.mBase : mRoot.mBase.getSubconfig(mPrefix);
+        if (base == null) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return base.keys(prefix);
+    }
+
+    /**
+     * Passes the overridden and interpolated values.
+     */
+    @Override
+    public void forEach(String prefix, BiConsumer<String, String> consumer) {
+        Iterator<String> keys = keys(prefix);
+        while (keys.hasNext()) {
+            String key = keys.next();
+            consumer.accept(key, getProperty(key));
+        }
+    }
+
+    /**
+     * Set the property in the base configuration. Overrides of the property still take precedence.
+     */
+    @Override
+    public void setProperty(String key, String value) {
+        mRoot.mBase.setProperty(fullKey(key), value);
+        invalidate();
+    }
+
+    @Override
+    public <U> U getComponent(String key, Class<U> baseInterface) throws BadConfigException {
+        String clazz = getProperty(key == null ? "[@class]" : (key + "[@class]"));
+        if (clazz == null) {
+            throw new BadConfigException("Could not find component " + key);
+        }
+        try {
+            Class<? extends U> c = Class.forName(clazz).asSubclass(baseInterface);
+            return c.newInstance();
+        } catch (Exception e) {
+            throw new BadConfigException(e.getMessage());
+        }
+    }
+
+    @Override
+    protected boolean hasCustomClass(String key) {
+        return getProperty(key == null ? "[@class]" : (key + "[@class]")) != null;
+    }
+
+    @Override
+    public InputStream getNestedInputStream(String key) throws BadConfigException {
+        File f = getOverriddenNestedFile(key);
+        if (f == null) {
+            return mRoot.mBase.getNestedInputStream(fullKey(key));
+        }
+        return NestedFiles.openInput(key, f);
+    }
+
+    @Override
+    public ByteBuffer getNestedBytes(String key) throws BadConfigException {
+        File f = getOverriddenNestedFile(key);
+        if (f == null) {
+            return mRoot.mBase.getNestedBytes(fullKey(key));
+        }
+        return NestedFiles.readBytes(key, f);
+    }
+
+    @Override
+    public OutputStream getNestedOutputStream(String key) throws BadConfigException {
+        File f = getOverriddenNestedFile(key);
+        if (f == null) {
+            return mRoot.mBase.getNestedOutputStream(fullKey(key));
+        }
+        return NestedFiles.openOutput(key, f);
+    }
+
+    @Override
+    public String getNestedPath(String key) throws BadConfigException {
+        File f = getOverriddenNestedFile(key);
+        if (f == null) {
+            return mRoot.mBase.getNestedPath(fullKey(key));
+        }
+        return NestedFiles.path(f);
+    }
+
+    @Override
+    public File getNestedLocalFile(String key) throws BadConfigException {
+        File f = getOverriddenNestedFile(key);
+        if (f == null) {
+            return mRoot.mBase.getNestedLocalFile(fullKey(key));
+        }
+        return f;
+    }
+
+    @Override
+    public void save() throws Exception {
+        mRoot.mBase.save();
+    }
+
+    @Override
+    public void saveTo(OutputStream output) throws Exception {
+        mRoot.mBase.saveTo(output);
+    }
+
+    /**
+     * Get the nested file of the given key if the path is overridden or interpolated.
+     * Relative paths are resolved like {@link XmlConfig} does, against the directory of the
+     * configuration file.
+     *
+     * @return the file or null if the base configuration can resolve the path itself
+     */
+    private File getOverriddenNestedFile(String key) {
+        String fullKey = fullKey(key);
+        String path = mRoot.resolve(fullKey, null);
+        Config base = mRoot.mBase;
+        if (path == null || path.equals(base.getProperty(fullKey))) {
+            return null;
+        }
+        return NestedFiles.resolve(base instanceof XmlConfig ? ((XmlConfig) base).getFile() : null, path);
+    }
+
+    private String fullKey(String key) {
+        if (mPrefix.isEmpty()) {
+            return key;
+        }
+        return key.startsWith("[") ? mPrefix + key : mPrefix + "." + key;
+    }
+
+    // the following methods are only called on the root
+
+    private long getVersion() {
+        long version = mVersion.get();
+        for (ConfigLayer layer : mLayers) {
+            version += layer.getVersion();
+        }
+        return version;
+    }
+
+    private Cache getCache() {
+        // the versions only grow, so the sum changes whenever any version changes
+        long version = getVersion();
+        Cache cache = mCache;
+        if (cache.mVersion != version) {
+            cache = new Cache(version);
+            mCache = cache;
+        }
+        return cache;
+    }
+
+    private String override(String fullKey) {
+        for (ConfigLayer layer : mLayers) {
+            String value = layer.get(fullKey);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param resolving the keys that are being resolved, to detect cycles, or null
+     */
+    private String resolve(String fullKey, Set<String> resolving) {
+        Cache cache = getCache();
+        Object value = cache.mValues.get(fullKey);
+        if (value == null) {
+            String raw = override(fullKey);
+            if (raw == null) {
+                raw = mBase.getProperty(fullKey);
+            }
+            if (raw != null && raw.indexOf('$') >= 0) {
+                if (resolving == null) {
+                    resolving = new HashSet<String>();
+                }
+                if (!resolving.add(fullKey)) {
+                    throw new IllegalStateException("Infinite loop in property interpolation of " + fullKey);
+                }
+                raw = interpolate(raw, cache, resolving);
+                resolving.remove(fullKey);
+            }
+            value = raw == null ? NULL : raw;
+            cache.mValues.put(fullKey, value);
+        }
+        return value == NULL ? null : (String) value;
+    }
+
+    private List<String> resolveCollection(String fullKey, Cache cache) {
+        String override = override(fullKey);
+        Collection<String> raw = override != null
+                ? PropertyConverter.split(override, ',')
+                : mBase.getCollection(fullKey);
+        if (raw == null) {
+            return NULL_COLLECTION;
+        }
+        List<String> values = new ArrayList<String>(raw.size());
+        for (String value : raw) {
+            values.add(value.indexOf('$') >= 0 ? interpolate(value, cache, new HashSet<String>()) : value);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private String interpolate(String value, Cache cache, Set<String> resolving) {
+        StringBuilder sb = new StringBuilder(value.length());
+        int start = 0;
+        int variable;
+        while ((variable = value.indexOf("${", start)) >= 0) {
+            int end = value.indexOf('}', variable + 2);
+            if (end < 0) {
+                break;
+            }
+            if (variable > 0 && value.charAt(variable - 1) == '$') {
+                // escaped variable, keep it without the escape character
+                sb.append(value, start, variable - 1).append(value, variable, end + 1);
+            } else {
+                String name = value.substring(variable + 2, end);
+                String replacement = lookUp(name, cache, resolving);
+                sb.append(value, start, variable).append(replacement != null ? replacement : value.substring(variable, end + 1));
+            }
+            start = end + 1;
+        }
+        return sb.append(value, start, value.length()).toString();
+    }
+
+    private String lookUp(String name, Cache cache, Set<String> resolving) {
+        if (name.startsWith(SYS_PREFIX)) {
+            String property = name.substring(SYS_PREFIX.length());
+            String value = System.getProperty(property);
+            // remember the value, so that refresh() can detect changes
+            cache.mSystemProperties.put(property, String.valueOf(value));
+            return value;
+        } else if (name.startsWith(ENV_PREFIX)) {
+            return System.getenv(name.substring(ENV_PREFIX.length()));
+        }
+        if (override(name) == null) {
+            Collection<String> values = mBase.getCollection(name);
+            if (values != null && values.size() > 1) {
+                // a list, use the first value like commons-configuration does
+                return values.iterator().next();
+            }
+        }
+        return resolve(name, resolving);
+    }
+
+    private static final class Cache {
+
+        final long mVersion;
+        final Map<String, Object> mValues = new ConcurrentHashMap<String, Object>();
+        final Map<String, Boolean> mHasProperty = new ConcurrentHashMap<String, Boolean>();
+        final Map<String, List<String>> mCollections = new ConcurrentHashMap<String, List<String>>();
+        final Map<String, Object> mSubconfigs = new ConcurrentHashMap<String, Object>();
+        final Map<String, String> mSystemProperties = new ConcurrentHashMap<String, String>();
+
+        Cache(long version) {
+            mVersion = version;
+        }
+    }
+}
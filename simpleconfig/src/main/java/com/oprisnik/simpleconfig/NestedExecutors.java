@@ -0,0 +1,107 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for asynchronous nested file operations.
+ */
+class NestedExecutors {
+
+    private static volatile Executor sDefault;
+
+    static Executor getDefault() {
+        Executor executor = sDefault;
+        if (executor == null) {
+            synchronized (NestedExecutors.class) {
+                executor = sDefault;
+                if (executor == null) {
+                    executor = createDefault();
+                    sDefault = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    static void setDefault(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+        sDefault = executor;
+    }
+
+    /**
+     * Create an executor that uses virtual threads if the runtime supports them.
+     * Otherwise, a cached pool of daemon threads is used.
+     *
+     * @return the executor
+     */
+    static ExecutorService createDefault() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            // virtual threads are not available
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "simpleconfig-nested-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run the given task with the given executor.
+     * Exceptions thrown by the task complete the returned future exceptionally.
+     *
+     * @param task     the task to run
+     * @param executor the executor to use
+     * @param <T>      the result type
+     * @return the future for the result of the task
+     */
+    static <T> CompletableFuture<T> submit(final Callable<T> task, Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    private NestedExecutors() {
+    }
+}
@@ -0,0 +1,374 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Buffered output stream for nested files.
+ *
+ * @see NestedOutputOption
+ */
+class NestedFileOutputStream extends OutputStream {
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File mTarget;
+    private final Path mDestination;
+    private final Path mTemp;
+    private final boolean mDoubleBuffered;
+    private final FileChannel mChannel;
+
+    private ByteBuffer mBuffer;
+    private ByteBuffer mSpare;
+    private CompletableFuture<Void> mPending;
+
+    private boolean mFailed = false;
+    private boolean mClosed = false;
+
+    NestedFileOutputStream(File target, Set<NestedOutputOption> options) throws IOException {
+        mTarget = target;
+        mDoubleBuffered = options.contains(NestedOutputOption.DOUBLE_BUFFERED);
+        if (options.contains(NestedOutputOption.ATOMIC)) {
+            // replace the file a symlink points to, not the symlink itself
+            Path path = target.getAbsoluteFile().toPath();
+            mDestination = Files.exists(path) ? path.toRealPath() : path;
+            mTemp = createTemp(mDestination);
+            mChannel = FileChannel.open(mTemp, StandardOpenOption.WRITE);
+        } else {
+            mDestination = null;
+            mTemp = null;
+            mChannel = new FileOutputStream(target).getChannel();
+        }
+        mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        if (mDoubleBuffered) {
+            mSpare = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!mBuffer.hasRemaining()) {
+            flushBuffer(true);
+        }
+        mBuffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (!mDoubleBuffered && len >= mBuffer.capacity()) {
+            // large writes bypass the buffer
+            flushBuffer(false);
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        while (len > 0) {
+            if (!mBuffer.hasRemaining()) {
+                flushBuffer(true);
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        IOException error = null;
+        try {
+            flushBuffer(false);
+            if (mTemp != null) {
+                mChannel.force(true);
+            }
+        } catch (IOException e) {
+            mFailed = true;
+            error = e;
+        } finally {
+            mChannel.close();
+        }
+        if (mTemp != null) {
+            if (mFailed) {
+                // never replace the nested file with a partially written file
+                Files.deleteIfExists(mTemp);
+                throw (error != null) ? error : new IOException("Could not write nested file " + mTarget);
+            }
+            commit();
+        }
+        NestedResourceCache.getDefault().invalidate(mTarget);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get a stream that compresses the data with the given compression and writes it to this stream.
+     * If the compressed stream cannot be created, this stream is aborted.
+     *
+     * @param compression the compression to use
+     * @return this stream if the compression is {@link Compression#NONE} or a compressing stream
+     * @throws IOException if the compressed stream could not be created
+     */
+    OutputStream compress(Compression compression) throws IOException {
+        if (compression == Compression.NONE) {
+            return this;
+        }
+        boolean created = false;
+        try {
+            OutputStream output = new CompressedOutputStream(this, compression.wrap(this));
+            created = true;
+            return output;
+        } finally {
+            if (!created) {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Close this stream without keeping the written data. In {@link NestedOutputOption#ATOMIC} mode
+     * the temporary file is deleted and the nested file is not replaced.
+     */
+    void abort() {
+        mFailed = true;
+        try {
+            close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Create an empty temporary file next to the destination.
+     * <p/>
+     * The file is created with the default permissions of a new file, or with the permissions of
+     * the destination if it already exists, so the rename does not change them.
+     *
+     * @param destination the file that is replaced on close
+     * @return the temporary file
+     * @throws IOException if the file could not be created
+     */
+    private static Path createTemp(Path destination) throws IOException {
+        Path temp;
+        while (true) {
+            temp = destination.resolveSibling(destination.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+            try {
+                FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                break;
+            } catch (FileAlreadyExistsException e) {
+            }
+        }
+        try {
+            PosixFileAttributeView view = Files.getFileAttributeView(destination, PosixFileAttributeView.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            if (view != null && Files.exists(destination)) {
+                Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private void commit() throws IOException {
+        try {
+            try {
+                Files.move(mTemp, mDestination, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(mTemp, mDestination, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(mTemp);
+            throw e;
+        }
+        // sync the directory so that the rename survives a crash, not supported on all platforms
+        try {
+            FileChannel dir = FileChannel.open(mDestination.getParent(), StandardOpenOption.READ);
+            try {
+                dir.force(true);
+            } finally {
+                dir.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Write the contents of the current buffer.
+     *
+     * @param async true if the buffer may be written in the background
+     * @throws IOException if the buffer could not be written
+     */
+    private void flushBuffer(boolean async) throws IOException {
+        awaitPending();
+        if (mBuffer.position() == 0) {
+            return;
+        }
+        mBuffer.flip();
+        if (!mDoubleBuffered || !async) {
+            writeFully(mBuffer);
+            mBuffer.clear();
+            return;
+        }
+        // write the full buffer in the background and continue with the spare buffer
+        final ByteBuffer full = mBuffer;
+        mBuffer = mSpare;
+        mSpare = full;
+        mPending = NestedExecutors.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                writeFully(full);
+                full.clear();
+                return null;
+            }
+        }, NestedExecutors.getDefault());
+    }
+
+    private void awaitPending() throws IOException {
+        if (mPending == null) {
+            return;
+        }
+        CompletableFuture<Void> pending = mPending;
+        mPending = null;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mFailed = true;
+            throw new IOException("Interrupted while writing nested file " + mTarget);
+        } catch (ExecutionException e) {
+            mFailed = true;
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        try {
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            mFailed = true;
+            throw e;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Compressing stream that always closes the nested stream, even if the compressor fails.
+     * <p/>
+     * The compressor writes its trailer on close and does not close the nested stream if that fails,
+     * so the nested stream is aborted instead of keeping a truncated file. A failed write aborts it
+     * as well, a compressor that failed halfway through its data cannot write a valid file.
+     */
+    static class CompressedOutputStream extends OutputStream {
+
+        private final NestedFileOutputStream mTarget;
+        private final OutputStream mCompressor;
+
+        CompressedOutputStream(NestedFileOutputStream target, OutputStream compressor) {
+            mTarget = target;
+            mCompressor = compressor;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            boolean written = false;
+            try {
+                mCompressor.write(b);
+                written = true;
+            } finally {
+                if (!written) {
+                    mTarget.mFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            boolean written = false;
+            try {
+                mCompressor.write(b, off, len);
+                written = true;
+            } finally {
+                if (!written) {
+                    mTarget.mFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mCompressor.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean closed = false;
+            try {
+                mCompressor.close();
+                closed = true;
+            } finally {
+                if (closed) {
+                    // the compressor closed the nested stream already, this is a no-op then
+                    mTarget.close();
+                } else {
+                    mTarget.abort();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Access to nested files, shared by the file based configurations.
+ * Reads go through the {@link NestedResourceCache} and decompress transparently.
+ * Cached files are stored uncompressed, so they are only decompressed when they are not cached.
+ */
+final class NestedFiles {
+
+    private NestedFiles() {
+    }
+
+    /**
+     * Resolve a nested path. Relative paths are resolved against the directory of the configuration file.
+     *
+     * @param configFile the configuration file or null
+     * @param path       the nested path
+     * @return the nested file
+     */
+    static File resolve(File configFile, String path) {
+        File f = new File(path);
+        if (!f.isAbsolute() && configFile != null) {
+            f = new File(configFile.getParentFile(), path);
+        }
+        return f;
+    }
+
+    static InputStream openInput(String key, File f) throws BadConfigException {
+        try {
+            ByteBuffer cached = NestedResourceCache.getDefault().get(f);
+            if (cached != null) {
+                return new ByteBufferInputStream(cached);
+            }
+            return Compression.decompress(new FileInputStream(f));
+        } catch (FileNotFoundException e) {
+            throw new BadConfigException("Nested file '" + key + "' not found at '" + f + "'");
+        } catch (IOException e) {
+            throw new BadConfigException("Could not read nested file '" + key + "' at '" + f + "': "
+                    + e.getMessage());
+        }
+    }
+
+    static ByteBuffer readBytes(String key, File f) throws BadConfigException {
+        try {
+            ByteBuffer cached = NestedResourceCache.getDefault().get(f);
+            if (cached != null) {
+                return cached;
+            }
+            return Compression.decompress(NestedResourceCache.read(f, false).asReadOnlyBuffer());
+        } catch (FileNotFoundException e) {
+            throw new BadConfigException("Nested file '" + key + "' not found at '" + f + "'");
+        } catch (IOException e) {
+            throw new BadConfigException("Could not read nested file '" + key + "' at '" + f + "': "
+                    + e.getMessage());
+        }
+    }
+
+    static OutputStream openOutput(String key, final File f) throws BadConfigException {
+        try {
+            createParent(f);
+            // invalidate when the file is complete, readers may cache a partial file in the meantime
+            return new FileOutputStream(f) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        NestedResourceCache.getDefault().invalidate(f);
+                    }
+                }
+            };
+        } catch (FileNotFoundException e) {
+            throw new BadConfigException("Nested file '" + key + "' not found at '" + f + "'");
+        }
+    }
+
+    static String path(File f) {
+        createParent(f);
+        return f.getAbsolutePath();
+    }
+
+    private static void createParent(File f) {
+        File parent = f.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+    }
+}
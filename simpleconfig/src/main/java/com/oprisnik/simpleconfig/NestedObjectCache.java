@@ -0,0 +1,155 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache for objects loaded from nested files.
+ * Objects are keyed by the canonical path of the nested file, its modification time and size,
+ * and the codec used to decode them. Cached objects are softly referenced, entries whose objects
+ * were collected are removed on the next lookup.
+ * <p/>
+ * Objects of configs that do not have a local nested file are not cached.
+ */
+class NestedObjectCache {
+
+    private static final ConcurrentMap<String, Entry> sEntries = new ConcurrentHashMap<String, Entry>();
+
+    private static final ReferenceQueue<Object> sCollected = new ReferenceQueue<Object>();
+
+    static Object get(Config config, String key, NestedObjectCodec codec)
+            throws BadConfigException, ClassNotFoundException, IOException {
+        expungeCollected();
+        File file = config.getNestedLocalFile(key);
+        if (file == null) {
+            return config.readObjectFromNestedStream(key, codec);
+        }
+        file = file.getCanonicalFile();
+        String id = file.getPath() + '|' + codec.getClass().getName();
+        while (true) {
+            Entry entry = sEntries.get(id);
+            if (entry == null) {
+                Entry created = new Entry(id);
+                entry = sEntries.putIfAbsent(id, created);
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+            // one lock per nested file so that concurrent loads of the same file share one instance
+            synchronized (entry) {
+                if (entry.mRemoved) {
+                    // removed while we were waiting for the lock, look up the new entry
+                    continue;
+                }
+                long modified = file.lastModified();
+                long length = file.length();
+                Object value = entry.get(modified, length);
+                if (value == null) {
+                    boolean loaded = false;
+                    try {
+                        value = config.readObjectFromNestedStream(key, codec);
+                        loaded = true;
+                    } finally {
+                        if (!loaded && entry.mValue == null) {
+                            // do not keep entries for files that could not be loaded
+                            entry.remove();
+                        }
+                    }
+                    entry.set(value, modified, length);
+                }
+                return value;
+            }
+        }
+    }
+
+    static void clear() {
+        sEntries.clear();
+    }
+
+    static int size() {
+        expungeCollected();
+        return sEntries.size();
+    }
+
+    /**
+     * Remove the entries whose objects were collected. An entry is kept if it was loaded again
+     * since then, the queue then only holds its previous reference.
+     */
+    private static void expungeCollected() {
+        Reference<?> collected;
+        while ((collected = sCollected.poll()) != null) {
+            Entry entry = ((Value) collected).mEntry;
+            synchronized (entry) {
+                if (entry.mValue == collected) {
+                    entry.remove();
+                }
+            }
+        }
+    }
+
+    private static class Value extends SoftReference<Object> {
+
+        private final Entry mEntry;
+
+        Value(Object value, Entry entry) {
+            super(value, sCollected);
+            mEntry = entry;
+        }
+    }
+
+    private static class Entry {
+
+        private final String mId;
+        private Value mValue;
+        private long mModified;
+        private long mLength;
+        private boolean mRemoved = false;
+
+        Entry(String id) {
+            mId = id;
+        }
+
+        Object get(long modified, long length) {
+            if (mValue == null || mModified != modified || mLength != length) {
+                return null;
+            }
+            return mValue.get();
+        }
+
+        void set(Object value, long modified, long length) {
+            mValue = new Value(value, this);
+            mModified = modified;
+            mLength = length;
+        }
+
+        void remove() {
+            mRemoved = true;
+            sEntries.remove(mId, this);
+        }
+    }
+
+    private NestedObjectCache() {
+    }
+}
@@ -0,0 +1,56 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec used to read and write objects stored in nested files.
+ * <p/>
+ * The default codec is {@link JavaSerializationCodec}. A custom codec can be selected
+ * for a nested file with the codec attribute:
+ * <p/>
+ * <data codec="com.example.MyCodec">data.bin</data>
+ * <p/>
+ * Implementations need a public default constructor and have to be thread-safe.
+ *
+ * @see Config#readObjectFromNestedStream(String)
+ */
+public interface NestedObjectCodec {
+
+    /**
+     * Decode an object from the given buffer.
+     *
+     * @param data the contents of the nested file
+     * @return the decoded object
+     * @throws IOException            if the data could not be decoded
+     * @throws ClassNotFoundException if a class of the encoded object could not be found
+     */
+    public Object decode(ByteBuffer data) throws IOException, ClassNotFoundException;
+
+    /**
+     * Encode the given object to the given output stream.
+     *
+     * @param object the object to encode
+     * @param output the output stream to write to
+     * @throws IOException if the object could not be encoded
+     */
+    public void encode(Object object, OutputStream output) throws IOException;
+}
@@ -0,0 +1,52 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+/**
+ * Options for nested output streams.
+ *
+ * @see Config#getNestedOutputStream(String, NestedOutputOption...)
+ */
+public enum NestedOutputOption {
+
+    /**
+     * Write to a temporary file next to the nested file. When the stream is closed, the
+     * temporary file is synced to disk and atomically renamed to the nested file.
+     * Readers never see a partially written nested file.
+     * <p/>
+     * If the nested file is a symbolic link, the file it points to is replaced. The permissions
+     * of an existing nested file are kept.
+     */
+    ATOMIC,
+
+    /**
+     * Write full buffers in the background, so the writer can fill the next buffer
+     * while the previous buffer is written.
+     */
+    DOUBLE_BUFFERED,
+
+    /**
+     * Compress the nested file with gzip.
+     */
+    GZIP,
+
+    /**
+     * Compress the nested file with LZ4, which is considerably faster than gzip.
+     */
+    LZ4
+}
@@ -0,0 +1,263 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process-wide, size-bounded cache for the contents of nested files.
+ * <p/>
+ * Entries are keyed by the canonical path of the nested file and are only valid as long as
+ * the modification time and size of the file do not change. Compressed files are decompressed
+ * once when they are read, so the entries hold the uncompressed contents and count with their
+ * uncompressed size against the byte budget. If the total size of all entries exceeds the byte
+ * budget, the least recently used entries are evicted. Files whose uncompressed contents are larger
+ * than the byte budget are never cached, callers stream them from the file instead.
+ * <p/>
+ * Files are read into heap buffers. Only the contents of admitted entries are copied into direct
+ * buffers, so the entries are stored off-heap while files that are not cached do not use direct memory.
+ * The entries are held strongly and only the byte budget bounds them: soft references are cleared when
+ * the heap runs low, which off-heap entries hardly contribute to, so they would not release the memory
+ * when it is needed and would make hits depend on unrelated garbage collections.
+ * <p/>
+ * The default cache is disabled. Set a byte budget with the system property {@value #PROPERTY_MAX_BYTES}
+ * (for example -D{@value #PROPERTY_MAX_BYTES}=33554432 for 32 MB) or replace it with
+ * {@link #setDefault(NestedResourceCache)} to cache nested files that are read repeatedly.
+ */
+public class NestedResourceCache {
+
+    public static final String PROPERTY_MAX_BYTES = "simpleconfig.nested-cache.max-bytes";
+
+    /**
+     * The byte budget of the default cache if the system property is not set, caching is opt-in.
+     */
+    public static final long DEFAULT_MAX_BYTES = 0;
+
+    private static volatile NestedResourceCache sDefault;
+
+    private final long mMaxBytes;
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long mSize = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mEvictionCount = 0;
+
+    /**
+     * Get the process-wide cache used by {@link XmlConfig}. It is disabled unless a byte budget is set
+     * with the system property {@value #PROPERTY_MAX_BYTES}.
+     *
+     * @return the default cache
+     */
+    public static NestedResourceCache getDefault() {
+        NestedResourceCache cache = sDefault;
+        if (cache == null) {
+            synchronized (NestedResourceCache.class) {
+                cache = sDefault;
+                if (cache == null) {
+                    cache = new NestedResourceCache(Long.getLong(PROPERTY_MAX_BYTES, DEFAULT_MAX_BYTES));
+                    sDefault = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Replace the process-wide cache, for example to change the byte budget.
+     *
+     * @param cache the new default cache
+     */
+    public static void setDefault(NestedResourceCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache == null");
+        }
+        sDefault = cache;
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxBytes the byte budget of the cache, 0 disables caching
+     */
+    public NestedResourceCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get the uncompressed contents of the given file.
+     * If the file is cached and has not been modified, the cached contents are returned.
+     * Otherwise, the file is read, decompressed if it is compressed and added to the cache.
+     *
+     * @param file the file to get
+     * @return a read-only buffer with the uncompressed contents of the file
+     * or null if the file or its uncompressed contents are too large to be cached
+     * @throws IOException if the file could not be read
+     */
+    public ByteBuffer get(File file) throws IOException {
+        long length = file.length();
+        if (mMaxBytes <= 0 || length > mMaxBytes) {
+            return null;
+        }
+        String key = file.getCanonicalPath();
+        long modified = file.lastModified();
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && entry.mModified == modified && entry.mLength == length) {
+                mHitCount++;
+                return entry.mData.asReadOnlyBuffer();
+            }
+            mMissCount++;
+        }
+        // read the file without holding the lock
+        // stops inflating as soon as the uncompressed contents exceed the budget
+        ByteBuffer data = Compression.decompress(read(file, false), mMaxBytes);
+        if (data == null) {
+            return null;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.remaining());
+        direct.put(data.duplicate());
+        direct.flip();
+        put(key, new Entry(direct, modified, length));
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Remove the given file from the cache.
+     *
+     * @param file the file to remove
+     */
+    public void invalidate(File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            key = file.getAbsolutePath();
+        }
+        synchronized (this) {
+            Entry entry = mEntries.remove(key);
+            if (entry != null) {
+                mSize -= entry.mData.capacity();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NestedResourceCache{size=" + mSize + ", maxBytes=" + mMaxBytes + ", entries=" + mEntries.size()
+                + ", hits=" + mHitCount + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "}";
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mSize -= previous.mData.capacity();
+        }
+        mSize += entry.mData.capacity();
+        // evict the least recently used entries
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            mSize -= eldest.mData.capacity();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Read the given file into a buffer.
+     *
+     * @param file   the file to read
+     * @param direct true to allocate a direct buffer
+     * @return the buffer with the contents of the file
+     * @throws IOException if the file could not be read
+     */
+    static ByteBuffer read(File file, boolean direct) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File '" + file + "' is too large");
+            }
+            // read the whole file with as few reads as possible
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            try {
+                input.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final ByteBuffer mData;
+        final long mModified;
+        final long mLength;
+
+        Entry(ByteBuffer data, long modified, long length) {
+            mData = data;
+            mModified = modified;
+            mLength = length;
+        }
+    }
+}
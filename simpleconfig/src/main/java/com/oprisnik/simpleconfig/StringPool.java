@@ -0,0 +1,143 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of canonical strings, shared by configurations to store repeated key names, class names
+ * and values only once.
+ * <p/>
+ * Only strings up to a maximum length are pooled, longer strings are rarely repeated.
+ * The strings are held weakly, so a string is dropped from the pool once no configuration uses it
+ * anymore and a long-running process does not accumulate the values of configurations it has released.
+ * Interning is synchronized, it only happens while configurations are loaded or modified.
+ */
+public class StringPool {
+
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    /**
+     * Estimated size of a map entry of the pool and its weak reference on a 64-bit JVM.
+     */
+    private static final int ENTRY_BYTES = 72;
+
+    private static final StringPool sDefault = new StringPool();
+
+    private final Map<String, WeakReference<String>> mStrings = new WeakHashMap<String, WeakReference<String>>();
+    private final int mMaxLength;
+
+    public StringPool() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxLength the maximum length of the strings that are pooled
+     */
+    public StringPool(int maxLength) {
+        mMaxLength = maxLength;
+    }
+
+    public static StringPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Get the canonical instance of the given string.
+     *
+     * @param s the string
+     * @return the canonical instance or the string itself if it is too long to be pooled or null
+     */
+    public String intern(String s) {
+        if (!isPooled(s)) {
+            return s;
+        }
+        synchronized (mStrings) {
+            WeakReference<String> reference = mStrings.get(s);
+            String pooled = reference == null ? null : reference.get();
+            if (pooled == null) {
+                mStrings.put(s, new WeakReference<String>(s));
+                pooled = s;
+            }
+            return pooled;
+        }
+    }
+
+    /**
+     * @return true if the string is stored in the pool by {@link #intern(String)}
+     */
+    public boolean isPooled(String s) {
+        return s != null && s.length() <= mMaxLength;
+    }
+
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * @return the number of strings in the pool that are still in use
+     */
+    public int size() {
+        synchronized (mStrings) {
+            return mStrings.size();
+        }
+    }
+
+    /**
+     * Estimate the memory retained by the pool. Walks all strings of the pool.
+     *
+     * @return the estimated number of bytes retained by the strings that are still in use
+     */
+    public long getRetainedBytes() {
+        long bytes = 0;
+        synchronized (mStrings) {
+            for (String s : mStrings.keySet()) {
+                if (s != null) {
+                    bytes += ENTRY_BYTES + getRetainedBytes(s);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        synchronized (mStrings) {
+            mStrings.clear();
+        }
+    }
+
+    /**
+     * Estimate the size of a string on a 64-bit JVM with compressed references and compact strings.
+     *
+     * @param s the string
+     * @return the estimated number of bytes of the string and its character array
+     */
+    public static long getRetainedBytes(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) {
+            latin1 = s.charAt(i) < 256;
+        }
+        return 24 + align(16 + (long) s.length() * (latin1 ? 1 : 2));
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -22,15 +22,17 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.ConfigurationNode;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * XML configuration.
@@ -132,50 +134,45 @@ public class XmlConfig extends Config {
 
     @Override
     public InputStream getNestedInputStream(String key) throws BadConfigException {
-        File f = null;
-        try {
-            f = new File(getProperty(key));
-            if (!f.isAbsolute()) {
-                // relative path -> get correct path
-                f = new File(mFile.getParentFile(), getProperty(key));
-            }
-            return new FileInputStream(f);
-        } catch (FileNotFoundException e) {
-            throw new BadConfigException("Nested file '" + key + "' not found at '" + f + "'");
-        }
+        return NestedFiles.openInput(key, getNestedFile(key));
+    }
+
+    @Override
+    public ByteBuffer getNestedBytes(String key) throws BadConfigException {
+        return NestedFiles.readBytes(key, getNestedFile(key));
     }
 
     @Override
     public OutputStream getNestedOutputStream(String key) throws BadConfigException {
-        File f = null;
-        try {
-            f = new File(getProperty(key));
-            if (!f.isAbsolute()) {
-                // relative path -> get correct path
-                f = new File(mFile.getParentFile(), getProperty(key));
-            }
-            File parent = f.getParentFile();
-            if (!parent.exists()) {
-                parent.mkdirs();
-            }
-            return new FileOutputStream(f);
-        } catch (FileNotFoundException e) {
-            throw new BadConfigException("Nested file '" + key + "' not found at '" + f + "'");
-        }
+        return NestedFiles.openOutput(key, getNestedFile(key));
     }
 
     @Override
     public String getNestedPath(String key) throws BadConfigException {
-        File f = new File(getProperty(key));
-        if (!f.isAbsolute()) {
-            // relative path -> get correct path
-            f = new File(mFile.getParentFile(), getProperty(key));
-        }
-        File parent = f.getParentFile();
-        if (!parent.exists()) {
-            parent.mkdirs();
-        }
-        return f.getAbsolutePath();
+        return NestedFiles.path(getNestedFile(key));
+    }
+
+    @Override
+    public File getNestedLocalFile(String key) throws BadConfigException {
+        return getNestedFile(key);
+    }
+
+    /**
+     * @return the configuration file or null if the configuration has not been loaded from a file
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Get the nested file for the given key.
+     * Relative paths are resolved against the directory of the configuration file.
+     *
+     * @param key the key for the nested file
+     * @return the nested file
+     */
+    protected File getNestedFile(String key) {
+        return NestedFiles.resolve(mFile, getProperty(key));
     }
 
     @Override
@@ -198,6 +195,15 @@ public class XmlConfig extends Config {
 
     }
 
+    /**
+     * Walks the nodes of the configuration. Repeated nodes are returned together at the position
+     * of the first node with the same name.
+     */
+    @Override
+    public Iterator<String> keys(String prefix) {
+        return new NodeKeyIterator(mConfiguration.getRootNode(), new KeyIterator.Prefix(prefix));
+    }
+
     @Override
     public void saveTo(OutputStream output) throws Exception {
         if (mConfiguration instanceof AbstractHierarchicalFileConfiguration) {
@@ -219,4 +225,116 @@ public class XmlConfig extends Config {
             throw new BadConfigException("Configuration not AbstractHierarchicalFileConfiguration!");
         }
     }
+
+    private static final class NodeKeyIterator extends KeyIterator {
+
+        private final KeyIterator.Prefix mPrefix;
+        private final List<Frame> mStack = new ArrayList<Frame>();
+
+        NodeKeyIterator(ConfigurationNode root, KeyIterator.Prefix prefix) {
+            mPrefix = prefix;
+            push(root, "", 0);
+        }
+
+        @Override
+        protected boolean advance() {
+            while (!mStack.isEmpty()) {
+                Frame frame = mStack.get(mStack.size() - 1);
+                ConfigurationNode node = frame.nextNode();
+                if (node == null) {
+                    mStack.remove(mStack.size() - 1);
+                    continue;
+                }
+                int depth = frame.mDepth;
+                String key = childKey(frame.mKey, node.getName(), node.isAttribute(), frame.mIndex);
+                if (!node.isAttribute()) {
+                    push(node, key, depth + 1);
+                }
+                if (depth >= mPrefix.length() - 1 && node.getValue() != null) {
+                    found(key, node.getValue().toString());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void push(ConfigurationNode node, String key, int depth) {
+            if (node.getChildrenCount() == 0 && node.getAttributeCount() == 0) {
+                return;
+            }
+            Frame frame = new Frame(node, key, depth);
+            if (depth < mPrefix.length()) {
+                // only follow the path of the prefix
+                String name = mPrefix.getName(depth);
+                frame.mRun = mPrefix.isAttribute(depth) ? node.getAttributes(name) : node.getChildren(name);
+                frame.mRunOnly = true;
+                if (frame.mRun.isEmpty()) {
+                    return;
+                }
+            }
+            mStack.add(frame);
+        }
+
+        private final class Frame {
+
+            final ConfigurationNode mNode;
+            final String mKey;
+            final int mDepth;
+
+            int mNextAttribute;
+            int mNextChild;
+
+            /**
+             * Nodes with the same name that are returned one after the other.
+             */
+            List<ConfigurationNode> mRun;
+            int mRunPosition;
+            boolean mRunOnly;
+
+            /**
+             * Index of the node that has been returned last or -1 if its name is unique.
+             */
+            int mIndex;
+
+            Frame(ConfigurationNode node, String key, int depth) {
+                mNode = node;
+                mKey = key;
+                mDepth = depth;
+            }
+
+            ConfigurationNode nextNode() {
+                while (true) {
+                    if (mRun != null && mRunPosition < mRun.size()) {
+                        ConfigurationNode node = mRun.get(mRunPosition);
+                        // attributes with a list of values are returned once
+                        mIndex = mRun.size() > 1 && !node.isAttribute() ? mRunPosition : -1;
+                        mRunPosition = node.isAttribute() ? mRun.size() : mRunPosition + 1;
+                        if (!mRunOnly || mPrefix.matchesIndex(mDepth, mIndex)) {
+                            return node;
+                        }
+                        continue;
+                    }
+                    if (mRunOnly) {
+                        return null;
+                    }
+                    ConfigurationNode next;
+                    List<ConfigurationNode> named;
+                    if (mNextAttribute < mNode.getAttributeCount()) {
+                        next = mNode.getAttribute(mNextAttribute++);
+                        named = mNode.getAttributes(next.getName());
+                    } else if (mNextChild < mNode.getChildrenCount()) {
+                        next = mNode.getChild(mNextChild++);
+                        named = mNode.getChildren(next.getName());
+                    } else {
+                        return null;
+                    }
+                    // start a run at the first node of every name
+                    if (named.get(0) == next) {
+                        mRun = named;
+                        mRunPosition = 0;
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.Configurable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Lookups shared by {@link StringList}, which keeps its strings on the heap and can be modified,
+ * and the read-only {@link MappedStringList}.
+ * <p/>
+ * Components that work with either list can use this type, the class attribute of the configuration
+ * selects the implementation:
+ * <p/>
+ * config.getComponentAndInit("string-list", AbstractStringList.class, StringList.class)
+ * <p/>
+ * An empty list does not restrict anything: the check methods ({@link #checkPrefix(String)},
+ * {@link #checkSuffix(CharSequence)}, {@link #checkContains(String)}, {@link #checkDomain(CharSequence)})
+ * return true for every input, while the methods that return the matching string
+ * ({@link #longestPrefix(String)}, {@link #getDomain(CharSequence)}) return null because there is none.
+ */
+public abstract class AbstractStringList implements Configurable {
+
+    public static final String KEY_FILE = "file";
+    public static final String KEY_CHARSET = "charset";
+    public static final String ATTR_CASE_INSENSITIVE = "case-insensitive";
+    public static final String ATTR_NORMALIZE = "normalize";
+
+    private Charset mCharset = Charset.defaultCharset();
+
+    AbstractStringList() {
+    }
+
+    AbstractStringList(Charset charset) {
+        mCharset = charset;
+    }
+
+    /**
+     * Initialize the options of the list that do not depend on its contents.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if an option is not valid
+     */
+    protected void initOptions(Config config) throws BadConfigException {
+        String charset = config.getProperty(KEY_CHARSET);
+        if (charset != null) {
+            try {
+                setCharset(Charset.forName(charset.trim()));
+            } catch (IllegalArgumentException e) {
+                throw new BadConfigException("Invalid " + KEY_CHARSET + ": " + charset);
+            }
+        }
+    }
+
+    /**
+     * Set the charset that is used to decode files and streams.
+     *
+     * @param charset the charset to use
+     */
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("charset == null");
+        }
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    /**
+     * Match case-insensitively. Can only be changed while the list is empty.
+     *
+     * @param caseInsensitive true to ignore the case
+     */
+    public synchronized void setCaseInsensitive(boolean caseInsensitive) {
+        setFolding(new StringFolding(caseInsensitive, getFolding().getForm()));
+    }
+
+    public boolean isCaseInsensitive() {
+        return getFolding().foldsCase();
+    }
+
+    /**
+     * Normalize the strings of the list and the inputs with the given form before they are matched.
+     * Can only be changed while the list is empty.
+     *
+     * @param form the normalization form or null to not normalize
+     */
+    public synchronized void setNormalization(Normalizer.Form form) {
+        setFolding(new StringFolding(getFolding().foldsCase(), form));
+    }
+
+    public Normalizer.Form getNormalization() {
+        return getFolding().getForm();
+    }
+
+    abstract StringFolding getFolding();
+
+    abstract void setFolding(StringFolding folding);
+
+    /**
+     * Get a read-only view of the current contents of the list.
+     * The view does not see later modifications of this list and can be shared between threads.
+     *
+     * @return the frozen list
+     */
+    public abstract AbstractStringList freeze();
+
+    public abstract boolean isFrozen();
+
+    /**
+     * Load the lines of the given file.
+     *
+     * @param file the file with one string per line
+     * @throws IOException if the file could not be read
+     */
+    public abstract void load(File file) throws IOException;
+
+    /**
+     * Checks if the string list contains the given string.
+     *
+     * @param s the string to use
+     * @return true if the list contains the string
+     */
+    public abstract boolean contains(String s);
+
+    /**
+     * Checks if the string list contains the given characters, e.g. of a reused buffer.
+     *
+     * @param s the characters to check
+     * @return true if the list contains the characters
+     */
+    public abstract boolean contains(CharSequence s);
+
+    /**
+     * Checks if the string list contains the given UTF-8 encoded string.
+     * Malformed UTF-8 never matches.
+     *
+     * @param utf8   the encoded string
+     * @param offset the offset of the string
+     * @param length the length of the string
+     * @return true if the list contains the string
+     */
+    public abstract boolean contains(byte[] utf8, int offset, int length);
+
+    /**
+     * Checks if the string list contains the given UTF-8 encoded string,
+     * see {@link #contains(byte[], int, int)}. The position of the buffer is not changed.
+     *
+     * @param utf8   the encoded string
+     * @param offset the absolute offset of the string in the buffer
+     * @param length the length of the string
+     * @return true if the list contains the string
+     */
+    public abstract boolean contains(ByteBuffer utf8, int offset, int length);
+
+    /**
+     * Checks if the given string starts with at least one string of the list.
+     *
+     * @param string the string to check
+     * @return true if the string starts with at least one string of the list
+     */
+    public abstract boolean checkPrefix(String string);
+
+    /**
+     * Checks if the given characters start with at least one string of the list,
+     * see {@link #checkPrefix(String)}.
+     *
+     * @param string the characters to check
+     * @return true if the characters start with at least one string of the list
+     */
+    public abstract boolean checkPrefix(CharSequence string);
+
+    /**
+     * Checks if the given UTF-8 encoded string starts with at least one string of the list.
+     *
+     * @param utf8   the encoded string
+     * @param offset the offset of the string
+     * @param length the length of the string
+     * @return true if the string starts with at least one string of the list
+     */
+    public abstract boolean checkPrefix(byte[] utf8, int offset, int length);
+
+    /**
+     * Checks if the given UTF-8 encoded string starts with at least one string of the list,
+     * see {@link #checkPrefix(byte[], int, int)}. The position of the buffer is not changed.
+     *
+     * @param utf8   the encoded string
+     * @param offset the absolute offset of the string in the buffer
+     * @param length the length of the string
+     * @return true if the string starts with at least one string of the list
+     */
+    public abstract boolean checkPrefix(ByteBuffer utf8, int offset, int length);
+
+    /**
+     * Checks if the given string ends with at least one string of the list.
+     *
+     * @param string the string to check
+     * @return true if the string ends with at least one string of the list
+     */
+    public abstract boolean checkSuffix(CharSequence string);
+
+    /**
+     * Checks if the given host name is a listed domain or a subdomain of a listed domain.
+     * Unlike {@link #checkSuffix(CharSequence)}, the match has to start at a label boundary:
+     * "example.com" matches "example.com" and "www.example.com", but not "badexample.com".
+     * Entries that start with a dot (".example.com") only match subdomains.
+     * A trailing dot of the host is ignored. Use a case-insensitive list for host names.
+     *
+     * @param host the host name to check
+     * @return true if the host is in a listed domain or the list is empty
+     */
+    public abstract boolean checkDomain(CharSequence host);
+
+    /**
+     * Returns the most specific listed domain of the given host name, see {@link #checkDomain(CharSequence)}.
+     *
+     * @param host the host name to check
+     * @return the longest matching string of the list or null if the host is not in a listed domain,
+     * also if the list is empty and {@link #checkDomain(CharSequence)} returns true
+     */
+    public abstract String getDomain(CharSequence host);
+
+    /**
+     * Returns the longest string of the list that the given string starts with.
+     *
+     * Example:
+     * Suppose the list is {"/", "/api", "/api/v1"}.
+     * longestPrefix("/api/v2/users") returns "/api".
+     *
+     * @param string the string to check
+     * @return the longest string of the list that is a prefix of the given string
+     * or null if no string of the list is a prefix
+     */
+    public abstract String longestPrefix(String string);
+
+    /**
+     * Checks if the given string contains at least one string of the list.
+     *
+     * @param string the string to check
+     * @return true if the given string contains at least one string of the list
+     */
+    public abstract boolean checkContains(String string);
+
+    /**
+     * Checks if the given characters contain at least one string of the list,
+     * see {@link #checkContains(String)}.
+     *
+     * @param string the characters to check
+     * @return true if the characters contain at least one string of the list
+     */
+    public abstract boolean checkContains(CharSequence string);
+
+    /**
+     * Checks if the given UTF-8 encoded string contains at least one string of the list.
+     *
+     * @param utf8   the encoded string
+     * @param offset the offset of the string
+     * @param length the length of the string
+     * @return true if the string contains at least one string of the list
+     */
+    public abstract boolean checkContains(byte[] utf8, int offset, int length);
+
+    /**
+     * Checks if the given UTF-8 encoded string contains at least one string of the list,
+     * see {@link #checkContains(byte[], int, int)}. The position of the buffer is not changed.
+     *
+     * @param utf8   the encoded string
+     * @param offset the absolute offset of the string in the buffer
+     * @param length the length of the string
+     * @return true if the string contains at least one string of the list
+     */
+    public abstract boolean checkContains(ByteBuffer utf8, int offset, int length);
+
+    /**
+     * Returns a list of all strings that the given string contains.
+     *
+     * Example:
+     * Suppose the list is {"Hello", "ABC", "World", "Test"}.
+     * getAllContainedStrings("Hello World!") returns {"Hello", "World"}.
+     *
+     * @param string the string to check
+     * @return the list of strings contained in the given string
+     */
+    public abstract List<String> getAllContainedStrings(String string);
+
+    /**
+     * Returns a list of all strings that the given characters contain,
+     * see {@link #getAllContainedStrings(String)}. The default copies the characters into a string.
+     *
+     * @param string the characters to check
+     * @return the list of strings contained in the given characters
+     */
+    public List<String> getAllContainedStrings(CharSequence string) {
+        return getAllContainedStrings(string.toString());
+    }
+
+    /**
+     * Get the strings of the list. The returned collection does not change when the list is modified.
+     *
+     * @return the strings of the list
+     */
+    public abstract Collection<String> values();
+
+    /**
+     * Checks which of the given strings are contained in the list.
+     * Large batches are split across the common fork-join pool. All strings are checked against the
+     * same snapshot of the list. Null elements never match.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that are contained in the list
+     */
+    public BitSet containsAll(List<? extends CharSequence> strings) {
+        return containsAll(toArray(strings));
+    }
+
+    /**
+     * Checks which of the given strings are contained in the list, see {@link #containsAll(List)}.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that are contained in the list
+     */
+    public BitSet containsAll(CharSequence[] strings) {
+        final AbstractStringList list = freeze();
+        return match(strings, new Predicate<CharSequence>() {
+            @Override
+            public boolean test(CharSequence s) {
+                return list.contains(s);
+            }
+        });
+    }
+
+    /**
+     * Checks which of the given strings start with at least one string of the list,
+     * see {@link #checkPrefix(String)}. Large batches are split across the common fork-join pool.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that start with a string of the list
+     */
+    public BitSet matchPrefixes(List<? extends CharSequence> strings) {
+        return matchPrefixes(toArray(strings));
+    }
+
+    /**
+     * Checks which of the given strings start with at least one string of the list,
+     * see {@link #matchPrefixes(List)}.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that start with a string of the list
+     */
+    public BitSet matchPrefixes(CharSequence[] strings) {
+        final AbstractStringList list = freeze();
+        return match(strings, new Predicate<CharSequence>() {
+            @Override
+            public boolean test(CharSequence s) {
+                return list.checkPrefix(s);
+            }
+        });
+    }
+
+    /**
+     * Checks which of the given strings contain at least one string of the list,
+     * see {@link #checkContains(String)}. Large batches are split across the common fork-join pool.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that contain a string of the list
+     */
+    public BitSet matchContains(List<? extends CharSequence> strings) {
+        return matchContains(toArray(strings));
+    }
+
+    /**
+     * Checks which of the given strings contain at least one string of the list,
+     * see {@link #matchContains(List)}.
+     *
+     * @param strings the strings to check
+     * @return the indices of the strings that contain a string of the list
+     */
+    public BitSet matchContains(CharSequence[] strings) {
+        final AbstractStringList list = freeze();
+        return BatchMatcher.match(strings, new Predicate<CharSequence>() {
+            @Override
+            public boolean test(CharSequence s) {
+                return list.checkContains(s);
+            }
+        });
+    }
+
+    /**
+     * Returns the strings of the list that each of the given strings contains,
+     * see {@link #getAllContainedStrings(String)}. Large batches are split across the common
+     * fork-join pool. Null elements contain no strings.
+     *
+     * @param strings the strings to check
+     * @return the contained strings for every given string, in the same order
+     */
+    public List<List<String>> matchAllContainedStrings(List<? extends CharSequence> strings) {
+        return matchAllContainedStrings(toArray(strings));
+    }
+
+    /**
+     * Returns the strings of the list that each of the given strings contains,
+     * see {@link #matchAllContainedStrings(List)}.
+     *
+     * @param strings the strings to check
+     * @return the contained strings for every given string, in the same order
+     */
+    public List<List<String>> matchAllContainedStrings(CharSequence[] strings) {
+        final AbstractStringList list = freeze();
+        return BatchMatcher.map(strings, new Function<CharSequence, List<String>>() {
+            @Override
+            public List<String> apply(CharSequence s) {
+                return list.getAllContainedStrings(s);
+            }
+        }, Collections.<String>emptyList());
+    }
+
+    /**
+     * Check if batches of exact and prefix lookups should be processed in sorted order.
+     * The default keeps the input order.
+     *
+     * @return true if neighbouring lookups in sorted order are faster than lookups in input order
+     */
+    boolean isSortedLookupFaster() {
+        return false;
+    }
+
+    private BitSet match(CharSequence[] strings, Predicate<CharSequence> predicate) {
+        return isSortedLookupFaster() ? BatchMatcher.matchSorted(strings, predicate)
+                : BatchMatcher.match(strings, predicate);
+    }
+
+    private static CharSequence[] toArray(List<? extends CharSequence> strings) {
+        return strings.toArray(new CharSequence[strings.size()]);
+    }
+}
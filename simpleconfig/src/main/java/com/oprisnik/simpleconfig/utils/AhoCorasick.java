@@ -0,0 +1,241 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton that finds all words of a set of strings in a text
+ * with a single scan over the text.
+ * <p/>
+ * The automaton is immutable and can be used by multiple threads.
+ */
+final class AhoCorasick {
+
+    private final CharTrie mTrie;
+
+    /**
+     * Failure link of every node: the node of the longest proper suffix that is also in the trie.
+     */
+    private final int[] mFail;
+
+    /**
+     * Output link of every node: the deepest node in the failure chain (including the node itself)
+     * at which a word ends, or {@link CharTrie#NONE}.
+     */
+    private final int[] mOutput;
+
+    private final boolean mFoldCase;
+
+    AhoCorasick(Collection<String> words) {
+        this(new CharTrie(words));
+    }
+
+    AhoCorasick(Collection<String> words, boolean foldCase) {
+        this(new CharTrie(words, foldCase));
+    }
+
+    AhoCorasick(CharTrie trie) {
+        mTrie = trie;
+        mFoldCase = trie.foldsCase();
+        int count = trie.getNodeCount();
+        mFail = new int[count];
+        mOutput = new int[count];
+        mFail[CharTrie.ROOT] = CharTrie.ROOT;
+        mOutput[CharTrie.ROOT] = trie.word(CharTrie.ROOT) != CharTrie.NONE ? CharTrie.ROOT : CharTrie.NONE;
+        // nodes are in breadth-first order, so the failure links of all shallower nodes are known
+        for (int parent = 0; parent < count; parent++) {
+            for (int child = trie.getFirstChild(parent); child < trie.getChildEnd(parent); child++) {
+                int fail = CharTrie.ROOT;
+                if (parent != CharTrie.ROOT) {
+                    fail = next(mFail[parent], trie.getLabel(child));
+                }
+                mFail[child] = fail;
+                mOutput[child] = trie.word(child) != CharTrie.NONE ? child : mOutput[fail];
+            }
+        }
+    }
+
+    CharTrie getTrie() {
+        return mTrie;
+    }
+
+    /**
+     * Get the next state of the automaton.
+     *
+     * @param state the current state
+     * @param c     the next character of the text
+     * @return the next state
+     */
+    int next(int state, char c) {
+        while (true) {
+            int child = mTrie.child(state, c);
+            if (child != CharTrie.NONE) {
+                return child;
+            }
+            if (state == CharTrie.ROOT) {
+                return CharTrie.ROOT;
+            }
+            state = mFail[state];
+        }
+    }
+
+    /**
+     * Get the next state of the automaton for a character of the text, folding its case if needed.
+     *
+     * @param state the current state
+     * @param c     the next character of the text
+     * @return the next state
+     */
+    private int step(int state, char c) {
+        return next(state, mFoldCase ? StringFolding.foldCase(c) : c);
+    }
+
+    /**
+     * Check if a word ends at the given state.
+     *
+     * @param state the state
+     * @return true if at least one word ends at the given state
+     */
+    boolean hasOutput(int state) {
+        return mOutput[state] != CharTrie.NONE;
+    }
+
+    /**
+     * Check if the given text contains at least one word.
+     *
+     * @param text the text to check
+     * @return true if the text contains at least one word
+     */
+    boolean containsAny(CharSequence text) {
+        int state = CharTrie.ROOT;
+        if (hasOutput(state)) {
+            return true;
+        }
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = step(state, text.charAt(i));
+            if (hasOutput(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the given UTF-8 encoded text contains at least one word.
+     * Words never match across a malformed sequence.
+     *
+     * @param utf8 the encoded text
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return true if the text contains at least one word
+     */
+    boolean containsAny(byte[] utf8, int off, int len) {
+        int state = CharTrie.ROOT;
+        if (hasOutput(state)) {
+            return true;
+        }
+        for (int i = off, end = off + len; i < end; ) {
+            long decoded = Utf8.decode(utf8, i, end);
+            state = next(state, Utf8.codePoint(decoded));
+            if (hasOutput(state)) {
+                return true;
+            }
+            i += Utf8.length(decoded);
+        }
+        return false;
+    }
+
+    /**
+     * Check if the given UTF-8 encoded text contains at least one word, see
+     * {@link #containsAny(byte[], int, int)}.
+     *
+     * @param utf8 the encoded text, only absolute reads are used
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return true if the text contains at least one word
+     */
+    boolean containsAny(ByteBuffer utf8, int off, int len) {
+        int state = CharTrie.ROOT;
+        if (hasOutput(state)) {
+            return true;
+        }
+        for (int i = off, end = off + len; i < end; ) {
+            long decoded = Utf8.decode(utf8, i, end);
+            state = next(state, Utf8.codePoint(decoded));
+            if (hasOutput(state)) {
+                return true;
+            }
+            i += Utf8.length(decoded);
+        }
+        return false;
+    }
+
+    /**
+     * Get the next state of the automaton for the UTF-16 encoding of a code point.
+     *
+     * @param state     the current state
+     * @param codePoint the next code point of the text or {@link Utf8#MALFORMED}
+     * @return the next state
+     */
+    private int next(int state, int codePoint) {
+        if (codePoint < 0) {
+            return CharTrie.ROOT;
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return step(state, (char) codePoint);
+        }
+        return next(next(state, Character.highSurrogate(codePoint)), Character.lowSurrogate(codePoint));
+    }
+
+    /**
+     * Get all words contained in the given text.
+     *
+     * @param text the text to check
+     * @return the words contained in the text, in the order of their first occurrence
+     */
+    List<String> findAll(CharSequence text) {
+        List<String> result = new ArrayList<String>();
+        // sized by the matches, not by the number of words in the list
+        Set<Integer> found = null;
+        int state = CharTrie.ROOT;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            if (i > 0) {
+                state = step(state, text.charAt(i - 1));
+            }
+            for (int node = mOutput[state]; node != CharTrie.NONE; node = mOutput[mFail[node]]) {
+                int word = mTrie.word(node);
+                if (found == null) {
+                    found = new HashSet<Integer>();
+                }
+                if (found.add(word)) {
+                    result.add(mTrie.getWord(word));
+                }
+                if (node == CharTrie.ROOT) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
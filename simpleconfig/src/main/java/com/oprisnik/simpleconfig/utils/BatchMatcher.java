@@ -0,0 +1,201 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs a lookup for every element of a batch on the common fork-join pool.
+ * Batches with up to {@link #LEAF_SIZE} elements are processed by the calling thread.
+ * <p/>
+ * The batch is split into ranges of at least {@link #LEAF_SIZE} elements. Every range is processed in
+ * order by one thread, so each thread walks a contiguous part of the input. Ranges start at multiples of
+ * 64, so every thread writes its own words of the result bit set.
+ * <p/>
+ * Lookups in a sorted structure, e.g. a memory-mapped image, can process the batch in sorted order
+ * instead. Neighbouring elements then share a path through the structure, so each thread touches
+ * few pages at a time. Sorting costs more than it saves for lookups in heap tries and for substring
+ * scans, which start at every offset of an element, so these keep the input order.
+ */
+final class BatchMatcher {
+
+    static final int LEAF_SIZE = 1024;
+
+    private BatchMatcher() {
+    }
+
+    /**
+     * Get the indices of all elements that match.
+     *
+     * @param strings   the elements to check, null elements never match
+     * @param predicate the lookup
+     * @return the bit set with the indices of the matching elements
+     */
+    static BitSet match(CharSequence[] strings, Predicate<CharSequence> predicate) {
+        long[] words = new long[(strings.length + 63) >>> 6];
+        new MatchTask(strings, predicate, words, 0, strings.length).invoke();
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Get the indices of all elements that match, see {@link #match(CharSequence[], Predicate)}.
+     * The elements are checked in sorted order.
+     *
+     * @param strings   the elements to check, null elements never match
+     * @param predicate the lookup
+     * @return the bit set with the indices of the matching elements
+     */
+    static BitSet matchSorted(final CharSequence[] strings, Predicate<CharSequence> predicate) {
+        Integer[] order = new Integer[strings.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareChars(strings[a], strings[b]);
+            }
+        });
+        CharSequence[] sorted = new CharSequence[strings.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = strings[order[i]];
+        }
+        BitSet matches = match(sorted, predicate);
+        BitSet result = new BitSet(strings.length);
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.set(order[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Compare two elements char by char, null elements are sorted last.
+     */
+    private static int compareChars(CharSequence a, CharSequence b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Get the result of the lookup for every element.
+     *
+     * @param strings  the elements to check, null elements map to an empty result
+     * @param function the lookup
+     * @param empty    the result for null elements
+     * @return the results in the order of the elements
+     */
+    static <T> List<T> map(CharSequence[] strings, Function<CharSequence, T> function, T empty) {
+        Object[] results = new Object[strings.length];
+        new MapTask<T>(strings, function, empty, results, 0, strings.length).invoke();
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return list;
+    }
+
+    private static int split(int from, int to) {
+        // keep the ranges aligned to the words of the bit set
+        return ((from + to) >>> 1) & ~63;
+    }
+
+    private static class MatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence[] mStrings;
+        private final Predicate<CharSequence> mPredicate;
+        private final long[] mWords;
+        private final int mFrom;
+        private final int mTo;
+
+        MatchTask(CharSequence[] strings, Predicate<CharSequence> predicate, long[] words, int from, int to) {
+            mStrings = strings;
+            mPredicate = predicate;
+            mWords = words;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= LEAF_SIZE) {
+                for (int i = mFrom; i < mTo; i++) {
+                    CharSequence s = mStrings[i];
+                    if (s != null && mPredicate.test(s)) {
+                        mWords[i >>> 6] |= 1L << i;
+                    }
+                }
+            } else {
+                int mid = split(mFrom, mTo);
+                invokeAll(new MatchTask(mStrings, mPredicate, mWords, mFrom, mid),
+                        new MatchTask(mStrings, mPredicate, mWords, mid, mTo));
+            }
+        }
+    }
+
+    private static class MapTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence[] mStrings;
+        private final Function<CharSequence, T> mFunction;
+        private final T mEmpty;
+        private final Object[] mResults;
+        private final int mFrom;
+        private final int mTo;
+
+        MapTask(CharSequence[] strings, Function<CharSequence, T> function, T empty, Object[] results,
+                int from, int to) {
+            mStrings = strings;
+            mFunction = function;
+            mEmpty = empty;
+            mResults = results;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= LEAF_SIZE) {
+                for (int i = mFrom; i < mTo; i++) {
+                    CharSequence s = mStrings[i];
+                    mResults[i] = s == null ? mEmpty : mFunction.apply(s);
+                }
+            } else {
+                int mid = split(mFrom, mTo);
+                invokeAll(new MapTask<T>(mStrings, mFunction, mEmpty, mResults, mFrom, mid),
+                        new MapTask<T>(mStrings, mFunction, mEmpty, mResults, mid, mTo));
+            }
+        }
+    }
+}
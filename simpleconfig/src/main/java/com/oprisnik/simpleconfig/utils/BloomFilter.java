@@ -0,0 +1,165 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Blocked Bloom filter.
+ * <p/>
+ * All bits of an entry are set in one block of 512 bits, so a lookup touches a single cache line.
+ * Entries are hashed by their UTF-8 encoding, so strings and UTF-8 encoded bytes can be mixed.
+ */
+final class BloomFilter {
+
+    private static final int BLOCK_LONGS = 8;
+    private static final int BLOCK_MASK = BLOCK_LONGS * 64 - 1;
+    private static final int MAX_HASHES = 16;
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final long[] mBits;
+    private final int mBlockCount;
+    private final int mHashCount;
+
+    /**
+     * Create a new filter.
+     *
+     * @param capacity          the number of entries the filter is sized for
+     * @param falsePositiveRate the desired false positive rate at the given capacity
+     */
+    BloomFilter(int capacity, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        }
+        capacity = Math.max(1, capacity);
+        double ln2 = Math.log(2);
+        // blocking increases the false positive rate a bit, so we add 10% more bits
+        double bits = 1.1 * -capacity * Math.log(falsePositiveRate) / (ln2 * ln2);
+        long blocks = (long) Math.ceil(bits / (BLOCK_LONGS * 64));
+        mBlockCount = (int) Math.max(1, Math.min(blocks, Integer.MAX_VALUE / BLOCK_LONGS));
+        mHashCount = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bits / capacity * ln2)));
+        mBits = new long[mBlockCount * BLOCK_LONGS];
+    }
+
+    void add(byte[] utf8, int off, int len) {
+        add(hash(utf8, off, len));
+    }
+
+    /**
+     * Check if the filter might contain the given string.
+     *
+     * @param s the string to check
+     * @return false if the filter definitely does not contain the string
+     */
+    boolean mightContain(CharSequence s) {
+        return mightContain(hash(s));
+    }
+
+    boolean mightContain(byte[] utf8, int off, int len) {
+        return mightContain(hash(utf8, off, len));
+    }
+
+    boolean mightContain(ByteBuffer utf8, int off, int len) {
+        return mightContain(hash(utf8, off, len));
+    }
+
+    private void add(long hash) {
+        int block = block(hash) * BLOCK_LONGS;
+        long g = mix(hash + FNV_PRIME);
+        int h1 = (int) g;
+        int h2 = (int) (g >>> 32) | 1;
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = (h1 + i * h2) & BLOCK_MASK;
+            mBits[block + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        int block = block(hash) * BLOCK_LONGS;
+        long g = mix(hash + FNV_PRIME);
+        int h1 = (int) g;
+        int h2 = (int) (g >>> 32) | 1;
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = (h1 + i * h2) & BLOCK_MASK;
+            if ((mBits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * mBlockCount) >>> 32);
+    }
+
+    /**
+     * Hash the UTF-8 encoding of the given string without encoding it.
+     */
+    static long hash(CharSequence s) {
+        long h = FNV_OFFSET;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                h = (h ^ c) * FNV_PRIME;
+            } else if (c < 0x800) {
+                h = (h ^ (0xC0 | (c >> 6))) * FNV_PRIME;
+                h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                h = (h ^ (0xF0 | (cp >> 18))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((cp >> 12) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((cp >> 6) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | (cp & 0x3F))) * FNV_PRIME;
+            } else if (Character.isSurrogate(c)) {
+                h = (h ^ '?') * FNV_PRIME;
+            } else {
+                h = (h ^ (0xE0 | (c >> 12))) * FNV_PRIME;
+                h = (h ^ (0x80 | ((c >> 6) & 0x3F))) * FNV_PRIME;
+                h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            }
+        }
+        return mix(h);
+    }
+
+    static long hash(byte[] utf8, int off, int len) {
+        long h = FNV_OFFSET;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = (h ^ (utf8[i] & 0xFF)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    static long hash(ByteBuffer utf8, int off, int len) {
+        long h = FNV_OFFSET;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = (h ^ (utf8.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,400 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact, immutable trie over the characters of a set of strings.
+ * <p/>
+ * The nodes are numbered in breadth-first order, so the children of a node are stored
+ * next to each other and sorted by their label. A node is identified by its index,
+ * the root node has the index {@link #ROOT}.
+ */
+final class CharTrie {
+
+    static final int ROOT = 0;
+
+    static final int NONE = -1;
+
+    private static final int MAX_NODES = Integer.MAX_VALUE - 8;
+
+    private static final int ASCII = 128;
+
+    /**
+     * Sorted words of the trie.
+     */
+    private final String[] mWords;
+
+    /**
+     * Index of the first child of every node, the children of node n are in [mFirstChild[n], mFirstChild[n + 1]).
+     */
+    private final int[] mFirstChild;
+
+    /**
+     * Label of the edge leading to every node.
+     */
+    private final char[] mLabel;
+
+    /**
+     * Index of the word that ends at every node or {@link #NONE}.
+     */
+    private final int[] mWord;
+
+    /**
+     * Children of the root node for ASCII labels.
+     */
+    private final int[] mRootChildren;
+
+    /**
+     * True if the case of the text is folded while the trie is walked, see {@link StringFolding}.
+     */
+    private final boolean mFoldCase;
+
+    CharTrie(Collection<String> words) {
+        this(words, false);
+    }
+
+    /**
+     * Create a trie.
+     *
+     * @param words    the words of the trie, already folded if the case is folded
+     * @param foldCase true to fold the case of the text that is matched against the trie
+     */
+    CharTrie(Collection<String> words, boolean foldCase) {
+        mFoldCase = foldCase;
+        List<String> list = new ArrayList<String>(words.size());
+        long capacity = 1;
+        for (String word : words) {
+            if (word != null) {
+                list.add(word);
+                capacity += word.length();
+            }
+        }
+        // every character can add a node
+        if (capacity > MAX_NODES) {
+            throw new IllegalStateException("Too many characters for a trie: " + capacity + ", at most " + MAX_NODES);
+        }
+        String[] sorted = list.toArray(new String[list.size()]);
+        Arrays.sort(sorted);
+
+        // every node covers the range of sorted words [lo, hi) that share the prefix of the node
+        int[] lo = new int[(int) capacity];
+        int[] hi = new int[(int) capacity];
+        int[] depth = new int[(int) capacity];
+        int[] firstChild = new int[(int) capacity + 1];
+        char[] label = new char[(int) capacity];
+        int[] wordIndex = new int[(int) capacity];
+        int[] uniqueWords = new int[sorted.length];
+        int wordCount = 0;
+
+        hi[ROOT] = sorted.length;
+        int count = 1;
+        for (int node = 0; node < count; node++) {
+            int l = lo[node];
+            int h = hi[node];
+            int d = depth[node];
+            wordIndex[node] = NONE;
+            // all words that end here are equal and sorted first
+            if (l < h && sorted[l].length() == d) {
+                uniqueWords[wordCount] = l;
+                wordIndex[node] = wordCount++;
+                while (l < h && sorted[l].length() == d) {
+                    l++;
+                }
+            }
+            firstChild[node] = count;
+            while (l < h) {
+                char c = sorted[l].charAt(d);
+                int end = l + 1;
+                while (end < h && sorted[end].charAt(d) == c) {
+                    end++;
+                }
+                lo[count] = l;
+                hi[count] = end;
+                depth[count] = d + 1;
+                label[count] = c;
+                count++;
+                l = end;
+            }
+        }
+        firstChild[count] = count;
+
+        mWords = new String[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            mWords[i] = sorted[uniqueWords[i]];
+        }
+        mFirstChild = Arrays.copyOf(firstChild, count + 1);
+        mLabel = Arrays.copyOf(label, count);
+        mWord = Arrays.copyOf(wordIndex, count);
+        mRootChildren = new int[ASCII];
+        Arrays.fill(mRootChildren, NONE);
+        for (int child = mFirstChild[ROOT]; child < mFirstChild[ROOT + 1]; child++) {
+            if (mLabel[child] < ASCII) {
+                mRootChildren[mLabel[child]] = child;
+            }
+        }
+    }
+
+    /**
+     * Get the child of the given node for the given character.
+     *
+     * @param node the node
+     * @param c    the label of the child
+     * @return the child or {@link #NONE}
+     */
+    int child(int node, char c) {
+        if (node == ROOT && c < ASCII) {
+            return mRootChildren[c];
+        }
+        int low = mFirstChild[node];
+        int high = mFirstChild[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = mLabel[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Get the child of the given node for the given character of a text, folding its case if needed.
+     *
+     * @param node the node
+     * @param c    the character of the text
+     * @return the child or {@link #NONE}
+     */
+    int step(int node, char c) {
+        return child(node, mFoldCase ? StringFolding.foldCase(c) : c);
+    }
+
+    boolean foldsCase() {
+        return mFoldCase;
+    }
+
+    /**
+     * Check if at least one word is a prefix of the given text.
+     *
+     * @param text the text to check
+     * @return true if a word is a prefix of the text
+     */
+    boolean matchesPrefix(CharSequence text) {
+        int node = ROOT;
+        for (int i = 0, length = text.length(); ; i++) {
+            if (mWord[node] != NONE) {
+                return true;
+            }
+            if (i == length) {
+                return false;
+            }
+            node = step(node, text.charAt(i));
+            if (node == NONE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Check if at least one word is a prefix of the given UTF-8 encoded text.
+     * The text only matches up to the first malformed sequence.
+     *
+     * @param utf8 the encoded text
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return true if a word is a prefix of the text
+     */
+    boolean matchesPrefix(byte[] utf8, int off, int len) {
+        int node = ROOT;
+        for (int i = off, end = off + len; ; ) {
+            if (mWord[node] != NONE) {
+                return true;
+            }
+            if (i == end) {
+                return false;
+            }
+            long decoded = Utf8.decode(utf8, i, end);
+            node = codePointChild(node, Utf8.codePoint(decoded));
+            if (node == NONE) {
+                return false;
+            }
+            i += Utf8.length(decoded);
+        }
+    }
+
+    /**
+     * Check if at least one word is a prefix of the given UTF-8 encoded text, see
+     * {@link #matchesPrefix(byte[], int, int)}.
+     *
+     * @param utf8 the encoded text, only absolute reads are used
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return true if a word is a prefix of the text
+     */
+    boolean matchesPrefix(ByteBuffer utf8, int off, int len) {
+        int node = ROOT;
+        for (int i = off, end = off + len; ; ) {
+            if (mWord[node] != NONE) {
+                return true;
+            }
+            if (i == end) {
+                return false;
+            }
+            long decoded = Utf8.decode(utf8, i, end);
+            node = codePointChild(node, Utf8.codePoint(decoded));
+            if (node == NONE) {
+                return false;
+            }
+            i += Utf8.length(decoded);
+        }
+    }
+
+    /**
+     * Find the word that is equal to the given text.
+     *
+     * @param text the text to find
+     * @return the index of the word or {@link #NONE}
+     */
+    int find(CharSequence text) {
+        int node = ROOT;
+        for (int i = 0, length = text.length(); i < length && node != NONE; i++) {
+            node = step(node, text.charAt(i));
+        }
+        return node == NONE ? NONE : mWord[node];
+    }
+
+    /**
+     * Find the word that is equal to the given UTF-8 encoded text.
+     *
+     * @param utf8 the encoded text
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return the index of the word or {@link #NONE}, also for malformed text
+     */
+    int find(byte[] utf8, int off, int len) {
+        int node = ROOT;
+        for (int i = off, end = off + len; i < end && node != NONE; ) {
+            long decoded = Utf8.decode(utf8, i, end);
+            node = codePointChild(node, Utf8.codePoint(decoded));
+            i += Utf8.length(decoded);
+        }
+        return node == NONE ? NONE : mWord[node];
+    }
+
+    /**
+     * Find the word that is equal to the given UTF-8 encoded text.
+     *
+     * @param utf8 the encoded text, only absolute reads are used
+     * @param off  the offset of the text
+     * @param len  the length of the text
+     * @return the index of the word or {@link #NONE}, also for malformed text
+     */
+    int find(ByteBuffer utf8, int off, int len) {
+        int node = ROOT;
+        for (int i = off, end = off + len; i < end && node != NONE; ) {
+            long decoded = Utf8.decode(utf8, i, end);
+            node = codePointChild(node, Utf8.codePoint(decoded));
+            i += Utf8.length(decoded);
+        }
+        return node == NONE ? NONE : mWord[node];
+    }
+
+    /**
+     * Get the node that is reached from the given node with the UTF-16 encoding of a code point.
+     *
+     * @param node      the node
+     * @param codePoint the code point or {@link Utf8#MALFORMED}
+     * @return the node or {@link #NONE}
+     */
+    int codePointChild(int node, int codePoint) {
+        if (codePoint < 0) {
+            return NONE;
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return step(node, (char) codePoint);
+        }
+        node = child(node, Character.highSurrogate(codePoint));
+        return node == NONE ? NONE : child(node, Character.lowSurrogate(codePoint));
+    }
+
+    /**
+     * Get the longest word that is a prefix of the given text.
+     *
+     * @param text the text to check
+     * @return the index of the longest word that is a prefix of the text or {@link #NONE}
+     */
+    int longestPrefix(CharSequence text) {
+        int node = ROOT;
+        int longest = NONE;
+        for (int i = 0, length = text.length(); ; i++) {
+            if (mWord[node] != NONE) {
+                longest = mWord[node];
+            }
+            if (i == length) {
+                return longest;
+            }
+            node = step(node, text.charAt(i));
+            if (node == NONE) {
+                return longest;
+            }
+        }
+    }
+
+    /**
+     * Get the index of the word that ends at the given node.
+     *
+     * @param node the node
+     * @return the index of the word or {@link #NONE}
+     */
+    int word(int node) {
+        return mWord[node];
+    }
+
+    String getWord(int word) {
+        return mWords[word];
+    }
+
+    int getWordCount() {
+        return mWords.length;
+    }
+
+    int getNodeCount() {
+        return mLabel.length;
+    }
+
+    int getFirstChild(int node) {
+        return mFirstChild[node];
+    }
+
+    int getChildEnd(int node) {
+        return mFirstChild[node + 1];
+    }
+
+    char getLabel(int node) {
+        return mLabel[node];
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+/**
+ * Reads the entries of a list in the same shape as {@link StringList}:
+ * a nested file with one entry per line or list.string values.
+ * The entries are passed to a handler one by one, so large files are not kept in memory as strings.
+ */
+final class ConfigLines {
+
+    interface Handler {
+
+        /**
+         * Handle a trimmed, non-empty entry.
+         *
+         * @param entry the entry
+         * @throws IllegalArgumentException if the entry is not valid
+         */
+        void entry(String entry);
+    }
+
+    private ConfigLines() {
+    }
+
+    /**
+     * Read the charset of the list.
+     *
+     * @param config         the configuration to use
+     * @param defaultCharset the charset to use if none is configured
+     * @return the charset
+     * @throws BadConfigException if the charset is not valid
+     */
+    static Charset readCharset(Config config, Charset defaultCharset) throws BadConfigException {
+        String charset = config.getProperty(StringList.KEY_CHARSET);
+        if (charset == null) {
+            return defaultCharset;
+        }
+        try {
+            return Charset.forName(charset.trim());
+        } catch (IllegalArgumentException e) {
+            throw new BadConfigException("Invalid " + StringList.KEY_CHARSET + ": " + charset);
+        }
+    }
+
+    /**
+     * Pass all entries of the list to the handler.
+     *
+     * @param config  the configuration to use
+     * @param charset the charset of the file
+     * @param owner   the name of the component for error messages
+     * @param handler the handler to use
+     * @throws BadConfigException if the file could not be read or an entry is not valid
+     */
+    static void read(Config config, Charset charset, String owner, Handler handler) throws BadConfigException {
+        if (config.hasProperty(StringList.KEY_FILE)) {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new InputStreamReader(
+                        config.getNestedInputStream(StringList.KEY_FILE), charset));
+                String data;
+                while ((data = br.readLine()) != null) {
+                    handle(data, owner, handler);
+                }
+            } catch (IOException e) {
+                throw new BadConfigException("Could not init " + owner + ": " + e.getMessage());
+            } finally {
+                if (br != null) {
+                    try {
+                        br.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+        } else {
+            Collection<String> values = config.getCollection(StringList.KEY_LIST + "." + StringList.KEY_STRING);
+            if (values != null) {
+                for (String s : values) {
+                    if (s != null) {
+                        handle(s, owner, handler);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void handle(String entry, String owner, Handler handler) throws BadConfigException {
+        entry = entry.trim();
+        if (entry.length() > 0) {
+            try {
+                handler.entry(entry);
+            } catch (IllegalArgumentException e) {
+                throw new BadConfigException("Could not init " + owner + ": invalid entry '" + entry + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,547 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted, front-coded image of a set of UTF-8 encoded strings.
+ * <p/>
+ * The strings are sorted by their bytes and split into blocks of {@link #BLOCK_SIZE} entries.
+ * The first entry of a block is stored completely, all other entries only store the length of the
+ * prefix they share with the previous entry and the remaining suffix. Lookups use a binary search
+ * over the first entries of the blocks followed by a scan of one block.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * int    magic
+ * int    version
+ * long   modification time of the source
+ * long   length of the source
+ * int    number of entries
+ * int    number of blocks
+ * int    length of the longest entry
+ * int    hash code of the options the source has been loaded with (charset, folding)
+ * long[] offsets of the blocks, relative to the start of the data
+ * byte[] data
+ * </pre>
+ * All lengths are stored as unsigned variable-length integers.
+ * A buffer cannot be larger than 2 GB, so larger images are mapped in segments that end at a block boundary.
+ * Instances only use absolute reads on the image, so they can be used by multiple threads.
+ */
+final class FrontCodedStrings {
+
+    static final int MAGIC = 0x53434C31;
+    static final int VERSION = 3;
+    static final int BLOCK_SIZE = 16;
+
+    private static final int HEADER_SIZE = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The header and the offsets of the blocks.
+     */
+    private final ByteBuffer mIndex;
+
+    /**
+     * The segments of the image, the first block and the position in the image of every segment.
+     */
+    private final ByteBuffer[] mSegments;
+    private final int[] mSegmentBlocks;
+    private final long[] mSegmentStarts;
+
+    private final long mSourceModified;
+    private final long mSourceLength;
+    private final int mSourceOptions;
+    private final int mCount;
+    private final int mBlockCount;
+    private final int mMaxLength;
+    private final int mDataStart;
+
+    FrontCodedStrings(ByteBuffer image) throws IOException {
+        this(image, new ByteBuffer[]{image}, new int[]{0}, new long[]{0});
+    }
+
+    private FrontCodedStrings(ByteBuffer index, ByteBuffer[] segments, int[] segmentBlocks, long[] segmentStarts)
+            throws IOException {
+        mIndex = index;
+        mSegments = segments;
+        mSegmentBlocks = segmentBlocks;
+        mSegmentStarts = segmentStarts;
+        mSourceModified = index.getLong(8);
+        mSourceLength = index.getLong(16);
+        mCount = index.getInt(24);
+        mBlockCount = index.getInt(28);
+        mMaxLength = index.getInt(32);
+        mSourceOptions = index.getInt(36);
+        mDataStart = dataStart(index);
+    }
+
+    /**
+     * Map the image of the given channel. The mapping stays valid after the channel has been closed.
+     *
+     * @param channel the channel of the image file
+     * @return the image
+     * @throws IOException if the file is not an image or could not be mapped
+     */
+    static FrontCodedStrings map(FileChannel channel) throws IOException {
+        return map(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Map the image of the given channel in segments of at most the given size.
+     */
+    static FrontCodedStrings map(FileChannel channel, long maxSegment) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Not a string list image");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        int dataStart = dataStart(header);
+        if (dataStart > size) {
+            throw new IOException("Truncated string list image");
+        }
+        ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataStart);
+        int blockCount = index.getInt(28);
+        List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        List<Integer> segmentBlocks = new ArrayList<Integer>();
+        List<Long> segmentStarts = new ArrayList<Long>();
+        // the index is mapped on its own, so the first segment starts with the data
+        long start = dataStart;
+        int block = 0;
+        while (true) {
+            // the last block that ends within the segment
+            int low = block;
+            int high = blockCount - 1;
+            int last = block - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long end = mid + 1 < blockCount ? dataStart + index.getLong(HEADER_SIZE + 8 * (mid + 1)) : size;
+                if (end - start <= maxSegment) {
+                    last = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (last < block && block < blockCount) {
+                throw new IOException("String list image block " + block + " is larger than " + maxSegment + " bytes");
+            }
+            long end = last + 1 < blockCount ? dataStart + index.getLong(HEADER_SIZE + 8 * (last + 1)) : size;
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            segmentBlocks.add(block);
+            segmentStarts.add(start);
+            if (last + 1 >= blockCount) {
+                break;
+            }
+            block = last + 1;
+            start = end;
+        }
+        int[] blocks = new int[segmentBlocks.size()];
+        long[] starts = new long[segmentStarts.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = segmentBlocks.get(i);
+            starts[i] = segmentStarts.get(i);
+        }
+        return new FrontCodedStrings(index, segments.toArray(new ByteBuffer[segments.size()]), blocks, starts);
+    }
+
+    /**
+     * Check the header and compute the start of the data.
+     */
+    private static int dataStart(ByteBuffer header) throws IOException {
+        if (header.capacity() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a string list image");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported string list image version " + header.getInt(4));
+        }
+        int blockCount = header.getInt(28);
+        if (blockCount < 0 || blockCount > (Integer.MAX_VALUE - HEADER_SIZE) / 8) {
+            throw new IOException("Invalid string list image block count " + blockCount);
+        }
+        return HEADER_SIZE + 8 * blockCount;
+    }
+
+    /**
+     * Write the image for the given entries.
+     *
+     * @param entries        the sorted entries without duplicates
+     * @param sourceModified the modification time of the source
+     * @param sourceLength   the length of the source
+     * @param sourceOptions  the hash code of the options the source has been loaded with
+     * @param output         the output stream to write to
+     * @throws IOException if the image could not be written
+     */
+    static void write(PackedStrings entries, long sourceModified, long sourceLength, int sourceOptions,
+                      OutputStream output) throws IOException {
+        int count = entries.size();
+        int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] blockOffsets = new long[blockCount];
+        int maxLength = 0;
+        // first pass: compute the offsets of the blocks
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            maxLength = Math.max(maxLength, entries.length(i));
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = offset;
+                offset += varIntSize(entries.length(i)) + entries.length(i);
+            } else {
+                int shared = sharedPrefix(entries, i - 1, i);
+                int suffix = entries.length(i) - shared;
+                offset += varIntSize(shared) + varIntSize(suffix) + suffix;
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sourceModified);
+        out.writeLong(sourceLength);
+        out.writeInt(count);
+        out.writeInt(blockCount);
+        out.writeInt(maxLength);
+        out.writeInt(sourceOptions);
+        for (long blockOffset : blockOffsets) {
+            out.writeLong(blockOffset);
+        }
+        // second pass: write the data
+        for (int i = 0; i < count; i++) {
+            int shared = 0;
+            if (i % BLOCK_SIZE != 0) {
+                shared = sharedPrefix(entries, i - 1, i);
+                writeVarInt(out, shared);
+            }
+            writeVarInt(out, entries.length(i) - shared);
+            out.write(entries.data(i), entries.offset(i) + shared, entries.length(i) - shared);
+        }
+        out.flush();
+    }
+
+    long getSourceModified() {
+        return mSourceModified;
+    }
+
+    long getSourceLength() {
+        return mSourceLength;
+    }
+
+    int getSourceOptions() {
+        return mSourceOptions;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Create a buffer that can hold every entry.
+     *
+     * @return the buffer
+     */
+    byte[] newScratch() {
+        return new byte[mMaxLength];
+    }
+
+    /**
+     * Find the greatest entry that is less than or equal to the given key.
+     *
+     * @param key     the key
+     * @param off     the offset of the key
+     * @param len     the length of the key
+     * @param scratch buffer for the entry, see {@link #newScratch()}
+     * @return the length of the entry that has been copied to the scratch buffer or -1 if there is no such entry
+     */
+    int floor(byte[] key, int off, int len, byte[] scratch) {
+        // find the last block whose first entry is less than or equal to the key
+        int low = 0;
+        int high = mBlockCount - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareFirst(mid, key, off, len) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+        // scan the block
+        int segment = segment(block);
+        ByteBuffer image = mSegments[segment];
+        int pos = position(segment, block);
+        int entries = Math.min(BLOCK_SIZE, mCount - block * BLOCK_SIZE);
+        int floorLength = -1;
+        for (int i = 0; i < entries; i++) {
+            int shared = 0;
+            if (i > 0) {
+                shared = readVarInt(image, pos);
+                pos += varIntSize(shared);
+            }
+            int suffix = readVarInt(image, pos);
+            pos += varIntSize(suffix);
+            // compare before copying, so that the floor entry stays in the scratch buffer
+            if (compareEntry(image, scratch, shared, pos, suffix, key, off, len) > 0) {
+                break;
+            }
+            for (int j = 0; j < suffix; j++) {
+                scratch[shared + j] = image.get(pos + j);
+            }
+            pos += suffix;
+            floorLength = shared + suffix;
+        }
+        return floorLength;
+    }
+
+    /**
+     * Check if the image contains the given key.
+     *
+     * @param key the key
+     * @param off the offset of the key
+     * @param len the length of the key
+     * @return true if the key is an entry of the image
+     */
+    boolean contains(byte[] key, int off, int len) {
+        if (len > mMaxLength) {
+            return false;
+        }
+        byte[] scratch = newScratch();
+        int length = floor(key, off, len, scratch);
+        return length == len && PackedStrings.compare(scratch, 0, length, key, off, len) == 0;
+    }
+
+    /**
+     * Find the entries that are prefixes of the given key, from the longest to the shortest.
+     *
+     * @param key     the key
+     * @param off     the offset of the key
+     * @param len     the length of the key
+     * @param scratch buffer for the entries, see {@link #newScratch()}
+     * @param result  collection for the entries or null to stop at the first entry
+     * @return the length of the longest entry that is a prefix of the key or -1
+     */
+    int prefixes(byte[] key, int off, int len, byte[] scratch, Collection<String> result) {
+        int longest = -1;
+        int end = len;
+        while (end >= 0) {
+            int length = floor(key, off, end, scratch);
+            if (length < 0) {
+                break;
+            }
+            int common = 0;
+            while (common < length && scratch[common] == key[off + common]) {
+                common++;
+            }
+            if (common == length) {
+                // the floor entry is a prefix of the key, shorter prefixes are less than it
+                if (longest < 0) {
+                    longest = length;
+                }
+                if (result == null) {
+                    break;
+                }
+                result.add(new String(scratch, 0, length, UTF_8));
+                end = length - 1;
+            } else {
+                // every entry that is a prefix of the key is a prefix of the common prefix
+                end = common;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Add the UTF-8 encoded bytes of all entries to the given filter.
+     *
+     * @param filter the filter to fill
+     */
+    void addTo(BloomFilter filter) {
+        byte[] scratch = newScratch();
+        ByteBuffer image = null;
+        int pos = 0;
+        for (int i = 0; i < mCount; i++) {
+            int shared = 0;
+            if (i % BLOCK_SIZE != 0) {
+                shared = readVarInt(image, pos);
+                pos += varIntSize(shared);
+            } else {
+                int segment = segment(i / BLOCK_SIZE);
+                image = mSegments[segment];
+                pos = position(segment, i / BLOCK_SIZE);
+            }
+            int suffix = readVarInt(image, pos);
+            pos += varIntSize(suffix);
+            for (int j = 0; j < suffix; j++) {
+                scratch[shared + j] = image.get(pos + j);
+            }
+            pos += suffix;
+            filter.add(scratch, 0, shared + suffix);
+        }
+    }
+
+    /**
+     * Decode all entries.
+     *
+     * @return all entries in sorted order
+     */
+    List<String> values() {
+        List<String> values = new ArrayList<String>(mCount);
+        byte[] scratch = newScratch();
+        ByteBuffer image = null;
+        int pos = 0;
+        for (int i = 0; i < mCount; i++) {
+            int shared = 0;
+            if (i % BLOCK_SIZE != 0) {
+                shared = readVarInt(image, pos);
+                pos += varIntSize(shared);
+            } else {
+                int segment = segment(i / BLOCK_SIZE);
+                image = mSegments[segment];
+                pos = position(segment, i / BLOCK_SIZE);
+            }
+            int suffix = readVarInt(image, pos);
+            pos += varIntSize(suffix);
+            for (int j = 0; j < suffix; j++) {
+                scratch[shared + j] = image.get(pos + j);
+            }
+            pos += suffix;
+            values.add(new String(scratch, 0, shared + suffix, UTF_8));
+        }
+        return values;
+    }
+
+    /**
+     * Compare the entry made of the first shared bytes of the scratch buffer and the suffix at the
+     * given position of the image with the given key.
+     */
+    private static int compareEntry(ByteBuffer image, byte[] scratch, int shared, int pos, int suffix,
+                                    byte[] key, int off, int len) {
+        int common = Math.min(shared, len);
+        for (int i = 0; i < common; i++) {
+            int diff = (scratch[i] & 0xFF) - (key[off + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        if (len <= shared) {
+            return shared + suffix - len;
+        }
+        common = Math.min(suffix, len - shared);
+        for (int i = 0; i < common; i++) {
+            int diff = (image.get(pos + i) & 0xFF) - (key[off + shared + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return shared + suffix - len;
+    }
+
+    private int compareFirst(int block, byte[] key, int off, int len) {
+        int segment = segment(block);
+        ByteBuffer image = mSegments[segment];
+        int pos = position(segment, block);
+        int length = readVarInt(image, pos);
+        pos += varIntSize(length);
+        int common = Math.min(length, len);
+        for (int i = 0; i < common; i++) {
+            int diff = (image.get(pos + i) & 0xFF) - (key[off + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - len;
+    }
+
+    /**
+     * @return the index of the segment that holds the given block
+     */
+    private int segment(int block) {
+        int low = 0;
+        int high = mSegmentBlocks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSegmentBlocks[mid] <= block) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the given block in the given segment
+     */
+    private int position(int segment, int block) {
+        long offset = mDataStart + mIndex.getLong(HEADER_SIZE + 8 * block);
+        return (int) (offset - mSegmentStarts[segment]);
+    }
+
+    private static int readVarInt(ByteBuffer image, int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = image.get(pos++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int sharedPrefix(PackedStrings entries, int a, int b) {
+        byte[] aData = entries.data(a);
+        byte[] bData = entries.data(b);
+        int aOff = entries.offset(a);
+        int bOff = entries.offset(b);
+        int length = Math.min(entries.length(a), entries.length(b));
+        int shared = 0;
+        while (shared < length && aData[aOff + shared] == bData[bOff + shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
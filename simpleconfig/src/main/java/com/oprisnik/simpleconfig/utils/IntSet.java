@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of ints stored in a sorted array. Uses 4 bytes per value and never boxes.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <ids class="com.oprisnik.simpleconfig.utils.IntSet">
+ * <list>
+ * <string>42</string>
+ * <string>-7</string>
+ * </list>
+ * </ids>
+ * <p/>
+ * Or with a file that contains one value per line:
+ * <p/>
+ * <ids class="com.oprisnik.simpleconfig.utils.IntSet">
+ * <file>ids.txt</file>
+ * </ids>
+ * <p/>
+ * Like {@link StringList}, modifications replace the array atomically, so lookups never block.
+ */
+public class IntSet extends SortedArraySet<int[]> {
+
+    public IntSet() {
+        super("IntSet");
+    }
+
+    public IntSet(int... values) {
+        this();
+        addAll(values);
+    }
+
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values(), value) >= 0;
+    }
+
+    /**
+     * Add a value. This copies the set, so prefer {@link #addAll(int...)}.
+     *
+     * @param value the value to add
+     */
+    public void add(int value) {
+        addAll(value);
+    }
+
+    public void addAll(int... values) {
+        addValues(values);
+    }
+
+    /**
+     * @return the sorted values
+     */
+    public int[] toArray() {
+        return values().clone();
+    }
+
+    @Override
+    int[] newArray(int length) {
+        return new int[length];
+    }
+
+    @Override
+    int length(int[] values) {
+        return values.length;
+    }
+
+    @Override
+    void parse(String entry, int[] values, int index) {
+        values[index] = Integer.parseInt(entry);
+    }
+
+    @Override
+    int sortDistinct(int[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.Configurable;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Set of inclusive long ranges, for example port ranges or IPv4 networks.
+ * The ranges are merged and stored as a sorted array of bounds, lookups are a binary search.
+ * <p/>
+ * An entry is a single value ("80"), a range ("1024-65535"), an IPv4 address ("10.1.2.3"),
+ * an IPv4 range ("10.0.0.1-10.0.0.9") or an IPv4 CIDR block ("192.168.0.0/16").
+ * IPv4 addresses are stored as unsigned 32 bit values, see {@link #parseIPv4(CharSequence)}.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <ports class="com.oprisnik.simpleconfig.utils.LongRangeSet">
+ * <list>
+ * <string>80</string>
+ * <string>1024-65535</string>
+ * </list>
+ * </ports>
+ * <p/>
+ * Or with a file that contains one entry per line:
+ * <p/>
+ * <networks class="com.oprisnik.simpleconfig.utils.LongRangeSet">
+ * <file>networks.txt</file>
+ * </networks>
+ * <p/>
+ * Like {@link StringList}, modifications replace the array atomically, so lookups never block.
+ */
+public class LongRangeSet implements Configurable {
+
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * Sorted, disjoint and non-adjacent ranges: start0, end0, start1, end1, ...
+     */
+    private volatile long[] mRanges = EMPTY;
+
+    private Charset mCharset = Charset.defaultCharset();
+
+    /**
+     * Load the ranges from the given configuration. The new ranges replace the current ones.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if the ranges could not be loaded or are not valid
+     */
+    @Override
+    public void init(Config config) throws BadConfigException {
+        mCharset = ConfigLines.readCharset(config, mCharset);
+        final Builder builder = new Builder();
+        ConfigLines.read(config, mCharset, "LongRangeSet", new ConfigLines.Handler() {
+            @Override
+            public void entry(String entry) {
+                builder.add(entry);
+            }
+        });
+        long[] ranges = builder.build();
+        synchronized (this) {
+            mRanges = ranges;
+        }
+    }
+
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("charset == null");
+        }
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    public boolean contains(long value) {
+        long[] ranges = mRanges;
+        // find the last range that starts at or before the value
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[2 * mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= 0 && value <= ranges[2 * hi + 1];
+    }
+
+    /**
+     * Check if the given IPv4 address is in the set. Does not allocate.
+     *
+     * @param address the address in dotted decimal notation
+     * @return true if the address is valid and in the set
+     */
+    public boolean containsIPv4(CharSequence address) {
+        long value = parseIPv4(address);
+        return value >= 0 && contains(value);
+    }
+
+    /**
+     * Add an entry in any of the supported formats.
+     *
+     * @param entry the entry to add
+     * @throws IllegalArgumentException if the entry is not valid
+     */
+    public synchronized void add(String entry) {
+        Builder builder = new Builder();
+        builder.addRanges(mRanges);
+        builder.add(entry.trim());
+        mRanges = builder.build();
+    }
+
+    /**
+     * Add an inclusive range.
+     *
+     * @param start the first value of the range
+     * @param end   the last value of the range
+     */
+    public synchronized void add(long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException("start > end: " + start + " > " + end);
+        }
+        Builder builder = new Builder();
+        builder.addRanges(mRanges);
+        builder.add(start, end);
+        mRanges = builder.build();
+    }
+
+    /**
+     * @return the number of disjoint ranges after merging
+     */
+    public int getRangeCount() {
+        return mRanges.length / 2;
+    }
+
+    /**
+     * @return the merged ranges as start0, end0, start1, end1, ...
+     */
+    public long[] toArray() {
+        return mRanges.clone();
+    }
+
+    /**
+     * Parse an IPv4 address in dotted decimal notation.
+     *
+     * @param address the address to parse
+     * @return the address as unsigned 32 bit value or -1 if the address is not valid
+     */
+    public static long parseIPv4(CharSequence address) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = 0, length = address.length(); i < length; i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet < 0 ? c - '0' : octet * 10 + c - '0';
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                value = value << 8 | octet;
+                octets++;
+                octet = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || octets != 3) {
+            return -1;
+        }
+        return value << 8 | octet;
+    }
+
+    private static final class Builder {
+
+        private long[] mRanges = new long[64];
+        private int mCount;
+
+        void add(long start, long end) {
+            if (mCount == mRanges.length) {
+                mRanges = Arrays.copyOf(mRanges, mCount * 2);
+            }
+            mRanges[mCount++] = start;
+            mRanges[mCount++] = end;
+        }
+
+        void addRanges(long[] ranges) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                add(ranges[i], ranges[i + 1]);
+            }
+        }
+
+        void add(String entry) {
+            int slash = entry.indexOf('/');
+            if (slash >= 0) {
+                long address = parseValue(entry.substring(0, slash).trim(), true);
+                int prefix = Integer.parseInt(entry.substring(slash + 1).trim());
+                if (prefix < 0 || prefix > 32) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + prefix);
+                }
+                long mask = (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+                long start = address & mask;
+                add(start, start | (~mask & 0xFFFFFFFFL));
+                return;
+            }
+            // a leading minus is the sign of the first value
+            int dash = entry.indexOf('-', 1);
+            long start;
+            long end;
+            if (dash > 0) {
+                start = parseValue(entry.substring(0, dash).trim(), false);
+                end = parseValue(entry.substring(dash + 1).trim(), false);
+            } else {
+                start = parseValue(entry, false);
+                end = start;
+            }
+            if (start > end) {
+                throw new IllegalArgumentException("start > end: " + entry);
+            }
+            add(start, end);
+        }
+
+        private static long parseValue(String value, boolean address) {
+            if (address || value.indexOf('.') >= 0) {
+                long result = parseIPv4(value);
+                if (result < 0) {
+                    throw new IllegalArgumentException("Invalid IPv4 address: " + value);
+                }
+                return result;
+            }
+            return Long.parseLong(value);
+        }
+
+        /**
+         * @return the sorted and merged ranges
+         */
+        long[] build() {
+            // the union of ranges only depends on the sorted starts and the sorted ends
+            int count = mCount / 2;
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = mRanges[2 * i];
+                ends[i] = mRanges[2 * i + 1];
+            }
+            Arrays.sort(starts);
+            Arrays.sort(ends);
+            long[] result = new long[mCount];
+            int size = 0;
+            int first = 0;
+            for (int i = 0; i < count; i++) {
+                // a gap follows if the next range starts after the end (merging adjacent ranges)
+                if (i == count - 1 || (ends[i] != Long.MAX_VALUE && starts[i + 1] > ends[i] + 1)) {
+                    result[size++] = starts[first];
+                    result[size++] = ends[i];
+                    first = i + 1;
+                }
+            }
+            return Arrays.copyOf(result, size);
+        }
+    }
+}
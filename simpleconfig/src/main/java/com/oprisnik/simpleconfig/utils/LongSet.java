@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs stored in a sorted array. Uses 8 bytes per value and never boxes.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <ids class="com.oprisnik.simpleconfig.utils.LongSet">
+ * <list>
+ * <string>9007199254740993</string>
+ * <string>-7</string>
+ * </list>
+ * </ids>
+ * <p/>
+ * Or with a file that contains one value per line:
+ * <p/>
+ * <ids class="com.oprisnik.simpleconfig.utils.LongSet">
+ * <file>ids.txt</file>
+ * </ids>
+ * <p/>
+ * Like {@link StringList}, modifications replace the array atomically, so lookups never block.
+ */
+public class LongSet extends SortedArraySet<long[]> {
+
+    public LongSet() {
+        super("LongSet");
+    }
+
+    public LongSet(long... values) {
+        this();
+        addAll(values);
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values(), value) >= 0;
+    }
+
+    /**
+     * Add a value. This copies the set, so prefer {@link #addAll(long...)}.
+     *
+     * @param value the value to add
+     */
+    public void add(long value) {
+        addAll(value);
+    }
+
+    public void addAll(long... values) {
+        addValues(values);
+    }
+
+    /**
+     * @return the sorted values
+     */
+    public long[] toArray() {
+        return values().clone();
+    }
+
+    @Override
+    long[] newArray(int length) {
+        return new long[length];
+    }
+
+    @Override
+    int length(long[] values) {
+        return values.length;
+    }
+
+    @Override
+    void parse(String entry, long[] values, int index) {
+        values[index] = Long.parseLong(entry);
+    }
+
+    @Override
+    int sortDistinct(long[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+}
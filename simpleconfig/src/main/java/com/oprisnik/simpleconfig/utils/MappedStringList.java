@@ -0,0 +1,581 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only string list for huge lists that is stored off-heap. It has the same lookups as {@link StringList},
+ * components that accept both can use {@link AbstractStringList}.
+ * <p/>
+ * The strings of the nested file are sorted and front-coded into a compact image that is stored
+ * next to the nested file (with the suffix {@value #INDEX_SUFFIX}) and memory-mapped.
+ * The image is rebuilt when the nested file changes. The list does not keep a String per entry
+ * on the heap, only the lookup methods allocate a small scratch buffer.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <string-list class="com.oprisnik.simpleconfig.utils.MappedStringList">
+ * <file>myHugeList.txt</file>
+ * </string-list>
+ * <p/>
+ * The image stores the strings encoded with UTF-8. The nested file is decoded with the charset of the
+ * list (see {@link #KEY_CHARSET}), files encoded with UTF-8 are copied into the image
+ * without decoding them. The file is loaded by multiple threads, see {@link StringList#load(File)}.
+ * <p/>
+ * {@link #contains(String)} and {@link #checkPrefix(String)} use a binary search over the image.
+ * {@link #checkSuffix(CharSequence)} and {@link #checkDomain(CharSequence)} look up every suffix of the
+ * given string or every label boundary of the host.
+ * {@link #checkContains(String)} checks every position of the given string, so it is slower than
+ * the automaton used by {@link StringList} for long strings. The lookups work on UTF-8 bytes, so the
+ * {@code byte[]} overloads are the cheapest, the other overloads encode or copy the key first.
+ */
+public class MappedStringList extends AbstractStringList {
+
+    public static final String INDEX_SUFFIX = ".index";
+    public static final String KEY_BLOOM_FILTER = "bloom-filter";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The current image and its Bloom filter, replaced together when the list is reloaded.
+     */
+    private volatile Snapshot mSnapshot;
+
+    /**
+     * The folding of the next image, the current image keeps the folding it has been built with.
+     */
+    private volatile StringFolding mFolding = StringFolding.NONE;
+
+    private double mBloomFilterRate = 0;
+
+    private final boolean mFrozen;
+
+    public MappedStringList() {
+        mFrozen = false;
+    }
+
+    private MappedStringList(Snapshot snapshot, Charset charset) {
+        super(charset);
+        mSnapshot = snapshot;
+        mFolding = snapshot == null ? StringFolding.NONE : snapshot.mFolding;
+        mFrozen = true;
+    }
+
+    /**
+     * Create a list for the given file. The image is created next to the file if needed.
+     *
+     * @param stringList the file with one string per line
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    public MappedStringList(File stringList) throws IOException {
+        this(stringList, 0);
+    }
+
+    /**
+     * Create a list for the given file with a Bloom filter in front of {@link #contains(String)}.
+     *
+     * @param stringList        the file with one string per line
+     * @param falsePositiveRate the false positive rate of the filter, 0 for no filter
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    public MappedStringList(File stringList, double falsePositiveRate) throws IOException {
+        this();
+        setBloomFilter(falsePositiveRate);
+        load(stringList);
+    }
+
+    /**
+     * Create a list for the given file with the given charset.
+     *
+     * @param stringList the file with one string per line
+     * @param charset    the charset of the file
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    public MappedStringList(File stringList, Charset charset) throws IOException {
+        this();
+        setCharset(charset);
+        load(stringList);
+    }
+
+    @Override
+    public void init(Config config) throws BadConfigException {
+        if (!config.hasProperty(KEY_FILE)) {
+            throw new BadConfigException("Could not init MappedStringList: no " + KEY_FILE + " defined");
+        }
+        initOptions(config);
+        String rate = config.getProperty(KEY_BLOOM_FILTER);
+        if (rate != null) {
+            try {
+                setBloomFilter(Double.parseDouble(rate.trim()));
+            } catch (IllegalArgumentException e) {
+                throw new BadConfigException("Invalid " + KEY_BLOOM_FILTER + " false positive rate: " + rate);
+            }
+        }
+        setFolding(StringList.readFolding(config));
+        // the image is stored next to the nested file, so it cannot be read from a stream
+        File file = config.getNestedLocalFile(KEY_FILE);
+        if (file == null) {
+            throw new BadConfigException("Could not init MappedStringList: " + KEY_FILE + " is not a local file");
+        }
+        try {
+            load(file);
+        } catch (Exception e) {
+            throw new BadConfigException("Could not init MappedStringList: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the given file. The image of the file replaces the current one.
+     *
+     * @param source the file with one string per line
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    @Override
+    public void load(File source) throws IOException {
+        checkNotFrozen();
+        Charset charset = getCharset();
+        StringFolding folding = getFolding();
+        int options = (charset.name() + ", " + folding).hashCode();
+        File index = new File(source.getPath() + INDEX_SUFFIX);
+        FrontCodedStrings image = null;
+        if (index.exists()) {
+            try {
+                image = map(index);
+            } catch (IOException e) {
+                // an image of an older version or a damaged image is rebuilt
+                image = null;
+            }
+            if (image != null && (image.getSourceModified() != source.lastModified()
+                    || image.getSourceLength() != source.length() || image.getSourceOptions() != options)) {
+                image = null;
+            }
+        }
+        if (image == null) {
+            build(source, charset, folding, options, index);
+            image = map(index);
+        }
+        BloomFilter filter = null;
+        if (mBloomFilterRate > 0) {
+            filter = new BloomFilter(image.size(), mBloomFilterRate);
+            image.addTo(filter);
+        }
+        mSnapshot = new Snapshot(image, filter, folding);
+    }
+
+    /**
+     * Get a view of the currently loaded image that is not replaced when this list is reloaded.
+     *
+     * @return the frozen list
+     */
+    @Override
+    public MappedStringList freeze() {
+        if (mFrozen) {
+            return this;
+        }
+        return new MappedStringList(mSnapshot, getCharset());
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    private void checkNotFrozen() {
+        if (mFrozen) {
+            throw new UnsupportedOperationException("MappedStringList is frozen");
+        }
+    }
+
+    @Override
+    StringFolding getFolding() {
+        return mFolding;
+    }
+
+    /**
+     * Set the folding of the strings. The image is rebuilt with the new folding when the list is loaded.
+     */
+    @Override
+    void setFolding(StringFolding folding) {
+        checkNotFrozen();
+        mFolding = folding;
+    }
+
+    /**
+     * Put a Bloom filter in front of {@link #contains(String)}. Lookups of strings that are not in the
+     * list are then mostly answered by the filter instead of a search in the memory-mapped image.
+     * The filter is built when the list is loaded, so this has to be called before.
+     * <p/>
+     * XML usage:
+     * <p/>
+     * <string-list class="com.oprisnik.simpleconfig.utils.MappedStringList">
+     * <bloom-filter>0.01</bloom-filter>
+     * <file>myList.txt</file>
+     * </string-list>
+     * <p/>
+     * Lists on the heap reject the option, a miss there costs a single hash lookup.
+     *
+     * @param falsePositiveRate the false positive rate of the filter, 0 to remove the filter
+     */
+    public void setBloomFilter(double falsePositiveRate) {
+        if (falsePositiveRate < 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        }
+        mBloomFilterRate = falsePositiveRate;
+    }
+
+    /**
+     * Build the image for the given source.
+     *
+     * @param source  the nested file
+     * @param charset the charset of the nested file
+     * @param folding the folding of the strings
+     * @param options the hash code of the options to store in the image
+     * @param index   the image file to create
+     * @throws IOException if the image could not be built
+     */
+    static void build(File source, Charset charset, StringFolding folding, int options, File index)
+            throws IOException {
+        long modified = source.lastModified();
+        long length = source.length();
+        PackedStrings entries = new ParallelLineLoader(source, charset, folding).loadPacked();
+
+        // write to a temporary file first, so that concurrent readers never see a partial image
+        File temp = File.createTempFile(index.getName() + ".", ".tmp", index.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024);
+            try {
+                FrontCodedStrings.write(entries, modified, length, options, output);
+            } finally {
+                output.close();
+            }
+            try {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static FrontCodedStrings map(File index) throws IOException {
+        FileInputStream input = new FileInputStream(index);
+        try {
+            // the mapping stays valid after the channel has been closed
+            return FrontCodedStrings.map(input.getChannel());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public boolean contains(String s) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || s == null) {
+            return false;
+        }
+        s = snapshot.mFolding.apply(s);
+        BloomFilter filter = snapshot.mBloomFilter;
+        if (filter != null && !filter.mightContain(s)) {
+            return false;
+        }
+        byte[] key = s.getBytes(UTF_8);
+        return snapshot.mImage.contains(key, 0, key.length);
+    }
+
+    @Override
+    public boolean contains(CharSequence s) {
+        return s != null && contains(s.toString());
+    }
+
+    @Override
+    public boolean contains(byte[] utf8, int offset, int length) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            return false;
+        }
+        if (!snapshot.mFolding.isIdentity()) {
+            return contains(new String(utf8, offset, length, UTF_8));
+        }
+        BloomFilter filter = snapshot.mBloomFilter;
+        if (filter != null && !filter.mightContain(utf8, offset, length)) {
+            return false;
+        }
+        return snapshot.mImage.contains(utf8, offset, length);
+    }
+
+    @Override
+    public boolean contains(ByteBuffer utf8, int offset, int length) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            return false;
+        }
+        if (!snapshot.mFolding.isIdentity()) {
+            return contains(toBytes(utf8, offset, length), 0, length);
+        }
+        // probe the filter before copying the key out of the buffer
+        BloomFilter filter = snapshot.mBloomFilter;
+        if (filter != null && !filter.mightContain(utf8, offset, length)) {
+            return false;
+        }
+        return snapshot.mImage.contains(toBytes(utf8, offset, length), 0, length);
+    }
+
+    @Override
+    public boolean checkPrefix(String string) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        byte[] key = snapshot.key(string);
+        return checkPrefix(snapshot.mImage, key, 0, key.length);
+    }
+
+    @Override
+    public boolean checkPrefix(CharSequence string) {
+        return checkPrefix(string.toString());
+    }
+
+    @Override
+    public boolean checkPrefix(byte[] utf8, int offset, int length) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        if (!snapshot.mFolding.isIdentity()) {
+            return checkPrefix(new String(utf8, offset, length, UTF_8));
+        }
+        return checkPrefix(snapshot.mImage, utf8, offset, length);
+    }
+
+    @Override
+    public boolean checkPrefix(ByteBuffer utf8, int offset, int length) {
+        return checkPrefix(toBytes(utf8, offset, length), 0, length);
+    }
+
+    private static boolean checkPrefix(FrontCodedStrings image, byte[] utf8, int offset, int length) {
+        return image.prefixes(utf8, offset, length, image.newScratch(), null) >= 0;
+    }
+
+    @Override
+    public String longestPrefix(String string) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return null;
+        }
+        FrontCodedStrings image = snapshot.mImage;
+        byte[] key = snapshot.key(string);
+        byte[] scratch = image.newScratch();
+        int length = image.prefixes(key, 0, key.length, scratch, null);
+        return length < 0 ? null : new String(scratch, 0, length, UTF_8);
+    }
+
+    @Override
+    public boolean checkSuffix(CharSequence string) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        byte[] key = snapshot.key(string.toString());
+        for (int i = 0; i <= key.length; i++) {
+            if ((i == key.length || (key[i] & 0xC0) != 0x80) && snapshot.mImage.contains(key, i, key.length - i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean checkDomain(CharSequence host) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        byte[] key = snapshot.key(host.toString());
+        return findDomain(snapshot.mImage, key) >= 0;
+    }
+
+    @Override
+    public String getDomain(CharSequence host) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return null;
+        }
+        byte[] key = snapshot.key(host.toString());
+        int start = findDomain(snapshot.mImage, key);
+        return start < 0 ? null : new String(key, start, domainEnd(key) - start, UTF_8);
+    }
+
+    /**
+     * Look up the suffixes of the host that start at a label boundary, longest first.
+     *
+     * @return the start of the longest listed suffix or -1
+     */
+    private static int findDomain(FrontCodedStrings image, byte[] host) {
+        int end = domainEnd(host);
+        for (int i = 0; i < end; i++) {
+            boolean label = i == 0 || host[i - 1] == '.';
+            // entries that start with a dot only match subdomains
+            if ((label || host[i] == '.') && image.contains(host, i, end - i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int domainEnd(byte[] host) {
+        return host.length > 0 && host[host.length - 1] == '.' ? host.length - 1 : host.length;
+    }
+
+    @Override
+    public boolean checkContains(String string) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        byte[] key = snapshot.key(string);
+        return checkContains(snapshot.mImage, key, 0, key.length);
+    }
+
+    @Override
+    public boolean checkContains(CharSequence string) {
+        return checkContains(string.toString());
+    }
+
+    @Override
+    public boolean checkContains(byte[] utf8, int offset, int length) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return true;
+        }
+        if (!snapshot.mFolding.isIdentity()) {
+            return checkContains(new String(utf8, offset, length, UTF_8));
+        }
+        return checkContains(snapshot.mImage, utf8, offset, length);
+    }
+
+    @Override
+    public boolean checkContains(ByteBuffer utf8, int offset, int length) {
+        return checkContains(toBytes(utf8, offset, length), 0, length);
+    }
+
+    private static boolean checkContains(FrontCodedStrings image, byte[] utf8, int offset, int length) {
+        byte[] scratch = image.newScratch();
+        for (int i = offset, end = offset + length; i < end; i++) {
+            // only start at the first byte of a character
+            if ((utf8[i] & 0xC0) != 0x80 && image.prefixes(utf8, i, end - i, scratch, null) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<String> getAllContainedStrings(String string) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || snapshot.mImage.size() == 0) {
+            return new ArrayList<String>();
+        }
+        FrontCodedStrings image = snapshot.mImage;
+        byte[] key = snapshot.key(string);
+        byte[] scratch = image.newScratch();
+        Set<String> contained = new LinkedHashSet<String>();
+        for (int i = 0; i < key.length; i++) {
+            if ((key[i] & 0xC0) != 0x80) {
+                image.prefixes(key, i, key.length - i, scratch, contained);
+            }
+        }
+        return new ArrayList<String>(contained);
+    }
+
+    /**
+     * The image is sorted, so sorted lookups walk neighbouring blocks and pages of the mapped file.
+     */
+    @Override
+    boolean isSortedLookupFaster() {
+        return true;
+    }
+
+    /**
+     * Get all strings of the list. The strings are decoded on every call.
+     *
+     * @return the strings of the list in sorted order
+     */
+    @Override
+    public Collection<String> values() {
+        FrontCodedStrings image = getImage();
+        if (image == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(image.values());
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    private FrontCodedStrings getImage() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot == null ? null : snapshot.mImage;
+    }
+
+    private static final class Snapshot {
+
+        final FrontCodedStrings mImage;
+        final BloomFilter mBloomFilter;
+        final StringFolding mFolding;
+
+        Snapshot(FrontCodedStrings image, BloomFilter bloomFilter, StringFolding folding) {
+            mImage = image;
+            mBloomFilter = bloomFilter;
+            mFolding = folding;
+        }
+
+        /**
+         * Fold and encode a string that is matched against the image.
+         */
+        byte[] key(String s) {
+            return mFolding.apply(s).getBytes(UTF_8);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Compression;
+import com.oprisnik.simpleconfig.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Read-only {@link StringMap} for very large tables that is stored off-heap.
+ * <p/>
+ * The hashed image of the nested file is stored next to the nested file (with the suffix
+ * {@value #INDEX_SUFFIX}) and memory-mapped. The image is rebuilt when the nested file or the charset
+ * changes, otherwise it is mapped without reading the nested file at all.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <country-codes class="com.oprisnik.simpleconfig.utils.MappedStringMap">
+ * <file>country-codes.tsv</file>
+ * </country-codes>
+ */
+public class MappedStringMap extends StringMap {
+
+    public static final String INDEX_SUFFIX = ".index";
+
+    public MappedStringMap() {
+    }
+
+    /**
+     * Create a map for the given file. The image is created next to the file if needed.
+     *
+     * @param file the file with one key and value separated by a tab per line
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    public MappedStringMap(File file) throws IOException {
+        load(file);
+    }
+
+    public MappedStringMap(File file, Charset charset) throws IOException {
+        setCharset(charset);
+        load(file);
+    }
+
+    @Override
+    public void init(Config config) throws BadConfigException {
+        if (!config.hasProperty(KEY_FILE)) {
+            throw new BadConfigException("Could not init MappedStringMap: no " + KEY_FILE + " defined");
+        }
+        setCharset(ConfigLines.readCharset(config, getCharset()));
+        // the image is stored next to the nested file, so it cannot be read from a stream
+        File file = config.getNestedLocalFile(KEY_FILE);
+        if (file == null) {
+            throw new BadConfigException("Could not init MappedStringMap: " + KEY_FILE + " is not a local file");
+        }
+        try {
+            load(file);
+        } catch (Exception e) {
+            throw new BadConfigException("Could not init MappedStringMap: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the given file. The image of the file replaces the current one.
+     *
+     * @param source the file with one key and value separated by a tab per line
+     * @throws IOException if the file could not be read or the image could not be written
+     */
+    @Override
+    public void load(File source) throws IOException {
+        Charset charset = getCharset();
+        int options = charset.name().hashCode();
+        File index = new File(source.getPath() + INDEX_SUFFIX);
+        StringTable table = null;
+        if (index.exists()) {
+            try {
+                table = map(index);
+            } catch (IOException e) {
+                // not an image of this version, rebuild it
+            }
+            if (table != null && (table.getSourceModified() != source.lastModified()
+                    || table.getSourceLength() != source.length() || table.getSourceOptions() != options)) {
+                table = null;
+            }
+        }
+        if (table == null) {
+            build(source, charset, options, index);
+            table = map(index);
+        }
+        setTable(table);
+    }
+
+    private static void build(File source, Charset charset, int options, File index) throws IOException {
+        long modified = source.lastModified();
+        long length = source.length();
+        byte[] image = new StringTable.Builder()
+                .addLines(Compression.decompress(new FileInputStream(source)), charset)
+                .build(modified, length, options);
+
+        // write to a temporary file first, so that concurrent readers never see a partial image
+        File temp = File.createTempFile(index.getName() + ".", ".tmp", index.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(image);
+            } finally {
+                output.close();
+            }
+            try {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static StringTable map(File index) throws IOException {
+        FileInputStream input = new FileInputStream(index);
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("String map image too large: " + index);
+            }
+            // the mapping stays valid after the channel has been closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StringTable(buffer);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Not supported, the map can only be loaded from a file.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void loadFromStream(InputStream input) throws IOException {
+        throw new UnsupportedOperationException("MappedStringMap can only be loaded from a file");
+    }
+
+    /**
+     * Not supported, the map is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void putAll(Map<String, String> map) {
+        throw new UnsupportedOperationException("MappedStringMap is read-only");
+    }
+
+    /**
+     * Not supported, the map is read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void put(String key, String value) {
+        throw new UnsupportedOperationException("MappedStringMap is read-only");
+    }
+}
@@ -0,0 +1,258 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable list of UTF-8 encoded strings that are packed into chunks of {@link #CHUNK_SIZE} bytes.
+ * Every entry is stored as a long with the chunk in the upper 16, the offset in the chunk in the middle 24
+ * and the length in the lower 24 bits, so no object is allocated per entry and the list can hold more
+ * than 2 GB. An entry never spans two chunks, so it can be no longer than {@link #MAX_LENGTH} bytes.
+ */
+final class PackedStrings {
+
+    static final int CHUNK_SIZE = 1 << 24;
+    static final int MAX_LENGTH = CHUNK_SIZE - 1;
+
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final int MAX_ENTRIES = Integer.MAX_VALUE - 8;
+    private static final int MASK = (1 << 24) - 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[][] mChunks = new byte[][]{new byte[4096]};
+    private int mChunkCount = 1;
+
+    /**
+     * The chunk that is filled and the number of bytes used in it.
+     */
+    private byte[] mData = mChunks[0];
+    private int mSize = 0;
+
+    private long[] mEntries = new long[256];
+    private int mCount = 0;
+
+    /**
+     * Add the given UTF-8 encoded bytes.
+     *
+     * @param src the source array
+     * @param off the offset of the entry
+     * @param len the length of the entry
+     */
+    void add(byte[] src, int off, int len) {
+        ensureData(len);
+        System.arraycopy(src, off, mData, mSize, len);
+        addEntry(mSize, len);
+        mSize += len;
+    }
+
+    /**
+     * Encode the given string with UTF-8 and add it.
+     *
+     * @param s the string to add
+     */
+    void add(CharSequence s) {
+        int length = s.length();
+        if (length > MAX_LENGTH / 3) {
+            // the encoded length could exceed a chunk
+            byte[] utf8 = s.toString().getBytes(UTF_8);
+            add(utf8, 0, utf8.length);
+            return;
+        }
+        ensureData(length * 3);
+        int start = mSize;
+        int pos = start;
+        byte[] data = mData;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                data[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                data[pos++] = (byte) (0xC0 | (c >> 6));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                data[pos++] = (byte) (0xF0 | (cp >> 18));
+                data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, encoded like String.getBytes does
+                data[pos++] = (byte) '?';
+            } else {
+                data[pos++] = (byte) (0xE0 | (c >> 12));
+                data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        addEntry(start, pos - start);
+        mSize = pos;
+    }
+
+    /**
+     * Add all entries of the given list.
+     *
+     * @param other the list to add
+     */
+    void addAll(PackedStrings other) {
+        for (int i = 0; i < other.mCount; i++) {
+            add(other.data(i), other.offset(i), other.length(i));
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the chunk that holds the entry with the given index
+     */
+    byte[] data(int index) {
+        return mChunks[(int) (mEntries[index] >>> 48)];
+    }
+
+    /**
+     * @return the offset of the entry with the given index in its chunk
+     */
+    int offset(int index) {
+        return (int) (mEntries[index] >>> 24) & MASK;
+    }
+
+    int length(int index) {
+        return (int) mEntries[index] & MASK;
+    }
+
+    /**
+     * Sort the entries by their unsigned bytes, which is the same as sorting by code points.
+     */
+    void sort() {
+        long[] entries = Arrays.copyOf(mEntries, mCount);
+        long[] buffer = new long[mCount];
+        mergeSort(entries, buffer, 0, mCount);
+        mEntries = entries;
+    }
+
+    /**
+     * Remove duplicate entries. The entries have to be sorted.
+     */
+    void deduplicate() {
+        int unique = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (unique == 0 || compare(mEntries[unique - 1], mEntries[i]) != 0) {
+                mEntries[unique++] = mEntries[i];
+            }
+        }
+        mCount = unique;
+    }
+
+    int compare(int a, int b) {
+        return compare(mEntries[a], mEntries[b]);
+    }
+
+    private int compare(long a, long b) {
+        return compare(mChunks[(int) (a >>> 48)], (int) (a >>> 24) & MASK, (int) a & MASK,
+                mChunks[(int) (b >>> 48)], (int) (b >>> 24) & MASK, (int) b & MASK);
+    }
+
+    static int compare(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        int length = Math.min(aLen, bLen);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[aOff + i] & 0xFF) - (b[bOff + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return aLen - bLen;
+    }
+
+    private void mergeSort(long[] entries, long[] buffer, int from, int to) {
+        int length = to - from;
+        if (length < 16) {
+            // insertion sort for small ranges
+            for (int i = from + 1; i < to; i++) {
+                long entry = entries[i];
+                int j = i - 1;
+                while (j >= from && compare(entries[j], entry) > 0) {
+                    entries[j + 1] = entries[j];
+                    j--;
+                }
+                entries[j + 1] = entry;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(entries, buffer, from, mid);
+        mergeSort(entries, buffer, mid, to);
+        if (compare(entries[mid - 1], entries[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(entries, from, buffer, from, length);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compare(buffer[left], buffer[right]) <= 0)) {
+                entries[i] = buffer[left++];
+            } else {
+                entries[i] = buffer[right++];
+            }
+        }
+    }
+
+    private void addEntry(int offset, int length) {
+        if (mCount == mEntries.length) {
+            if (mCount == MAX_ENTRIES) {
+                throw new IllegalStateException("Too many strings: more than " + MAX_ENTRIES);
+            }
+            mEntries = Arrays.copyOf(mEntries, (int) Math.min(mEntries.length * 2L, MAX_ENTRIES));
+        }
+        // an empty entry may start at the end of a full chunk
+        int start = length == 0 ? 0 : offset;
+        mEntries[mCount++] = ((long) (mChunkCount - 1) << 48) | ((long) start << 24) | length;
+    }
+
+    /**
+     * Make room for the given number of bytes in the current chunk or start a new chunk.
+     */
+    private void ensureData(int additional) {
+        if (additional > MAX_LENGTH) {
+            throw new IllegalStateException("String too long: " + additional + " bytes, at most " + MAX_LENGTH);
+        }
+        int required = mSize + additional;
+        if (required <= mData.length) {
+            return;
+        }
+        if (required <= CHUNK_SIZE) {
+            // only the first chunk grows, later chunks are allocated completely
+            mData = Arrays.copyOf(mData, Math.min(Math.max(required, mData.length * 2), CHUNK_SIZE));
+        } else {
+            if (mChunkCount == MAX_CHUNKS) {
+                throw new IllegalStateException("Too much data: more than " + (long) MAX_CHUNKS * CHUNK_SIZE
+                        + " bytes");
+            }
+            if (mChunkCount == mChunks.length) {
+                mChunks = Arrays.copyOf(mChunks, mChunks.length * 2);
+            }
+            mData = new byte[CHUNK_SIZE];
+            mChunkCount++;
+            mSize = 0;
+        }
+        mChunks[mChunkCount - 1] = mData;
+    }
+}
@@ -0,0 +1,481 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.Compression;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the lines of a file with multiple threads.
+ * <p/>
+ * The file is split into chunks on line boundaries. Every chunk is memory-mapped on its own,
+ * so files larger than 2 GB are supported. The worker threads take chunks until none are left
+ * and add the lines to their own shard, the shards are merged at the end.
+ * Line terminators and empty lines are handled like {@link BufferedReader#readLine()} does.
+ * <p/>
+ * Splitting requires a charset where the line terminators are single bytes that are never part of
+ * another character (UTF-8, ASCII and the other single-byte charsets). Files with other charsets
+ * and compressed files are read by a single thread.
+ */
+final class ParallelLineLoader {
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Smaller files are not split, the threads would cost more than they save.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private final File mFile;
+    private final Charset mCharset;
+    private final StringFolding mFolding;
+    private final int mParallelism;
+    private final int mChunkSize;
+
+    ParallelLineLoader(File file, Charset charset) {
+        this(file, charset, StringFolding.NONE);
+    }
+
+    /**
+     * Create a loader that folds every line, see {@link StringFolding#apply(String)}.
+     *
+     * @param file    the file to load
+     * @param charset the charset of the file
+     * @param folding the folding for the lines
+     */
+    ParallelLineLoader(File file, Charset charset, StringFolding folding) {
+        this(file, charset, folding, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelLineLoader(File file, Charset charset, StringFolding folding, int parallelism, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism + " or chunk size " + chunkSize);
+        }
+        mFile = file;
+        mCharset = charset;
+        mFolding = folding;
+        mParallelism = parallelism;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Load all non-empty lines as strings.
+     *
+     * @return the set of lines
+     * @throws IOException if the file could not be read
+     */
+    Set<String> loadStrings() throws IOException {
+        List<StringShard> shards = load(new ShardFactory<StringShard>() {
+            @Override
+            public StringShard create() {
+                return new StringShard(mCharset, mFolding);
+            }
+        });
+        // merge into the largest shard
+        Set<String> merged = null;
+        for (StringShard shard : shards) {
+            if (merged == null || shard.mStrings.size() > merged.size()) {
+                merged = shard.mStrings;
+            }
+        }
+        for (StringShard shard : shards) {
+            if (shard.mStrings != merged) {
+                merged.addAll(shard.mStrings);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Load all non-empty lines as UTF-8 encoded bytes. If the file is encoded with UTF-8 and the lines
+     * are not folded, the lines are copied without creating a String.
+     *
+     * @return the sorted lines without duplicates
+     * @throws IOException if the file could not be read
+     */
+    PackedStrings loadPacked() throws IOException {
+        List<PackedShard> shards = load(new ShardFactory<PackedShard>() {
+            @Override
+            public PackedShard create() {
+                return new PackedShard(mCharset, mFolding);
+            }
+        });
+        List<PackedStrings> sorted = new ArrayList<PackedStrings>(shards.size());
+        for (PackedShard shard : shards) {
+            sorted.add(shard.mStrings);
+        }
+        return merge(sorted);
+    }
+
+    /**
+     * Check if files with the given charset can be split at line terminator bytes.
+     *
+     * @param charset the charset to check
+     * @return true if the files can be split
+     */
+    static boolean isSplittable(Charset charset) {
+        if (UTF_8.equals(charset)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        return Arrays.equals("\r\n".getBytes(charset), new byte[]{'\r', '\n'});
+    }
+
+    private <T extends Shard> List<T> load(ShardFactory<T> factory) throws IOException {
+        FileInputStream input = new FileInputStream(mFile);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (!isSplittable(mCharset) || isCompressed(channel)) {
+                T shard = factory.create();
+                BufferedReader br = new BufferedReader(new InputStreamReader(Compression.decompress(input), mCharset));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    shard.add(line);
+                }
+                shard.finish();
+                List<T> shards = new ArrayList<T>(1);
+                shards.add(shard);
+                return shards;
+            }
+
+            long[] bounds = split(channel, size);
+            int chunks = bounds.length - 1;
+            Worker<T> worker = new Worker<T>(channel, bounds, factory);
+            int threads = Math.min(mParallelism, chunks);
+            List<T> shards = new ArrayList<T>(threads);
+            if (threads <= 1) {
+                shards.add(worker.call());
+                return shards;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "simpleconfig-loader-" + sThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                List<Future<T>> futures = executor.invokeAll(new ArrayList<Callable<T>>(
+                        Collections.nCopies(threads, worker)));
+                for (Future<T> future : futures) {
+                    shards.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + mFile);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Could not load " + mFile + ": " + cause);
+            } finally {
+                executor.shutdownNow();
+            }
+            return shards;
+        } finally {
+            try {
+                input.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Compute the chunk boundaries. Every chunk but the last one ends directly after a '\n'.
+     */
+    private long[] split(FileChannel channel, long size) throws IOException {
+        long chunkSize = Math.min(mChunkSize, Math.max(MIN_CHUNK_SIZE, size / mParallelism));
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long pos = chunkSize;
+        while (pos < size) {
+            long bound = nextLine(channel, pos - 1, size, scan);
+            if (bound >= size) {
+                break;
+            }
+            bounds.add(bound);
+            pos = bound + chunkSize;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Find the position after the first '\n' at or after the given position.
+     */
+    private static long nextLine(FileChannel channel, long pos, long size, ByteBuffer scan) throws IOException {
+        while (pos < size) {
+            scan.clear();
+            int read = channel.read(scan, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    private static boolean isCompressed(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+        }
+        magic.flip();
+        return Compression.detect(magic) != Compression.NONE;
+    }
+
+    /**
+     * Add the lines of the given chunk to the shard.
+     *
+     * @return the line buffer, which may have been grown
+     */
+    private static byte[] readLines(ByteBuffer chunk, Shard shard, byte[] line) {
+        int limit = chunk.limit();
+        int start = 0;
+        int i = 0;
+        while (i < limit) {
+            byte b = chunk.get(i);
+            if (b == '\n' || b == '\r') {
+                line = addLine(chunk, start, i - start, shard, line);
+                i++;
+                if (b == '\r' && i < limit && chunk.get(i) == '\n') {
+                    i++;
+                }
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start < limit) {
+            line = addLine(chunk, start, limit - start, shard, line);
+        }
+        return line;
+    }
+
+    private static byte[] addLine(ByteBuffer chunk, int start, int length, Shard shard, byte[] line) {
+        if (length == 0) {
+            return line;
+        }
+        if (length > line.length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        chunk.position(start);
+        chunk.get(line, 0, length);
+        shard.add(line, length);
+        return line;
+    }
+
+    /**
+     * Merge sorted lists and drop duplicates.
+     */
+    static PackedStrings merge(List<PackedStrings> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        PackedStrings merged = new PackedStrings();
+        int[] positions = new int[lists.size()];
+        while (true) {
+            PackedStrings min = null;
+            int minList = -1;
+            for (int i = 0; i < positions.length; i++) {
+                PackedStrings list = lists.get(i);
+                if (positions[i] < list.size() && (min == null
+                        || compare(list, positions[i], min, positions[minList]) < 0)) {
+                    min = list;
+                    minList = i;
+                }
+            }
+            if (min == null) {
+                return merged;
+            }
+            int index = positions[minList]++;
+            if (merged.size() == 0 || compare(merged, merged.size() - 1, min, index) != 0) {
+                merged.add(min.data(index), min.offset(index), min.length(index));
+            }
+        }
+    }
+
+    private static int compare(PackedStrings a, int aIndex, PackedStrings b, int bIndex) {
+        return PackedStrings.compare(a.data(aIndex), a.offset(aIndex), a.length(aIndex),
+                b.data(bIndex), b.offset(bIndex), b.length(bIndex));
+    }
+
+    /**
+     * Takes chunks until none are left and adds their lines to its own shard.
+     */
+    private class Worker<T extends Shard> implements Callable<T> {
+
+        private final FileChannel mChannel;
+        private final long[] mBounds;
+        private final ShardFactory<T> mFactory;
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        Worker(FileChannel channel, long[] bounds, ShardFactory<T> factory) {
+            mChannel = channel;
+            mBounds = bounds;
+            mFactory = factory;
+        }
+
+        @Override
+        public T call() throws IOException {
+            T shard = mFactory.create();
+            byte[] line = new byte[256];
+            int chunk;
+            while ((chunk = mNext.getAndIncrement()) < mBounds.length - 1) {
+                long start = mBounds[chunk];
+                long length = mBounds[chunk + 1] - start;
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Line too long in " + mFile);
+                }
+                line = readLines(mChannel.map(FileChannel.MapMode.READ_ONLY, start, length), shard, line);
+            }
+            shard.finish();
+            return shard;
+        }
+    }
+
+    private interface ShardFactory<T extends Shard> {
+        T create();
+    }
+
+    private abstract static class Shard {
+
+        /**
+         * Add a non-empty line.
+         *
+         * @param line   the encoded line
+         * @param length the length of the line
+         */
+        abstract void add(byte[] line, int length);
+
+        abstract void add(String line);
+
+        /**
+         * Called by the worker thread when all lines have been added.
+         */
+        void finish() {
+        }
+    }
+
+    private static class StringShard extends Shard {
+
+        private final Charset mCharset;
+        private final StringFolding mFolding;
+        private final Set<String> mStrings = new HashSet<String>();
+
+        StringShard(Charset charset, StringFolding folding) {
+            mCharset = charset;
+            mFolding = folding;
+        }
+
+        @Override
+        void add(byte[] line, int length) {
+            mStrings.add(mFolding.apply(new String(line, 0, length, mCharset)));
+        }
+
+        @Override
+        void add(String line) {
+            if (line.length() > 0) {
+                mStrings.add(mFolding.apply(line));
+            }
+        }
+    }
+
+    private static class PackedShard extends Shard {
+
+        private final boolean mCopy;
+        private final Charset mCharset;
+        private final StringFolding mFolding;
+        private final PackedStrings mStrings = new PackedStrings();
+
+        PackedShard(Charset charset, StringFolding folding) {
+            mCopy = UTF_8.equals(charset) && folding.isIdentity();
+            mCharset = charset;
+            mFolding = folding;
+        }
+
+        @Override
+        void add(byte[] line, int length) {
+            if (mCopy) {
+                mStrings.add(line, 0, length);
+            } else {
+                mStrings.add(mFolding.apply(new String(line, 0, length, mCharset)));
+            }
+        }
+
+        @Override
+        void add(String line) {
+            if (line.length() > 0) {
+                mStrings.add(mFolding.apply(line));
+            }
+        }
+
+        @Override
+        void finish() {
+            // sort in the worker thread, only the merge is sequential
+            mStrings.sort();
+            mStrings.deduplicate();
+        }
+    }
+}
@@ -0,0 +1,855 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches an input against many regular expressions with a single scan over the input.
+ * <p/>
+ * All patterns are compiled into one NFA (Thompson construction). The NFA is turned into a DFA lazily
+ * while inputs are matched, so only the states that are actually reached are built. A DFA state
+ * knows which patterns match if the input ends in it.
+ * <p/>
+ * The automaton supports the regular subset of {@link Pattern}: literals, escapes, character classes,
+ * groups, alternation and greedy or lazy quantifiers. Patterns that use anything else
+ * (backreferences, lookaround, flags, boundaries, ...) are matched with {@link Pattern} one by one.
+ * <p/>
+ * The automaton can be used by multiple threads.
+ */
+final class PatternAutomaton {
+
+    /**
+     * Maximum bound of a counted repetition that is expanded in the NFA.
+     */
+    static final int MAX_REPEAT = 100;
+
+    /**
+     * Maximum number of NFA nodes of a single pattern.
+     */
+    private static final int MAX_NODES = 10000;
+
+    /**
+     * Maximum number of cached DFA states. Further states are built for every step.
+     */
+    private static final int MAX_STATES = 10000;
+
+    private static final int SET = 0;
+    private static final int SPLIT = 1;
+    private static final int MATCH = 2;
+
+    private static final int[] DOT = {0, 0x09, 0x0B, 0x0C, 0x0E, 0x84, 0x86, 0x2027, 0x202A, Character.MAX_CODE_POINT};
+    private static final int[] DIGIT = {'0', '9'};
+    private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+    private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+
+    private final int mPatternCount;
+
+    // the NFA
+    private final int[] mType;
+    private final int[] mOut;
+    private final int[] mOut2;
+    private final int[][] mRanges;
+
+    /**
+     * Code points with the same membership in all ranges of the NFA form a class.
+     * Class i starts at mBoundaries[i].
+     */
+    private final int[] mBoundaries;
+    private final int[] mAsciiClass = new int[128];
+
+    private final ConcurrentHashMap<Key, DState> mStates = new ConcurrentHashMap<Key, DState>();
+    private final DState mDead;
+    private final DState mStart;
+
+    private final Pattern[] mFallback;
+    private final int[] mFallbackIndex;
+
+    /**
+     * Compile the given regular expressions.
+     *
+     * @param patterns the regular expressions, the index of a pattern is used to report matches
+     * @throws java.util.regex.PatternSyntaxException if a pattern is not valid
+     */
+    PatternAutomaton(List<String> patterns) {
+        mPatternCount = patterns.size();
+        Nfa nfa = new Nfa();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Pattern> fallback = new ArrayList<Pattern>();
+        List<Integer> fallbackIndex = new ArrayList<Integer>();
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            // validates the pattern
+            Pattern compiled = Pattern.compile(pattern);
+            int count = nfa.mCount;
+            try {
+                Node node = new Parser(pattern).parse();
+                starts.add(nfa.compile(node, nfa.add(MATCH, i, -1, null), count + MAX_NODES));
+            } catch (Unsupported e) {
+                nfa.mCount = count;
+                fallback.add(compiled);
+                fallbackIndex.add(i);
+            }
+        }
+        mType = Arrays.copyOf(nfa.mType, nfa.mCount);
+        mOut = Arrays.copyOf(nfa.mOut, nfa.mCount);
+        mOut2 = Arrays.copyOf(nfa.mOut2, nfa.mCount);
+        mRanges = Arrays.copyOf(nfa.mRanges, nfa.mCount);
+        mFallback = fallback.toArray(new Pattern[fallback.size()]);
+        mFallbackIndex = new int[fallbackIndex.size()];
+        for (int i = 0; i < mFallbackIndex.length; i++) {
+            mFallbackIndex[i] = fallbackIndex.get(i);
+        }
+
+        TreeSet<Integer> boundaries = new TreeSet<Integer>();
+        boundaries.add(0);
+        for (int[] ranges : mRanges) {
+            if (ranges != null) {
+                for (int i = 0; i < ranges.length; i += 2) {
+                    boundaries.add(ranges[i]);
+                    if (ranges[i + 1] < Character.MAX_CODE_POINT) {
+                        boundaries.add(ranges[i + 1] + 1);
+                    }
+                }
+            }
+        }
+        mBoundaries = new int[boundaries.size()];
+        int b = 0;
+        for (Integer boundary : boundaries) {
+            mBoundaries[b++] = boundary;
+        }
+        for (int cp = 0; cp < mAsciiClass.length; cp++) {
+            mAsciiClass[cp] = findClass(cp);
+        }
+
+        mDead = new DState(new int[0], null, mBoundaries.length, true);
+        Arrays.fill(mDead.mNext, mDead);
+        int[] seeds = new int[starts.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = starts.get(i);
+        }
+        mStart = state(closure(seeds, seeds.length));
+    }
+
+    int getPatternCount() {
+        return mPatternCount;
+    }
+
+    /**
+     * @return the number of patterns that are matched with {@link Pattern}
+     */
+    int getFallbackCount() {
+        return mFallback.length;
+    }
+
+    /**
+     * Check if any pattern matches the entire input.
+     *
+     * @param input the input to match
+     * @return true if at least one pattern matches
+     */
+    boolean matchesAny(CharSequence input) {
+        if (run(input).mAccepts != null) {
+            return true;
+        }
+        for (Pattern pattern : mFallback) {
+            if (pattern.matcher(input).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get all patterns that match the entire input.
+     *
+     * @param input the input to match
+     * @return the indices of the matching patterns
+     */
+    BitSet match(CharSequence input) {
+        BitSet accepts = run(input).mAccepts;
+        BitSet result = accepts == null ? new BitSet() : (BitSet) accepts.clone();
+        for (int i = 0; i < mFallback.length; i++) {
+            if (mFallback[i].matcher(input).matches()) {
+                result.set(mFallbackIndex[i]);
+            }
+        }
+        return result;
+    }
+
+    private DState run(CharSequence input) {
+        DState state = mStart;
+        for (int i = 0, length = input.length(); i < length && state != mDead; ) {
+            int cp = Character.codePointAt(input, i);
+            i += Character.charCount(cp);
+            int c = cp < 128 ? mAsciiClass[cp] : findClass(cp);
+            DState next = state.mNext[c];
+            state = next != null ? next : step(state, c);
+        }
+        return state;
+    }
+
+    private int findClass(int cp) {
+        int index = Arrays.binarySearch(mBoundaries, cp);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private DState step(DState state, int c) {
+        int cp = mBoundaries[c];
+        int[] seeds = new int[state.mNodes.length];
+        int count = 0;
+        for (int node : state.mNodes) {
+            if (mType[node] == SET && contains(mRanges[node], cp)) {
+                seeds[count++] = mOut[node];
+            }
+        }
+        DState next = state(closure(seeds, count));
+        if (next.mCached) {
+            state.mNext[c] = next;
+        }
+        return next;
+    }
+
+    private DState state(int[] nodes) {
+        if (nodes.length == 0) {
+            return mDead;
+        }
+        Key key = new Key(nodes);
+        DState state = mStates.get(key);
+        if (state != null) {
+            return state;
+        }
+        BitSet accepts = null;
+        for (int node : nodes) {
+            if (mType[node] == MATCH) {
+                if (accepts == null) {
+                    accepts = new BitSet();
+                }
+                accepts.set(mOut[node]);
+            }
+        }
+        boolean cached = mStates.size() < MAX_STATES;
+        state = new DState(nodes, accepts, mBoundaries.length, cached);
+        if (cached) {
+            DState previous = mStates.putIfAbsent(key, state);
+            if (previous != null) {
+                state = previous;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Follow all empty transitions from the given nodes.
+     *
+     * @return the sorted set and match nodes that are reached
+     */
+    private int[] closure(int[] seeds, int count) {
+        BitSet seen = new BitSet();
+        int[] stack = new int[16];
+        int size = 0;
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            stack[size++] = seeds[i];
+            while (size > 0) {
+                int node = stack[--size];
+                if (seen.get(node)) {
+                    continue;
+                }
+                seen.set(node);
+                if (mType[node] == SPLIT) {
+                    if (size + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[size++] = mOut2[node];
+                    stack[size++] = mOut[node];
+                } else {
+                    result.add(node);
+                }
+            }
+        }
+        int[] nodes = new int[result.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = result.get(i);
+        }
+        Arrays.sort(nodes);
+        return nodes;
+    }
+
+    private static boolean contains(int[] ranges, int cp) {
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cp < ranges[2 * mid]) {
+                hi = mid - 1;
+            } else if (cp > ranges[2 * mid + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sort and merge the given ranges.
+     */
+    private static int[] normalize(List<int[]> ranges) {
+        int[][] sorted = ranges.toArray(new int[ranges.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        int[] result = new int[sorted.length * 2];
+        int count = 0;
+        for (int[] range : sorted) {
+            if (count > 0 && range[0] <= result[count - 1] + 1) {
+                result[count - 1] = Math.max(result[count - 1], range[1]);
+            } else {
+                result[count++] = range[0];
+                result[count++] = range[1];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] complement(int[] ranges) {
+        int[] result = new int[ranges.length + 2];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > start) {
+                result[count++] = start;
+                result[count++] = ranges[i] - 1;
+            }
+            start = ranges[i + 1] + 1;
+        }
+        if (start <= Character.MAX_CODE_POINT) {
+            result[count++] = start;
+            result[count++] = Character.MAX_CODE_POINT;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static final class DState {
+
+        /**
+         * Sorted set and match nodes of the NFA.
+         */
+        final int[] mNodes;
+
+        /**
+         * Patterns that match if the input ends here, null if none.
+         */
+        final BitSet mAccepts;
+
+        /**
+         * Next state for every class, null if not built yet.
+         * The states are immutable, so racy writes are harmless.
+         */
+        final DState[] mNext;
+
+        final boolean mCached;
+
+        DState(int[] nodes, BitSet accepts, int classes, boolean cached) {
+            mNodes = nodes;
+            mAccepts = accepts;
+            mNext = new DState[classes];
+            mCached = cached;
+        }
+    }
+
+    private static final class Key {
+
+        private final int[] mNodes;
+        private final int mHash;
+
+        Key(int[] nodes) {
+            mNodes = nodes;
+            mHash = Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(mNodes, ((Key) o).mNodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    /**
+     * Growable NFA.
+     * Set nodes consume a code point of their ranges and go to out, split nodes go to out and out2,
+     * match nodes store the pattern index in out.
+     */
+    private static final class Nfa {
+
+        int[] mType = new int[64];
+        int[] mOut = new int[64];
+        int[] mOut2 = new int[64];
+        int[][] mRanges = new int[64][];
+        int mCount;
+
+        int add(int type, int out, int out2, int[] ranges) {
+            if (mCount == mType.length) {
+                int size = mCount * 2;
+                mType = Arrays.copyOf(mType, size);
+                mOut = Arrays.copyOf(mOut, size);
+                mOut2 = Arrays.copyOf(mOut2, size);
+                mRanges = Arrays.copyOf(mRanges, size);
+            }
+            mType[mCount] = type;
+            mOut[mCount] = out;
+            mOut2[mCount] = out2;
+            mRanges[mCount] = ranges;
+            return mCount++;
+        }
+
+        /**
+         * Compile the node so that it continues with next.
+         *
+         * @return the start of the compiled node
+         */
+        int compile(Node node, int next, int limit) throws Unsupported {
+            if (mCount > limit) {
+                throw new Unsupported();
+            }
+            switch (node.mKind) {
+                case Node.SET:
+                    return add(SET, next, -1, node.mRanges);
+                case Node.CONCAT:
+                    for (int i = node.mChildren.length - 1; i >= 0; i--) {
+                        next = compile(node.mChildren[i], next, limit);
+                    }
+                    return next;
+                case Node.ALT: {
+                    int last = node.mChildren.length - 1;
+                    int start = compile(node.mChildren[last], next, limit);
+                    for (int i = last - 1; i >= 0; i--) {
+                        start = add(SPLIT, compile(node.mChildren[i], next, limit), start, null);
+                    }
+                    return start;
+                }
+                default: {
+                    Node child = node.mChildren[0];
+                    int start = next;
+                    if (node.mMax < 0) {
+                        int loop = add(SPLIT, -1, next, null);
+                        // compile may grow the arrays, so do not evaluate mOut first
+                        int body = compile(child, loop, limit);
+                        mOut[loop] = body;
+                        start = loop;
+                    } else {
+                        for (int i = node.mMin; i < node.mMax; i++) {
+                            start = add(SPLIT, compile(child, start, limit), next, null);
+                        }
+                    }
+                    for (int i = 0; i < node.mMin; i++) {
+                        start = compile(child, start, limit);
+                    }
+                    return start;
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+
+        static final int SET = 0;
+        static final int CONCAT = 1;
+        static final int ALT = 2;
+        static final int REPEAT = 3;
+
+        final int mKind;
+        final int[] mRanges;
+        final Node[] mChildren;
+        final int mMin;
+        final int mMax;
+
+        private Node(int kind, int[] ranges, Node[] children, int min, int max) {
+            mKind = kind;
+            mRanges = ranges;
+            mChildren = children;
+            mMin = min;
+            mMax = max;
+        }
+
+        static Node set(int[] ranges) {
+            return new Node(SET, ranges, null, 0, 0);
+        }
+
+        static Node literal(int cp) {
+            return set(new int[]{cp, cp});
+        }
+
+        static Node of(int kind, List<Node> children) {
+            if (children.size() == 1) {
+                return children.get(0);
+            }
+            return new Node(kind, null, children.toArray(new Node[children.size()]), 0, 0);
+        }
+
+        static Node repeat(Node child, int min, int max) {
+            return new Node(REPEAT, null, new Node[]{child}, min, max);
+        }
+    }
+
+    /**
+     * Thrown for patterns that the automaton does not support.
+     */
+    private static final class Unsupported extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of {@link Pattern}.
+     * The pattern has already been validated by {@link Pattern#compile(String)}.
+     */
+    private static final class Parser {
+
+        private final int[] mPattern;
+        private int mPos;
+
+        Parser(String pattern) {
+            mPattern = pattern.codePoints().toArray();
+        }
+
+        Node parse() throws Unsupported {
+            Node node = parseAlternation();
+            if (mPos != mPattern.length) {
+                throw new Unsupported();
+            }
+            return node;
+        }
+
+        private boolean more() {
+            return mPos < mPattern.length;
+        }
+
+        private int peek() {
+            return mPattern[mPos];
+        }
+
+        private int next() throws Unsupported {
+            if (!more()) {
+                throw new Unsupported();
+            }
+            return mPattern[mPos++];
+        }
+
+        private Node parseAlternation() throws Unsupported {
+            List<Node> branches = new ArrayList<Node>();
+            branches.add(parseConcatenation());
+            while (more() && peek() == '|') {
+                mPos++;
+                branches.add(parseConcatenation());
+            }
+            return Node.of(Node.ALT, branches);
+        }
+
+        private Node parseConcatenation() throws Unsupported {
+            List<Node> items = new ArrayList<Node>();
+            while (more() && peek() != '|' && peek() != ')') {
+                items.add(parseRepetition());
+            }
+            return items.isEmpty() ? new Node(Node.CONCAT, null, new Node[0], 0, 0) : Node.of(Node.CONCAT, items);
+        }
+
+        private Node parseRepetition() throws Unsupported {
+            Node atom = parseAtom();
+            if (!more()) {
+                return atom;
+            }
+            int min;
+            int max;
+            switch (peek()) {
+                case '*':
+                    min = 0;
+                    max = -1;
+                    break;
+                case '+':
+                    min = 1;
+                    max = -1;
+                    break;
+                case '?':
+                    min = 0;
+                    max = 1;
+                    break;
+                case '{': {
+                    mPos++;
+                    min = parseNumber();
+                    max = min;
+                    if (peek() == ',') {
+                        mPos++;
+                        max = peek() == '}' ? -1 : parseNumber();
+                    }
+                    if (peek() != '}' || min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+                        throw new Unsupported();
+                    }
+                    break;
+                }
+                default:
+                    return atom;
+            }
+            mPos++;
+            if (more()) {
+                if (peek() == '?') {
+                    // lazy quantifiers match the same inputs entirely
+                    mPos++;
+                } else if (peek() == '+') {
+                    // possessive quantifiers do not
+                    throw new Unsupported();
+                }
+            }
+            if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+                throw new Unsupported();
+            }
+            return Node.repeat(atom, min, max);
+        }
+
+        private int parseNumber() throws Unsupported {
+            int start = mPos;
+            int value = 0;
+            while (more() && peek() >= '0' && peek() <= '9' && mPos - start < 6) {
+                value = value * 10 + (next() - '0');
+            }
+            if (mPos == start || !more()) {
+                throw new Unsupported();
+            }
+            return value;
+        }
+
+        private Node parseAtom() throws Unsupported {
+            int start = mPos;
+            int cp = next();
+            switch (cp) {
+                case '(': {
+                    if (more() && peek() == '?') {
+                        mPos++;
+                        if (next() != ':') {
+                            throw new Unsupported();
+                        }
+                    }
+                    Node node = parseAlternation();
+                    if (next() != ')') {
+                        throw new Unsupported();
+                    }
+                    return node;
+                }
+                case '[':
+                    return Node.set(parseClass());
+                case '.':
+                    return Node.set(DOT);
+                case '\\':
+                    return parseEscape();
+                case '^':
+                    // only supported where it cannot fail
+                    if (start != 0) {
+                        throw new Unsupported();
+                    }
+                    return new Node(Node.CONCAT, null, new Node[0], 0, 0);
+                case '$':
+                    if (more()) {
+                        throw new Unsupported();
+                    }
+                    return new Node(Node.CONCAT, null, new Node[0], 0, 0);
+                case ')':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new Unsupported();
+                default:
+                    return Node.literal(cp);
+            }
+        }
+
+        private Node parseEscape() throws Unsupported {
+            if (more() && peek() == 'Q') {
+                mPos++;
+                List<Node> literals = new ArrayList<Node>();
+                while (more()) {
+                    if (peek() == '\\' && mPos + 1 < mPattern.length && mPattern[mPos + 1] == 'E') {
+                        mPos += 2;
+                        break;
+                    }
+                    literals.add(Node.literal(next()));
+                }
+                return Node.of(Node.CONCAT, literals);
+            }
+            int[] ranges = parseEscapeRanges();
+            return Node.set(ranges);
+        }
+
+        /**
+         * Parse the escape after a backslash.
+         *
+         * @return the ranges the escape stands for
+         */
+        private int[] parseEscapeRanges() throws Unsupported {
+            int cp = next();
+            switch (cp) {
+                case 'd':
+                    return DIGIT;
+                case 'D':
+                    return complement(DIGIT);
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return complement(SPACE);
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return complement(WORD);
+                case 't':
+                    return single('\t');
+                case 'n':
+                    return single('\n');
+                case 'r':
+                    return single('\r');
+                case 'f':
+                    return single('\f');
+                case 'a':
+                    return single(0x07);
+                case 'e':
+                    return single(0x1B);
+                case 'c':
+                    return single(next() ^ 64);
+                case '0': {
+                    int value = 0;
+                    int digits = 0;
+                    while (more() && peek() >= '0' && peek() <= '7' && digits < 3
+                            && (digits < 2 || value <= 037)) {
+                        value = value * 8 + (next() - '0');
+                        digits++;
+                    }
+                    return single(value);
+                }
+                case 'x': {
+                    int value;
+                    if (more() && peek() == '{') {
+                        mPos++;
+                        value = parseHex(-1);
+                        if (next() != '}') {
+                            throw new Unsupported();
+                        }
+                    } else {
+                        value = parseHex(2);
+                    }
+                    return single(value);
+                }
+                case 'u': {
+                    int value = parseHex(4);
+                    if (Character.isSurrogate((char) value)) {
+                        // may be combined with the next escape
+                        throw new Unsupported();
+                    }
+                    return single(value);
+                }
+                default:
+                    if (Character.isLetterOrDigit(cp)) {
+                        throw new Unsupported();
+                    }
+                    return single(cp);
+            }
+        }
+
+        private int parseHex(int digits) throws Unsupported {
+            int value = 0;
+            int count = 0;
+            while (more() && Character.digit(peek(), 16) >= 0 && count != digits) {
+                value = value * 16 + Character.digit(next(), 16);
+                if (++count > 6 || value > Character.MAX_CODE_POINT) {
+                    throw new Unsupported();
+                }
+            }
+            if (count == 0 || (digits > 0 && count != digits)) {
+                throw new Unsupported();
+            }
+            return value;
+        }
+
+        private int[] parseClass() throws Unsupported {
+            boolean negate = false;
+            if (more() && peek() == '^') {
+                negate = true;
+                mPos++;
+            }
+            if (more() && peek() == ']') {
+                throw new Unsupported();
+            }
+            List<int[]> ranges = new ArrayList<int[]>();
+            while (true) {
+                int cp = next();
+                if (cp == ']') {
+                    break;
+                }
+                if (cp == '[' || (cp == '&' && more() && peek() == '&')) {
+                    throw new Unsupported();
+                }
+                int[] item;
+                if (cp == '\\') {
+                    if (more() && peek() == 'Q') {
+                        throw new Unsupported();
+                    }
+                    item = parseEscapeRanges();
+                } else {
+                    item = single(cp);
+                }
+                if (more() && peek() == '-' && mPos + 1 < mPattern.length && mPattern[mPos + 1] != ']') {
+                    if (item.length != 2 || item[0] != item[1]) {
+                        throw new Unsupported();
+                    }
+                    mPos++;
+                    int end = next();
+                    int[] endItem = end == '\\' ? parseEscapeRanges() : single(end);
+                    if (end == '[' || endItem.length != 2 || endItem[0] != endItem[1] || endItem[0] < item[0]) {
+                        throw new Unsupported();
+                    }
+                    item = new int[]{item[0], endItem[0]};
+                }
+                for (int i = 0; i < item.length; i += 2) {
+                    ranges.add(new int[]{item[i], item[i + 1]});
+                }
+            }
+            int[] result = normalize(ranges);
+            return negate ? complement(result) : result;
+        }
+
+        private static int[] single(int cp) {
+            return new int[]{cp, cp};
+        }
+    }
+}
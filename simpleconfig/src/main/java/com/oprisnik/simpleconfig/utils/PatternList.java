@@ -0,0 +1,435 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.Configurable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * List of glob and regex patterns that are matched in a single pass over the input.
+ * <p/>
+ * A pattern matches if it matches the entire input, like {@link String#matches(String)}.
+ * Patterns can be prefixed with "glob:" or "regex:", patterns without a prefix use the default syntax
+ * (regex unless configured otherwise). Globs support *, ?, [abc], [!abc], [a-z], {a,b} and \ escapes,
+ * * and ? match any character.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <pattern-list class="com.oprisnik.simpleconfig.utils.PatternList">
+ * <list syntax="glob">
+ * <string>*.example.com</string>
+ * <string>regex:user-[0-9]+</string>
+ * </list>
+ * </pattern-list>
+ * <p/>
+ * Commas in list values have to be escaped ("{a\,b}"), pattern files are read verbatim.
+ * <p/>
+ * Or with a file that contains one pattern per line:
+ * <p/>
+ * <pattern-list class="com.oprisnik.simpleconfig.utils.PatternList">
+ * <charset>UTF-8</charset>
+ * <file>patterns.txt</file>
+ * </pattern-list>
+ * <p/>
+ * All patterns are compiled into one automaton, so the time to match an input does not grow with the
+ * number of patterns. Regex features that are not regular (backreferences, lookaround, boundaries,
+ * inline flags, ...) are supported by matching the affected patterns with {@link java.util.regex.Pattern}.
+ * <p/>
+ * Like {@link StringList}, the compiled patterns are replaced atomically on modifications,
+ * so lookups never block.
+ */
+public class PatternList implements Configurable {
+
+    public static final String KEY_FILE = StringList.KEY_FILE;
+    public static final String KEY_LIST = StringList.KEY_LIST;
+    public static final String KEY_STRING = StringList.KEY_STRING;
+    public static final String KEY_CHARSET = StringList.KEY_CHARSET;
+    public static final String ATTR_SYNTAX = "syntax";
+
+    public static final String SYNTAX_GLOB = "glob";
+    public static final String SYNTAX_REGEX = "regex";
+
+    private volatile Compiled mCompiled = new Compiled(Collections.<String>emptyList(), SYNTAX_REGEX);
+
+    private Charset mCharset = Charset.defaultCharset();
+
+    public PatternList() {
+    }
+
+    public PatternList(Collection<String> patterns) {
+        addAll(patterns);
+    }
+
+    /**
+     * Load the patterns from the given configuration. The new patterns replace the current ones.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if the patterns could not be loaded or are not valid
+     */
+    @Override
+    public void init(Config config) throws BadConfigException {
+        String charset = config.getProperty(KEY_CHARSET);
+        if (charset != null) {
+            try {
+                setCharset(Charset.forName(charset.trim()));
+            } catch (IllegalArgumentException e) {
+                throw new BadConfigException("Invalid " + KEY_CHARSET + ": " + charset);
+            }
+        }
+        String key = config.hasProperty(KEY_FILE) ? KEY_FILE : KEY_LIST;
+        String syntax = config.getProperty(key + "[@" + ATTR_SYNTAX + "]", SYNTAX_REGEX).trim();
+        if (!SYNTAX_GLOB.equals(syntax) && !SYNTAX_REGEX.equals(syntax)) {
+            throw new BadConfigException("Invalid " + ATTR_SYNTAX + ": " + syntax);
+        }
+        List<String> patterns;
+        if (config.hasProperty(KEY_FILE)) {
+            try {
+                patterns = readLines(config.getNestedInputStream(KEY_FILE));
+            } catch (Exception e) {
+                throw new BadConfigException("Could not init PatternList: " + e.getMessage());
+            }
+        } else {
+            patterns = new ArrayList<String>();
+            Collection<String> values = config.getCollection(KEY_LIST + "." + KEY_STRING);
+            if (values != null) {
+                for (String s : values) {
+                    if (s != null) {
+                        patterns.add(s);
+                    }
+                }
+            }
+        }
+        Compiled compiled;
+        try {
+            compiled = new Compiled(patterns, syntax);
+        } catch (PatternSyntaxException e) {
+            throw new BadConfigException("Invalid pattern: " + e.getMessage());
+        }
+        synchronized (this) {
+            mCompiled = compiled;
+        }
+    }
+
+    private List<String> readLines(InputStream input) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(input, mCharset));
+            String data;
+            while ((data = br.readLine()) != null) {
+                if (data.length() > 0) {
+                    lines.add(data);
+                }
+            }
+            return lines;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the charset that is used to decode pattern files.
+     *
+     * @param charset the charset to use
+     */
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("charset == null");
+        }
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    /**
+     * Set the syntax of patterns without a "glob:" or "regex:" prefix.
+     * Only affects patterns that are added afterwards.
+     *
+     * @param syntax {@link #SYNTAX_GLOB} or {@link #SYNTAX_REGEX}
+     */
+    public synchronized void setDefaultSyntax(String syntax) {
+        if (!SYNTAX_GLOB.equals(syntax) && !SYNTAX_REGEX.equals(syntax)) {
+            throw new IllegalArgumentException("Invalid syntax: " + syntax);
+        }
+        mCompiled = mCompiled.withDefaultSyntax(syntax);
+    }
+
+    public String getDefaultSyntax() {
+        return mCompiled.mDefaultSyntax;
+    }
+
+    /**
+     * Add a pattern. This recompiles all patterns, so prefer {@link #addAll(Collection)}.
+     *
+     * @param pattern the pattern to add
+     * @throws PatternSyntaxException if the pattern is not valid
+     */
+    public void add(String pattern) {
+        addAll(Collections.singletonList(pattern));
+    }
+
+    /**
+     * Add the given patterns.
+     *
+     * @param patterns the patterns to add
+     * @throws PatternSyntaxException if a pattern is not valid
+     */
+    public synchronized void addAll(Collection<String> patterns) {
+        mCompiled = mCompiled.withPatterns(patterns);
+    }
+
+    /**
+     * Get the patterns as they have been added. The index of a pattern in this list is
+     * the index that is used by {@link #match(CharSequence)}.
+     *
+     * @return the patterns
+     */
+    public List<String> getPatterns() {
+        return mCompiled.mPatterns;
+    }
+
+    public int size() {
+        return mCompiled.mPatterns.size();
+    }
+
+    /**
+     * Check if any pattern matches the entire input.
+     *
+     * @param input the input to match
+     * @return true if at least one pattern matches
+     */
+    public boolean matches(CharSequence input) {
+        return mCompiled.mAutomaton.matchesAny(input);
+    }
+
+    /**
+     * Find all patterns that match the entire input with a single pass over the input.
+     *
+     * @param input the input to match
+     * @return the indices of the matching patterns in {@link #getPatterns()}
+     */
+    public BitSet match(CharSequence input) {
+        return mCompiled.mAutomaton.match(input);
+    }
+
+    /**
+     * Find all patterns that match the entire input.
+     *
+     * @param input the input to match
+     * @return the matching patterns in the order of {@link #getPatterns()}
+     */
+    public List<String> getMatchingPatterns(CharSequence input) {
+        Compiled compiled = mCompiled;
+        BitSet matches = compiled.mAutomaton.match(input);
+        List<String> result = new ArrayList<String>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.add(compiled.mPatterns.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of patterns that cannot be compiled into the automaton
+     */
+    int getFallbackCount() {
+        return mCompiled.mAutomaton.getFallbackCount();
+    }
+
+    /**
+     * Convert the pattern to a regular expression.
+     *
+     * @param pattern       the pattern, optionally prefixed with its syntax
+     * @param defaultSyntax the syntax of patterns without a prefix
+     * @return the regular expression
+     */
+    static String toRegex(String pattern, String defaultSyntax) {
+        if (pattern.startsWith(SYNTAX_REGEX + ":")) {
+            return pattern.substring(SYNTAX_REGEX.length() + 1);
+        } else if (pattern.startsWith(SYNTAX_GLOB + ":")) {
+            return globToRegex(pattern.substring(SYNTAX_GLOB.length() + 1));
+        } else if (SYNTAX_GLOB.equals(defaultSyntax)) {
+            return globToRegex(pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Convert a glob to a regular expression.
+     *
+     * @param glob the glob to convert
+     * @return the regular expression
+     * @throws PatternSyntaxException if the glob is not valid
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 16);
+        boolean inGroup = false;
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length()) {
+                        throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    }
+                    appendLiteral(regex, glob.charAt(i++));
+                    break;
+                case '*':
+                    regex.append("[\\s\\S]*");
+                    break;
+                case '?':
+                    regex.append("[\\s\\S]");
+                    break;
+                case '[': {
+                    int start = i - 1;
+                    regex.append('[');
+                    if (i < glob.length() && glob.charAt(i) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    boolean empty = true;
+                    while (i < glob.length() && (glob.charAt(i) != ']' || empty)) {
+                        char d = glob.charAt(i++);
+                        if (d == '\\') {
+                            if (i == glob.length()) {
+                                break;
+                            }
+                            d = glob.charAt(i++);
+                        } else if (d == '-' && !empty && i < glob.length() && glob.charAt(i) != ']') {
+                            regex.append('-');
+                            continue;
+                        }
+                        if ("\\[]&^-".indexOf(d) >= 0) {
+                            regex.append('\\');
+                        }
+                        regex.append(d);
+                        empty = false;
+                    }
+                    if (i == glob.length()) {
+                        throw new PatternSyntaxException("Missing ']'", glob, start);
+                    }
+                    i++;
+                    regex.append(']');
+                    break;
+                }
+                case '{':
+                    if (inGroup) {
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i - 1);
+                    }
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append(')');
+                        inGroup = false;
+                    } else {
+                        appendLiteral(regex, c);
+                    }
+                    break;
+                case ',':
+                    if (inGroup) {
+                        regex.append('|');
+                    } else {
+                        regex.append(c);
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        if (inGroup) {
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length());
+        }
+        return regex.toString();
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    /**
+     * Immutable patterns and their automaton.
+     */
+    private static final class Compiled {
+
+        final List<String> mPatterns;
+
+        /**
+         * The patterns converted to regular expressions, so that changing the default syntax
+         * does not change the meaning of existing patterns.
+         */
+        final List<String> mRegexes;
+
+        final String mDefaultSyntax;
+        final PatternAutomaton mAutomaton;
+
+        Compiled(List<String> patterns, String defaultSyntax) {
+            this(Collections.<String>emptyList(), Collections.<String>emptyList(), patterns, defaultSyntax);
+        }
+
+        private Compiled(List<String> patterns, List<String> regexes, Collection<String> added, String defaultSyntax) {
+            List<String> allPatterns = new ArrayList<String>(patterns);
+            List<String> allRegexes = new ArrayList<String>(regexes);
+            for (String pattern : added) {
+                allPatterns.add(pattern);
+                allRegexes.add(toRegex(pattern, defaultSyntax));
+            }
+            mPatterns = Collections.unmodifiableList(allPatterns);
+            mRegexes = Collections.unmodifiableList(allRegexes);
+            mDefaultSyntax = defaultSyntax;
+            mAutomaton = new PatternAutomaton(mRegexes);
+        }
+
+        private Compiled(Compiled compiled, String defaultSyntax) {
+            mPatterns = compiled.mPatterns;
+            mRegexes = compiled.mRegexes;
+            mDefaultSyntax = defaultSyntax;
+            mAutomaton = compiled.mAutomaton;
+        }
+
+        Compiled withDefaultSyntax(String syntax) {
+            return new Compiled(this, syntax);
+        }
+
+        Compiled withPatterns(Collection<String> added) {
+            return new Compiled(mPatterns, mRegexes, added, mDefaultSyntax);
+        }
+    }
+}
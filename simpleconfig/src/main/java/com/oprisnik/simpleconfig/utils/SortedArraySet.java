@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.Configurable;
+
+import java.nio.charset.Charset;
+
+/**
+ * Base class of the sets of primitive values that are stored in a sorted array, see {@link IntSet}
+ * and {@link LongSet}.
+ * <p/>
+ * Loading, copy-on-write updates and the charset are shared, the subclasses only implement the
+ * operations on their array type, so values are never boxed.
+ *
+ * @param <A> the array type
+ */
+abstract class SortedArraySet<A> implements Configurable {
+
+    private final String mName;
+
+    private volatile A mValues;
+
+    private Charset mCharset = Charset.defaultCharset();
+
+    SortedArraySet(String name) {
+        mName = name;
+        mValues = newArray(0);
+    }
+
+    /**
+     * Load the values from the given configuration. The new values replace the current ones.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if the values could not be loaded or are not valid
+     */
+    @Override
+    public void init(Config config) throws BadConfigException {
+        mCharset = ConfigLines.readCharset(config, mCharset);
+        final Builder builder = new Builder(64);
+        ConfigLines.read(config, mCharset, mName, new ConfigLines.Handler() {
+            @Override
+            public void entry(String entry) {
+                builder.add(entry);
+            }
+        });
+        A values = builder.build();
+        synchronized (this) {
+            mValues = values;
+        }
+    }
+
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("charset == null");
+        }
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    public int size() {
+        return length(mValues);
+    }
+
+    /**
+     * @return the current sorted values, must not be modified
+     */
+    A values() {
+        return mValues;
+    }
+
+    /**
+     * Publish the current values together with the given values.
+     *
+     * @param values the values to add
+     */
+    synchronized void addValues(A values) {
+        A current = mValues;
+        Builder builder = new Builder(length(current) + length(values));
+        builder.addAll(current);
+        builder.addAll(values);
+        mValues = builder.build();
+    }
+
+    abstract A newArray(int length);
+
+    abstract int length(A values);
+
+    /**
+     * Parse the entry and store it in the array.
+     *
+     * @throws IllegalArgumentException if the entry is not valid
+     */
+    abstract void parse(String entry, A values, int index);
+
+    /**
+     * Sort the first values of the array and move the distinct values to the front.
+     *
+     * @return the number of distinct values
+     */
+    abstract int sortDistinct(A values, int count);
+
+    private final class Builder {
+
+        private A mBuffer;
+        private int mCount;
+
+        Builder(int capacity) {
+            mBuffer = newArray(Math.max(capacity, 1));
+        }
+
+        void add(String entry) {
+            ensureCapacity(1);
+            parse(entry, mBuffer, mCount);
+            mCount++;
+        }
+
+        void addAll(A values) {
+            int length = length(values);
+            ensureCapacity(length);
+            System.arraycopy(values, 0, mBuffer, mCount, length);
+            mCount += length;
+        }
+
+        /**
+         * @return the sorted, distinct values
+         */
+        A build() {
+            int count = sortDistinct(mBuffer, mCount);
+            A values = newArray(count);
+            System.arraycopy(mBuffer, 0, values, 0, count);
+            return values;
+        }
+
+        private void ensureCapacity(int extra) {
+            int capacity = length(mBuffer);
+            if (mCount + extra > capacity) {
+                A grown = newArray(Math.max(mCount + extra, capacity * 2));
+                System.arraycopy(mBuffer, 0, grown, 0, mCount);
+                mBuffer = grown;
+            }
+        }
+    }
+}
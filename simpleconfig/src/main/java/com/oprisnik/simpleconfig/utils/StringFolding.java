@@ -0,0 +1,177 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+
+/**
+ * Case folding and Unicode normalization that is applied to the strings of a list and to the
+ * strings that are matched against it.
+ * <p/>
+ * The strings of a list are folded once when they are added. The matchers fold the case of the
+ * input character by character while they scan it, so case-insensitive matching does not allocate.
+ * Normalization has to look at the whole input, so it is only skipped for inputs that are
+ * ASCII or already normalized.
+ * <p/>
+ * Case folding maps every char to the lower case of its upper case, which also maps characters like
+ * the Kelvin sign or the long s to their common form. Characters outside of the BMP are not folded.
+ */
+final class StringFolding {
+
+    static final StringFolding NONE = new StringFolding(false, null);
+
+    private final boolean mFoldCase;
+    private final Normalizer.Form mForm;
+
+    StringFolding(boolean foldCase, Normalizer.Form form) {
+        mFoldCase = foldCase;
+        mForm = form;
+    }
+
+    boolean isIdentity() {
+        return !mFoldCase && mForm == null;
+    }
+
+    boolean foldsCase() {
+        return mFoldCase;
+    }
+
+    Normalizer.Form getForm() {
+        return mForm;
+    }
+
+    /**
+     * Fold a string of the list.
+     *
+     * @param s the string to fold
+     * @return the folded string
+     */
+    String apply(String s) {
+        if (mForm != null) {
+            s = normalize(s).toString();
+        }
+        if (!mFoldCase) {
+            return s;
+        }
+        char[] chars = null;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            char c = s.charAt(i);
+            char folded = foldCase(c);
+            if (folded != c) {
+                if (chars == null) {
+                    chars = s.toCharArray();
+                }
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? s : new String(chars);
+    }
+
+    /**
+     * Normalize the given input if needed. Case folding is left to the matchers.
+     *
+     * @param s the input
+     * @return the normalized input, the input itself if it does not need to be normalized
+     */
+    CharSequence normalize(CharSequence s) {
+        if (mForm == null || isAscii(s) || Normalizer.isNormalized(s, mForm)) {
+            return s;
+        }
+        return Normalizer.normalize(s, mForm);
+    }
+
+    /**
+     * Check if the given UTF-8 encoded input has to be decoded and normalized before it can be matched.
+     *
+     * @param utf8 the encoded input
+     * @param off  the offset of the input
+     * @param len  the length of the input
+     * @return true if the input has to be normalized
+     */
+    boolean needsNormalization(byte[] utf8, int off, int len) {
+        if (mForm != null) {
+            for (int i = off, end = off + len; i < end; i++) {
+                if (utf8[i] < 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the given UTF-8 encoded input has to be decoded and normalized before it can be matched.
+     *
+     * @param utf8 the encoded input, only absolute reads are used
+     * @param off  the offset of the input
+     * @param len  the length of the input
+     * @return true if the input has to be normalized
+     */
+    boolean needsNormalization(ByteBuffer utf8, int off, int len) {
+        if (mForm != null) {
+            for (int i = off, end = off + len; i < end; i++) {
+                if (utf8.get(i) < 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fold the case of a single char.
+     *
+     * @param c the char to fold
+     * @return the folded char
+     */
+    static char foldCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static boolean isAscii(CharSequence s) {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StringFolding)) {
+            return false;
+        }
+        StringFolding other = (StringFolding) o;
+        return mFoldCase == other.mFoldCase && mForm == other.mForm;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mFoldCase ? 31 : 0) + (mForm == null ? 0 : mForm.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "case-insensitive=" + mFoldCase + ", normalize=" + mForm;
+    }
+}
@@ -18,19 +18,21 @@
 package com.oprisnik.simpleconfig.utils;
 
 import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Compression;
 import com.oprisnik.simpleconfig.Config;
-import com.oprisnik.simpleconfig.Configurable;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 /**
@@ -50,17 +52,72 @@ import java.util.Set;
  * <string-list class="com.oprisnik.simpleconfig.utils.StringList">
  * <file>myList.txt</string>
  * </string-list>
+ * <p/>
+ * Files are decoded with the platform default charset unless a charset is given:
+ * <p/>
+ * <string-list class="com.oprisnik.simpleconfig.utils.StringList">
+ * <charset>UTF-8</charset>
+ * <file>myList.txt</file>
+ * </string-list>
+ * <p/>
+ * Large files are loaded by multiple threads, see {@link #load(File)}.
+ * Files compressed with gzip or LZ4 are decompressed transparently.
+ * <p/>
+ * The strings are kept in an immutable snapshot. Lookups read the current snapshot without locking,
+ * modifications build a new snapshot and publish it atomically (copy-on-write). Calling
+ * {@link #init(Config)} again reloads the list without blocking concurrent lookups.
+ * Strings added with {@link #add(String)} are buffered and published together before the next lookup,
+ * so adding strings in a loop copies the list once instead of once per string.
+ * The tries for prefix, suffix, domain and substring lookups are built once, by the first lookup that
+ * needs them, so lists that are only used with contains() never pay for them. Lists that should answer
+ * their first lookups quickly can build them before the contents are published:
+ * <p/>
+ * <string-list class="com.oprisnik.simpleconfig.utils.StringList">
+ * <prepare>true</prepare>
+ * <file>myList.txt</file>
+ * </string-list>
+ * Use {@link #freeze()} to get a read-only view that can be shared freely.
+ * <p/>
+ * The list can match case-insensitively and/or after Unicode normalization. The strings of the list
+ * are folded once when they are added, the case of the inputs is folded while they are matched:
+ * <p/>
+ * <string-list class="com.oprisnik.simpleconfig.utils.StringList">
+ * <list case-insensitive="true" normalize="NFKC">
+ * <string>Crypto</string>
+ * </list>
+ * </string-list>
+ * <p/>
+ * The same attributes can be set on the file tag. {@link #values()} returns the folded strings.
+ * <p/>
+ * The lookups are shared with the read-only {@link MappedStringList}, see {@link AbstractStringList}.
  */
-public class StringList implements Configurable {
+public class StringList extends AbstractStringList {
 
-    public static final String KEY_FILE = "file";
     public static final String KEY_LIST = "list";
     public static final String KEY_STRING = "string";
+    public static final String KEY_PREPARE = "prepare";
+
+    private volatile StringListSnapshot mSnapshot;
+
+    /**
+     * Folded strings added by {@link #add(String)} that are not in the snapshot yet, guarded by this.
+     */
+    private Set<String> mPending;
+    private volatile boolean mHasPending;
+
+    private volatile boolean mPrepare = false;
 
-    private Set<String> mList;
+    private final boolean mFrozen;
 
     public StringList() {
-        mList = new HashSet<String>();
+        mSnapshot = new StringListSnapshot(new HashSet<String>(), StringFolding.NONE);
+        mFrozen = false;
+    }
+
+    private StringList(StringListSnapshot snapshot, Charset charset) {
+        super(charset);
+        mSnapshot = snapshot;
+        mFrozen = true;
     }
 
     public StringList(InputStream stringList) throws IOException {
@@ -69,45 +126,280 @@ public class StringList implements Configurable {
     }
 
     public StringList(File stringList) throws IOException {
-        this(new FileInputStream(stringList));
+        this();
+        load(stringList);
+    }
+
+    public StringList(File stringList, Charset charset) throws IOException {
+        this();
+        setCharset(charset);
+        load(stringList);
     }
 
 
+    /**
+     * Load the list from the given configuration. The new contents are loaded off to the side
+     * and replace the current contents atomically, so this can be used to reload the list.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if the list could not be loaded
+     */
     @Override
     public void init(Config config) throws BadConfigException {
+        checkNotFrozen();
+        if (config.hasProperty(MappedStringList.KEY_BLOOM_FILTER)) {
+            // a miss on the heap costs a single hash lookup, which is cheaper than the filter
+            throw new BadConfigException(MappedStringList.KEY_BLOOM_FILTER + " is only supported by MappedStringList");
+        }
+        initOptions(config);
+        StringFolding folding = readFolding(config);
+        Set<String> strings;
         // check if we have a file-tag
         if (config.hasProperty(KEY_FILE)) {
             try {
-                loadFromStream(config.getNestedInputStream(KEY_FILE));
+                File file = config.getNestedLocalFile(KEY_FILE);
+                if (file != null && file.isFile()) {
+                    strings = new ParallelLineLoader(file, getCharset(), folding).loadStrings();
+                } else {
+                    strings = readLines(config.getNestedInputStream(KEY_FILE), folding);
+                }
             } catch (Exception e) {
                 throw new BadConfigException("Could not init StringList: " + e.getMessage());
             }
         } else {
-            Collection<String> strings = config.getCollection(KEY_LIST + "." + KEY_STRING);
-            addAll(strings);
+            strings = new HashSet<String>();
+            Collection<String> values = config.getCollection(KEY_LIST + "." + KEY_STRING);
+            if (values != null) {
+                for (String s : values) {
+                    if (s != null) {
+                        strings.add(folding.apply(s));
+                    }
+                }
+            }
+        }
+        StringListSnapshot snapshot;
+        try {
+            snapshot = prepare(new StringListSnapshot(strings, folding));
+        } catch (IllegalStateException e) {
+            throw new BadConfigException("Could not init StringList: " + e.getMessage());
+        }
+        synchronized (this) {
+            // strings added before the reload are replaced as well
+            mPending = null;
+            mHasPending = false;
+            mSnapshot = snapshot;
         }
     }
 
+    /**
+     * Read the case folding and normalization options from the list or file tag.
+     *
+     * @param config the configuration to use
+     * @return the folding
+     * @throws BadConfigException if the normalization form is not valid
+     */
+    static StringFolding readFolding(Config config) throws BadConfigException {
+        String key = config.hasProperty(KEY_FILE) ? KEY_FILE : KEY_LIST;
+        boolean caseInsensitive = config.getBoolean(key + "[@" + ATTR_CASE_INSENSITIVE + "]", false);
+        String normalize = config.getProperty(key + "[@" + ATTR_NORMALIZE + "]");
+        Normalizer.Form form = null;
+        if (normalize != null) {
+            try {
+                form = Normalizer.Form.valueOf(normalize.trim().toUpperCase(Locale.US));
+            } catch (IllegalArgumentException e) {
+                throw new BadConfigException("Invalid " + ATTR_NORMALIZE + " form: " + normalize);
+            }
+        }
+        return new StringFolding(caseInsensitive, form);
+    }
+
+    @Override
+    protected void initOptions(Config config) throws BadConfigException {
+        super.initOptions(config);
+        setPrepare(config.getBoolean(KEY_PREPARE, false));
+    }
+
+    /**
+     * Build all lookup structures when the list is loaded with {@link #init(Config)} or
+     * {@link #load(File)}, before the new contents are published. Otherwise, every structure is
+     * built by the first lookup that needs it.
+     *
+     * @param prepare true to build the lookup structures when the list is loaded
+     */
+    public void setPrepare(boolean prepare) {
+        mPrepare = prepare;
+    }
+
+    public boolean isPrepare() {
+        return mPrepare;
+    }
+
+    private StringListSnapshot prepare(StringListSnapshot snapshot) {
+        return mPrepare ? snapshot.prepare() : snapshot;
+    }
+
+    @Override
+    StringFolding getFolding() {
+        return mSnapshot.getFolding();
+    }
+
+    @Override
+    synchronized void setFolding(StringFolding folding) {
+        checkNotFrozen();
+        if (!snapshot().isEmpty()) {
+            throw new IllegalStateException("The folding can only be changed while the list is empty");
+        }
+        mSnapshot = new StringListSnapshot(new HashSet<String>(), folding);
+    }
+
+    @Override
+    public StringList freeze() {
+        if (mFrozen) {
+            return this;
+        }
+        return new StringList(snapshot(), getCharset());
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
     public void addAll(Collection<String> data) {
         if (data != null) {
-            mList.addAll(data);
+            addStrings(data, false);
         }
     }
 
-    public void add(String s) {
+    /**
+     * Add a string. The string is buffered and published with the next lookup or modification,
+     * so adding strings one by one costs the same as adding them with {@link #addAll(Collection)}.
+     *
+     * @param s the string to add
+     */
+    public synchronized void add(String s) {
         if (s != null && s.length() > 0) {
-            mList.add(s);
+            checkNotFrozen();
+            StringListSnapshot snapshot = mSnapshot;
+            String folded = snapshot.getFolding().apply(s);
+            if (!snapshot.values().contains(folded)) {
+                if (mPending == null) {
+                    mPending = new HashSet<String>();
+                }
+                mPending.add(folded);
+                mHasPending = true;
+            }
+        }
+    }
+
+    /**
+     * @return the current snapshot, including the strings that have been added since it was published
+     */
+    private StringListSnapshot snapshot() {
+        if (mHasPending) {
+            publishPending();
+        }
+        return mSnapshot;
+    }
+
+    private synchronized void publishPending() {
+        Set<String> pending = mPending;
+        if (pending != null) {
+            mPending = null;
+            addStrings(pending, true);
+            mHasPending = false;
+        }
+    }
+
+    /**
+     * Publish a new snapshot with the given strings added to the current ones.
+     *
+     * @param strings the strings to add
+     * @param folded  true if the strings are already folded
+     */
+    private synchronized void addStrings(Collection<String> strings, boolean folded) {
+        checkNotFrozen();
+        publishPending();
+        StringListSnapshot snapshot = mSnapshot;
+        StringFolding folding = snapshot.getFolding();
+        Set<String> current = snapshot.values();
+        Set<String> updated = null;
+        for (String s : strings) {
+            if (s != null && !folded) {
+                s = folding.apply(s);
+            }
+            if (s != null && !current.contains(s)) {
+                if (updated == null) {
+                    updated = new HashSet<String>(current);
+                }
+                updated.add(s);
+            }
+        }
+        if (updated != null) {
+            mSnapshot = new StringListSnapshot(updated, folding);
         }
     }
 
+    /**
+     * Publish a new snapshot with the given set of new strings, which is owned by the list afterwards.
+     *
+     * @param strings the folded strings to add
+     * @param folding the folding of the strings
+     */
+    private synchronized void addLoaded(Set<String> strings, StringFolding folding) {
+        checkNotFrozen();
+        if (!folding.equals(mSnapshot.getFolding())) {
+            throw new IllegalStateException("The folding has been changed while loading");
+        }
+        if (snapshot().isEmpty()) {
+            mSnapshot = prepare(new StringListSnapshot(strings, folding));
+        } else {
+            addStrings(strings, true);
+            prepare(mSnapshot);
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (mFrozen) {
+            throw new UnsupportedOperationException("StringList is frozen");
+        }
+    }
+
+    /**
+     * Add all lines of the given file.
+     * <p/>
+     * The file is memory-mapped, split into chunks on line boundaries and the chunks are decoded
+     * by one thread per processor. Compressed files and files with a charset that cannot be
+     * split (e.g. UTF-16) are read by a single thread.
+     *
+     * @param file the file with one string per line
+     * @throws IOException if the file could not be read
+     */
+    @Override
+    public void load(File file) throws IOException {
+        checkNotFrozen();
+        StringFolding folding = mSnapshot.getFolding();
+        addLoaded(new ParallelLineLoader(file, getCharset(), folding).loadStrings(), folding);
+    }
+
     public void loadFromStream(InputStream input) throws IOException {
+        checkNotFrozen();
+        StringFolding folding = mSnapshot.getFolding();
+        addLoaded(readLines(Compression.decompress(input), folding), folding);
+    }
+
+    private Set<String> readLines(InputStream input, StringFolding folding) throws IOException {
+        Set<String> strings = new HashSet<String>();
         BufferedReader br = null;
         try {
-            br = new BufferedReader(new InputStreamReader(input));
+            br = new BufferedReader(new InputStreamReader(input, getCharset()));
             String data;
             while ((data = br.readLine()) != null) {
-                add(data);
+                if (data.length() > 0) {
+                    strings.add(folding.apply(data));
+                }
             }
+            return strings;
         } finally {
             if (br != null) {
                 try {
@@ -118,80 +410,138 @@ public class StringList implements Configurable {
         }
     }
 
+    @Override
+    public boolean contains(String s) {
+        return s != null && snapshot().contains(s);
+    }
+
     /**
-     * Checks if the string list contains the given string.
-     *
-     * @param s the string to use
-     * @return true if the list contains the string
+     * The lookup walks the trie of the list and does not allocate.
      */
-    public boolean contains(String s) {
-        return mList.contains(s);
+    @Override
+    public boolean contains(CharSequence s) {
+        return s != null && snapshot().contains(s);
     }
 
     /**
-     * Checks if the given string starts with at least one string of the StringList.
-     *
-     * @param string the string to check
-     * @return true if the string starts with at least one string of the list
+     * The bytes are decoded while walking the trie of the list, no String is created.
+     */
+    @Override
+    public boolean contains(byte[] utf8, int offset, int length) {
+        return snapshot().contains(utf8, offset, length);
+    }
+
+    @Override
+    public boolean contains(ByteBuffer utf8, int offset, int length) {
+        return snapshot().contains(utf8, offset, length);
+    }
+
+    /**
+     * The lookup takes time proportional to the length of the given string.
      */
+    @Override
     public boolean checkPrefix(String string) {
-        if (mList == null || mList.isEmpty()) {
-            return true;
-        }
-        // TODO: not very efficient implementation
-        for (String str : mList) {
-            if (string.startsWith(str)) {
-                return true;
-            }
-        }
-        return false;
+        return snapshot().checkPrefix(string);
     }
 
     /**
-     * Checks if the given string contains at least one string of the StringList.
-     *
-     * @param string the string to check
-     * @return true if the given string contains at least one string of the list
+     * Does not allocate.
+     */
+    @Override
+    public boolean checkPrefix(CharSequence string) {
+        return snapshot().checkPrefix(string);
+    }
+
+    /**
+     * The bytes are decoded while walking the trie, the match ends at the first malformed sequence.
+     */
+    @Override
+    public boolean checkPrefix(byte[] utf8, int offset, int length) {
+        return snapshot().checkPrefix(utf8, offset, length);
+    }
+
+    @Override
+    public boolean checkPrefix(ByteBuffer utf8, int offset, int length) {
+        return snapshot().checkPrefix(utf8, offset, length);
+    }
+
+    /**
+     * The lookup walks the string backwards through a trie of the reversed strings, so it takes time
+     * proportional to the length of the matching suffix and does not allocate.
+     */
+    @Override
+    public boolean checkSuffix(CharSequence string) {
+        return snapshot().checkSuffix(string);
+    }
+
+    /**
+     * Like {@link #checkSuffix(CharSequence)}, the lookup does not split the host and does not allocate.
+     */
+    @Override
+    public boolean checkDomain(CharSequence host) {
+        return snapshot().checkDomain(host);
+    }
+
+    @Override
+    public String getDomain(CharSequence host) {
+        return snapshot().getDomain(host);
+    }
+
+    @Override
+    public String longestPrefix(String string) {
+        return snapshot().longestPrefix(string);
+    }
+
+    /**
+     * The string is scanned once, independent of the size of the list.
      */
+    @Override
     public boolean checkContains(String string) {
-        if (mList == null || mList.isEmpty()) {
-            return true;
-        }
-        // TODO: not very efficient implementation
-        for (String str : mList) {
-            if (string.contains(str)) {
-                return true;
-            }
-        }
-        return false;
+        return snapshot().checkContains(string);
     }
 
     /**
-     * Returns a list of all strings that the given string contains.
-     *
-     * Example:
-     * Suppose the StringList is {"Hello", "ABC", "World", "Test"}.
-     * getAllContainedStrings("Hello World!") returns {"Hello", "World"}.
-     *
-     * @param string the string to check
-     * @return the list of strings contained in the given string
+     * Does not allocate.
+     */
+    @Override
+    public boolean checkContains(CharSequence string) {
+        return snapshot().checkContains(string);
+    }
+
+    /**
+     * The bytes are decoded while they are scanned, strings never match across a malformed sequence.
+     */
+    @Override
+    public boolean checkContains(byte[] utf8, int offset, int length) {
+        return snapshot().checkContains(utf8, offset, length);
+    }
+
+    @Override
+    public boolean checkContains(ByteBuffer utf8, int offset, int length) {
+        return snapshot().checkContains(utf8, offset, length);
+    }
+
+    /**
+     * The string is scanned once, independent of the size of the list.
      */
+    @Override
     public List<String> getAllContainedStrings(String string) {
-        List<String> list = new ArrayList<String>();
-        if (mList == null || mList.isEmpty()) {
-            return list;
-        }
-        // TODO: not very efficient implementation
-        for (String str : mList) {
-            if (string.contains(str)) {
-                list.add(str);
-            }
-        }
-        return list;
+        return snapshot().getAllContainedStrings(string);
     }
 
+    /**
+     * Like {@link #getAllContainedStrings(String)}, the characters are not copied into a string.
+     */
+    @Override
+    public List<String> getAllContainedStrings(CharSequence string) {
+        return snapshot().getAllContainedStrings(string);
+    }
 
+    /**
+     * The returned collection is a snapshot of the list.
+     */
+    @Override
     public Collection<String> values() {
-        return mList;
+        return snapshot().values();
     }
 }
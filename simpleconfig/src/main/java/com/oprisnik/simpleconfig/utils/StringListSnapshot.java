@@ -0,0 +1,308 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable contents of a {@link StringList}.
+ * <p/>
+ * Each lookup structure is built once, by the first query that needs it, or by {@link #prepare()}
+ * for lists that opt in. A list that is only used with contains() never builds the tries.
+ * The structures never change afterwards, so a snapshot can be read by any number of threads
+ * without locking once they are built. Threads that need a structure while it is built wait for it.
+ * <p/>
+ * The strings of a snapshot are already folded with the {@link StringFolding} of the snapshot.
+ * The inputs are normalized before they are matched and their case is folded by the matchers.
+ */
+final class StringListSnapshot {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Set<String> mStrings;
+
+    private final StringFolding mFolding;
+
+    private final Object mMatcherLock = new Object();
+    private volatile AhoCorasick mMatcher;
+
+    /**
+     * Trie of the reversed strings for suffix and domain lookups.
+     */
+    private final Object mReversedLock = new Object();
+    private volatile CharTrie mReversed;
+
+    /**
+     * Create a snapshot. The given set must not be modified afterwards.
+     *
+     * @param strings the folded strings of the list
+     * @param folding the folding of the strings
+     */
+    StringListSnapshot(Set<String> strings, StringFolding folding) {
+        mStrings = Collections.unmodifiableSet(strings);
+        mFolding = folding;
+    }
+
+    /**
+     * Build all lookup structures, so that the first queries do not have to.
+     *
+     * @return this snapshot
+     */
+    StringListSnapshot prepare() {
+        if (!mStrings.isEmpty()) {
+            getMatcher();
+            getReversed();
+        }
+        return this;
+    }
+
+    Set<String> values() {
+        return mStrings;
+    }
+
+    StringFolding getFolding() {
+        return mFolding;
+    }
+
+    boolean isEmpty() {
+        return mStrings.isEmpty();
+    }
+
+    boolean contains(CharSequence s) {
+        if (mStrings.isEmpty()) {
+            return false;
+        }
+        s = mFolding.normalize(s);
+        if (!mFolding.foldsCase() && s instanceof String) {
+            return mStrings.contains(s);
+        }
+        return getMatcher().getTrie().find(s) != CharTrie.NONE;
+    }
+
+    boolean contains(byte[] utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return false;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return contains(new String(utf8, off, len, UTF_8));
+        }
+        return getMatcher().getTrie().find(utf8, off, len) != CharTrie.NONE;
+    }
+
+    boolean contains(ByteBuffer utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return false;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return contains(decode(utf8, off, len));
+        }
+        return getMatcher().getTrie().find(utf8, off, len) != CharTrie.NONE;
+    }
+
+    boolean checkPrefix(CharSequence string) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        return getMatcher().getTrie().matchesPrefix(mFolding.normalize(string));
+    }
+
+    boolean checkPrefix(byte[] utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return checkPrefix(new String(utf8, off, len, UTF_8));
+        }
+        return getMatcher().getTrie().matchesPrefix(utf8, off, len);
+    }
+
+    boolean checkPrefix(ByteBuffer utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return checkPrefix(decode(utf8, off, len));
+        }
+        return getMatcher().getTrie().matchesPrefix(utf8, off, len);
+    }
+
+    String longestPrefix(String string) {
+        if (mStrings.isEmpty()) {
+            return null;
+        }
+        CharTrie trie = getMatcher().getTrie();
+        int word = trie.longestPrefix(mFolding.normalize(string));
+        return word == CharTrie.NONE ? null : trie.getWord(word);
+    }
+
+    boolean checkContains(CharSequence string) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        return getMatcher().containsAny(mFolding.normalize(string));
+    }
+
+    boolean checkContains(byte[] utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return checkContains(new String(utf8, off, len, UTF_8));
+        }
+        return getMatcher().containsAny(utf8, off, len);
+    }
+
+    boolean checkContains(ByteBuffer utf8, int off, int len) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        if (mFolding.needsNormalization(utf8, off, len)) {
+            return checkContains(decode(utf8, off, len));
+        }
+        return getMatcher().containsAny(utf8, off, len);
+    }
+
+    List<String> getAllContainedStrings(CharSequence string) {
+        if (mStrings.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        return getMatcher().findAll(mFolding.normalize(string));
+    }
+
+    boolean checkSuffix(CharSequence string) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        string = mFolding.normalize(string);
+        CharTrie trie = getReversed();
+        int node = CharTrie.ROOT;
+        if (trie.word(node) != CharTrie.NONE) {
+            return true;
+        }
+        for (int i = string.length() - 1; i >= 0; i--) {
+            node = trie.step(node, string.charAt(i));
+            if (node == CharTrie.NONE) {
+                return false;
+            }
+            if (trie.word(node) != CharTrie.NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean checkDomain(CharSequence host) {
+        if (mStrings.isEmpty()) {
+            return true;
+        }
+        return findDomain(mFolding.normalize(host)) != CharTrie.NONE;
+    }
+
+    String getDomain(CharSequence host) {
+        if (mStrings.isEmpty()) {
+            return null;
+        }
+        int word = findDomain(mFolding.normalize(host));
+        return word == CharTrie.NONE ? null : reverse(getReversed().getWord(word));
+    }
+
+    /**
+     * Walk the host backwards through the reversed trie and remember the last word that ends at a label
+     * boundary. Ignores a trailing dot of the host.
+     *
+     * @return the longest matching reversed word or {@link CharTrie#NONE}
+     */
+    private int findDomain(CharSequence host) {
+        CharTrie trie = getReversed();
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        int node = CharTrie.ROOT;
+        int result = CharTrie.NONE;
+        for (int i = end - 1; i >= 0; i--) {
+            char c = host.charAt(i);
+            node = trie.step(node, c);
+            if (node == CharTrie.NONE) {
+                break;
+            }
+            // entries that start with a dot only match subdomains
+            if (trie.word(node) != CharTrie.NONE && (i == 0 || c == '.' || host.charAt(i - 1) == '.')) {
+                result = trie.word(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reverse the chars of the string, so that the string can be matched by walking a text backwards
+     * char by char. Surrogate pairs are reversed as well, reversing twice restores the string.
+     */
+    private static String reverse(String s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = s.charAt(chars.length - 1 - i);
+        }
+        return new String(chars);
+    }
+
+    private static String decode(ByteBuffer utf8, int off, int len) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = utf8.get(off + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private CharTrie getReversed() {
+        CharTrie trie = mReversed;
+        if (trie == null) {
+            synchronized (mReversedLock) {
+                trie = mReversed;
+                if (trie == null) {
+                    List<String> reversed = new ArrayList<String>(mStrings.size());
+                    for (String s : mStrings) {
+                        reversed.add(reverse(s));
+                    }
+                    trie = new CharTrie(reversed, mFolding.foldsCase());
+                    mReversed = trie;
+                }
+            }
+        }
+        return trie;
+    }
+
+    private AhoCorasick getMatcher() {
+        AhoCorasick matcher = mMatcher;
+        if (matcher == null) {
+            synchronized (mMatcherLock) {
+                matcher = mMatcher;
+                if (matcher == null) {
+                    matcher = new AhoCorasick(mStrings, mFolding.foldsCase());
+                    mMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.Compression;
+import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.Configurable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact, read-mostly map from strings to strings.
+ * <p/>
+ * The entries are stored UTF-8 encoded in a single byte array with an open-addressing hash table
+ * on top, instead of two String objects and a map entry per entry. Lookups with a
+ * {@link CharSequence} key do not allocate, only the returned value is decoded.
+ * <p/>
+ * XML usage:
+ * <p/>
+ * <country-codes class="com.oprisnik.simpleconfig.utils.StringMap">
+ * <map>
+ * <entry key="at">Austria</entry>
+ * <entry key="de">Germany</entry>
+ * </map>
+ * </country-codes>
+ * <p/>
+ * Or with a file that contains one key and value separated by a tab per line:
+ * <p/>
+ * <country-codes class="com.oprisnik.simpleconfig.utils.StringMap">
+ * <charset>UTF-8</charset>
+ * <file>country-codes.tsv</file>
+ * </country-codes>
+ * <p/>
+ * If a key occurs more than once, the last value wins. Files are decoded with the platform default
+ * charset unless a charset is given, compressed files are decompressed transparently.
+ * Use {@link MappedStringMap} to keep very large tables off-heap.
+ * <p/>
+ * Like {@link StringList}, the table is immutable and replaced atomically on modifications,
+ * so lookups never block. Entries added with {@link #put(String, String)} or {@link #putAll(Map)}
+ * are collected and the table is rebuilt once on the next lookup, so adding entries in a loop is
+ * cheap as long as lookups are not interleaved. Use a {@link Builder} to create a map in one go.
+ */
+public class StringMap implements Configurable {
+
+    public static final String KEY_FILE = StringList.KEY_FILE;
+    public static final String KEY_CHARSET = StringList.KEY_CHARSET;
+    public static final String KEY_MAP = "map";
+    public static final String KEY_ENTRY = "entry";
+    public static final String ATTR_KEY = "key";
+
+    private volatile StringTable mTable;
+
+    private StringTable.Builder mPending;
+    private volatile boolean mHasPending;
+
+    private Charset mCharset = Charset.defaultCharset();
+
+    public StringMap() {
+        mTable = build(new StringTable.Builder());
+    }
+
+    public StringMap(Map<String, String> map) {
+        mTable = build(new StringTable.Builder().putAll(map));
+    }
+
+    private StringMap(StringTable table) {
+        mTable = table;
+    }
+
+    public StringMap(File file) throws IOException {
+        this();
+        load(file);
+    }
+
+    public StringMap(File file, Charset charset) throws IOException {
+        this();
+        setCharset(charset);
+        load(file);
+    }
+
+    /**
+     * Load the map from the given configuration. The new entries replace the current entries.
+     *
+     * @param config the configuration to use
+     * @throws BadConfigException if the map could not be loaded
+     */
+    @Override
+    public void init(Config config) throws BadConfigException {
+        mCharset = ConfigLines.readCharset(config, mCharset);
+        if (config.hasProperty(KEY_FILE)) {
+            try {
+                File file = config.getNestedLocalFile(KEY_FILE);
+                if (file != null && file.isFile()) {
+                    load(file);
+                } else {
+                    // nested streams are already decompressed
+                    setTable(build(new StringTable.Builder()
+                            .addLines(config.getNestedInputStream(KEY_FILE), mCharset)));
+                }
+            } catch (Exception e) {
+                throw new BadConfigException("Could not init StringMap: " + e.getMessage());
+            }
+        } else {
+            Collection<String> keys = config.getCollection(KEY_MAP + "." + KEY_ENTRY + "[@" + ATTR_KEY + "]");
+            StringTable.Builder builder = new StringTable.Builder();
+            if (keys != null) {
+                // indexed access, because empty values are missing from the collection of values
+                for (int i = 0; i < keys.size(); i++) {
+                    String entry = KEY_MAP + "." + KEY_ENTRY + "(" + i + ")";
+                    String key = config.getProperty(entry + "[@" + ATTR_KEY + "]");
+                    if (key == null) {
+                        throw new BadConfigException("Could not init StringMap: every " + KEY_ENTRY
+                                + " needs a " + ATTR_KEY);
+                    }
+                    builder.put(key, config.getProperty(entry, ""));
+                }
+            }
+            setTable(build(builder));
+        }
+    }
+
+    /**
+     * Load the given file with one key and value separated by a tab per line.
+     * The entries of the file replace the current entries.
+     *
+     * @param file the file to load
+     * @throws IOException if the file could not be read or is not valid
+     */
+    public void load(File file) throws IOException {
+        loadFromStream(new FileInputStream(file));
+    }
+
+    /**
+     * Load the given stream with one key and value separated by a tab per line.
+     * The entries of the stream replace the current entries.
+     *
+     * @param input the stream to load, closed afterwards
+     * @throws IOException if the stream could not be read or is not valid
+     */
+    public void loadFromStream(InputStream input) throws IOException {
+        setTable(build(new StringTable.Builder().addLines(Compression.decompress(input), mCharset)));
+    }
+
+    /**
+     * Set the charset that is used to decode files and streams.
+     *
+     * @param charset the charset to use
+     */
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("charset == null");
+        }
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    /**
+     * Add the given entries. The entries are visible to the next lookup.
+     *
+     * @param map the entries to add
+     */
+    public synchronized void putAll(Map<String, String> map) {
+        pending().putAll(map);
+        mHasPending = true;
+    }
+
+    /**
+     * Add the given entry. The entry is visible to the next lookup.
+     *
+     * @param key   the key to add
+     * @param value the value of the key
+     */
+    public synchronized void put(String key, String value) {
+        pending().put(key, value);
+        mHasPending = true;
+    }
+
+    /**
+     * Get the value of the given key.
+     *
+     * @param key the key to look up
+     * @return the value or null if the map does not contain the key
+     */
+    public String get(CharSequence key) {
+        StringTable table = table();
+        int pos = table.find(key);
+        return pos < 0 ? null : table.value(pos);
+    }
+
+    public String getOrDefault(CharSequence key, String defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean containsKey(CharSequence key) {
+        return table().find(key) >= 0;
+    }
+
+    public int size() {
+        return table().size();
+    }
+
+    public boolean isEmpty() {
+        return table().size() == 0;
+    }
+
+    /**
+     * Pass all entries to the given consumer. The keys and values are decoded on every call.
+     *
+     * @param consumer the consumer to use
+     */
+    public void forEach(BiConsumer<String, String> consumer) {
+        table().forEach(consumer);
+    }
+
+    /**
+     * Copy the entries into a new map. The keys and values are decoded on every call.
+     *
+     * @return the entries
+     */
+    public Map<String, String> toMap() {
+        return table().toMap();
+    }
+
+    synchronized void setTable(StringTable table) {
+        mPending = null;
+        mHasPending = false;
+        mTable = table;
+    }
+
+    private StringTable.Builder pending() {
+        if (mPending == null) {
+            mPending = new StringTable.Builder().putAll(mTable.toMap());
+        }
+        return mPending;
+    }
+
+    private StringTable table() {
+        if (mHasPending) {
+            publishPending();
+        }
+        return mTable;
+    }
+
+    private synchronized void publishPending() {
+        if (mPending != null) {
+            mTable = build(mPending);
+            mPending = null;
+        }
+        mHasPending = false;
+    }
+
+    private static StringTable build(StringTable.Builder builder) {
+        try {
+            return new StringTable(ByteBuffer.wrap(builder.build(0, 0, 0)));
+        } catch (IOException e) {
+            // cannot happen for an image that has just been built
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builder for a {@link StringMap} with many entries.
+     * <p/>
+     * The entries are appended to a single buffer and hashed once when the map is built.
+     * If a key is added more than once, the last value wins.
+     */
+    public static final class Builder {
+
+        private final StringTable.Builder mBuilder = new StringTable.Builder();
+
+        public Builder put(String key, String value) {
+            mBuilder.put(key, value);
+            return this;
+        }
+
+        public Builder putAll(Map<String, String> map) {
+            mBuilder.putAll(map);
+            return this;
+        }
+
+        public StringMap build() {
+            return new StringMap(StringMap.build(mBuilder));
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Hashed image of a map of UTF-8 encoded strings.
+ * <p/>
+ * The entries are stored back to back in one data block. An open-addressing table with linear probing
+ * stores a 32 bit tag of the hash of the key and the offset of the entry for every slot, so most
+ * probes are answered without touching the data. Lookups hash and compare the key while encoding it,
+ * so looking up a {@link CharSequence} does not allocate.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * int    magic
+ * int    version
+ * long   modification time of the source
+ * long   length of the source
+ * int    hash code of the options the source has been loaded with (charset)
+ * int    number of entries
+ * int    number of slots (a power of two)
+ * int    length of the data
+ * int[]  tag and offset + 1 of the entry for every slot, 0 for empty slots
+ * byte[] data: key length, key, value length, value for every entry
+ * </pre>
+ * All lengths are stored as unsigned variable-length integers.
+ * The image can be a heap or a memory-mapped buffer. Instances only use absolute reads on the image,
+ * so they can be used by multiple threads.
+ */
+final class StringTable {
+
+    static final int MAGIC = 0x53434D31;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mImage;
+    private final long mSourceModified;
+    private final long mSourceLength;
+    private final int mSourceOptions;
+    private final int mCount;
+    private final int mMask;
+    private final int mDataStart;
+
+    StringTable(ByteBuffer image) throws IOException {
+        mImage = image;
+        if (image.capacity() < HEADER_SIZE || image.getInt(0) != MAGIC) {
+            throw new IOException("Not a string map image");
+        }
+        if (image.getInt(4) != VERSION) {
+            throw new IOException("Unsupported string map image version " + image.getInt(4));
+        }
+        mSourceModified = image.getLong(8);
+        mSourceLength = image.getLong(16);
+        mSourceOptions = image.getInt(24);
+        mCount = image.getInt(28);
+        int slots = image.getInt(32);
+        mMask = slots - 1;
+        mDataStart = HEADER_SIZE + 8 * slots;
+        if (Integer.bitCount(slots) != 1 || (long) mDataStart + image.getInt(36) > image.capacity()) {
+            throw new IOException("Corrupt string map image");
+        }
+    }
+
+    long getSourceModified() {
+        return mSourceModified;
+    }
+
+    long getSourceLength() {
+        return mSourceLength;
+    }
+
+    int getSourceOptions() {
+        return mSourceOptions;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Find the entry of the given key.
+     *
+     * @param key the key to look up
+     * @return the position of the value length or -1 if the key is not in the table
+     */
+    int find(CharSequence key) {
+        long hash = BloomFilter.hash(key);
+        int tag = (int) hash;
+        for (int slot = (int) (hash >>> 32) & mMask; ; slot = (slot + 1) & mMask) {
+            int pos = HEADER_SIZE + 8 * slot;
+            int offset = mImage.getInt(pos + 4);
+            if (offset == 0) {
+                return -1;
+            }
+            if (mImage.getInt(pos) == tag) {
+                int entry = mDataStart + offset - 1;
+                int length = readVarInt(entry);
+                int start = entry + varIntSize(length);
+                if (keyEquals(start, length, key)) {
+                    return start + length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the value at the given position.
+     *
+     * @param pos the position returned by {@link #find(CharSequence)}
+     * @return the value
+     */
+    String value(int pos) {
+        int length = readVarInt(pos);
+        return decode(pos + varIntSize(length), length);
+    }
+
+    /**
+     * Pass all entries to the given consumer, in the order of the data.
+     */
+    void forEach(BiConsumer<String, String> consumer) {
+        int end = mDataStart + mImage.getInt(36);
+        // the data may contain entries that have been replaced by later entries with the same key
+        for (int pos = mDataStart; pos < end; ) {
+            int entry = pos;
+            int keyLength = readVarInt(pos);
+            pos += varIntSize(keyLength);
+            String key = decode(pos, keyLength);
+            pos += keyLength;
+            int valueLength = readVarInt(pos);
+            int valueStart = pos + varIntSize(valueLength);
+            pos = valueStart + valueLength;
+            if (isLive(key, entry)) {
+                consumer.accept(key, decode(valueStart, valueLength));
+            }
+        }
+    }
+
+    /**
+     * Copy all entries into a map, in the order of the data.
+     */
+    Map<String, String> toMap() {
+        final Map<String, String> map = new LinkedHashMap<String, String>();
+        forEach(new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                map.put(key, value);
+            }
+        });
+        return map;
+    }
+
+    private boolean isLive(String key, int entry) {
+        long hash = BloomFilter.hash(key);
+        for (int slot = (int) (hash >>> 32) & mMask; ; slot = (slot + 1) & mMask) {
+            int offset = mImage.getInt(HEADER_SIZE + 8 * slot + 4);
+            if (offset == 0) {
+                return false;
+            }
+            if (mDataStart + offset - 1 == entry) {
+                return true;
+            }
+        }
+    }
+
+    private String decode(int pos, int length) {
+        if (mImage.hasArray()) {
+            return new String(mImage.array(), mImage.arrayOffset() + pos, length, UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mImage.get(pos + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Compare the key in the image with the UTF-8 encoding of the given key,
+     * using the same encoding as {@link String#getBytes(Charset)}.
+     */
+    private boolean keyEquals(int pos, int length, CharSequence key) {
+        int end = pos + length;
+        for (int i = 0, keyLength = key.length(); i < keyLength; i++) {
+            char c = key.charAt(i);
+            int cp = c;
+            if (Character.isHighSurrogate(c) && i + 1 < keyLength && Character.isLowSurrogate(key.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, key.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                cp = '?';
+            }
+            if (cp < 0x80) {
+                if (pos >= end || mImage.get(pos++) != cp) {
+                    return false;
+                }
+            } else {
+                int bytes = cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+                if (end - pos < bytes) {
+                    return false;
+                }
+                int lead = bytes == 2 ? 0xC0 : bytes == 3 ? 0xE0 : 0xF0;
+                if ((mImage.get(pos++) & 0xFF) != (lead | (cp >> (6 * (bytes - 1))))) {
+                    return false;
+                }
+                for (int shift = 6 * (bytes - 2); shift >= 0; shift -= 6) {
+                    if ((mImage.get(pos++) & 0xFF) != (0x80 | ((cp >> shift) & 0x3F))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return pos == end;
+    }
+
+    private int readVarInt(int pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = mImage.get(pos++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Collects entries and builds the image. Later entries replace earlier entries with the same key.
+     */
+    static final class Builder {
+
+        private byte[] mData = new byte[4096];
+        private int mLength;
+        private int[] mOffsets = new int[64];
+        private long[] mHashes = new long[64];
+        private int mCount;
+
+        /**
+         * Read the lines of the given stream. Every line has a key and a value separated by a tab.
+         * Empty lines are ignored.
+         *
+         * @param input   the stream to read, closed afterwards
+         * @param charset the charset of the stream
+         * @throws IOException if the stream could not be read or a line has no tab
+         */
+        Builder addLines(InputStream input, Charset charset) throws IOException {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new InputStreamReader(input, charset));
+                String data;
+                int line = 0;
+                while ((data = br.readLine()) != null) {
+                    line++;
+                    if (data.length() == 0) {
+                        continue;
+                    }
+                    int tab = data.indexOf('\t');
+                    if (tab < 0) {
+                        throw new IOException("Missing tab in line " + line);
+                    }
+                    put(data.substring(0, tab), data.substring(tab + 1));
+                }
+                return this;
+            } finally {
+                if (br != null) {
+                    try {
+                        br.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+        }
+
+        Builder putAll(Map<String, String> map) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        Builder put(String key, String value) {
+            if (key == null || value == null) {
+                throw new IllegalArgumentException("null keys and values are not supported");
+            }
+            byte[] keyBytes = key.getBytes(UTF_8);
+            byte[] valueBytes = value.getBytes(UTF_8);
+            long size = (long) mLength + 10 + keyBytes.length + valueBytes.length;
+            if (size > Integer.MAX_VALUE - HEADER_SIZE) {
+                throw new IllegalStateException("String map too large");
+            }
+            if (size > mData.length) {
+                mData = Arrays.copyOf(mData, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(size, 2L * mData.length)));
+            }
+            if (mCount == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+                mHashes = Arrays.copyOf(mHashes, mCount * 2);
+            }
+            mOffsets[mCount] = mLength;
+            mHashes[mCount] = BloomFilter.hash(keyBytes, 0, keyBytes.length);
+            mCount++;
+            writeVarInt(keyBytes.length);
+            System.arraycopy(keyBytes, 0, mData, mLength, keyBytes.length);
+            mLength += keyBytes.length;
+            writeVarInt(valueBytes.length);
+            System.arraycopy(valueBytes, 0, mData, mLength, valueBytes.length);
+            mLength += valueBytes.length;
+            return this;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                mData[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mData[mLength++] = (byte) value;
+        }
+
+        /**
+         * Build the image.
+         *
+         * @param sourceModified the modification time of the source
+         * @param sourceLength   the length of the source
+         * @param sourceOptions  the hash code of the options the source has been loaded with
+         * @return the image
+         */
+        byte[] build(long sourceModified, long sourceLength, int sourceOptions) {
+            // at most 50% load, so probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(mCount * 2, 1) - 1) << 1;
+            slots = Math.max(slots, 2);
+            long total = (long) HEADER_SIZE + 8L * slots + mLength;
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("String map too large");
+            }
+            ByteBuffer image = ByteBuffer.allocate((int) total);
+            int mask = slots - 1;
+            int dataStart = HEADER_SIZE + 8 * slots;
+            int count = 0;
+            for (int i = 0; i < mCount; i++) {
+                long hash = mHashes[i];
+                int offset = mOffsets[i];
+                for (int slot = (int) (hash >>> 32) & mask; ; slot = (slot + 1) & mask) {
+                    int pos = HEADER_SIZE + 8 * slot;
+                    int existing = image.getInt(pos + 4);
+                    if (existing == 0) {
+                        image.putInt(pos, (int) hash);
+                        image.putInt(pos + 4, offset + 1);
+                        count++;
+                        break;
+                    }
+                    if (image.getInt(pos) == (int) hash && sameKey(existing - 1, offset)) {
+                        // replace the earlier entry
+                        image.putInt(pos + 4, offset + 1);
+                        break;
+                    }
+                }
+            }
+            image.putInt(0, MAGIC);
+            image.putInt(4, VERSION);
+            image.putLong(8, sourceModified);
+            image.putLong(16, sourceLength);
+            image.putInt(24, sourceOptions);
+            image.putInt(28, count);
+            image.putInt(32, slots);
+            image.putInt(36, mLength);
+            System.arraycopy(mData, 0, image.array(), dataStart, mLength);
+            return image.array();
+        }
+
+        private boolean sameKey(int a, int b) {
+            int lengthA = readVarInt(a);
+            int lengthB = readVarInt(b);
+            if (lengthA != lengthB) {
+                return false;
+            }
+            int size = varIntSize(lengthA);
+            for (int i = 0; i < lengthA; i++) {
+                if (mData[a + size + i] != mData[b + size + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int readVarInt(int pos) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = mData[pos++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes UTF-8 without allocating.
+ * <p/>
+ * {@link #decode(byte[], int, int)} returns the code point in the upper and the number of consumed
+ * bytes in the lower 32 bits. Overlong encodings, surrogates and truncated sequences are reported as
+ * {@link #MALFORMED} with a length of 1.
+ */
+final class Utf8 {
+
+    static final int MALFORMED = -1;
+
+    private static final long MALFORMED_BYTE = ((long) MALFORMED << 32) | 1;
+
+    private Utf8() {
+    }
+
+    static int codePoint(long decoded) {
+        return (int) (decoded >> 32);
+    }
+
+    static int length(long decoded) {
+        return (int) decoded;
+    }
+
+    /**
+     * Decode the code point at the given position.
+     *
+     * @param utf8 the encoded bytes
+     * @param pos  the position of the first byte of the code point
+     * @param end  the end of the encoded bytes
+     * @return the code point and its length, see {@link #codePoint(long)} and {@link #length(long)}
+     */
+    static long decode(byte[] utf8, int pos, int end) {
+        int b0 = utf8[pos] & 0xFF;
+        if (b0 < 0x80) {
+            return ((long) b0 << 32) | 1;
+        }
+        int available = end - pos;
+        return decode(b0,
+                available > 1 ? utf8[pos + 1] & 0xFF : -1,
+                available > 2 ? utf8[pos + 2] & 0xFF : -1,
+                available > 3 ? utf8[pos + 3] & 0xFF : -1);
+    }
+
+    /**
+     * Decode the code point at the given position, using absolute reads only.
+     *
+     * @param utf8 the encoded bytes
+     * @param pos  the position of the first byte of the code point
+     * @param end  the end of the encoded bytes
+     * @return the code point and its length, see {@link #codePoint(long)} and {@link #length(long)}
+     */
+    static long decode(ByteBuffer utf8, int pos, int end) {
+        int b0 = utf8.get(pos) & 0xFF;
+        if (b0 < 0x80) {
+            return ((long) b0 << 32) | 1;
+        }
+        int available = end - pos;
+        return decode(b0,
+                available > 1 ? utf8.get(pos + 1) & 0xFF : -1,
+                available > 2 ? utf8.get(pos + 2) & 0xFF : -1,
+                available > 3 ? utf8.get(pos + 3) & 0xFF : -1);
+    }
+
+    private static long decode(int b0, int b1, int b2, int b3) {
+        if (b0 >= 0xC2 && b0 <= 0xDF) {
+            if (isContinuation(b1)) {
+                return ((long) (((b0 & 0x1F) << 6) | (b1 & 0x3F)) << 32) | 2;
+            }
+        } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+            if (isContinuation(b1) && isContinuation(b2)) {
+                int cp = ((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+                if (cp >= 0x800 && (cp < Character.MIN_SURROGATE || cp > Character.MAX_SURROGATE)) {
+                    return ((long) cp << 32) | 3;
+                }
+            }
+        } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+            if (isContinuation(b1) && isContinuation(b2) && isContinuation(b3)) {
+                int cp = ((b0 & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+                if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT && cp <= Character.MAX_CODE_POINT) {
+                    return ((long) cp << 32) | 4;
+                }
+            }
+        }
+        return MALFORMED_BYTE;
+    }
+
+    private static boolean isContinuation(int b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
@@ -0,0 +1,223 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Runs all {@link XmlConfigTest} tests against a {@link CompactConfig}.
+ */
+public class CompactConfigTest extends XmlConfigTest {
+
+    @Override
+    public void init() throws BadConfigException, FileNotFoundException {
+        mConfig = CompactConfig.fromFile(getFile("/xml-config-test.xml"));
+    }
+
+    @Test
+    public void testSameValuesAsXmlConfig() throws Exception {
+        ConfigGenerator generator = new ConfigGenerator()
+                .setNodes(5000)
+                .setDepth(4)
+                .setLists(5, 3)
+                .setComponentEvery(7);
+        File file = generator.writeTo(mTemporaryFolder.newFile());
+        XmlConfig xml = new XmlConfig(file);
+        CompactConfig compact = CompactConfig.fromFile(file, new StringPool());
+
+        for (int section = 0; section < generator.getSectionCount(); section++) {
+            String key = generator.getValueKey(section);
+            assertThat(compact.getProperty(key)).isEqualTo(generator.getValue(section));
+            assertThat(compact.getProperty(key)).isEqualTo(xml.getProperty(key));
+            if (generator.hasList(section)) {
+                String list = generator.getListKey(section);
+                assertThat(compact.getCollection(list)).containsExactlyElementsIn(xml.getCollection(list)).inOrder();
+                assertThat(compact.getProperty(list + "(2)")).isEqualTo(generator.getListString(section, 2));
+            }
+            String sectionKey = generator.getSectionKey(section);
+            assertThat(compact.hasCustomClass(sectionKey)).isEqualTo(xml.hasCustomClass(sectionKey));
+        }
+        assertThat(compact.getProperty("section0.missing")).isNull();
+        assertThat(compact.getCollection("section0.missing")).isNull();
+    }
+
+    @Test
+    public void testKeySyntax() throws Exception {
+        CompactConfig config = CompactConfig.fromFile(write("<config>"
+                + "<a x=\"1\"><b>first</b><b>second</b><c.d>dot</c.d></a>"
+                + "<a x=\"2\"><b>third</b></a>"
+                + "</config>"), new StringPool());
+
+        assertThat(config.getProperty("a(1).b")).isEqualTo("third");
+        assertThat(config.getProperty("a(0).b(1)")).isEqualTo("second");
+        assertThat(config.getProperty("a(1)[@x]")).isEqualTo("2");
+        assertThat(config.getProperty("a.c..d")).isEqualTo("dot");
+        assertThat(config.getCollection("a.b")).containsExactly("first", "second", "third").inOrder();
+        assertThat(config.getCollection("a[@x]")).containsExactly("1", "2").inOrder();
+        // not unique
+        assertThat(config.getSubconfig("a")).isNull();
+        assertThat(config.getSubconfig("a(1)").getProperty("[@x]")).isEqualTo("2");
+        assertThat(config.getNodeCount()).isEqualTo(9);
+
+        // keys are sorted by name and can be read back
+        assertThat(toList(config.keys("a(0)"))).containsExactly("a(0)[@x]", "a(0).b(0)", "a(0).b(1)", "a(0).c..d")
+                .inOrder();
+        assertThat(config.getProperty("a(0).c..d")).isEqualTo("dot");
+        assertThat(toList(config.keys("a.c..d"))).containsExactly("a(0).c..d");
+    }
+
+    @Test
+    public void testComponents() throws Exception {
+        Config config = CompactConfig.fromFile(getFile("/simple-component.xml"));
+        SimpleComponent component = config.getComponentAndInit("component1", SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo("Awesome component");
+        component = config.getComponentAndInit("component3", SimpleComponent.class, SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo("Hello");
+        component = config.getComponentAndInit("component4", SimpleComponent.class, SimpleComponent.class);
+        assertThat(component.getName()).isNull();
+    }
+
+    @Test
+    public void testSetProperty() throws Exception {
+        Config subconfig = mConfig.getSubconfig("subconfig");
+        mConfig.setProperty("test-property", "changed");
+        mConfig.setProperty("new.nested[@attr]", "value");
+        mConfig.setProperty("list.string", "a,b");
+        subconfig.setProperty("something", "changed too");
+
+        assertThat(mConfig.getProperty("test-property")).isEqualTo("changed");
+        assertThat(mConfig.getProperty("new.nested[@attr]")).isEqualTo("value");
+        assertThat(mConfig.getCollection("list.string")).containsExactly("a", "b").inOrder();
+        assertThat(mConfig.getProperty("subconfig.something")).isEqualTo("changed too");
+        // the subconfig still works after the tree has been replaced
+        assertThat(subconfig.getProperty("something-else[@attr]")).isEqualTo("hello");
+
+        mConfig.setProperty("test-property", null);
+        assertThat(mConfig.hasProperty("test-property")).isFalse();
+    }
+
+    @Test
+    public void testKeysAreASnapshot() {
+        Iterator<String> keys = mConfig.keys(null);
+        String first = keys.next();
+        mConfig.setProperty("aaa", "new");
+        int count = 1;
+        while (keys.hasNext()) {
+            keys.next();
+            count++;
+        }
+        assertThat(first).isEqualTo("file");
+        assertThat(count).isEqualTo(9);
+        assertThat(toList(mConfig.keys(null))).contains("aaa");
+    }
+
+    @Test
+    public void testSaveTo() throws Exception {
+        mConfig.setProperty("escaped", "<a & \"b\">\\,c");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        mConfig.saveTo(output);
+
+        XmlConfig saved = new XmlConfig(write(output.toString("UTF-8")));
+        assertThat(saved.getProperty("test-property")).isEqualTo("Hello world!");
+        assertThat(saved.getProperty("escaped")).isEqualTo("<a & \"b\">,c");
+        assertThat(saved.getProperty("subconfig.something-else[@attr]")).isEqualTo("hello");
+        assertThat(saved.getCollection("list.string")).containsExactly("data1", "data2", "data3", "data4").inOrder();
+
+        output.reset();
+        mConfig.getSubconfig("subconfig").saveTo(output);
+        saved = new XmlConfig(write(output.toString("UTF-8")));
+        assertThat(saved.getProperty("something")).isEqualTo("Test");
+    }
+
+    @Test
+    public void testSave() throws Exception {
+        File file = write("<config><test-property>original</test-property></config>");
+        CompactConfig config = CompactConfig.fromFile(file);
+        config.setProperty("test-property", "saved");
+        config.save();
+        assertThat(new XmlConfig(file).getProperty("test-property")).isEqualTo("saved");
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        StringPool pool = new StringPool();
+        File file = getFile("/xml-config-test.xml");
+        CompactConfig a = CompactConfig.fromFile(file, pool);
+        long bytes = pool.getRetainedBytes();
+        CompactConfig b = CompactConfig.fromFile(file, pool);
+
+        assertThat(pool.getRetainedBytes()).isEqualTo(bytes);
+        assertThat(a.getProperty("test-property")).isSameAs(b.getProperty("test-property"));
+        assertThat(a.getRetainedBytes()).isEqualTo(b.getRetainedBytes());
+    }
+
+    @Test
+    public void testRetainedHeap() throws Exception {
+        ConfigGenerator generator = new ConfigGenerator()
+                .setNodes(50000)
+                .setDepth(6)
+                .setLists(8, 10)
+                .setComponentEvery(10);
+        File file = generator.writeTo(mTemporaryFolder.newFile());
+        StringPool pool = new StringPool();
+
+        long before = usedMemory();
+        Config xml = new XmlConfig(file);
+        long xmlBytes = usedMemory() - before;
+        xml = null;
+
+        before = usedMemory();
+        CompactConfig compact = CompactConfig.fromFile(file, pool);
+        long compactBytes = usedMemory() - before;
+
+        assertThat(compact.getProperty(generator.getValueKey(1))).isEqualTo(generator.getValue(1));
+        assertThat(compactBytes).isLessThan(xmlBytes / 4);
+        // the estimate includes the strings that are too long for the pool, the measurement includes the pool
+        assertThat(compact.getRetainedBytes() + pool.getRetainedBytes()).isLessThan(compactBytes * 2);
+    }
+
+    private File write(String xml) throws IOException {
+        File file = mTemporaryFolder.newFile();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(xml);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,242 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Generates large XML configurations for scaling tests.
+ * <p/>
+ * The configuration consists of sections that are appended until the requested number of element
+ * nodes is reached:
+ * <p/>
+ * <section7 class="com.oprisnik.simpleconfig.SimpleComponent">
+ * <name>section7</name>
+ * <level>
+ * <level>
+ * <value>value7</value>
+ * <number>7</number>
+ * </level>
+ * </level>
+ * <list>
+ * <string>section7-0</string>
+ * <string>section7-1</string>
+ * </list>
+ * </section7>
+ * <p/>
+ * The class attribute is only added to every n-th section (see {@link #setComponentEvery(int)}),
+ * the list only to every n-th section (see {@link #setLists(int, int)}).
+ * The output only depends on the parameters, so the keys and values of every section are known
+ * without parsing the configuration.
+ */
+public class ConfigGenerator {
+
+    public static final String SECTION = "section";
+    public static final String LEVEL = "level";
+    public static final String VALUE = "value";
+    public static final String NUMBER = "number";
+    public static final String LIST = "list";
+    public static final String STRING = "string";
+
+    private int mNodes = 1000;
+    private int mDepth = 4;
+    private int mListSize = 0;
+    private int mListEvery = 0;
+    private int mComponentEvery = 0;
+
+    /**
+     * @param nodes the minimum number of element nodes, including the root
+     */
+    public ConfigGenerator setNodes(int nodes) {
+        mNodes = nodes;
+        return this;
+    }
+
+    /**
+     * @param depth the depth of the value and number leaves below the root, at least 2
+     */
+    public ConfigGenerator setDepth(int depth) {
+        if (depth < 2) {
+            throw new IllegalArgumentException("depth < 2: " + depth);
+        }
+        mDepth = depth;
+        return this;
+    }
+
+    /**
+     * @param listSize the number of strings of every list
+     * @param every    add a list to every n-th section, 0 for no lists
+     */
+    public ConfigGenerator setLists(int listSize, int every) {
+        mListSize = listSize;
+        mListEvery = every;
+        return this;
+    }
+
+    /**
+     * @param every add a class attribute to every n-th section, 0 for no components
+     */
+    public ConfigGenerator setComponentEvery(int every) {
+        mComponentEvery = every;
+        return this;
+    }
+
+    /**
+     * @return the number of sections that are written
+     */
+    public int getSectionCount() {
+        int nodes = 1;
+        int sections = 0;
+        while (nodes < mNodes) {
+            nodes += getNodeCount(sections++);
+        }
+        return sections;
+    }
+
+    /**
+     * @return the number of element nodes that are written, including the root
+     */
+    public int getNodeCount() {
+        int nodes = 1;
+        for (int i = 0, sections = getSectionCount(); i < sections; i++) {
+            nodes += getNodeCount(i);
+        }
+        return nodes;
+    }
+
+    public boolean hasList(int section) {
+        return mListEvery > 0 && mListSize > 0 && section % mListEvery == 0;
+    }
+
+    public boolean isComponent(int section) {
+        return mComponentEvery > 0 && section % mComponentEvery == 0;
+    }
+
+    public String getSectionKey(int section) {
+        return SECTION + section;
+    }
+
+    /**
+     * @return the key of the deepest value of the given section
+     */
+    public String getValueKey(int section) {
+        StringBuilder key = new StringBuilder(getSectionKey(section));
+        for (int i = 2; i < mDepth; i++) {
+            key.append('.').append(LEVEL);
+        }
+        return key.append('.').append(VALUE).toString();
+    }
+
+    public String getValue(int section) {
+        return VALUE + section;
+    }
+
+    public String getListKey(int section) {
+        return getSectionKey(section) + "." + LIST + "." + STRING;
+    }
+
+    public String getListString(int section, int index) {
+        return SECTION + section + "-" + index;
+    }
+
+    /**
+     * Write the configuration to the given file.
+     *
+     * @param file the file to write
+     * @return the file
+     * @throws IOException if the file could not be written
+     */
+    public File writeTo(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write the configuration to the given writer. The writer is not closed.
+     *
+     * @param writer the writer to use
+     * @throws IOException if the configuration could not be written
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<config>\n");
+        for (int i = 0, sections = getSectionCount(); i < sections; i++) {
+            writeSection(writer, i);
+        }
+        writer.write("</config>\n");
+    }
+
+    private void writeSection(Writer writer, int section) throws IOException {
+        String key = getSectionKey(section);
+        writer.write('<');
+        writer.write(key);
+        if (isComponent(section)) {
+            writer.write(" class=\"");
+            writer.write(SimpleComponent.class.getName());
+            writer.write('"');
+        }
+        writer.write(">\n");
+        writeElement(writer, SimpleComponent.KEY_NAME, key);
+        for (int i = 2; i < mDepth; i++) {
+            writer.write("<" + LEVEL + ">\n");
+        }
+        writeElement(writer, VALUE, getValue(section));
+        writeElement(writer, NUMBER, Integer.toString(section));
+        for (int i = 2; i < mDepth; i++) {
+            writer.write("</" + LEVEL + ">\n");
+        }
+        if (hasList(section)) {
+            writer.write("<" + LIST + ">\n");
+            for (int i = 0; i < mListSize; i++) {
+                writeElement(writer, STRING, getListString(section, i));
+            }
+            writer.write("</" + LIST + ">\n");
+        }
+        writer.write("</");
+        writer.write(key);
+        writer.write(">\n");
+    }
+
+    private static void writeElement(Writer writer, String name, String value) throws IOException {
+        writer.write('<');
+        writer.write(name);
+        writer.write('>');
+        writer.write(value);
+        writer.write("</");
+        writer.write(name);
+        writer.write(">\n");
+    }
+
+    private int getNodeCount(int section) {
+        // section, name, levels, value and number
+        int nodes = 2 + (mDepth - 2) + 2;
+        if (hasList(section)) {
+            nodes += 1 + mListSize;
+        }
+        return nodes;
+    }
+}
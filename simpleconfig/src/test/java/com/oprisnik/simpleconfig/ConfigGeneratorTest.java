@@ -0,0 +1,78 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ConfigGeneratorTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGeneratedConfig() throws Exception {
+        ConfigGenerator generator = new ConfigGenerator()
+                .setNodes(1000)
+                .setDepth(5)
+                .setLists(3, 4)
+                .setComponentEvery(10);
+        File file = generator.writeTo(mTemporaryFolder.newFile("generated.xml"));
+        Config config = ConfigFactory.fromFile(file);
+
+        int sections = generator.getSectionCount();
+        assertThat(generator.getNodeCount()).isAtLeast(1000);
+        assertThat(countElements(generator)).isEqualTo(generator.getNodeCount());
+        for (int i = 0; i < sections; i++) {
+            assertThat(config.getProperty(generator.getValueKey(i))).isEqualTo(generator.getValue(i));
+            if (generator.hasList(i)) {
+                assertThat(config.getCollection(generator.getListKey(i))).containsExactly(
+                        generator.getListString(i, 0), generator.getListString(i, 1), generator.getListString(i, 2))
+                        .inOrder();
+            } else {
+                assertThat(config.hasProperty(generator.getListKey(i))).isFalse();
+            }
+        }
+        assertThat(config.hasProperty(generator.getSectionKey(sections) + ".name")).isFalse();
+        SimpleComponent component = config.getComponentAndInit(generator.getSectionKey(10), SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo(generator.getSectionKey(10));
+        assertThat(config.getProperty(generator.getSectionKey(10) + "[@class]"))
+                .isEqualTo(SimpleComponent.class.getName());
+        assertThat(config.hasProperty(generator.getSectionKey(11) + "[@class]")).isFalse();
+    }
+
+    private static int countElements(ConfigGenerator generator) throws Exception {
+        StringWriter writer = new StringWriter();
+        generator.write(writer);
+        String xml = writer.toString();
+        int count = 0;
+        for (int i = xml.indexOf('<'); i >= 0; i = xml.indexOf('<', i + 1)) {
+            char next = xml.charAt(i + 1);
+            if (next != '/' && next != '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,234 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import com.oprisnik.simpleconfig.utils.StringList;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Shares one {@link Config} and one {@link StringList} between many threads that read, write and reload
+ * concurrently, see {@link Fixture} for the workloads and the consistency checks.
+ * <p/>
+ * Run {@link #main(String[])} to print throughput and latency percentiles for growing thread counts.
+ */
+public class ConfigStressTest extends BaseComponentTest {
+
+    private static final long DURATION_MILLIS = 300;
+
+    @Test
+    public void testPlatformThreads() throws Exception {
+        for (int threads : new int[]{4, 32}) {
+            new Fixture(getXmlConfig("/config-stress.xml"), threads).check(new StressHarness()
+                    .setThreads(threads)
+                    .setDuration(DURATION_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue(StressHarness.isVirtualThreadsSupported());
+        int threads = 500;
+        new Fixture(getXmlConfig("/config-stress.xml"), threads).check(new StressHarness()
+                .setThreads(threads)
+                .setVirtualThreads(true)
+                .setDuration(DURATION_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Print throughput and latency percentiles for 1, 2, 4, ... threads up to twice the number of cores,
+     * and for virtual threads if they are supported.
+     *
+     * @param args optional duration per run in milliseconds
+     */
+    public static void main(String[] args) throws Exception {
+        long duration = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        File lists = new File(ConfigStressTest.class.getResource("/config-stress.xml").getFile());
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            System.out.println(new Fixture(new XmlConfig(lists), threads).check(new StressHarness()
+                    .setThreads(threads)
+                    .setDuration(duration, TimeUnit.MILLISECONDS)));
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+        if (StressHarness.isVirtualThreadsSupported()) {
+            System.out.println(new Fixture(new XmlConfig(lists), 1000).check(new StressHarness()
+                    .setThreads(1000)
+                    .setVirtualThreads(true)
+                    .setDuration(duration, TimeUnit.MILLISECONDS)));
+        }
+    }
+
+    /**
+     * Workloads on a shared configuration with sections generated by {@link ConfigGenerator}
+     * and a shared {@link StringList}:
+     * <ul>
+     * <li>read: read a section value, it must never change</li>
+     * <li>read-subconfig: the same through {@link Config#getSubconfig(String)}</li>
+     * <li>write: every thread writes increasing values to its own key</li>
+     * <li>read-counter: read the key of another thread, the values seen by a thread must never decrease</li>
+     * <li>write-shared: all threads write "thread:iteration" to the same key</li>
+     * <li>reload: re-initialize the StringList from one of two lists of the configuration</li>
+     * <li>read-list: the StringList must contain exactly one of the two lists</li>
+     * </ul>
+     * After the run, the value of every written key must be the last value that was written (no lost writes).
+     */
+    static final class Fixture {
+
+        private static final String COUNTER = "counter.t";
+        private static final String SHARED = "shared";
+
+        private final Config mLists;
+        private final Config mConfig;
+        private final ConfigGenerator mGenerator;
+        private final int mSections;
+        private final int mThreads;
+        private final StringList mList = new StringList();
+
+        /**
+         * Last value written by every thread to its own key, -1 before the first write.
+         */
+        private final AtomicLongArray mLastWritten;
+        private final AtomicReferenceArray<String> mLastShared;
+        /**
+         * Highest counter of every key seen by every thread.
+         */
+        private final long[][] mSeen;
+        private final StressHarness.Outcomes mListOutcomes = new StressHarness.Outcomes();
+
+        Fixture(Config lists, int threads) throws Exception {
+            mLists = lists;
+            mThreads = threads;
+            mGenerator = new ConfigGenerator().setNodes(2000).setDepth(4);
+            File file = File.createTempFile("config-stress", ".xml");
+            file.deleteOnExit();
+            mConfig = ConfigFactory.fromFile(mGenerator.writeTo(file));
+            mSections = mGenerator.getSectionCount();
+            mLastWritten = new AtomicLongArray(threads);
+            mLastShared = new AtomicReferenceArray<String>(threads);
+            mSeen = new long[threads][threads];
+            for (int i = 0; i < threads; i++) {
+                mLastWritten.set(i, -1);
+                Arrays.fill(mSeen[i], -1);
+            }
+            mList.init(mLists.getSubconfig("list-a"));
+        }
+
+        StressHarness.Result check(StressHarness harness) throws Exception {
+            StressHarness.Result result = harness
+                    .add("read", 40, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            int section = (int) ((iteration * 31 + thread) % mSections);
+                            assertThat(mConfig.getProperty(mGenerator.getValueKey(section)))
+                                    .isEqualTo(mGenerator.getValue(section));
+                        }
+                    })
+                    .add("read-subconfig", 10, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            int section = (int) ((iteration * 17 + thread) % mSections);
+                            Config subconfig = mConfig.getSubconfig(mGenerator.getSectionKey(section));
+                            assertThat(subconfig.getProperty(SimpleComponent.KEY_NAME))
+                                    .isEqualTo(mGenerator.getSectionKey(section));
+                        }
+                    })
+                    .add("write", 10, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            mConfig.setProperty(COUNTER + thread, Long.toString(iteration));
+                            mLastWritten.set(thread, iteration);
+                        }
+                    })
+                    .add("read-counter", 20, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            int other = (int) ((iteration + thread) % mThreads);
+                            String value = mConfig.getProperty(COUNTER + other);
+                            if (value != null) {
+                                long counter = Long.parseLong(value);
+                                if (counter < mSeen[thread][other]) {
+                                    fail("Stale read of " + COUNTER + other + ": " + counter
+                                            + " after " + mSeen[thread][other]);
+                                }
+                                mSeen[thread][other] = counter;
+                            }
+                        }
+                    })
+                    .add("write-shared", 5, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            String value = thread + ":" + iteration;
+                            mConfig.setProperty(SHARED, value);
+                            mLastShared.set(thread, value);
+                        }
+                    })
+                    .add("reload", 2, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) throws Exception {
+                            mList.init(mLists.getSubconfig(iteration % 2 == 0 ? "list-a" : "list-b"));
+                        }
+                    })
+                    .add("read-list", 13, new StressHarness.Operation() {
+                        @Override
+                        public void run(int thread, long iteration) {
+                            // one lookup sees one snapshot of the list, so it has to find a1 or b1, never both
+                            List<String> contained = mList.getAllContainedStrings("a1 b1");
+                            mListOutcomes.record(contained.toString());
+                        }
+                    })
+                    .run();
+
+            if (!result.getFailures().isEmpty()) {
+                AssertionError error = new AssertionError(result.getFailures().size() + " failures: " + result);
+                error.initCause(result.getFailures().get(0));
+                throw error;
+            }
+            // no lost writes
+            Set<String> lastShared = new HashSet<String>();
+            for (int t = 0; t < mThreads; t++) {
+                long last = mLastWritten.get(t);
+                assertThat(mConfig.getProperty(COUNTER + t)).isEqualTo(last < 0 ? null : Long.toString(last));
+                if (mLastShared.get(t) != null) {
+                    lastShared.add(mLastShared.get(t));
+                }
+            }
+            if (!lastShared.isEmpty()) {
+                assertThat(lastShared).contains(mConfig.getProperty(SHARED));
+            }
+            Map<String, Long> outcomes = mListOutcomes.getCounts();
+            assertThat(Arrays.asList("[a1]", "[b1]")).containsAllIn(outcomes.keySet());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class DeltaConfigTest extends BaseComponentTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private CompactConfig mBase;
+    private DeltaConfig mConfig;
+
+    @Before
+    public void init() throws Exception {
+        mBase = CompactConfig.fromFile(getFile("/delta-base.xml"), new StringPool());
+        mConfig = DeltaConfig.fromFile(mBase, getFile("/delta-override.xml"));
+    }
+
+    @Test
+    public void testGetProperty() {
+        assertThat(mConfig.getProperty("name")).isEqualTo("Customer 42");
+        assertThat(mConfig.getProperty("timeout")).isEqualTo("30");
+        assertThat(mConfig.getInt("timeout", 0)).isEqualTo(30);
+        assertThat(mConfig.getProperty("server.host")).isEqualTo("localhost");
+        assertThat(mConfig.getInt("server.port", 0)).isEqualTo(9090);
+        assertThat(mConfig.getBoolean("extra.enabled", false)).isTrue();
+        assertThat(mConfig.hasProperty("missing")).isFalse();
+        // the base is not modified
+        assertThat(mBase.getProperty("name")).isEqualTo("Default");
+    }
+
+    @Test
+    public void testGetCollection() {
+        // overrides replace the whole list
+        assertThat(mConfig.getCollection("hosts.string")).containsExactly("c.example.com");
+        DeltaConfig config = new DeltaConfig(mBase);
+        assertThat(config.getCollection("hosts.string"))
+                .containsExactly("a.example.com", "b.example.com").inOrder();
+        assertThat(config.getCollection("missing")).isNull();
+    }
+
+    @Test
+    public void testSubconfig() {
+        Config server = mConfig.getSubconfig("server");
+        assertThat(server.getProperty("host")).isEqualTo("localhost");
+        assertThat(server.getProperty("port")).isEqualTo("9090");
+
+        // only in the overrides
+        Config extra = mConfig.getSubconfig("extra");
+        assertThat(extra.getBoolean("enabled", false)).isTrue();
+
+        // only in the base
+        Config component = mConfig.getSubconfig("component1");
+        assertThat(component.getProperty("name")).isEqualTo("Base component");
+        assertThat(component.getProperty("[@class]")).isEqualTo(SimpleComponent.class.getName());
+
+        assertThat(mConfig.getSubconfig("missing")).isNull();
+        // not unique in the base
+        assertThat(mConfig.getSubconfig("hosts.string")).isNull();
+    }
+
+    @Test
+    public void testSetProperty() {
+        Config server = mConfig.getSubconfig("server");
+        server.setProperty("host", "example.com");
+        mConfig.setProperty("timeout", "60");
+
+        assertThat(mConfig.getProperty("server.host")).isEqualTo("example.com");
+        assertThat(server.getProperty("host")).isEqualTo("example.com");
+        assertThat(mConfig.getInt("timeout", 0)).isEqualTo(60);
+        assertThat(mBase.getProperty("server.host")).isEqualTo("localhost");
+
+        // removing the override reads through to the base again
+        mConfig.setProperty("name", null);
+        assertThat(mConfig.getProperty("name")).isEqualTo("Default");
+    }
+
+    @Test
+    public void testKeys() {
+        Map<String, String> properties = new HashMap<String, String>();
+        Iterator<String> keys = mConfig.keys(null);
+        while (keys.hasNext()) {
+            String key = keys.next();
+            assertThat(properties.put(key, mConfig.getProperty(key))).isNull();
+        }
+        assertThat(properties).containsEntry("name", "Customer 42");
+        assertThat(properties).containsEntry("server.port", "9090");
+        assertThat(properties).containsEntry("server.host", "localhost");
+        assertThat(properties).containsEntry("hosts.string", "c.example.com");
+        assertThat(properties).containsEntry("extra.enabled", "true");
+        assertThat(properties).containsEntry("timeout", "30");
+        // the overridden list replaces the list of the base
+        assertThat(properties).doesNotContainKey("hosts.string(0)");
+        assertThat(properties).hasSize(9);
+
+        final Map<String, String> server = new HashMap<String, String>();
+        mConfig.getSubconfig("server").forEach(null, new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                server.put(key, value);
+            }
+        });
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("port", "9090");
+        expected.put("host", "localhost");
+        assertThat(server).isEqualTo(expected);
+    }
+
+    @Test
+    public void testRepeatedNodesCannotBeOverridden() throws Exception {
+        File file = mTemporaryFolder.newFile("repeated.xml");
+        Files.write(file.toPath(), "<config><rep><v>1</v></rep><rep><v>2</v></rep></config>".getBytes("UTF-8"));
+        DeltaConfig config = new DeltaConfig(CompactConfig.fromFile(file, new StringPool()));
+
+        for (String key : new String[]{"rep(1).v", "rep.v", "rep(0)"}) {
+            try {
+                config.setProperty(key, "X");
+                fail("overridden " + key);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            config.getSubconfig("rep(1)").setProperty("v", "X");
+            fail("overridden rep(1).v");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertThat(config.getProperty("rep(0).v")).isEqualTo("1");
+        assertThat(config.getProperty("rep(1).v")).isEqualTo("2");
+        assertThat(config.getCollection("rep.v")).containsExactly("1", "2").inOrder();
+        assertThat(config.getOverrides().getNodeCount()).isEqualTo(1);
+
+        // overriding the repeated node itself replaces the list
+        config.setProperty("rep", "X");
+        assertThat(config.getCollection("rep")).containsExactly("X");
+    }
+
+    @Test
+    public void testComponent() throws Exception {
+        SimpleComponent component = mConfig.getComponentAndInit("component1", SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo("Base component");
+
+        mConfig.setProperty("component1.name", "Customer component");
+        component = mConfig.getComponentAndInit("component1", SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo("Customer component");
+    }
+
+    @Test
+    public void testNestedFileRelativeToBase() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(mConfig.getNestedInputStream("file")));
+        try {
+            assertThat(reader.readLine()).isNotNull();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSaveOverrides() throws Exception {
+        mConfig.setProperty("timeout", "60");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        mConfig.saveTo(output);
+        File file = mTemporaryFolder.newFile("saved.xml");
+        Files.write(file.toPath(), output.toByteArray());
+
+        DeltaConfig saved = DeltaConfig.fromFile(mBase, file);
+        assertThat(saved.getProperty("timeout")).isEqualTo("60");
+        assertThat(saved.getProperty("server.port")).isEqualTo("9090");
+        assertThat(saved.getProperty("server.host")).isEqualTo("localhost");
+        assertThat(saved.getOverrides().hasProperty("server.host")).isFalse();
+    }
+
+    @Test
+    public void testSharedBase() throws Exception {
+        ConfigGenerator generator = new ConfigGenerator()
+                .setNodes(10000)
+                .setDepth(4)
+                .setLists(5, 3);
+        CompactConfig base = CompactConfig.fromFile(generator.writeTo(mTemporaryFolder.newFile()), new StringPool());
+
+        DeltaConfig[] configs = new DeltaConfig[100];
+        for (int i = 0; i < configs.length; i++) {
+            configs[i] = new DeltaConfig(base);
+            configs[i].setProperty(generator.getValueKey(i), "customer " + i);
+        }
+        for (int i = 0; i < configs.length; i++) {
+            assertThat(configs[i].getProperty(generator.getValueKey(i))).isEqualTo("customer " + i);
+            assertThat(configs[i].getProperty(generator.getValueKey(i + 1))).isEqualTo(generator.getValue(i + 1));
+            assertThat(configs[i].getRetainedBytes()).isLessThan(base.getRetainedBytes() / 100);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LayeredConfigTest extends BaseComponentTest {
+
+    private static final String HOME = "layered.home";
+    private static final String PREFIX = "layered.test.";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Config mBase;
+
+    @Before
+    public void init() throws Exception {
+        mBase = getXmlConfig("/layered-config.xml");
+        System.setProperty(HOME, "/home/test");
+    }
+
+    @After
+    public void cleanUp() {
+        System.clearProperty(HOME);
+        System.clearProperty(PREFIX + "port");
+    }
+
+    @Test
+    public void testInterpolation() {
+        LayeredConfig config = new LayeredConfig(mBase);
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:8080/app");
+        assertThat(config.getProperty("escaped")).isEqualTo("${host}");
+        assertThat(config.getProperty("undefined")).isEqualTo("${missing}");
+        assertThat(config.getProperty("home")).isEqualTo("/home/test/data");
+        assertThat(config.getProperty("nothing")).isNull();
+        assertThat(config.getProperty("nothing", "default")).isEqualTo("default");
+        assertThat(config.getCollection("list")).isNull();
+        assertThat(config.getCollection("list.string")).containsExactly("first", "localhost").inOrder();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInterpolationCycle() {
+        new LayeredConfig(mBase).getProperty("cycle-a");
+    }
+
+    @Test
+    public void testLayers() {
+        ConfigLayer.MapLayer arguments = ConfigLayer.arguments("--host=example.com", "positional", "-x");
+        Map<String, String> environment = new HashMap<String, String>();
+        environment.put("APP_HOST", "env.example.com");
+        environment.put("APP_DB_NAME", "production");
+        LayeredConfig config = new LayeredConfig(mBase, arguments,
+                ConfigLayer.systemProperties(PREFIX), ConfigLayer.environment("APP_", environment));
+
+        // the arguments win over the environment
+        assertThat(config.getProperty("host")).isEqualTo("example.com");
+        assertThat(config.getProperty("url")).isEqualTo("http://example.com:8080/app");
+        assertThat(config.getProperty("db.name")).isEqualTo("production");
+        Config db = config.getSubconfig("db");
+        assertThat(db.getProperty("name")).isEqualTo("production");
+        assertThat(db.getProperty("url")).isEqualTo("jdbc:h2:production@example.com");
+        assertThat(config.getCollection("list.string")).containsExactly("first", "example.com").inOrder();
+        // a variable that refers to a list resolves to its first value
+        arguments.put("first", "${list.string}");
+        assertThat(config.getProperty("first")).isEqualTo("first");
+
+        arguments.remove("host");
+        assertThat(config.getProperty("host")).isEqualTo("env.example.com");
+        assertThat(db.getProperty("url")).isEqualTo("jdbc:h2:production@env.example.com");
+
+        arguments.put("list.string", "a, b\\,c");
+        assertThat(config.getCollection("list.string")).containsExactly("a", "b,c").inOrder();
+        assertThat(arguments.getOverrides()).containsKey("list.string");
+    }
+
+    @Test
+    public void testSystemPropertiesAreRefreshed() {
+        LayeredConfig config = new LayeredConfig(mBase, ConfigLayer.systemProperties(PREFIX));
+        assertThat(config.getInt("port", 0)).isEqualTo(8080);
+        assertThat(config.getProperty("home")).isEqualTo("/home/test/data");
+
+        System.setProperty(PREFIX + "port", "9090");
+        System.setProperty(HOME, "/home/other");
+        // cached until refreshed
+        assertThat(config.getInt("port", 0)).isEqualTo(8080);
+        assertThat(config.getProperty("home")).isEqualTo("/home/test/data");
+        config.refresh();
+        assertThat(config.getInt("port", 0)).isEqualTo(9090);
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:9090/app");
+        assertThat(config.getProperty("home")).isEqualTo("/home/other/data");
+    }
+
+    @Test
+    public void testCache() {
+        LayeredConfig config = new LayeredConfig(mBase, ConfigLayer.map(Collections.singletonMap("debug", "true")));
+        assertThat(config.getBoolean("debug", false)).isTrue();
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:8080/app");
+
+        // direct modifications of the base are only visible after invalidate()
+        mBase.setProperty("port", "8081");
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:8080/app");
+        config.invalidate();
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:8081/app");
+
+        config.setProperty("port", "8082");
+        assertThat(config.getProperty("url")).isEqualTo("http://localhost:8082/app");
+        assertThat(mBase.getProperty("port")).isEqualTo("8082");
+        config.getSubconfig("db").setProperty("name", "other");
+        assertThat(config.getProperty("db.url")).isEqualTo("jdbc:h2:other@localhost");
+
+        // overrides still win over set properties
+        config.setProperty("debug", "false");
+        assertThat(config.getBoolean("debug", false)).isTrue();
+        assertThat(config.hasProperty("debug")).isTrue();
+        assertThat(config.hasProperty("nothing")).isFalse();
+        assertThat(config.getSubconfig("nothing")).isNull();
+    }
+
+    @Test
+    public void testForEach() {
+        LayeredConfig config = new LayeredConfig(mBase, ConfigLayer.arguments("--db.name=prod"));
+        final Map<String, String> properties = new HashMap<String, String>();
+        config.getSubconfig("db").forEach(null, new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                properties.put(key, value);
+            }
+        });
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("name", "prod");
+        expected.put("url", "jdbc:h2:prod@localhost");
+        assertThat(properties).isEqualTo(expected);
+    }
+
+    @Test
+    public void testComponents() throws Exception {
+        LayeredConfig config = new LayeredConfig(mBase, ConfigLayer.arguments("--host=example.com"));
+        SimpleComponent component = config.getComponentAndInit("component", SimpleComponent.class);
+        assertThat(component.getName()).isEqualTo("example.com");
+
+        config = new LayeredConfig(mBase, ConfigLayer.arguments(
+                "--component[@class]=" + ExtendedComponent.class.getName()));
+        component = config.getComponentAndInit("component", SimpleComponent.class);
+        assertThat(component).isInstanceOf(ExtendedComponent.class);
+    }
+
+    @Test
+    public void testNestedFiles() throws Exception {
+        LayeredConfig config = new LayeredConfig(mBase);
+        assertThat(readLine(config)).isEqualTo("This is a nested file.");
+
+        File file = mTemporaryFolder.newFile("override.txt");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write("Overridden\n".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        config = new LayeredConfig(mBase, ConfigLayer.arguments("--file=" + file.getAbsolutePath()));
+        assertThat(readLine(config)).isEqualTo("Overridden");
+        assertThat(config.getNestedPath("file")).isEqualTo(file.getAbsolutePath());
+        ByteBuffer bytes = config.getNestedBytes("file");
+        byte[] data = new byte[bytes.remaining()];
+        bytes.get(data);
+        assertThat(new String(data, "UTF-8")).isEqualTo("Overridden\n");
+    }
+
+    private static String readLine(Config config) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(config.getNestedInputStream("file"), "UTF-8"));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class NestedOutputStreamTest extends BaseComponentTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    protected Config mConfig;
+
+    protected File mFile;
+
+    @Before
+    public void init() throws BadConfigException, FileNotFoundException {
+        mConfig = getXmlConfig("/xml-config-test.xml");
+        mFile = new File(mTemporaryFolder.getRoot(), "nested.bin");
+        mConfig.setProperty("output", mFile.getAbsolutePath());
+    }
+
+    @Test
+    public void testAtomic() throws Exception {
+        write(NestedOutputOption.ATOMIC);
+    }
+
+    @Test
+    public void testDoubleBuffered() throws Exception {
+        write(NestedOutputOption.DOUBLE_BUFFERED);
+    }
+
+    @Test
+    public void testAtomicDoubleBuffered() throws Exception {
+        write(NestedOutputOption.ATOMIC, NestedOutputOption.DOUBLE_BUFFERED);
+    }
+
+    @Test
+    public void testAtomicReplacesOnClose() throws Exception {
+        write(NestedOutputOption.ATOMIC);
+        byte[] before = toArray(mConfig.getNestedBytes("output"));
+
+        OutputStream output = mConfig.getNestedOutputStream("output", NestedOutputOption.ATOMIC);
+        output.write(new byte[]{1, 2, 3});
+        output.flush();
+        // the nested file is only replaced on close
+        assertThat(Arrays.equals(toArray(mConfig.getNestedBytes("output")), before)).isTrue();
+        output.close();
+
+        assertThat(Arrays.equals(toArray(mConfig.getNestedBytes("output")), new byte[]{1, 2, 3})).isTrue();
+        assertThat(mTemporaryFolder.getRoot().list()).asList().containsExactly("nested.bin");
+    }
+
+    @Test
+    public void testAtomicKeepsPermissions() throws Exception {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        write();
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(mFile.toPath(), permissions);
+
+        write(NestedOutputOption.ATOMIC);
+        assertThat(Files.getPosixFilePermissions(mFile.toPath())).isEqualTo(permissions);
+    }
+
+    @Test
+    public void testAtomicKeepsSymlink() throws Exception {
+        File real = mTemporaryFolder.newFile("real.bin");
+        try {
+            Files.createSymbolicLink(mFile.toPath(), real.toPath());
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+
+        write(NestedOutputOption.ATOMIC);
+        assertThat(Files.isSymbolicLink(mFile.toPath())).isTrue();
+        assertThat(real.length()).isEqualTo(mFile.length());
+        assertThat(mTemporaryFolder.getRoot().list()).asList().containsExactly("nested.bin", "real.bin");
+    }
+
+    @Test
+    public void testWriteObjectInPlace() throws Exception {
+        File real = mTemporaryFolder.newFile("real.bin");
+        try {
+            Files.createSymbolicLink(mFile.toPath(), real.toPath());
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+
+        mConfig.writeObjectToNestedStream("output", "Hello");
+        assertThat(Files.isSymbolicLink(mFile.toPath())).isTrue();
+        mConfig.writeObjectToNestedStream("output", "Atomic", NestedOutputOption.ATOMIC);
+        assertThat(Files.isSymbolicLink(mFile.toPath())).isTrue();
+        assertThat(mConfig.readObjectFromNestedStream("output")).isEqualTo("Atomic");
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws Exception {
+        OutputStream output = mConfig.getNestedOutputStream("output", NestedOutputOption.ATOMIC);
+        output.close();
+        output.write(1);
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        write(NestedOutputOption.GZIP);
+        assertThat(Compression.detect(NestedResourceCache.read(mFile, false))).isEqualTo(Compression.GZIP);
+    }
+
+    @Test
+    public void testLz4() throws Exception {
+        write(NestedOutputOption.ATOMIC, NestedOutputOption.LZ4);
+        assertThat(Compression.detect(NestedResourceCache.read(mFile, false))).isEqualTo(Compression.LZ4);
+    }
+
+    @Test
+    public void testCompressedNestedInputStream() throws Exception {
+        OutputStream output = mConfig.getNestedOutputStream("output", NestedOutputOption.LZ4);
+        try {
+            output.write("Compressed text".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(mConfig.getNestedInputStream("output"), "UTF-8"));
+        try {
+            assertThat(br.readLine()).isEqualTo("Compressed text");
+        } finally {
+            br.close();
+        }
+    }
+
+    @Test
+    public void testCompressedObject() throws Exception {
+        mConfig.writeObjectToNestedStream("output", "Hello");
+        long uncompressed = mFile.length();
+
+        OutputStream output = mConfig.getNestedOutputStream("output", NestedOutputOption.GZIP);
+        try {
+            JavaSerializationCodec.INSTANCE.encode("Hello", output);
+        } finally {
+            output.close();
+        }
+        assertThat(mFile.length()).isNotEqualTo(uncompressed);
+        assertThat(mConfig.readObjectFromNestedStream("output")).isEqualTo("Hello");
+    }
+
+    @Test
+    public void testFailedCompressorCloseKeepsFile() throws Exception {
+        write(NestedOutputOption.ATOMIC);
+        byte[] before = toArray(mConfig.getNestedBytes("output"));
+
+        NestedFileOutputStream target = new NestedFileOutputStream(mFile, EnumSet.of(NestedOutputOption.ATOMIC));
+        OutputStream output = new NestedFileOutputStream.CompressedOutputStream(target, new FilterOutputStream(target) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("trailer");
+            }
+        });
+        output.write(new byte[]{1, 2, 3});
+        try {
+            output.close();
+            throw new AssertionError("close should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).isEqualTo("trailer");
+        }
+        assertThat(Arrays.equals(toArray(mConfig.getNestedBytes("output")), before)).isTrue();
+        assertThat(mTemporaryFolder.getRoot().list()).asList().containsExactly("nested.bin");
+    }
+
+    @Test
+    public void testFailedCompressorWriteKeepsFile() throws Exception {
+        write(NestedOutputOption.ATOMIC);
+        byte[] before = toArray(mConfig.getNestedBytes("output"));
+
+        NestedFileOutputStream target = new NestedFileOutputStream(mFile, EnumSet.of(NestedOutputOption.ATOMIC));
+        OutputStream output = new NestedFileOutputStream.CompressedOutputStream(target, new FilterOutputStream(target) {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("corrupt");
+            }
+        });
+        try {
+            output.write(1);
+            throw new AssertionError("write should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).isEqualTo("corrupt");
+        }
+        try {
+            output.close();
+            throw new AssertionError("close should fail");
+        } catch (IOException e) {
+        }
+        assertThat(Arrays.equals(toArray(mConfig.getNestedBytes("output")), before)).isTrue();
+        assertThat(mTemporaryFolder.getRoot().list()).asList().containsExactly("nested.bin");
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testMultipleCompressions() throws Exception {
+        mConfig.getNestedOutputStream("output", NestedOutputOption.GZIP, NestedOutputOption.LZ4);
+    }
+
+    private void write(NestedOutputOption... options) throws Exception {
+        // larger than two buffers, written with small and large writes
+        byte[] expected = new byte[NestedFileOutputStream.BUFFER_SIZE * 2 + 12345];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i * 31);
+        }
+        OutputStream output = mConfig.getNestedOutputStream("output", options);
+        try {
+            output.write(expected, 0, 100);
+            for (int i = 100; i < 1000; i++) {
+                output.write(expected[i]);
+            }
+            output.write(expected, 1000, NestedFileOutputStream.BUFFER_SIZE + 5);
+            int off = 1000 + NestedFileOutputStream.BUFFER_SIZE + 5;
+            output.write(expected, off, expected.length - off);
+        } finally {
+            output.close();
+        }
+        assertThat(Arrays.equals(toArray(mConfig.getNestedBytes("output")), expected)).isTrue();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+}
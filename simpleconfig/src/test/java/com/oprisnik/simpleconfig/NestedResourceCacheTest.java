@@ -0,0 +1,216 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class NestedResourceCacheTest extends BaseComponentTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        File file = createFile("a.txt", 100);
+
+        ByteBuffer first = cache.get(file);
+        assertThat(first.remaining()).isEqualTo(100);
+        assertThat(first.isReadOnly()).isTrue();
+        assertThat(cache.getMissCount()).isEqualTo(1L);
+
+        ByteBuffer second = cache.get(file);
+        assertThat(second.remaining()).isEqualTo(100);
+        assertThat(cache.getHitCount()).isEqualTo(1L);
+        assertThat(cache.getSize()).isEqualTo(100L);
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testModifiedFileIsReloaded() throws IOException {
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        File file = createFile("a.txt", 100);
+        cache.get(file);
+
+        write(file, 50);
+        file.setLastModified(file.lastModified() + 2000);
+        assertThat(cache.get(file).remaining()).isEqualTo(50);
+        assertThat(cache.getMissCount()).isEqualTo(2L);
+        assertThat(cache.getSize()).isEqualTo(50L);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        NestedResourceCache cache = new NestedResourceCache(250);
+        File a = createFile("a.txt", 100);
+        File b = createFile("b.txt", 100);
+        File c = createFile("c.txt", 100);
+
+        cache.get(a);
+        cache.get(b);
+        // a is now more recently used than b
+        cache.get(a);
+        cache.get(c);
+
+        assertThat(cache.getEvictionCount()).isEqualTo(1L);
+        assertThat(cache.getSize()).isEqualTo(200L);
+        cache.get(a);
+        cache.get(c);
+        assertThat(cache.getHitCount()).isEqualTo(3L);
+        cache.get(b);
+        assertThat(cache.getMissCount()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        NestedResourceCache cache = new NestedResourceCache(10);
+        assertThat(cache.get(createFile("a.txt", 100))).isNull();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+
+        NestedResourceCache disabled = new NestedResourceCache(0);
+        assertThat(disabled.get(createFile("b.txt", 0))).isNull();
+    }
+
+    @Test
+    public void testCompressedFileIsCachedUncompressed() throws IOException {
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        File file = mTemporaryFolder.newFile("a.txt.gz");
+        OutputStream output = Compression.GZIP.wrap(new FileOutputStream(file));
+        try {
+            output.write(new byte[500]);
+        } finally {
+            output.close();
+        }
+
+        ByteBuffer data = cache.get(file);
+        assertThat(Compression.detect(data)).isEqualTo(Compression.NONE);
+        assertThat(data.remaining()).isEqualTo(500);
+        assertThat(cache.get(file).remaining()).isEqualTo(500);
+        assertThat(cache.getHitCount()).isEqualTo(1L);
+        assertThat(cache.getSize()).isEqualTo(500L);
+    }
+
+    @Test
+    public void testCompressedFileTooLargeWhenUncompressed() throws Exception {
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        File file = mTemporaryFolder.newFile("large.txt.gz");
+        OutputStream output = Compression.GZIP.wrap(new FileOutputStream(file));
+        try {
+            output.write(new byte[100000]);
+        } finally {
+            output.close();
+        }
+        assertThat(file.length()).isLessThan(1024L);
+        assertThat(cache.get(file)).isNull();
+        assertThat(cache.getEntryCount()).isEqualTo(0);
+
+        // the nested input stream streams files that are not cached
+        Config config = getXmlConfig("/xml-config-test.xml");
+        config.setProperty("file", file.getAbsolutePath());
+        NestedResourceCache previous = NestedResourceCache.getDefault();
+        NestedResourceCache.setDefault(cache);
+        try {
+            assertThat(readFully(config.getNestedInputStream("file"))).isEqualTo(100000);
+        } finally {
+            NestedResourceCache.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void testNestedInputStream() throws Exception {
+        Config config = getXmlConfig("/xml-config-test.xml");
+        File file = createFile("nested.txt", 10);
+        config.setProperty("file", file.getAbsolutePath());
+
+        NestedResourceCache previous = NestedResourceCache.getDefault();
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        NestedResourceCache.setDefault(cache);
+        try {
+            readFully(config.getNestedInputStream("file"));
+            assertThat(readFully(config.getNestedInputStream("file"))).isEqualTo(10);
+            assertThat(cache.getHitCount()).isEqualTo(1);
+        } finally {
+            NestedResourceCache.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void testNestedOutputStreamInvalidatesOnClose() throws Exception {
+        Config config = getXmlConfig("/xml-config-test.xml");
+        File file = createFile("nested.txt", 10);
+        config.setProperty("file", file.getAbsolutePath());
+
+        NestedResourceCache previous = NestedResourceCache.getDefault();
+        NestedResourceCache cache = new NestedResourceCache(1024);
+        NestedResourceCache.setDefault(cache);
+        try {
+            readFully(config.getNestedInputStream("file"));
+            assertThat(cache.getEntryCount()).isEqualTo(1);
+            // admitted entries are stored off-heap
+            assertThat(cache.get(file).isDirect()).isTrue();
+
+            OutputStream output = config.getNestedOutputStream("file");
+            output.write(new byte[5]);
+            // readers may still use the old contents while the file is written
+            assertThat(cache.getEntryCount()).isEqualTo(1);
+            output.close();
+            assertThat(cache.getEntryCount()).isEqualTo(0);
+            assertThat(readFully(config.getNestedInputStream("file"))).isEqualTo(5);
+        } finally {
+            NestedResourceCache.setDefault(previous);
+        }
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        write(file, size);
+        return file;
+    }
+
+    private static void write(File file, int size) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[size]);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static int readFully(InputStream input) throws IOException {
+        try {
+            int count = 0;
+            while (input.read() >= 0) {
+                count++;
+            }
+            return count;
+        } finally {
+            input.close();
+        }
+    }
+}
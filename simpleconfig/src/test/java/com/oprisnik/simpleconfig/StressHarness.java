@@ -0,0 +1,340 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs weighted, mixed workloads on many threads and reports throughput and latency percentiles
+ * per workload. Exceptions and assertion errors thrown by the workloads are collected as failures.
+ * <p/>
+ * Consistency checks follow the jcstress model: a workload reports the outcome it observed with
+ * {@link Outcomes#record(String)}, and the test asserts that only acceptable outcomes were observed.
+ * <p/>
+ * {@link ConfigStressTest#main(String[])} prints a report for 1, 2, 4, ... threads up to twice the
+ * number of cores, plus virtual threads if the JVM supports them.
+ */
+public class StressHarness {
+
+    /**
+     * A single operation of a workload.
+     */
+    public interface Operation {
+
+        /**
+         * @param thread    the index of the calling thread
+         * @param iteration the number of operations of the calling thread so far
+         */
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<Operation> mOperations = new ArrayList<Operation>();
+    private final List<Integer> mWeights = new ArrayList<Integer>();
+    private int mTotalWeight;
+
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private boolean mVirtualThreads;
+    private long mDurationMillis = 1000;
+
+    /**
+     * Add a workload. Every thread picks the next workload at random, weighted by the given weight.
+     */
+    public StressHarness add(String name, int weight, Operation operation) {
+        mNames.add(name);
+        mWeights.add(weight);
+        mOperations.add(operation);
+        mTotalWeight += weight;
+        return this;
+    }
+
+    public StressHarness setThreads(int threads) {
+        mThreads = threads;
+        return this;
+    }
+
+    /**
+     * Run the workloads on virtual threads. Requires a JVM with virtual threads,
+     * see {@link #isVirtualThreadsSupported()}.
+     */
+    public StressHarness setVirtualThreads(boolean virtualThreads) {
+        mVirtualThreads = virtualThreads;
+        return this;
+    }
+
+    public StressHarness setDuration(long duration, TimeUnit unit) {
+        mDurationMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Run all workloads for the configured duration.
+     *
+     * @return the result
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public Result run() throws InterruptedException {
+        final int workloads = mOperations.size();
+        final Histogram[][] histograms = new Histogram[mThreads][workloads];
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(mThreads);
+        final long[] deadline = new long[1];
+
+        ExecutorService executor = mVirtualThreads ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(mThreads);
+        try {
+            for (int t = 0; t < mThreads; t++) {
+                final int thread = t;
+                for (int w = 0; w < workloads; w++) {
+                    histograms[t][w] = new Histogram();
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Random random = new Random(thread);
+                        try {
+                            start.await();
+                            long end = deadline[0];
+                            for (long i = 0; ; i++) {
+                                int workload = pick(random.nextInt(mTotalWeight));
+                                long begin = System.nanoTime();
+                                try {
+                                    mOperations.get(workload).run(thread, i);
+                                } catch (Throwable e) {
+                                    // keep the first failures only, they are usually all the same
+                                    if (failures.size() < 100) {
+                                        failures.add(e);
+                                    }
+                                }
+                                long now = System.nanoTime();
+                                histograms[thread][workload].record(now - begin);
+                                if (now - end >= 0) {
+                                    break;
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            long begin = System.nanoTime();
+            deadline[0] = begin + TimeUnit.MILLISECONDS.toNanos(mDurationMillis);
+            start.countDown();
+            done.await();
+            long elapsed = System.nanoTime() - begin;
+
+            Result result = new Result(mThreads, mVirtualThreads, elapsed, failures);
+            for (int w = 0; w < workloads; w++) {
+                Histogram histogram = new Histogram();
+                for (int t = 0; t < mThreads; t++) {
+                    histogram.add(histograms[t][w]);
+                }
+                result.mHistograms.put(mNames.get(w), histogram);
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int pick(int value) {
+        for (int i = 0; i < mWeights.size(); i++) {
+            value -= mWeights.get(i);
+            if (value < 0) {
+                return i;
+            }
+        }
+        return mWeights.size() - 1;
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // compiled for Java 8, so the executor is looked up reflectively
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported", e);
+        }
+    }
+
+    /**
+     * Outcomes observed by the workloads, counted per outcome.
+     */
+    public static class Outcomes {
+
+        private final ConcurrentHashMap<String, AtomicLong> mCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+        public void record(String outcome) {
+            AtomicLong count = mCounts.get(outcome);
+            if (count == null) {
+                count = new AtomicLong();
+                AtomicLong previous = mCounts.putIfAbsent(outcome, count);
+                if (previous != null) {
+                    count = previous;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        /**
+         * @return the observed outcomes and how often they were observed, sorted by outcome
+         */
+        public Map<String, Long> getCounts() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> entry : mCounts.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+            return counts;
+        }
+    }
+
+    public static class Result {
+
+        private final int mThreads;
+        private final boolean mVirtualThreads;
+        private final long mElapsedNanos;
+        private final List<Throwable> mFailures;
+        private final Map<String, Histogram> mHistograms = new TreeMap<String, Histogram>();
+
+        Result(int threads, boolean virtualThreads, long elapsedNanos, List<Throwable> failures) {
+            mThreads = threads;
+            mVirtualThreads = virtualThreads;
+            mElapsedNanos = elapsedNanos;
+            mFailures = failures;
+        }
+
+        public List<Throwable> getFailures() {
+            return mFailures;
+        }
+
+        public long getCount(String workload) {
+            return mHistograms.get(workload).mCount;
+        }
+
+        /**
+         * @return operations per second of all workloads
+         */
+        public double getThroughput() {
+            long count = 0;
+            for (Histogram histogram : mHistograms.values()) {
+                count += histogram.mCount;
+            }
+            return count * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * @return the latency of the given workload at the given percentile in nanoseconds
+         */
+        public long getLatency(String workload, double percentile) {
+            return mHistograms.get(workload).percentile(percentile);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("%d %s threads: %.0f ops/s, %d failures%n",
+                    mThreads, mVirtualThreads ? "virtual" : "platform", getThroughput(), mFailures.size()));
+            for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+                Histogram h = entry.getValue();
+                sb.append(String.format("  %-16s %10d ops  p50 %8d ns  p99 %8d ns  p99.9 %8d ns  max %10d ns%n",
+                        entry.getKey(), h.mCount, h.percentile(50), h.percentile(99), h.percentile(99.9), h.mMax));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Latency histogram with 16 linear sub-buckets per power of two, so percentiles are accurate to about 6%.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKETS = 16;
+
+        private final long[] mCounts = new long[64 * SUB_BUCKETS];
+        private long mCount;
+        private long mMax;
+
+        void record(long nanos) {
+            mCounts[index(Math.max(nanos, 0))]++;
+            mCount++;
+            mMax = Math.max(mMax, nanos);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] += other.mCounts[i];
+            }
+            mCount += other.mCount;
+            mMax = Math.max(mMax, other.mMax);
+        }
+
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return ((long) (index % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+        }
+    }
+}
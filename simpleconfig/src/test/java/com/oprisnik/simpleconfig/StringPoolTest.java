@@ -0,0 +1,66 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class StringPoolTest extends BaseComponentTest {
+
+    @Test
+    public void testIntern() {
+        StringPool pool = new StringPool(8);
+        String a = pool.intern(new String("value"));
+        assertThat(pool.intern(new String("value"))).isSameAs(a);
+        String longValue = "longer than eight";
+        assertThat(pool.intern(longValue)).isSameAs(longValue);
+        assertThat(pool.isPooled(longValue)).isFalse();
+        assertThat(pool.intern(null)).isNull();
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(pool.getRetainedBytes()).isGreaterThan(0L);
+
+        pool.clear();
+        assertThat(pool.size()).isEqualTo(0);
+        assertThat(pool.getRetainedBytes()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testUnusedStringsAreReleased() throws Exception {
+        StringPool pool = new StringPool();
+        File file = getFile("/xml-config-test.xml");
+        CompactConfig kept = CompactConfig.fromFile(file, pool);
+        int size = pool.size();
+
+        CompactConfig released = CompactConfig.fromFile(file, pool);
+        for (int i = 0; i < 100; i++) {
+            released.setProperty("written.value" + i, "value written later " + i);
+        }
+        assertThat(pool.size()).isAtLeast(size + 200);
+
+        released = null;
+        for (int i = 0; i < 20 && pool.size() > size; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(pool.size()).isAtMost(size);
+        assertThat(kept.getProperty("test-property")).isEqualTo("Hello world!");
+    }
+}
@@ -0,0 +1,156 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures load time, retained heap and lookup latency of {@link XmlConfig} for growing configurations
+ * and fails if any of them grows clearly worse than linear with the number of nodes.
+ * <p/>
+ * The measurements depend on the machine, so the test only runs if {@value #KEY_MAX_NODES} is set,
+ * e.g. with ./gradlew scalingTest, which uses up to 100k nodes. Run with
+ * -Dsimpleconfig.scaling.maxNodes=1000000 (and enough heap) to include 1M nodes.
+ */
+public class XmlConfigScalingTest {
+
+    public static final String KEY_MAX_NODES = "simpleconfig.scaling.maxNodes";
+
+    /**
+     * Growth that is allowed on top of the growth of the number of nodes. Quadratic growth exceeds it.
+     */
+    private static final double TOLERANCE = 4;
+
+    private static final int LOOKUPS = 20000;
+
+    /**
+     * Lower bounds for the measurements, so that noise of the small configurations is not mistaken for growth.
+     */
+    private static final double MIN_LOAD_NANOS = 50e6;
+    private static final double MIN_RETAINED_BYTES = 4 << 20;
+    private static final double MIN_LOOKUP_NANOS = 2000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testScaling() throws Exception {
+        Assume.assumeTrue(System.getProperty(KEY_MAX_NODES) != null);
+        int maxNodes = Integer.getInteger(KEY_MAX_NODES, 100000);
+        // warm up the parser and the lookups
+        measure(1000);
+
+        List<Measurement> measurements = new ArrayList<Measurement>();
+        for (int nodes = 1000; nodes <= maxNodes; nodes *= 10) {
+            measurements.add(measure(nodes));
+        }
+        for (int i = 1; i < measurements.size(); i++) {
+            Measurement a = measurements.get(i - 1);
+            Measurement b = measurements.get(i);
+            assertLinear("load time", a, b, a.mLoadNanos, b.mLoadNanos, MIN_LOAD_NANOS, measurements);
+            assertLinear("retained heap", a, b, a.mRetainedBytes, b.mRetainedBytes, MIN_RETAINED_BYTES,
+                    measurements);
+            assertLinear("lookup latency", a, b, a.mLookupNanos, b.mLookupNanos, MIN_LOOKUP_NANOS, measurements);
+        }
+    }
+
+    private Measurement measure(int nodes) throws Exception {
+        ConfigGenerator generator = new ConfigGenerator()
+                .setNodes(nodes)
+                .setDepth(6)
+                .setLists(8, 10)
+                .setComponentEvery(10);
+        File file = generator.writeTo(mTemporaryFolder.newFile());
+        Measurement measurement = new Measurement(generator.getNodeCount());
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        Config config = ConfigFactory.fromFile(file);
+        measurement.mLoadNanos = System.nanoTime() - start;
+        measurement.mRetainedBytes = usedMemory() - before;
+
+        int sections = generator.getSectionCount();
+        Random random = new Random(nodes);
+        String[] keys = new String[LOOKUPS];
+        String[] values = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int section = random.nextInt(sections);
+            keys[i] = generator.getValueKey(section);
+            values[i] = generator.getValue(section);
+        }
+        lookUp(config, keys, values);
+        start = System.nanoTime();
+        lookUp(config, keys, values);
+        measurement.mLookupNanos = (double) (System.nanoTime() - start) / LOOKUPS;
+
+        file.delete();
+        return measurement;
+    }
+
+    private static void lookUp(Config config, String[] keys, String[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            // also keeps the lookups from being optimized away
+            assertThat(config.getProperty(keys[i])).isEqualTo(values[i]);
+        }
+    }
+
+    private static void assertLinear(String what, Measurement a, Measurement b, double valueA, double valueB,
+                                     double min, List<Measurement> measurements) {
+        double growth = Math.max(valueB, min) / Math.max(valueA, min);
+        double nodeGrowth = (double) b.mNodes / a.mNodes;
+        assertTrue(what + " grows by " + growth + " for " + nodeGrowth + " times the nodes: " + a + " -> " + b
+                + ", all measurements: " + measurements, growth <= nodeGrowth * TOLERANCE);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Measurement {
+
+        private final int mNodes;
+        private double mLoadNanos;
+        private double mRetainedBytes;
+        private double mLookupNanos;
+
+        Measurement(int nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d nodes: load %.1f ms, retained %.1f MB, lookup %.0f ns",
+                    mNodes, mLoadNanos / 1e6, mRetainedBytes / (1 << 20), mLookupNanos);
+        }
+    }
+}
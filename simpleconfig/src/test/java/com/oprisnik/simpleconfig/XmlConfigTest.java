@@ -18,19 +18,38 @@ package com.oprisnik.simpleconfig;
 
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 public class XmlConfigTest extends BaseComponentTest {
 
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
     protected Config mConfig;
 
     @Before
@@ -97,4 +116,196 @@ public class XmlConfigTest extends BaseComponentTest {
         assertThat(list.size()).isEqualTo(1);
         assertThat(list.iterator().next()).isEqualTo("single item");
     }
+
+    @Test
+    public void testKeys() {
+        assertThat(toList(mConfig.keys(null))).containsExactly("test-property", "subconfig.something",
+                "subconfig.something-else[@attr]", "file", "list.string(0)", "list.string(1)", "list.string(2)",
+                "list.string(3)", "list1.string");
+        assertThat(toList(mConfig.keys("subconfig"))).containsExactly("subconfig.something",
+                "subconfig.something-else[@attr]");
+        assertThat(toList(mConfig.keys("subconfig.something-else[@attr]")))
+                .containsExactly("subconfig.something-else[@attr]");
+        assertThat(toList(mConfig.keys("list.string"))).containsExactly("list.string(0)", "list.string(1)",
+                "list.string(2)", "list.string(3)").inOrder();
+        assertThat(toList(mConfig.keys("list.string(2)"))).containsExactly("list.string(2)");
+        assertThat(toList(mConfig.keys("list1.string(0)"))).containsExactly("list1.string");
+        assertThat(mConfig.keys("missing").hasNext()).isFalse();
+        assertThat(mConfig.keys("list.string(4)").hasNext()).isFalse();
+
+        Config subconfig = mConfig.getSubconfig("subconfig");
+        assertThat(toList(subconfig.keys(null))).containsExactly("something", "something-else[@attr]");
+        assertThat(toList(subconfig.keys("[@attr]"))).isEmpty();
+    }
+
+    @Test
+    public void testForEach() {
+        final Map<String, String> properties = new LinkedHashMap<String, String>();
+        mConfig.forEach(null, new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                properties.put(key, value);
+            }
+        });
+        assertThat(properties.keySet()).containsExactlyElementsIn(toList(mConfig.keys(null))).inOrder();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            assertThat(entry.getValue()).isEqualTo(mConfig.getProperty(entry.getKey()));
+        }
+        assertThat(properties.get("list.string(1)")).isEqualTo("data2");
+    }
+
+    protected static List<String> toList(Iterator<String> keys) {
+        List<String> list = new ArrayList<String>();
+        while (keys.hasNext()) {
+            list.add(keys.next());
+        }
+        return list;
+    }
+
+    @Test
+    public void testNestedBytes() throws BadConfigException, IOException {
+        ByteBuffer bytes = mConfig.getNestedBytes("file");
+        assertThat(bytes.isReadOnly()).isTrue();
+        byte[] data = new byte[bytes.remaining()];
+        bytes.get(data);
+        assertThat(new String(data, "UTF-8")).isEqualTo("This is a nested file.");
+    }
+
+    @Test
+    public void testReadObjectFromNestedStream() throws Exception {
+        File file = mTemporaryFolder.newFile("object.ser");
+        mConfig.setProperty("object", file.getAbsolutePath());
+        List<String> list = new ArrayList<String>();
+        list.add("Hello");
+        list.add("World");
+        mConfig.writeObjectToNestedStream("object", list);
+
+        Object read = mConfig.readObjectFromNestedStream("object");
+        assertThat(read).isEqualTo(list);
+        // every call returns a new instance
+        assertThat(mConfig.readObjectFromNestedStream("object")).isNotSameAs(read);
+    }
+
+    @Test
+    public void testReadObjectWithCodec() throws Exception {
+        File file = mTemporaryFolder.newFile("object.txt");
+        mConfig.setProperty("object", file.getAbsolutePath());
+        mConfig.setProperty("object[@codec]", Utf8Codec.class.getName());
+        mConfig.writeObjectToNestedStream("object", "Hello codec");
+
+        assertThat(mConfig.readObjectFromNestedStream("object")).isEqualTo("Hello codec");
+        assertThat(new String(toArray(mConfig.getNestedBytes("object")), "UTF-8")).isEqualTo("Hello codec");
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testReadObjectWithInvalidCodec() throws Exception {
+        mConfig.setProperty("file[@codec]", "com.oprisnik.DoesNotExist");
+        mConfig.readObjectFromNestedStream("file");
+    }
+
+    @Test
+    public void testReadSharedObjectFromNestedStream() throws Exception {
+        File file = mTemporaryFolder.newFile("shared.ser");
+        mConfig.setProperty("object", file.getAbsolutePath());
+        mConfig.writeObjectToNestedStream("object", "first");
+
+        Object shared = mConfig.readSharedObjectFromNestedStream("object");
+        assertThat(shared).isEqualTo("first");
+
+        // a different config pointing to the same file shares the instance
+        Config other = getXmlConfig("/xml-config-test.xml");
+        other.setProperty("object", file.getAbsolutePath());
+        assertThat(other.readSharedObjectFromNestedStream("object")).isSameAs(shared);
+
+        // modifying the file invalidates the cached object
+        mConfig.writeObjectToNestedStream("object", "second");
+        file.setLastModified(file.lastModified() + 2000);
+        assertThat(other.readSharedObjectFromNestedStream("object")).isEqualTo("second");
+    }
+
+    @Test
+    public void testReadSharedObjectFromMissingFile() throws Exception {
+        mConfig.setProperty("object", new File(mTemporaryFolder.getRoot(), "missing.ser").getAbsolutePath());
+        int size = NestedObjectCache.size();
+        try {
+            mConfig.readSharedObjectFromNestedStream("object");
+            fail("the file does not exist");
+        } catch (BadConfigException e) {
+        } catch (IOException e) {
+        }
+        // no entry is kept for a file that could not be loaded
+        assertThat(NestedObjectCache.size()).isEqualTo(size);
+    }
+
+    @Test
+    public void testReadSharedObjectFromStreamOnlyConfig() throws Exception {
+        File file = mTemporaryFolder.newFile("stream.ser");
+        mConfig.setProperty("object", file.getAbsolutePath());
+        mConfig.writeObjectToNestedStream("object", "stream");
+        Config config = new XmlConfig() {
+            @Override
+            public File getNestedLocalFile(String key) {
+                return null;
+            }
+        };
+        config.setProperty("object", file.getAbsolutePath());
+        int size = NestedObjectCache.size();
+        Object first = config.readSharedObjectFromNestedStream("object");
+        assertThat(first).isEqualTo("stream");
+        assertThat(config.readSharedObjectFromNestedStream("object")).isNotSameAs(first);
+        assertThat(NestedObjectCache.size()).isEqualTo(size);
+    }
+
+    @Test
+    public void testAsyncNestedLoading() throws Exception {
+        File file = mTemporaryFolder.newFile("async.ser");
+        mConfig.setProperty("object", file.getAbsolutePath());
+        mConfig.writeObjectToNestedStream("object", "async");
+
+        CompletableFuture<ByteBuffer> bytes = mConfig.getNestedBytesAsync("file");
+        CompletableFuture<Object> object = mConfig.readObjectFromNestedStreamAsync("object");
+        assertThat(new String(toArray(bytes.get()), "UTF-8")).isEqualTo("This is a nested file.");
+        assertThat(object.get()).isEqualTo("async");
+    }
+
+    @Test
+    public void testAsyncNestedLoadingWithExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ByteBuffer bytes = mConfig.getNestedBytesAsync("file", executor).get();
+            assertThat(bytes.remaining()).isEqualTo("This is a nested file.".length());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncNestedLoadingFailure() throws Exception {
+        mConfig.setProperty("missing", "does-not-exist.txt");
+        try {
+            mConfig.getNestedBytesAsync("missing").get();
+            fail("Missing nested file loaded");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(BadConfigException.class);
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    public static class Utf8Codec implements NestedObjectCodec {
+
+        @Override
+        public Object decode(ByteBuffer data) throws IOException {
+            return new String(toArray(data), "UTF-8");
+        }
+
+        @Override
+        public void encode(Object object, OutputStream output) throws IOException {
+            output.write(((String) object).getBytes("UTF-8"));
+        }
+    }
 }
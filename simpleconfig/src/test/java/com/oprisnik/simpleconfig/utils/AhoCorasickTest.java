@@ -0,0 +1,111 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void testOverlappingWords() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+
+        assertThat(matcher.containsAny("ushers")).isTrue();
+        assertThat(matcher.containsAny("ahis")).isTrue();
+        assertThat(matcher.containsAny("hxsxe")).isFalse();
+        assertThat(matcher.containsAny("")).isFalse();
+        assertThat(matcher.findAll("ushers")).containsExactly("she", "he", "hers").inOrder();
+    }
+
+    @Test
+    public void testDuplicatesAndUnicode() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("\u00FCber", "\u00FCber", "b\u00E4r", "\uD83D\uDE00"));
+
+        assertThat(matcher.getTrie().getWordCount()).isEqualTo(3);
+        assertThat(matcher.findAll("Der B\u00E4r ist \u00FCber b\u00E4r \uD83D\uDE00"))
+                .containsExactly("\u00FCber", "b\u00E4r", "\uD83D\uDE00").inOrder();
+    }
+
+    @Test
+    public void testEmptyWord() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("", "abc"));
+
+        assertThat(matcher.containsAny("xyz")).isTrue();
+        assertThat(matcher.findAll("xabc")).containsExactly("", "abc").inOrder();
+    }
+
+    @Test
+    public void testNoWords() {
+        AhoCorasick matcher = new AhoCorasick(Collections.<String>emptyList());
+
+        assertThat(matcher.containsAny("abc")).isFalse();
+        assertThat(matcher.findAll("abc")).isEmpty();
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            Set<String> words = new HashSet<String>();
+            for (int i = 0; i < 1 + random.nextInt(30); i++) {
+                words.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            AhoCorasick matcher = new AhoCorasick(words);
+            for (int i = 0; i < 50; i++) {
+                String text = randomString(random, random.nextInt(20));
+                List<String> expected = new ArrayList<String>();
+                for (String word : words) {
+                    if (text.contains(word)) {
+                        expected.add(word);
+                    }
+                }
+                assertThat(matcher.containsAny(text)).isEqualTo(!expected.isEmpty());
+                assertThat(matcher.findAll(text)).containsExactlyElementsIn(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testPrefixes() {
+        CharTrie trie = new CharTrie(Arrays.asList("a", "abc", "abd", "b"));
+
+        assertThat(trie.matchesPrefix("abx")).isTrue();
+        assertThat(trie.matchesPrefix("cab")).isFalse();
+        assertThat(trie.getWord(trie.longestPrefix("abcd"))).isEqualTo("abc");
+        assertThat(trie.getWord(trie.longestPrefix("abx"))).isEqualTo("a");
+        assertThat(trie.longestPrefix("c")).isEqualTo(CharTrie.NONE);
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,79 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BloomFilterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            add(filter, "entry-" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain("entry-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            add(filter, "entry-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(2000);
+    }
+
+    @Test
+    public void testByteBufferProbe() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        add(filter, "entry");
+        byte[] bytes = "xentryx".getBytes(UTF_8);
+        assertThat(filter.mightContain(ByteBuffer.wrap(bytes), 1, 5)).isTrue();
+        assertThat(filter.mightContain(bytes, 1, 5)).isTrue();
+    }
+
+    @Test
+    public void testUtf8Bytes() {
+        String[] strings = {"abc", "\u00FCber", "\u20AC", "\uD83D\uDE00", "\uD800"};
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(UTF_8);
+            assertThat(BloomFilter.hash(s)).isEqualTo(BloomFilter.hash(bytes, 0, bytes.length));
+        }
+    }
+
+    private static void add(BloomFilter filter, String s) {
+        byte[] bytes = s.getBytes(UTF_8);
+        filter.add(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Config;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IntSetTest extends BaseComponentTest {
+
+    @Test
+    public void testIntSet() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        IntSet set = config.getComponentAndInit("ids", IntSet.class, IntSet.class);
+
+        assertThat(set.size()).isEqualTo(2);
+        assertThat(set.contains(42)).isTrue();
+        assertThat(set.contains(-7)).isTrue();
+        assertThat(set.contains(0)).isFalse();
+
+        set.addAll(1, 2, 42);
+        assertThat(set.toArray()).isEqualTo(new int[]{-7, 1, 2, 42});
+    }
+
+    @Test
+    public void testLongSet() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        LongSet set = config.getComponentAndInit("long-ids", LongSet.class, LongSet.class);
+
+        assertThat(set.toArray()).isEqualTo(new long[]{-1, 3, 9007199254740993L});
+        assertThat(set.contains(9007199254740993L)).isTrue();
+        assertThat(set.contains(9007199254740992L)).isFalse();
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidEntry() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        // does not fit into an int
+        config.setProperty("ids.list.string", "9007199254740993");
+        config.getComponentAndInit("ids", IntSet.class, IntSet.class);
+    }
+
+    @Test
+    public void testSameResultsAsHashSet() {
+        Random random = new Random(3);
+        Set<Integer> expected = new HashSet<Integer>();
+        int[] values = new int[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(20000) - 10000;
+            expected.add(values[i]);
+        }
+        IntSet set = new IntSet(values);
+        assertThat(set.size()).isEqualTo(expected.size());
+        for (int i = -10001; i <= 10001; i++) {
+            assertThat(set.contains(i)).isEqualTo(expected.contains(i));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Config;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LongRangeSetTest extends BaseComponentTest {
+
+    @Test
+    public void testPorts() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        LongRangeSet ports = config.getComponentAndInit("ports", LongRangeSet.class, LongRangeSet.class);
+
+        assertThat(ports.getRangeCount()).isEqualTo(3);
+        assertThat(ports.contains(80)).isTrue();
+        assertThat(ports.contains(81)).isFalse();
+        assertThat(ports.contains(1023)).isFalse();
+        assertThat(ports.contains(1024)).isTrue();
+        assertThat(ports.contains(65535)).isTrue();
+        assertThat(ports.contains(65536)).isFalse();
+        assertThat(ports.contains(-1)).isFalse();
+    }
+
+    @Test
+    public void testNetworks() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        LongRangeSet networks = config.getComponentAndInit("networks", LongRangeSet.class, LongRangeSet.class);
+
+        // the adjacent /24 networks are merged
+        assertThat(networks.getRangeCount()).isEqualTo(3);
+        assertThat(networks.containsIPv4("10.255.0.1")).isTrue();
+        assertThat(networks.containsIPv4("11.0.0.0")).isFalse();
+        assertThat(networks.containsIPv4("192.168.2.255")).isTrue();
+        assertThat(networks.containsIPv4("192.168.3.0")).isFalse();
+        assertThat(networks.containsIPv4("172.16.0.9")).isTrue();
+        assertThat(networks.containsIPv4("172.16.0.10")).isFalse();
+        assertThat(networks.containsIPv4("10.0.0")).isFalse();
+        assertThat(networks.containsIPv4("10.0.0.256")).isFalse();
+        assertThat(networks.containsIPv4(new StringBuilder("10.1.2.3"))).isTrue();
+    }
+
+    @Test
+    public void testParseIPv4() {
+        assertThat(LongRangeSet.parseIPv4("0.0.0.0")).isEqualTo(0L);
+        assertThat(LongRangeSet.parseIPv4("255.255.255.255")).isEqualTo(0xFFFFFFFFL);
+        assertThat(LongRangeSet.parseIPv4("1.2.3.4")).isEqualTo(0x01020304L);
+        assertThat(LongRangeSet.parseIPv4("1..3.4")).isEqualTo(-1L);
+        assertThat(LongRangeSet.parseIPv4("1.2.3.4.5")).isEqualTo(-1L);
+        assertThat(LongRangeSet.parseIPv4("1.2.3.")).isEqualTo(-1L);
+        assertThat(LongRangeSet.parseIPv4("")).isEqualTo(-1L);
+    }
+
+    @Test
+    public void testNegativeAndExtremeRanges() {
+        LongRangeSet set = new LongRangeSet();
+        set.add("-10--5");
+        set.add(Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        set.add(Long.MIN_VALUE, Long.MIN_VALUE);
+        assertThat(set.contains(-7)).isTrue();
+        assertThat(set.contains(-4)).isFalse();
+        assertThat(set.contains(Long.MAX_VALUE)).isTrue();
+        assertThat(set.contains(Long.MIN_VALUE)).isTrue();
+        assertThat(set.contains(Long.MIN_VALUE + 1)).isFalse();
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidCidr() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/number-sets.xml");
+        config.setProperty("networks.list.string", "10.0.0.0/33");
+        config.getComponentAndInit("networks", LongRangeSet.class, LongRangeSet.class);
+    }
+
+    @Test
+    public void testMergedRanges() {
+        Random random = new Random(5);
+        boolean[] expected = new boolean[1000];
+        LongRangeSet set = new LongRangeSet();
+        for (int i = 0; i < 50; i++) {
+            int start = random.nextInt(1000);
+            int end = Math.min(999, start + random.nextInt(30));
+            set.add(start + "-" + end);
+            for (int j = start; j <= end; j++) {
+                expected[j] = true;
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(set.contains(i)).isEqualTo(expected[i]);
+        }
+        long[] ranges = set.toArray();
+        for (int i = 2; i < ranges.length; i += 2) {
+            // disjoint and not adjacent
+            assertThat(ranges[i]).isGreaterThan(ranges[i - 1] + 1);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MappedStringListTest extends BaseComponentTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSameResultsAsStringList() throws Exception {
+        Random random = new Random(7);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(randomString(random, 1 + random.nextInt(6)));
+        }
+        // duplicates and empty lines are ignored
+        lines.add(lines.get(0));
+        lines.add("");
+        File file = write("list.txt", lines);
+
+        StringList expected = new StringList(file);
+        MappedStringList list = new MappedStringList(file, 0.01);
+
+        assertThat(list.values()).containsExactlyElementsIn(expected.values());
+        for (int i = 0; i < 1000; i++) {
+            String s = randomString(random, random.nextInt(12));
+            assertThat(list.contains(s)).isEqualTo(expected.contains(s));
+            assertThat(list.checkPrefix(s)).isEqualTo(expected.checkPrefix(s));
+            assertThat(list.longestPrefix(s)).isEqualTo(expected.longestPrefix(s));
+            assertThat(list.checkContains(s)).isEqualTo(expected.checkContains(s));
+            assertThat(list.checkSuffix(s)).isEqualTo(expected.checkSuffix(s));
+            byte[] utf8 = s.getBytes("UTF-8");
+            assertThat(list.contains(utf8, 0, utf8.length)).isEqualTo(expected.contains(s));
+            assertThat(list.contains(ByteBuffer.wrap(utf8), 0, utf8.length)).isEqualTo(expected.contains(s));
+            assertThat(list.checkPrefix(ByteBuffer.wrap(utf8), 0, utf8.length)).isEqualTo(expected.checkPrefix(s));
+            assertThat(list.checkContains(new StringBuilder(s))).isEqualTo(expected.checkContains(s));
+            assertThat(list.getAllContainedStrings(s))
+                    .containsExactlyElementsIn(expected.getAllContainedStrings(s));
+        }
+
+        List<String> batch = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            batch.add(randomString(random, random.nextInt(12)));
+        }
+        // sorted batches put null elements last, the results stay in input order
+        batch.set(7, null);
+        batch.set(2500, null);
+        assertThat(list.containsAll(batch)).isEqualTo(expected.containsAll(batch));
+        assertThat(list.matchPrefixes(batch)).isEqualTo(expected.matchPrefixes(batch));
+        assertThat(list.matchContains(batch)).isEqualTo(expected.matchContains(batch));
+        List<List<String>> contained = list.matchAllContainedStrings(batch);
+        List<List<String>> expectedContained = expected.matchAllContainedStrings(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            assertThat(contained.get(i)).containsExactlyElementsIn(expectedContained.get(i));
+        }
+    }
+
+    @Test
+    public void testSegmentedImage() throws Exception {
+        Random random = new Random(13);
+        PackedStrings entries = new PackedStrings();
+        for (int i = 0; i < 3000; i++) {
+            entries.add(randomString(random, 1 + random.nextInt(20)));
+        }
+        entries.sort();
+        entries.deduplicate();
+        File file = mTemporaryFolder.newFile("list.index");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            FrontCodedStrings.write(entries, 0, 0, 0, output);
+        } finally {
+            output.close();
+        }
+
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FrontCodedStrings expected = FrontCodedStrings.map(input.getChannel());
+            FrontCodedStrings image = FrontCodedStrings.map(input.getChannel(), 1024);
+            assertThat(image.values()).containsExactlyElementsIn(expected.values()).inOrder();
+            byte[] scratch = image.newScratch();
+            for (int i = 0; i < 1000; i++) {
+                byte[] key = randomString(random, random.nextInt(25)).getBytes("UTF-8");
+                assertThat(image.contains(key, 0, key.length)).isEqualTo(expected.contains(key, 0, key.length));
+                assertThat(image.prefixes(key, 0, key.length, scratch, null))
+                        .isEqualTo(expected.prefixes(key, 0, key.length, expected.newScratch(), null));
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testIndexIsReusedAndRebuilt() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("first");
+        File file = write("list.txt", lines);
+        File index = new File(file.getPath() + MappedStringList.INDEX_SUFFIX);
+
+        new MappedStringList(file);
+        assertThat(index.exists()).isTrue();
+        index.setLastModified(1000);
+        new MappedStringList(file);
+        // not rebuilt
+        assertThat(index.lastModified()).isEqualTo(1000L);
+
+        lines.add("second");
+        write("list.txt", lines);
+        MappedStringList list = new MappedStringList(file);
+        assertThat(list.contains("second")).isTrue();
+        assertThat(index.lastModified()).isNotEqualTo(1000L);
+    }
+
+    @Test
+    public void testSelectedInConfig() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("Hello World!");
+        File file = write("list.txt", lines);
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", file.getAbsolutePath());
+        config.setProperty("string-list1[@class]", MappedStringList.class.getName());
+        AbstractStringList list = config.getComponentAndInit("string-list1", AbstractStringList.class,
+                StringList.class);
+
+        assertThat(list).isInstanceOf(MappedStringList.class);
+        assertThat(list.contains("Hello World!")).isTrue();
+        assertThat(list.contains("Test")).isFalse();
+    }
+
+    @Test
+    public void testBloomFilterInConfig() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("Hello World!");
+        File file = write("list.txt", lines);
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", file.getAbsolutePath());
+        config.setProperty("string-list1.bloom-filter", "0.01");
+        config.setProperty("string-list1[@class]", MappedStringList.class.getName());
+        AbstractStringList list = config.getComponentAndInit("string-list1", AbstractStringList.class,
+                StringList.class);
+
+        assertThat(list.contains("Hello World!")).isTrue();
+        assertThat(list.contains("Not in list :)")).isFalse();
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidBloomFilter() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("Hello World!");
+        File file = write("list.txt", lines);
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", file.getAbsolutePath());
+        config.setProperty("string-list1.bloom-filter", "2");
+        config.setProperty("string-list1[@class]", MappedStringList.class.getName());
+        config.getComponentAndInit("string-list1", AbstractStringList.class, StringList.class);
+    }
+
+    @Test
+    public void testUnicode() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("\u00fcber");
+        lines.add("\u20ac");
+        lines.add("\ud83d\ude00 smile");
+        File file = write("list.txt", lines);
+
+        MappedStringList list = new MappedStringList(file, Charset.forName("UTF-8"));
+        assertThat(list.contains("\u00fcber")).isTrue();
+        assertThat(list.contains("uber")).isFalse();
+        assertThat(list.checkContains("price: 5\u20ac")).isTrue();
+        assertThat(list.longestPrefix("\ud83d\ude00 smile!")).isEqualTo("\ud83d\ude00 smile");
+        assertThat(list.getAllContainedStrings("\u00fcber \u20ac")).containsExactly("\u00fcber", "\u20ac");
+
+        // the image is rebuilt for another charset
+        list = new MappedStringList(file, Charset.forName("ISO-8859-1"));
+        assertThat(list.contains("\u00fcber")).isFalse();
+        assertThat(list.contains(new String("\u00fcber".getBytes("UTF-8"), "ISO-8859-1"))).isTrue();
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("first");
+        File file = write("list.txt", lines);
+        MappedStringList list = new MappedStringList(file);
+        MappedStringList frozen = list.freeze();
+
+        lines.add("second");
+        write("list.txt", lines);
+        file.setLastModified(file.lastModified() + 2000);
+        list.load(file);
+
+        assertThat(list.contains("second")).isTrue();
+        assertThat(frozen.contains("first")).isTrue();
+        assertThat(frozen.contains("second")).isFalse();
+        assertThat(frozen.isFrozen()).isTrue();
+    }
+
+    @Test
+    public void testCaseInsensitive() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("Hello World!");
+        lines.add("\u00dcber");
+        File file = write("list.txt", lines);
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", file.getAbsolutePath());
+        config.setProperty("string-list1.file[@case-insensitive]", "true");
+        config.setProperty("string-list1.charset", "UTF-8");
+        config.setProperty("string-list1[@class]", MappedStringList.class.getName());
+        AbstractStringList list = config.getComponentAndInit("string-list1", AbstractStringList.class,
+                StringList.class);
+
+        assertThat(list.values()).containsExactly("hello world!", "\u00fcber");
+        assertThat(list.contains("HELLO world!")).isTrue();
+        assertThat(list.checkPrefix("\u00fcBER alles")).isTrue();
+        assertThat(list.longestPrefix("\u00dcBER alles")).isEqualTo("\u00fcber");
+        byte[] utf8 = "say HELLO WORLD!".getBytes("UTF-8");
+        assertThat(list.checkContains(utf8, 0, utf8.length)).isTrue();
+        assertThat(list.getAllContainedStrings("hello WORLD! \u00dcber")).containsExactly("hello world!", "\u00fcber");
+
+        // the image is rebuilt if the folding changes
+        list = new MappedStringList(file, Charset.forName("UTF-8"));
+        assertThat(list.contains("hello world!")).isFalse();
+        assertThat(list.contains("Hello World!")).isTrue();
+    }
+
+    @Test
+    public void testDomain() throws Exception {
+        File file = write("domains.txt", Arrays.asList("example.com", ".co.uk", "ads.example.org"));
+        MappedStringList list = new MappedStringList(file, Charset.forName("UTF-8"));
+
+        assertThat(list.checkDomain("www.example.com.")).isTrue();
+        assertThat(list.checkDomain("badexample.com")).isFalse();
+        assertThat(list.checkDomain("co.uk")).isFalse();
+        assertThat(list.getDomain("shop.bbc.co.uk")).isEqualTo(".co.uk");
+        assertThat(list.getDomain("x.ads.example.org")).isEqualTo("ads.example.org");
+        assertThat(list.checkSuffix("badexample.com")).isTrue();
+        assertThat(list.checkSuffix("example.co")).isFalse();
+
+        // same as StringList: an empty list accepts every host, but has no domain to return
+        MappedStringList empty = new MappedStringList(write("empty.txt", new ArrayList<String>()));
+        assertThat(empty.checkDomain("example.com")).isTrue();
+        assertThat(empty.getDomain("example.com")).isNull();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws Exception {
+        File file = write("list.txt", Arrays.asList("first"));
+        new MappedStringList(file).freeze().load(file);
+    }
+
+    @Test
+    public void testSiblingOfStringList() throws Exception {
+        AbstractStringList list = new MappedStringList(write("list.txt", Arrays.asList("first")));
+
+        assertThat(list).isNotInstanceOf(StringList.class);
+        assertThat(list.freeze().contains("first")).isTrue();
+        assertThat(list.matchPrefixes(Arrays.asList("first one", "second"))).isEqualTo(BitSet.valueOf(new long[]{1}));
+    }
+
+    private File write(String name, List<String> lines) throws IOException {
+        File file = new File(mTemporaryFolder.getRoot(), name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
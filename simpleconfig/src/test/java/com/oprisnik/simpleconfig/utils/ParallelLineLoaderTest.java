@@ -0,0 +1,186 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ParallelLineLoaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSameLinesAsReader() throws Exception {
+        Random random = new Random(3);
+        String[] terminators = {"\n", "\r\n", "\r", "\n\n"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(randomString(random, random.nextInt(20)));
+            sb.append(terminators[random.nextInt(terminators.length)]);
+        }
+        sb.append("no terminator");
+        File file = write(sb.toString().getBytes(UTF_8));
+        Set<String> expected = readLines(file, UTF_8);
+
+        for (int chunkSize : new int[]{1, 7, 100, 4096, ParallelLineLoader.DEFAULT_CHUNK_SIZE}) {
+            ParallelLineLoader loader = new ParallelLineLoader(file, UTF_8, StringFolding.NONE, 4, chunkSize);
+            assertThat(loader.loadStrings()).containsExactlyElementsIn(expected);
+            assertThat(decode(loader.loadPacked())).containsExactlyElementsIn(new TreeSet<String>(expected)).inOrder();
+        }
+    }
+
+    @Test
+    public void testSingleByteCharset() throws Exception {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        File file = write("gr\u00FC\u00DFe\n\u00E9t\u00E9\n".getBytes(latin1));
+
+        ParallelLineLoader loader = new ParallelLineLoader(file, latin1, StringFolding.NONE, 2, 3);
+        assertThat(loader.loadStrings()).containsExactly("gr\u00FC\u00DFe", "\u00E9t\u00E9");
+        assertThat(decode(loader.loadPacked())).containsExactly("gr\u00FC\u00DFe", "\u00E9t\u00E9").inOrder();
+    }
+
+    @Test
+    public void testUnsplittableCharset() throws Exception {
+        Charset utf16 = Charset.forName("UTF-16");
+        assertThat(ParallelLineLoader.isSplittable(utf16)).isFalse();
+        assertThat(ParallelLineLoader.isSplittable(UTF_8)).isTrue();
+        File file = write("first\nsecond\n".getBytes(utf16));
+
+        ParallelLineLoader loader = new ParallelLineLoader(file, utf16, StringFolding.NONE, 4, 1);
+        assertThat(loader.loadStrings()).containsExactly("first", "second");
+    }
+
+    @Test
+    public void testCompressedFile() throws Exception {
+        File file = mTemporaryFolder.newFile("list.txt.gz");
+        OutputStream output = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            output.write("first\nsecond\nfirst\n".getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+
+        ParallelLineLoader loader = new ParallelLineLoader(file, UTF_8, StringFolding.NONE, 4, 1);
+        assertThat(loader.loadStrings()).containsExactly("first", "second");
+        assertThat(decode(loader.loadPacked())).containsExactly("first", "second").inOrder();
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File file = write(new byte[0]);
+        ParallelLineLoader loader = new ParallelLineLoader(file, UTF_8, StringFolding.NONE, 4, 1);
+        assertThat(loader.loadStrings()).isEmpty();
+        assertThat(loader.loadPacked().size()).isEqualTo(0);
+    }
+
+    private File write(byte[] data) throws IOException {
+        File file = mTemporaryFolder.newFile();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static Set<String> readLines(File file, Charset charset) throws IOException {
+        Set<String> lines = new HashSet<String>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), charset));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testPackedStringsSpanChunks() {
+        PackedStrings strings = new PackedStrings();
+        Set<String> expected = new TreeSet<String>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('\u00FC');
+        }
+        String padding = sb.toString();
+        // more than one chunk of data
+        for (int i = 0; i < PackedStrings.CHUNK_SIZE / 1500; i++) {
+            String s = (i % 7) + padding + i;
+            strings.add(s);
+            expected.add(s);
+        }
+        strings.add("");
+        strings.add("");
+        expected.add("");
+        assertThat(strings.data(0)).isNotSameAs(strings.data(strings.size() - 1));
+        strings.sort();
+        strings.deduplicate();
+
+        assertThat(decode(strings)).containsExactlyElementsIn(expected).inOrder();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPackedStringTooLong() {
+        new PackedStrings().add(new byte[PackedStrings.MAX_LENGTH + 1], 0, PackedStrings.MAX_LENGTH + 1);
+    }
+
+    private static List<String> decode(PackedStrings strings) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < strings.size(); i++) {
+            result.add(new String(strings.data(i), strings.offset(i), strings.length(i), UTF_8));
+        }
+        return result;
+    }
+
+    private static String randomString(Random random, int length) {
+        String alphabet = "abc\u00FC\u20AC";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Config;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PatternListTest extends BaseComponentTest {
+
+    @Test
+    public void testGlobList() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/pattern-list.xml");
+        PatternList list = config.getComponentAndInit("pattern-list1", PatternList.class, PatternList.class);
+
+        assertThat(list.size()).isEqualTo(3);
+        assertThat(list.getDefaultSyntax()).isEqualTo(PatternList.SYNTAX_GLOB);
+        assertThat(list.matches("www.example.com")).isTrue();
+        assertThat(list.matches("example.org")).isTrue();
+        assertThat(list.matches("example.net")).isFalse();
+        assertThat(list.matches("user-42")).isTrue();
+        assertThat(list.matches("user-")).isFalse();
+        assertThat(list.getMatchingPatterns("example.com")).containsExactly("example.{com,org}");
+        assertThat(list.getMatchingPatterns("a.example.com")).containsExactly("*.example.com");
+        assertThat(list.getFallbackCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFileWithFallback() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/pattern-list.xml");
+        PatternList list = config.getComponentAndInit("pattern-list2", PatternList.class, PatternList.class);
+
+        // the backreference cannot be compiled into the automaton
+        assertThat(list.getFallbackCount()).isEqualTo(1);
+        assertThat(list.matches("aaab")).isTrue();
+        assertThat(list.matches("bar12")).isTrue();
+        assertThat(list.matches("bar1")).isFalse();
+        BitSet expected = new BitSet();
+        expected.set(2);
+        assertThat(list.match("xx")).isEqualTo(expected);
+        assertThat(list.match("xy")).isEqualTo(new BitSet());
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidPattern() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/pattern-list.xml");
+        config.setProperty("pattern-list1.list.string", "regex:(unclosed");
+        config.getComponentAndInit("pattern-list1", PatternList.class, PatternList.class);
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidSyntax() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/pattern-list.xml");
+        config.setProperty("pattern-list1.list[@syntax]", "wildcard");
+        config.getComponentAndInit("pattern-list1", PatternList.class, PatternList.class);
+    }
+
+    @Test
+    public void testGlobToRegex() {
+        assertThat(PatternList.globToRegex("*.txt")).isEqualTo("[\\s\\S]*\\.txt");
+        assertThat(PatternList.globToRegex("file?.{c,h}")).isEqualTo("file[\\s\\S]\\.(?:c|h)");
+        assertThat(PatternList.globToRegex("[!a-c]x[]]")).isEqualTo("[^a-c]x[\\]]");
+        assertThat(PatternList.globToRegex("\\*a,b")).isEqualTo("\\*a,b");
+
+        PatternList list = new PatternList();
+        list.setDefaultSyntax(PatternList.SYNTAX_GLOB);
+        list.addAll(Arrays.asList("[!a-c]x", "file?.{c,h}", "\\*"));
+        assertThat(list.matches("dx")).isTrue();
+        assertThat(list.matches("bx")).isFalse();
+        assertThat(list.matches("file1.h")).isTrue();
+        assertThat(list.matches("file\n.c")).isTrue();
+        assertThat(list.matches("*")).isTrue();
+        assertThat(list.matches("x")).isFalse();
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidGlob() {
+        new PatternList(Arrays.asList("glob:{a,{b}}"));
+    }
+
+    @Test
+    public void testDefaultSyntaxOnlyAffectsNewPatterns() {
+        PatternList list = new PatternList(Arrays.asList("a*"));
+        list.setDefaultSyntax(PatternList.SYNTAX_GLOB);
+        list.add("b*");
+        assertThat(list.matches("aaa")).isTrue();
+        assertThat(list.matches("abc")).isFalse();
+        assertThat(list.matches("bcd")).isTrue();
+    }
+
+    @Test
+    public void testRegexSyntax() {
+        List<String> patterns = Arrays.asList(
+                "\\d{3}-\\d{4}",
+                "[^\\s]+@[\\w.]+",
+                "(?:ab|cd)*e?",
+                "\\Q.*\\E",
+                "x{2,}",
+                "^anchored$",
+                "\\x41\\u0042\\x{43}\\0104\\t",
+                "[a-c&&b]",
+                "\\p{Lu}+",
+                "a++",
+                "caf\u00E9|\uD83D\uDE00.");
+        PatternList list = new PatternList(patterns);
+        // intersection, unicode property and possessive quantifier fall back
+        assertThat(list.getFallbackCount()).isEqualTo(3);
+
+        String[] inputs = {"555-1234", "55-1234", "me@example.com", "me @example.com", "", "abcde", "abce",
+                ".*", "..", "x", "xxxx", "anchored", "ABCD\t", "b", "ABC", "aaa", "caf\u00E9", "cafe",
+                "\uD83D\uDE00!", "\uD83D\uDE00\n"};
+        for (String input : inputs) {
+            assertThat(list.match(input)).isEqualTo(expected(patterns, input));
+        }
+    }
+
+    @Test
+    public void testSameResultsAsPattern() {
+        Random random = new Random(11);
+        String[] atoms = {"a", "b", ".", "[ab]", "[^a]", "\\w", "(a|b)", "(?:ab)", "c"};
+        String[] quantifiers = {"", "", "*", "+", "?", "{2}", "{1,3}", "*?"};
+        List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(4);
+            for (int j = 0; j < length; j++) {
+                sb.append(atoms[random.nextInt(atoms.length)]);
+                sb.append(quantifiers[random.nextInt(quantifiers.length)]);
+            }
+            if (random.nextInt(5) == 0) {
+                sb.append('|').append(atoms[random.nextInt(atoms.length)]);
+            }
+            patterns.add(sb.toString());
+        }
+        PatternList list = new PatternList(patterns);
+        assertThat(list.getFallbackCount()).isEqualTo(0);
+
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(7);
+            for (int j = 0; j < length; j++) {
+                input.append("abc\n".charAt(random.nextInt(4)));
+            }
+            String s = input.toString();
+            BitSet expected = expected(patterns, s);
+            assertThat(list.match(s)).isEqualTo(expected);
+            assertThat(list.matches(s)).isEqualTo(!expected.isEmpty());
+        }
+    }
+
+    private static BitSet expected(List<String> patterns, String input) {
+        BitSet expected = new BitSet();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (Pattern.compile(patterns.get(i)).matcher(input).matches()) {
+                expected.set(i);
+            }
+        }
+        return expected;
+    }
+}
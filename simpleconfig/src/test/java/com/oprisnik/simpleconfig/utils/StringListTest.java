@@ -18,15 +18,39 @@ package com.oprisnik.simpleconfig.utils;
 
 import com.oprisnik.simpleconfig.BadConfigException;
 import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Compression;
 import com.oprisnik.simpleconfig.Config;
+import com.oprisnik.simpleconfig.XmlConfig;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 public class StringListTest extends BaseComponentTest {
 
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
     @Test
     public void testStringList1() throws BadConfigException, IOException {
         Config config = getXmlConfig("/string-list.xml");
@@ -77,5 +101,420 @@ public class StringListTest extends BaseComponentTest {
         assertThat(list.checkPrefix("Hello World is not a prefix since the ! is missing")).isFalse();
     }
 
+    @Test
+    public void testCompressedFile() throws Exception {
+        for (Compression compression : new Compression[]{Compression.GZIP, Compression.LZ4}) {
+            File file = mTemporaryFolder.newFile("string-list-" + compression + ".txt");
+            OutputStream output = compression.wrap(new FileOutputStream(file));
+            try {
+                output.write("Hello World!\nAnother string\n".getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+
+            StringList list = new StringList(file);
+            assertThat(list.values()).containsExactly("Hello World!", "Another string");
+        }
+    }
+
+    @Test
+    public void testCheckContains() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        StringList list = config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+
+        assertThat(list.checkContains("Yes, Hello World! is in the list")).isTrue();
+        assertThat(list.checkContains("This is a Test")).isTrue();
+        assertThat(list.checkContains("Nothing to see here")).isFalse();
+        assertThat(list.getAllContainedStrings("Test: This is another string 123. Hello World!"))
+                .containsExactly("Test", "This is another string 123.", "Hello World!");
+
+        // the matcher is updated when the list is modified
+        list.add("here");
+        assertThat(list.checkContains("Nothing to see here")).isTrue();
+        assertThat(list.getAllContainedStrings("Nothing to see here")).containsExactly("here");
+    }
+
+    @Test
+    public void testCheckContainsEmptyList() {
+        StringList list = new StringList();
+        assertThat(list.checkContains("Anything")).isTrue();
+        assertThat(list.getAllContainedStrings("Anything")).isEmpty();
+    }
+
+    @Test
+    public void testCheckSuffix() {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList(".txt", "log", "\uD83D\uDE00"));
+
+        assertThat(list.checkSuffix("notes.txt")).isTrue();
+        assertThat(list.checkSuffix("notes.txt.bak")).isFalse();
+        assertThat(list.checkSuffix(new StringBuilder("catalog"))).isTrue();
+        assertThat(list.checkSuffix("smile \uD83D\uDE00")).isTrue();
+        assertThat(list.checkSuffix("\uDE00")).isFalse();
+        assertThat(list.checkSuffix("")).isFalse();
+        assertThat(new StringList().checkSuffix("Anything")).isTrue();
+    }
+
+    @Test
+    public void testCheckDomain() {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList("example.com", "ads.example.org", ".co.uk", "localhost"));
+
+        assertThat(list.checkDomain("example.com")).isTrue();
+        assertThat(list.checkDomain("www.example.com")).isTrue();
+        assertThat(list.checkDomain("www.example.com.")).isTrue();
+        assertThat(list.checkDomain("badexample.com")).isFalse();
+        assertThat(list.checkDomain("example.com.evil.net")).isFalse();
+        assertThat(list.checkDomain("example.org")).isFalse();
+        assertThat(list.checkDomain("x.ads.example.org")).isTrue();
+        assertThat(list.checkDomain("co.uk")).isFalse();
+        assertThat(list.checkDomain("bbc.co.uk")).isTrue();
+        assertThat(list.checkDomain("localhost")).isTrue();
+        assertThat(list.checkDomain("")).isFalse();
+        assertThat(list.checkDomain(".")).isFalse();
+        assertThat(list.getDomain("a.b.example.com")).isEqualTo("example.com");
+        assertThat(list.getDomain("www.bbc.co.uk")).isEqualTo(".co.uk");
+        assertThat(list.getDomain("example.net")).isNull();
+
+        list.add("b.example.com");
+        assertThat(list.getDomain("a.b.example.com")).isEqualTo("b.example.com");
+        // an empty list accepts every host, but has no domain to return
+        assertThat(new StringList().checkDomain("Anything")).isTrue();
+        assertThat(new StringList().getDomain("Anything")).isNull();
+    }
+
+    @Test
+    public void testCheckDomainCaseInsensitive() {
+        StringList list = new StringList();
+        list.setCaseInsensitive(true);
+        list.addAll(Arrays.asList("Example.COM"));
+
+        assertThat(list.checkDomain("WWW.example.com")).isTrue();
+        assertThat(list.checkSuffix("MyExample.Com")).isTrue();
+        assertThat(list.getDomain("www.EXAMPLE.com")).isEqualTo("example.com");
+    }
+
+    @Test
+    public void testLongestPrefix() {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList("/", "/api", "/api/v1", "/static"));
+
+        assertThat(list.longestPrefix("/api/v2/users")).isEqualTo("/api");
+        assertThat(list.longestPrefix("/api/v1/users")).isEqualTo("/api/v1");
+        assertThat(list.longestPrefix("/index.html")).isEqualTo("/");
+        assertThat(list.longestPrefix("index.html")).isNull();
+        assertThat(list.checkPrefix("/anything")).isTrue();
+        assertThat(list.checkPrefix("anything")).isFalse();
+        assertThat(list.checkPrefix("")).isFalse();
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        File file = mTemporaryFolder.newFile("list.txt");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write("gr\u00fc\u00dfe\n\u20ac\n".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", file.getAbsolutePath());
+        config.setProperty("string-list1.charset", "UTF-8");
+        StringList list = config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+        assertThat(list.values()).containsExactly("gr\u00fc\u00dfe", "\u20ac");
+
+        list = new StringList(file, Charset.forName("ISO-8859-1"));
+        assertThat(list.contains("gr\u00fc\u00dfe")).isFalse();
+        assertThat(list.values()).hasSize(2);
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidCharset() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.charset", "no-such-charset");
+        config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+    }
+
+    @Test
+    public void testStreamOnlyConfig() throws BadConfigException, IOException {
+        Config config = new XmlConfig() {
+            @Override
+            public InputStream getNestedInputStream(String key) throws BadConfigException {
+                return new ByteArrayInputStream("From stream\n".getBytes());
+            }
+
+            @Override
+            public File getNestedLocalFile(String key) {
+                return null;
+            }
+        };
+        config.setProperty(StringList.KEY_FILE, "list.txt");
+        StringList list = new StringList();
+        list.init(config);
+
+        assertThat(list.values()).containsExactly("From stream");
+    }
+
+    @Test
+    public void testMissingFileCreatesNoDirectories() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        File dir = new File(mTemporaryFolder.getRoot(), "missing");
+        config.setProperty("string-list1.file", new File(dir, "list.txt").getAbsolutePath());
+        try {
+            config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+            fail("missing file loaded");
+        } catch (BadConfigException e) {
+            // expected
+        }
+        assertThat(dir.exists()).isFalse();
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testBloomFilterRejected() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.bloom-filter", "0.01");
+        config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+    }
+
+    @Test
+    public void testPrepare() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        StringList lazy = config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+        assertThat(lazy.isPrepare()).isFalse();
+
+        config.setProperty("string-list1.prepare", "true");
+        StringList list = config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+        assertThat(list.isPrepare()).isTrue();
+        assertThat(list.checkPrefix("Hello World! and more")).isEqualTo(lazy.checkPrefix("Hello World! and more"));
+        assertThat(list.checkSuffix("say Hello World!")).isEqualTo(lazy.checkSuffix("say Hello World!"));
+    }
+
+    @Test
+    public void testFreeze() {
+        StringList list = new StringList();
+        list.add("first");
+        StringList frozen = list.freeze();
+        list.add("second");
+
+        assertThat(frozen.isFrozen()).isTrue();
+        assertThat(frozen.freeze()).isSameAs(frozen);
+        assertThat(frozen.values()).containsExactly("first");
+        assertThat(list.values()).containsExactly("first", "second");
+        try {
+            frozen.add("third");
+            fail("frozen list modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testAddInLoop() {
+        // each add used to copy the whole list, which took minutes for this many strings
+        StringList list = new StringList();
+        for (int i = 0; i < 200000; i++) {
+            list.add("entry-" + i);
+            if (i % 50000 == 0) {
+                assertThat(list.contains("entry-" + i)).isTrue();
+            }
+        }
+        assertThat(list.contains("entry-199999")).isTrue();
+        assertThat(list.values()).hasSize(200000);
+        list.add("entry-0");
+        assertThat(list.values()).hasSize(200000);
+    }
+
+    @Test
+    public void testValuesIsSnapshot() {
+        StringList list = new StringList();
+        list.add("first");
+        Collection<String> values = list.values();
+        list.addAll(Arrays.asList("second", "third"));
+        assertThat(values).containsExactly("first");
+    }
+
+    @Test
+    public void testReloadWhileReading() throws Exception {
+        final List<String> first = new ArrayList<String>();
+        final List<String> second = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            first.add("first-" + i);
+            second.add("second-" + i);
+        }
+        File firstFile = writeLines("first.txt", first);
+        File secondFile = writeLines("second.txt", second);
+
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list1.file", firstFile.getAbsolutePath());
+        final StringList list = config.getComponentAndInit("string-list1", StringList.class, StringList.class);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    // every snapshot contains exactly one of the files
+                    StringList snapshot = list.freeze();
+                    Collection<String> values = snapshot.values();
+                    if (!values.containsAll(first) && !values.containsAll(second) || values.size() != 500) {
+                        failure.set("inconsistent snapshot of size " + values.size());
+                    }
+                    if (snapshot.contains("first-1") == snapshot.contains("second-1")) {
+                        failure.set("inconsistent lookups during reload");
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 50; i++) {
+            config.setProperty("string-list1.file", (i % 2 == 0 ? secondFile : firstFile).getAbsolutePath());
+            list.init(config.getSubconfig("string-list1"));
+        }
+        done.set(true);
+        reader.join();
+
+        assertThat(failure.get()).isNull();
+        assertThat(list.values()).containsExactlyElementsIn(first);
+    }
+
+    @Test
+    public void testBatch() {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList("ab", "bca", "c", "aaa"));
+        Random random = new Random(5);
+        List<String> batch = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            batch.add(i % 1000 == 0 ? null : randomString(random, random.nextInt(8)));
+        }
+
+        BitSet contains = list.containsAll(batch);
+        BitSet prefix = list.matchPrefixes(batch);
+        BitSet contained = list.matchContains(batch.toArray(new String[batch.size()]));
+        List<List<String>> all = list.matchAllContainedStrings(batch);
+        assertThat(list.contains(null)).isFalse();
+        assertThat(all).hasSize(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String s = batch.get(i);
+            if (s == null) {
+                assertThat(contains.get(i) || prefix.get(i) || contained.get(i)).isFalse();
+                assertThat(all.get(i)).isEmpty();
+            } else {
+                assertThat(contains.get(i)).isEqualTo(list.contains(s));
+                assertThat(prefix.get(i)).isEqualTo(list.checkPrefix(s));
+                assertThat(contained.get(i)).isEqualTo(list.checkContains(s));
+                assertThat(all.get(i)).containsExactlyElementsIn(list.getAllContainedStrings(s)).inOrder();
+            }
+        }
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void testCharSequenceAndUtf8Overloads() throws Exception {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList("ab", "b\u00fcc", "\u20ac", "\ud83d\ude00", "c\ud83d\ude00a"));
+        String alphabet = "abc\u00fc\u20ac\ud83d\ude00";
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                int index = random.nextInt(alphabet.length() - 1);
+                sb.append(alphabet, index, Character.isHighSurrogate(alphabet.charAt(index)) ? index + 2 : index + 1);
+            }
+            String s = sb.toString();
+            byte[] utf8 = ("xy" + s + "z").getBytes("UTF-8");
+            int length = utf8.length - 3;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(utf8.length);
+            buffer.put(utf8).position(1);
+
+            assertThat(list.contains(sb)).isEqualTo(list.contains(s));
+            assertThat(list.contains(utf8, 2, length)).isEqualTo(list.contains(s));
+            assertThat(list.contains(buffer, 2, length)).isEqualTo(list.contains(s));
+            assertThat(list.checkPrefix(sb)).isEqualTo(list.checkPrefix(s));
+            assertThat(list.checkPrefix(utf8, 2, length)).isEqualTo(list.checkPrefix(s));
+            assertThat(list.checkPrefix(buffer, 2, length)).isEqualTo(list.checkPrefix(s));
+            assertThat(list.checkContains(sb)).isEqualTo(list.checkContains(s));
+            assertThat(list.checkContains(utf8, 2, length)).isEqualTo(list.checkContains(s));
+            assertThat(list.checkContains(buffer, 2, length)).isEqualTo(list.checkContains(s));
+            assertThat(buffer.position()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testMalformedUtf8NeverMatches() {
+        StringList list = new StringList();
+        list.addAll(Arrays.asList("a", "\ufffd"));
+        // truncated two byte sequence followed by 'a'
+        byte[] utf8 = {(byte) 0xC3, 'a'};
+        assertThat(list.contains(utf8, 0, 1)).isFalse();
+        assertThat(list.checkPrefix(utf8, 0, 2)).isFalse();
+        assertThat(list.checkContains(utf8, 0, 1)).isFalse();
+        assertThat(list.checkContains(utf8, 0, 2)).isTrue();
+    }
+
+    @Test
+    public void testCaseInsensitiveAndNormalized() throws Exception {
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list2.list[@case-insensitive]", "true");
+        config.setProperty("string-list2.list[@normalize]", "NFKC");
+        StringList list = config.getComponentAndInit("string-list2", StringList.class, StringList.class);
+
+        assertThat(list.isCaseInsensitive()).isTrue();
+        assertThat(list.getNormalization()).isEqualTo(Normalizer.Form.NFKC);
+        assertThat(list.contains("HELLO world!")).isTrue();
+        assertThat(list.contains(new StringBuilder("it WORKS! :)"))).isTrue();
+        assertThat(list.checkPrefix("Hello World! How are you?")).isTrue();
+        assertThat(list.checkContains("He said: HELLO WORLD!")).isTrue();
+        assertThat(list.checkContains("Hello Word!")).isFalse();
+        // full width characters are normalized
+        assertThat(list.checkContains("\uFF28\uFF45\uFF4C\uFF4C\uFF4F World!")).isTrue();
+        byte[] utf8 = "x hello WORLD!".getBytes("UTF-8");
+        assertThat(list.checkContains(utf8, 0, utf8.length)).isTrue();
+        assertThat(list.checkContains(ByteBuffer.wrap(utf8), 0, utf8.length - 1)).isFalse();
+        assertThat(list.getAllContainedStrings("hello world! IT WORKS! :)"))
+                .containsExactly("hello world!", "it works! :)");
+
+        StringList other = new StringList();
+        other.setNormalization(Normalizer.Form.NFC);
+        other.add("u\u0308ber");
+        assertThat(other.contains("\u00FCber")).isTrue();
+        assertThat(other.contains("\u00DCber")).isFalse();
+        utf8 = "\u00FCber".getBytes("UTF-8");
+        assertThat(other.contains(utf8, 0, utf8.length)).isTrue();
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testInvalidNormalization() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-list.xml");
+        config.setProperty("string-list2.list[@normalize]", "NFX");
+        config.getComponentAndInit("string-list2", StringList.class, StringList.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFoldingOfNonEmptyList() {
+        StringList list = new StringList();
+        list.add("test");
+        list.setCaseInsensitive(true);
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    private File writeLines(String name, List<String> lines) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            for (String line : lines) {
+                output.write((line + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
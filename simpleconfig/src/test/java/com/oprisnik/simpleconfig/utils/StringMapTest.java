@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import com.oprisnik.simpleconfig.BadConfigException;
+import com.oprisnik.simpleconfig.BaseComponentTest;
+import com.oprisnik.simpleconfig.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class StringMapTest extends BaseComponentTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testInlineMap() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-map.xml");
+        StringMap map = config.getComponentAndInit("string-map1", StringMap.class, StringMap.class);
+
+        assertThat(map.size()).isEqualTo(3);
+        assertThat(map.get("at")).isEqualTo("Austria");
+        assertThat(map.get(new StringBuilder("de"))).isEqualTo("Germany");
+        assertThat(map.get("empty")).isEqualTo("");
+        assertThat(map.get("ch")).isNull();
+        assertThat(map.getOrDefault("ch", "unknown")).isEqualTo("unknown");
+        assertThat(map.containsKey("at")).isTrue();
+    }
+
+    @Test
+    public void testFile() throws BadConfigException, IOException {
+        Config config = getXmlConfig("/string-map.xml");
+        StringMap map = config.getComponentAndInit("string-map2", StringMap.class, StringMap.class);
+
+        assertThat(map.size()).isEqualTo(3);
+        assertThat(map.get("a")).isEqualTo("last wins");
+        assertThat(map.get("b")).isEqualTo("two words");
+        assertThat(map.get("c")).isEqualTo("");
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "last wins");
+        expected.put("b", "two words");
+        expected.put("c", "");
+        assertThat(map.toMap()).isEqualTo(expected);
+    }
+
+    @Test(expected = BadConfigException.class)
+    public void testMissingTab() throws Exception {
+        File file = write("map.tsv", "no tab\n");
+        Config config = getXmlConfig("/string-map.xml");
+        config.setProperty("string-map2.file", file.getAbsolutePath());
+        config.getComponentAndInit("string-map2", StringMap.class, StringMap.class);
+    }
+
+    @Test
+    public void testSameResultsAsHashMap() throws Exception {
+        Random random = new Random(9);
+        Map<String, String> expected = new HashMap<String, String>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String key = randomString(random, 1 + random.nextInt(5));
+            String value = randomString(random, random.nextInt(8));
+            expected.put(key, value);
+            content.append(key).append('\t').append(value).append('\n');
+        }
+        File file = write("map.tsv", content.toString());
+        StringMap map = new StringMap(file, Charset.forName("UTF-8"));
+        StringMap mapped = new MappedStringMap(file, Charset.forName("UTF-8"));
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(mapped.size()).isEqualTo(expected.size());
+        assertThat(mapped.toMap()).isEqualTo(expected);
+        for (int i = 0; i < 5000; i++) {
+            String key = randomString(random, 1 + random.nextInt(5));
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+            assertThat(mapped.get(key)).isEqualTo(expected.get(key));
+        }
+    }
+
+    @Test
+    public void testMappedIndexIsReusedAndRebuilt() throws Exception {
+        File file = write("map.tsv", "\u00FCber\t\u20AC\n\uD83D\uDE00\tsmile\n");
+        File index = new File(file.getPath() + MappedStringMap.INDEX_SUFFIX);
+
+        MappedStringMap map = new MappedStringMap(file, Charset.forName("UTF-8"));
+        assertThat(map.get("\u00FCber")).isEqualTo("\u20AC");
+        assertThat(map.get("\uD83D\uDE00")).isEqualTo("smile");
+        assertThat(map.get("uber")).isNull();
+        // an unpaired surrogate never matches
+        assertThat(map.get("\ud83d")).isNull();
+
+        index.setLastModified(1000);
+        new MappedStringMap(file, Charset.forName("UTF-8"));
+        assertThat(index.lastModified()).isEqualTo(1000L);
+
+        // rebuilt for another charset
+        map = new MappedStringMap(file, Charset.forName("ISO-8859-1"));
+        assertThat(index.lastModified()).isNotEqualTo(1000L);
+        assertThat(map.get("\u00FCber")).isNull();
+    }
+
+    @Test
+    public void testPutAll() {
+        StringMap map = new StringMap();
+        map.put("a", "1");
+        Map<String, String> more = new HashMap<String, String>();
+        more.put("a", "2");
+        more.put("b", "3");
+        map.putAll(more);
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("a")).isEqualTo("2");
+        assertThat(map.get("b")).isEqualTo("3");
+    }
+
+    @Test(timeout = 20000)
+    public void testPutInLoop() {
+        // each put used to decode and rebuild the whole table
+        StringMap map = new StringMap();
+        for (int i = 0; i < 200000; i++) {
+            map.put("key-" + i, "value-" + i);
+            if (i % 50000 == 0) {
+                assertThat(map.get("key-" + i)).isEqualTo("value-" + i);
+            }
+        }
+        assertThat(map.size()).isEqualTo(200000);
+        assertThat(map.get("key-199999")).isEqualTo("value-199999");
+        map.put("key-0", "changed");
+        assertThat(map.size()).isEqualTo(200000);
+        assertThat(map.get("key-0")).isEqualTo("changed");
+    }
+
+    @Test
+    public void testBuilder() {
+        Map<String, String> more = new HashMap<String, String>();
+        more.put("b", "3");
+        StringMap map = new StringMap.Builder().put("a", "1").put("a", "2").putAll(more).build();
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("a")).isEqualTo("2");
+        assertThat(map.get("b")).isEqualTo("3");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMappedIsReadOnly() {
+        new MappedStringMap().put("a", "b");
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append("ab\u00E4\u20AC".charAt(random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
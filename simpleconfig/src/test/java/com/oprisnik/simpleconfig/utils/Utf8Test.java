@@ -0,0 +1,60 @@
+
+/*
+ * Copyright 2015 Alexander Oprisnik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oprisnik.simpleconfig.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class Utf8Test {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testValidCodePoints() {
+        int[] codePoints = {0, 'a', 0x7F, 0x80, 0x7FF, 0x800, 0xD7FF, 0xE000, 0xFFFF, 0x10000, 0x1F600, 0x10FFFF};
+        for (int codePoint : codePoints) {
+            byte[] utf8 = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+            long decoded = Utf8.decode(utf8, 0, utf8.length);
+            assertThat(Utf8.codePoint(decoded)).isEqualTo(codePoint);
+            assertThat(Utf8.length(decoded)).isEqualTo(utf8.length);
+            assertThat(Utf8.decode(ByteBuffer.wrap(utf8), 0, utf8.length)).isEqualTo(decoded);
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[][] malformed = {
+                {(byte) 0x80},                                     // continuation byte
+                {(byte) 0xC0, (byte) 0x80},                        // overlong
+                {(byte) 0xE0, (byte) 0x80, (byte) 0x80},           // overlong
+                {(byte) 0xED, (byte) 0xA0, (byte) 0x80},           // surrogate
+                {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, // above U+10FFFF
+                {(byte) 0xE2, (byte) 0x82},                        // truncated
+                {(byte) 0xFF},
+        };
+        for (byte[] utf8 : malformed) {
+            long decoded = Utf8.decode(utf8, 0, utf8.length);
+            assertThat(Utf8.codePoint(decoded)).isEqualTo(Utf8.MALFORMED);
+            assertThat(Utf8.length(decoded)).isEqualTo(1);
+        }
+    }
+}